@@ -1,13 +1,11 @@
 package com.mhduiy.androidtoolsserver;
 
-import com.mhduiy.androidtoolsserver.monitor.CPUMonitor;
-import com.mhduiy.androidtoolsserver.monitor.FrontendAppMonitor;
-import com.mhduiy.androidtoolsserver.monitor.GPUMonitor;
-import com.mhduiy.androidtoolsserver.monitor.MemoryMonitor;
 import com.mhduiy.androidtoolsserver.monitor.SystemMonitor;
 import com.mhduiy.androidtoolsserver.util.Logger;
+import com.mhduiy.androidtoolsserver.http.JsonPlans;
 import com.mhduiy.androidtoolsserver.util.JsonBuilder;
 import com.mhduiy.androidtoolsserver.util.ContextManager;
+import com.mhduiy.androidtoolsserver.util.ShellExecutor;
 import com.mhduiy.androidtoolsserver.http.HttpServer;
 
 import android.content.Context;
@@ -60,26 +58,7 @@ public class SystemInfoServer {
      */
     public String getCurrentAppInfoJson() {
         try {
-            FrontendAppMonitor.FrontendAppInfo currentAppInfo = systemMonitor.getFrontendAppInfo();
-
-            JsonBuilder json = new JsonBuilder();
-            json.add("packageName", currentAppInfo.packageName);
-            json.add("appName", currentAppInfo.appName);
-            json.add("activityName", currentAppInfo.activityName);
-            json.add("version", currentAppInfo.version);
-            json.add("versionCode", currentAppInfo.versionCode);
-            json.add("memoryUsageMB", currentAppInfo.memoryUsageMB);
-            json.add("cpuUsage", Math.round(currentAppInfo.cpuUsage * 100.0) / 100.0);
-            json.add("fps", currentAppInfo.fps);
-            json.add("pid", currentAppInfo.pid);
-            json.add("uid", currentAppInfo.uid);
-            json.add("isSystemApp", currentAppInfo.isSystemApp);
-            json.add("iconBase64", currentAppInfo.iconBase64);
-            json.add("installTime", currentAppInfo.installTime);
-            json.add("lastUpdateTime", currentAppInfo.lastUpdateTime);
-            json.add("timestamp", currentAppInfo.timestamp);
-
-            return json.build();
+            return JsonPlans.toJson(JsonPlans.FRONTEND_APP, systemMonitor.getFrontendAppInfo());
         } catch (Exception e) {
             Logger.e(TAG, "Error getting current app info JSON", e);
             return new JsonBuilder()
@@ -94,21 +73,7 @@ public class SystemInfoServer {
      */
     public String getCpuInfoJson() {
         try {
-            CPUMonitor.CpuInfo cpuInfo = systemMonitor.getCpuInfo();
-
-            JsonBuilder json = new JsonBuilder();
-            json.add("model", cpuInfo.model);
-            json.add("architecture", cpuInfo.architecture);
-            json.add("coreCount", cpuInfo.coreCount);
-            json.add("currentUsage", Math.round(cpuInfo.currentUsage * 100.0) / 100.0);
-            json.add("coreUsages", cpuInfo.coreUsages);
-            json.add("frequencies", cpuInfo.frequencies);
-            json.add("temperature", cpuInfo.temperature);
-            json.add("maxFrequency", cpuInfo.maxFrequency);
-            json.add("minFrequency", cpuInfo.minFrequency);
-            json.add("timestamp", System.currentTimeMillis());
-
-            return json.build();
+            return JsonPlans.toJson(JsonPlans.CPU, systemMonitor.getCpuInfo());
         } catch (Exception e) {
             Logger.e(TAG, "Error getting CPU info JSON", e);
             return new JsonBuilder()
@@ -123,21 +88,7 @@ public class SystemInfoServer {
      */
     public String getGpuInfoJson() {
         try {
-            GPUMonitor.GpuInfo gpuInfo = systemMonitor.getGpuInfo();
-
-            JsonBuilder json = new JsonBuilder();
-            json.add("name", gpuInfo.name);
-            json.add("vendor", gpuInfo.vendor);
-            json.add("renderer", gpuInfo.renderer);
-            json.add("version", gpuInfo.version);
-            json.add("currentFrequency", gpuInfo.currentFrequency);
-            json.add("maxFrequency", gpuInfo.maxFrequency);
-            json.add("minFrequency", gpuInfo.minFrequency);
-            json.add("usage", Math.round(gpuInfo.usage * 100.0) / 100.0);
-            json.add("temperature", gpuInfo.temperature);
-            json.add("timestamp", System.currentTimeMillis());
-
-            return json.build();
+            return JsonPlans.toJson(JsonPlans.GPU, systemMonitor.getGpuInfo());
         } catch (Exception e) {
             Logger.e(TAG, "Error getting GPU info JSON", e);
             return new JsonBuilder()
@@ -152,21 +103,7 @@ public class SystemInfoServer {
      */
     public String getMemoryInfoJson() {
         try {
-            MemoryMonitor.MemInfo memInfo = systemMonitor.getMemoryInfo();
-
-            JsonBuilder json = new JsonBuilder();
-            json.add("totalMemory", memInfo.totalMemory);
-            json.add("availableMemory", memInfo.availableMemory);
-            json.add("usedMemory", memInfo.usedMemory);
-            json.add("memoryUsageRatio", Math.round(memInfo.memoryUsageRatio * 10000.0) / 100.0);
-            json.add("threshold", memInfo.threshold);
-            json.add("lowMemory", memInfo.lowMemory);
-            json.add("totalStorage", memInfo.totalStorage);
-            json.add("availableStorage", memInfo.availableStorage);
-            json.add("usedStorage", memInfo.usedStorage);
-            json.add("timestamp", System.currentTimeMillis());
-
-            return json.build();
+            return JsonPlans.toJson(JsonPlans.MEMORY, systemMonitor.getMemoryInfo());
         } catch (Exception e) {
             Logger.e(TAG, "Error getting memory info JSON", e);
             return new JsonBuilder()
@@ -203,6 +140,7 @@ public class SystemInfoServer {
         try {
             Logger.i(TAG, "Starting SystemInfoServer...");
             httpServer.start();
+            systemMonitor.getMetricRecorder().start();
             Logger.i(TAG, "SystemInfoServer started on port " + port);
         } catch (Exception e) {
             Logger.e(TAG, "Failed to start SystemInfoServer", e);
@@ -216,6 +154,10 @@ public class SystemInfoServer {
             if (httpServer != null) {
                 httpServer.stop();
             }
+            if (systemMonitor != null) {
+                systemMonitor.getMetricRecorder().stop();
+            }
+            ShellExecutor.getInstance().close();
             Logger.i(TAG, "SystemInfoServer stopped");
         } catch (Exception e) {
             Logger.e(TAG, "Error stopping SystemInfoServer", e);
@@ -0,0 +1,89 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/1.1 分块传输编码输出流
+ * 写入的数据先进入内部缓冲区，缓冲区满或 flush 时作为一个块发出；
+ * close 时发送结束块，但不关闭底层的 socket 输出流
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean finished = false;
+
+    public ChunkedOutputStream(OutputStream out) {
+        this(out, 8192);
+    }
+
+    public ChunkedOutputStream(OutputStream out, int bufferSize) {
+        super(out);
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushChunk();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // 大块数据直接作为一个块写出，避免多余拷贝
+            flushChunk();
+            writeChunk(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushChunk();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushChunk();
+        out.flush();
+    }
+
+    /**
+     * 发送剩余数据和结束块
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        flushChunk();
+        out.write(LAST_CHUNK);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private void flushChunk() throws IOException {
+        if (count > 0) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return;
+        out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+}
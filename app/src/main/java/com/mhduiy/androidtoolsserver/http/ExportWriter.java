@@ -0,0 +1,146 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * /export 的流式写入器，每个数据点写成一条记录:
+ * trace 为 Chrome Trace Event Format 的计数器事件 (Perfetto UI / chrome://tracing 可直接打开)，
+ * {"displayTimeUnit":"ms","traceEvents":[{"name":"cpu.usage","ph":"C","ts":微秒,"pid":1,"args":{"value":12.5}},...]}；
+ * csv 为 timestamp,metric,value 每点一行。
+ * 记录写入复用的文本缓冲区，攒够一块即以分块传输编码发出，导出多少点内存占用都不变
+ */
+class ExportWriter {
+    static final String FORMAT_TRACE = "trace";
+    static final String FORMAT_CSV = "csv";
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+    // 所有计数器轨道挂在同一个进程下
+    private static final int TRACE_PID = 1;
+
+    private final OutputStream out;
+    private final ChunkedOutputStream body;
+    private final boolean trace;
+    private final long clockOffsetMs;
+    private final TextBuffer text = new TextBuffer(CHUNK_BYTES + 256);
+    private boolean firstEvent = true;
+    private long count = 0;
+
+    /**
+     * @param clockOffsetMs trace 时间戳 = (毫秒时间戳 - clockOffsetMs) * 1000，用于对齐设备启动时钟
+     */
+    ExportWriter(OutputStream out, String format, long clockOffsetMs) {
+        this.out = out;
+        this.body = new ChunkedOutputStream(out, CHUNK_BYTES);
+        this.trace = FORMAT_TRACE.equals(format);
+        this.clockOffsetMs = clockOffsetMs;
+    }
+
+    static boolean isFormat(String format) {
+        return FORMAT_TRACE.equals(format) || FORMAT_CSV.equals(format);
+    }
+
+    /**
+     * 写出响应头和文档开头
+     * @param processName trace 中进程轨道的名称
+     * @param csvHeader 是否写 CSV 表头 (直接转发已有 CSV 文件时为 false)
+     */
+    void begin(String processName, String fileName, boolean csvHeader) throws IOException {
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: " + (trace ? "application/json" : "text/csv; charset=utf-8") + "\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "Content-Disposition: attachment; filename=\"" + fileName + (trace ? ".json" : ".csv") + "\"\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+
+        if (trace) {
+            text.ascii("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+            text.ascii("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":").number(TRACE_PID)
+                .ascii(",\"args\":{\"name\":");
+            jsonString(processName);
+            text.ascii("}}");
+            firstEvent = false;
+        } else if (csvHeader) {
+            text.ascii("timestamp,metric,value\n");
+        }
+    }
+
+    void point(String metric, long timestamp, double value) throws IOException {
+        if (trace) {
+            // JSON 没有 NaN/Inf
+            if (Double.isNaN(value) || Double.isInfinite(value)) return;
+            if (!firstEvent) {
+                text.writeByte(',');
+            }
+            firstEvent = false;
+            text.ascii("\n{\"name\":");
+            jsonString(metric);
+            text.ascii(",\"ph\":\"C\",\"ts\":").number((timestamp - clockOffsetMs) * 1000)
+                .ascii(",\"pid\":").number(TRACE_PID)
+                .ascii(",\"args\":{\"value\":").decimal(value).ascii("}}");
+        } else {
+            text.number(timestamp).writeByte(',').utf8(metric).writeByte(',').decimal(value).writeByte('\n');
+        }
+        count++;
+        if (text.length() >= CHUNK_BYTES) {
+            text.writeTo(body);
+            text.reset();
+        }
+    }
+
+    /**
+     * 原样转发已有的 CSV 内容 (如性能测试会话的数据文件)
+     */
+    void copy(InputStream in) throws IOException {
+        text.writeTo(body);
+        text.reset();
+        byte[] buffer = new byte[CHUNK_BYTES];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            body.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * 写出文档结尾和结束块
+     */
+    void finish() throws IOException {
+        if (trace) {
+            text.ascii("\n]}\n");
+        }
+        text.writeTo(body);
+        text.reset();
+        body.finish();
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    boolean isTrace() {
+        return trace;
+    }
+
+    /**
+     * 指标名来自序列定义或 CSV 表头，只需转义引号和反斜杠
+     */
+    private void jsonString(String value) {
+        text.writeByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                text.writeByte('\\');
+            }
+            if (c < 0x80) {
+                text.writeByte(c);
+            } else {
+                text.utf8(String.valueOf(c));
+            }
+        }
+        text.writeByte('"');
+    }
+}
@@ -1,19 +1,38 @@
 package com.mhduiy.androidtoolsserver.http;
 
+import com.mhduiy.androidtoolsserver.monitor.AdaptiveSampler;
+import com.mhduiy.androidtoolsserver.monitor.AlertEngine;
 import com.mhduiy.androidtoolsserver.monitor.AppMonitor;
-import com.mhduiy.androidtoolsserver.monitor.CPUMonitor;
+import com.mhduiy.androidtoolsserver.monitor.FlightRecorder;
+import com.mhduiy.androidtoolsserver.monitor.FrameMonitor;
 import com.mhduiy.androidtoolsserver.monitor.FrontendAppMonitor;
-import com.mhduiy.androidtoolsserver.monitor.GPUMonitor;
-import com.mhduiy.androidtoolsserver.monitor.MemoryMonitor;
+import com.mhduiy.androidtoolsserver.monitor.MetricArchive;
+import com.mhduiy.androidtoolsserver.monitor.MetricRecorder;
+import com.mhduiy.androidtoolsserver.monitor.PackageIndex;
+import com.mhduiy.androidtoolsserver.monitor.PowerMonitor;
+import com.mhduiy.androidtoolsserver.monitor.ProfileRecorder;
+import com.mhduiy.androidtoolsserver.monitor.SampleCache;
 import com.mhduiy.androidtoolsserver.monitor.SystemMonitor;
+import com.mhduiy.androidtoolsserver.monitor.TimeSeriesStore;
 import com.mhduiy.androidtoolsserver.util.Logger;
+import com.mhduiy.androidtoolsserver.util.IconCache;
+import com.mhduiy.androidtoolsserver.util.DocumentWriter;
 import com.mhduiy.androidtoolsserver.util.JsonBuilder;
+import com.mhduiy.androidtoolsserver.util.JsonPlan;
+import com.mhduiy.androidtoolsserver.util.ShellExecutor;
+
+import android.os.SystemClock;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
 /**
  * HTTP服务器，处理系统信息API请求
@@ -21,16 +40,37 @@ import java.util.concurrent.Executors;
 public class HttpServer {
     private static final String TAG = "HttpServer";
 
+    private static final int ICON_RENDER_THREADS = 4;
+    private static final int MAX_ICON_SIZE = 512;
+    private static final String MULTIPART_BOUNDARY = "ats-icon-boundary";
+    // Android 包名语法，写入响应头部前校验
+    private static final Pattern PACKAGE_NAME_PATTERN = Pattern.compile("[A-Za-z0-9_.]+");
+    // 每个 /stream 连接占用一个请求线程，限制并发数以免占满线程池
+    private static final int MAX_STREAMS = 4;
+    // /history 未指定分辨率时每个序列返回的目标点数
+    private static final int HISTORY_POINTS = 1000;
+    private static final double[] DEFAULT_QUANTILES = {0.5, 0.9, 0.95, 0.99};
+
     private final int port;
     private final SystemMonitor systemMonitor;
     private ServerSocket serverSocket;
     private ExecutorService executor;
+    private final ExecutorService iconExecutor;
+    private final ResponseCache responseCache = new ResponseCache();
+    private final Set<MetricStream> streams = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final MetricsExporter metricsExporter;
     private volatile boolean running = false;
 
     public HttpServer(int port, SystemMonitor systemMonitor) {
         this.port = port;
         this.systemMonitor = systemMonitor;
+        this.metricsExporter = new MetricsExporter(systemMonitor);
         this.executor = Executors.newFixedThreadPool(10);
+        this.iconExecutor = Executors.newFixedThreadPool(ICON_RENDER_THREADS, r -> {
+            Thread thread = new Thread(r, "IconRenderer");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void start() throws IOException {
@@ -52,6 +92,10 @@ public class HttpServer {
             if (executor != null) {
                 executor.shutdown();
             }
+            iconExecutor.shutdownNow();
+            for (MetricStream stream : streams) {
+                stream.stop();
+            }
         } catch (IOException e) {
             Logger.e(TAG, "Error stopping HTTP server", e);
         }
@@ -73,7 +117,8 @@ public class HttpServer {
     private void handleClient(Socket clientSocket) {
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true);
+            OutputStream out = clientSocket.getOutputStream();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true);
 
             // 读取HTTP请求行
             String requestLine = reader.readLine();
@@ -81,10 +126,14 @@ public class HttpServer {
 
             Logger.d(TAG, "Request: " + requestLine);
 
-            // 跳过HTTP头部
+            // 读取HTTP头部，名称统一转为小写
+            Map<String, String> headers = new HashMap<>();
             String line;
             while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                // 读取并忽略HTTP头部
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                }
             }
 
             // 解析请求
@@ -94,7 +143,7 @@ public class HttpServer {
                 String path = requestParts[1];
 
                 if ("GET".equals(method)) {
-                    handleGetRequest(writer, path);
+                    handleGetRequest(writer, out, path, headers);
                 } else {
                     sendErrorResponse(writer, 405, "Method Not Allowed");
                 }
@@ -113,9 +162,11 @@ public class HttpServer {
         }
     }
 
-    private void handleGetRequest(PrintWriter writer, String path) {
-        String response;
+    private void handleGetRequest(PrintWriter writer, OutputStream out, String path, Map<String, String> headers) {
+        String response = null;
         String contentType = "application/json";
+        // 已迁移的路由直接写入文档写入器 (JSON 或 CBOR)，不再生成中间字符串
+        DocumentWriter document = null;
 
         try {
             // 解析URL参数
@@ -137,138 +188,168 @@ public class HttpServer {
                 }
             }
 
+            // fields=a,b 只输出指定字段 (记录对象的顶层字段)，compact=true 使用短字段名 (见 /schema)
+            Set<String> fields = getFieldsParam(params);
+            boolean compact = "true".equals(params.get("compact"));
+            // 响应编码: format=cbor 或 Accept: application/cbor，默认JSON
+            String format = negotiateFormat(params, headers);
+
             switch (basePath) {
                 case "/":
                 case "/status":
-                    response = new JsonBuilder()
-                        .add("status", "running")
-                        .add("service", "AndroidToolsServer")
-                        .add("version", "1.0.0")
-                        .add("timestamp", System.currentTimeMillis())
-                        .build();
+                    document = obtainDocument(format, fields, compact);
+                    document.beginObject()
+                        .field("status", "running")
+                        .field("service", "AndroidToolsServer")
+                        .field("version", "1.0.0")
+                        .field("timestamp", System.currentTimeMillis())
+                        .endObject();
                     break;
 
                 case "/cpu":
-                    CPUMonitor.CpuInfo cpuInfo = systemMonitor.getCpuInfo();
-                    JsonBuilder cpuJson = new JsonBuilder();
-                    cpuJson.add("model", cpuInfo.model);
-                    cpuJson.add("architecture", cpuInfo.architecture);
-                    cpuJson.add("coreCount", cpuInfo.coreCount);
-                    cpuJson.add("currentUsage", Math.round(cpuInfo.currentUsage * 100.0) / 100.0);
-
-                    // 添加各个核心的详细信息作为JSON对象数组
-                    StringBuilder coresJson = new StringBuilder();
-                    coresJson.append("[");
-                    for (int i = 0; i < cpuInfo.cores.size(); i++) {
-                        CPUMonitor.CpuCoreInfo core = cpuInfo.cores.get(i);
-                        if (i > 0) coresJson.append(",");
-                        coresJson.append("{")
-                                .append("\"coreId\":").append(core.coreId).append(",")
-                                .append("\"usage\":").append(Math.round(core.usage * 100.0) / 100.0).append(",")
-                                .append("\"frequency\":").append(core.frequency)
-                                .append("}");
-                    }
-                    coresJson.append("]");
-
-                    cpuJson.add("cores", coresJson.toString(), false); // 使用原始JSON字符串
-                    cpuJson.add("temperature", cpuInfo.temperature);
-                    cpuJson.add("maxFrequency", cpuInfo.maxFrequency);
-                    cpuJson.add("minFrequency", cpuInfo.minFrequency);
-                    cpuJson.add("timestamp", System.currentTimeMillis());
-                    response = cpuJson.build();
-                    break;
+                    // 只采集被请求字段需要的部分，例如未请求 temperature 时不遍历 thermal_zone
+                    sendCached(out, format, path, headers, systemMonitor.getCpuSample(JsonPlans.CPU.requiredParts(fields)),
+                        projected(JsonPlans.CPU, JsonPlan.ALL_FIELDS, fields, compact));
+                    return;
 
                 case "/memory":
-                    MemoryMonitor.MemInfo memInfo = systemMonitor.getMemoryInfo();
-                    JsonBuilder memJson = new JsonBuilder();
-                    memJson.add("totalMemory", memInfo.totalMemory);
-                    memJson.add("availableMemory", memInfo.availableMemory);
-                    memJson.add("usedMemory", memInfo.usedMemory);
-                    memJson.add("memoryUsageRatio", Math.round(memInfo.memoryUsageRatio * 10000.0) / 100.0);
-                    memJson.add("threshold", memInfo.threshold);
-                    memJson.add("lowMemory", memInfo.lowMemory);
-                    memJson.add("totalStorage", memInfo.totalStorage);
-                    memJson.add("availableStorage", memInfo.availableStorage);
-                    memJson.add("usedStorage", memInfo.usedStorage);
-                    memJson.add("timestamp", System.currentTimeMillis());
-                    response = memJson.build();
-                    break;
+                    sendCached(out, format, path, headers, systemMonitor.getMemorySample(),
+                        projected(JsonPlans.MEMORY, JsonPlan.ALL_FIELDS, fields, compact));
+                    return;
 
                 case "/gpu":
-                    GPUMonitor.GpuInfo gpuInfo = systemMonitor.getGpuInfo();
-                    JsonBuilder gpuJson = new JsonBuilder();
-                    gpuJson.add("name", gpuInfo.name);
-                    gpuJson.add("vendor", gpuInfo.vendor);
-                    gpuJson.add("renderer", gpuInfo.renderer);
-                    gpuJson.add("version", gpuInfo.version);
-                    gpuJson.add("currentFrequency", gpuInfo.currentFrequency);
-                    gpuJson.add("maxFrequency", gpuInfo.maxFrequency);
-                    gpuJson.add("minFrequency", gpuInfo.minFrequency);
-                    gpuJson.add("usage", Math.round(gpuInfo.usage * 100.0) / 100.0);
-                    gpuJson.add("temperature", gpuInfo.temperature);
-                    gpuJson.add("timestamp", System.currentTimeMillis());
-                    response = gpuJson.build();
-                    break;
+                    sendCached(out, format, path, headers, systemMonitor.getGpuSample(),
+                        projected(JsonPlans.GPU, JsonPlan.ALL_FIELDS, fields, compact));
+                    return;
 
                 case "/current-app":
                 case "/current":
-                    FrontendAppMonitor.FrontendAppInfo currentApp = systemMonitor.getFrontendAppInfo();
-                    JsonBuilder currentAppJson = new JsonBuilder();
-                    currentAppJson.add("packageName", currentApp.packageName);
-                    currentAppJson.add("appName", currentApp.appName);
-                    currentAppJson.add("activityName", currentApp.activityName);
-                    currentAppJson.add("version", currentApp.version);
-                    currentAppJson.add("versionCode", currentApp.versionCode);
-                    currentAppJson.add("memoryUsageMB", currentApp.memoryUsageMB);
-                    currentAppJson.add("cpuUsage", Math.round(currentApp.cpuUsage * 100.0) / 100.0);
-                    currentAppJson.add("fps", currentApp.fps);
-                    currentAppJson.add("pid", currentApp.pid);
-                    currentAppJson.add("uid", currentApp.uid);
-                    currentAppJson.add("isSystemApp", currentApp.isSystemApp);
-                    currentAppJson.add("iconBase64", currentApp.iconBase64);
-                    currentAppJson.add("installTime", currentApp.installTime);
-                    currentAppJson.add("lastUpdateTime", currentApp.lastUpdateTime);
-                    currentAppJson.add("timestamp", currentApp.timestamp);
-                    response = currentAppJson.build();
+                    // icon=false 或 fields 不含 iconBase64 时跳过图标加载和Base64编码
+                    int currentAppParts = JsonPlans.FRONTEND_APP.requiredParts(fields);
+                    long currentAppMask = JsonPlan.ALL_FIELDS;
+                    if ("false".equals(params.get("icon"))) {
+                        currentAppParts &= ~FrontendAppMonitor.PART_ICON;
+                        currentAppMask = JsonPlans.FRONTEND_APP_WITHOUT_ICON;
+                    }
+                    sendCached(out, format, path, headers, systemMonitor.getFrontendAppSample(currentAppParts),
+                        projected(JsonPlans.FRONTEND_APP, currentAppMask, fields, compact));
+                    return;
+
+                case "/fps":
+                case "/frames":
+                    FrameMonitor.FrameInfo frameInfo = systemMonitor.getFrameInfo(
+                        getIntParam(params, "window", FrameMonitor.DEFAULT_WINDOW_SECONDS));
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.FRAME.write(document, frameInfo);
+                    break;
+
+                case "/frames/histogram":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.writeFrameHistogram(document, systemMonitor.getFrameMonitor().getForegroundHistogram(),
+                        !"false".equals(params.get("buckets")));
+                    break;
+
+                case "/frames/session/start":
+                case "/frames/session/stop":
+                    String frameSessionName = params.get("name");
+                    if (frameSessionName == null || frameSessionName.isEmpty()) {
+                        sendErrorResponse(writer, 400, "Bad Request: Missing name parameter");
+                        return;
+                    }
+                    FrameMonitor.FrameSession frameSession = "/frames/session/start".equals(basePath)
+                        ? systemMonitor.getFrameMonitor().startSession(frameSessionName, params.get("package"))
+                        : systemMonitor.getFrameMonitor().stopSession(frameSessionName);
+                    if (frameSession == null) {
+                        if ("/frames/session/start".equals(basePath)) {
+                            sendErrorResponse(writer, 409, "Conflict: Frame session " + frameSessionName + " is already running");
+                        } else {
+                            sendErrorResponse(writer, 404, "Not Found: No frame session named " + frameSessionName);
+                        }
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.FRAME_SESSION.write(document, frameSession);
                     break;
 
                 case "/battery":
-                    response = JsonBuilder.fromObject(systemMonitor.getBatteryInfo());
+                    sendCached(out, format, path, headers, systemMonitor.getBatterySample(),
+                        projected(JsonPlans.BATTERY, JsonPlan.ALL_FIELDS, fields, compact));
+                    return;
+
+                case "/power":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.POWER.write(document, systemMonitor.getPowerMonitor().getInfo());
                     break;
 
-                case "/apps":
-                    List<AppMonitor.AppBaseInfo> allApps;
+                case "/power/start":
+                    PowerMonitor powerMonitor = systemMonitor.getPowerMonitor();
+                    powerMonitor.start(getIntParam(params, "rate", PowerMonitor.DEFAULT_RATE_HZ));
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.POWER.write(document, powerMonitor.getInfo());
+                    break;
 
-                    // 检查是否只需要用户应用
-                    if ("true".equals(params.get("isUser"))) {
-                        allApps = systemMonitor.getAllApps(true);
-                    } else {
-                        allApps = systemMonitor.getAllApps(false);
-                    }
+                case "/power/stop":
+                    systemMonitor.getPowerMonitor().stop();
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.POWER.write(document, systemMonitor.getPowerMonitor().getInfo());
+                    break;
 
-                    StringBuilder appsJson = new StringBuilder();
-                    appsJson.append("[");
+                case "/power/samples":
+                    List<PowerMonitor.PowerSample> samples =
+                        systemMonitor.getPowerMonitor().getRecentSamples(getIntParam(params, "count", 100));
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.POWER_SAMPLE.writeArray(document, samples);
+                    break;
 
-                    for (int i = 0; i < allApps.size(); i++) {
-                        AppMonitor.AppBaseInfo info = allApps.get(i);
-                        if (i > 0) appsJson.append(",");
+                case "/power/session/start":
+                case "/power/session/stop":
+                    String sessionName = params.get("name");
+                    if (sessionName == null || sessionName.isEmpty()) {
+                        sendErrorResponse(writer, 400, "Bad Request: Missing name parameter");
+                        return;
+                    }
+                    PowerMonitor.PowerSession session = "/power/session/start".equals(basePath)
+                        ? systemMonitor.getPowerMonitor().startSession(sessionName)
+                        : systemMonitor.getPowerMonitor().stopSession(sessionName);
+                    if (session == null) {
+                        if ("/power/session/start".equals(basePath)) {
+                            sendErrorResponse(writer, 409, "Conflict: Power session " + sessionName + " is already running");
+                        } else {
+                            sendErrorResponse(writer, 404, "Not Found: No power session named " + sessionName);
+                        }
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.POWER_SESSION.write(document, session);
+                    break;
 
-                        JsonBuilder appJson = new JsonBuilder();
-                        appJson.add("packageName", info.packageName);
-                        appJson.add("appName", info.appName);
-                        appJson.add("versionName", info.versionName);
-                        appJson.add("versionCode", info.versionCode);
-                        appJson.add("isSystemApp", info.isSystemApp);
-                        appJson.add("isEnabled", info.isEnabled);
-                        appJson.add("firstInstallTime", info.firstInstallTime);
-                        appJson.add("lastUpdateTime", info.lastUpdateTime);
+                case "/apps":
+                    if (params.containsKey("since")) {
+                        // 增量查询: 只返回该代数之后变化的应用和被删除的包名
+                        document = obtainDocument(format, fields, compact);
+                        writeAppChanges(document, systemMonitor.getAppChanges(getLongParam(params, "since", 0)));
+                        break;
+                    }
 
-                        appsJson.append(appJson.build());
+                    PackageIndex.Query appQuery = new PackageIndex.Query();
+                    appQuery.offset = getIntParam(params, "offset", 0);
+                    appQuery.limit = getIntParam(params, "limit", -1);
+                    appQuery.system = getBooleanParam(params, "system");
+                    appQuery.enabled = getBooleanParam(params, "enabled");
+                    // 兼容旧参数: isUser=true 等价于 system=false
+                    if ("true".equals(params.get("isUser"))) {
+                        appQuery.system = false;
+                    }
+                    if (params.containsKey("prefix")) {
+                        appQuery.prefix = URLDecoder.decode(params.get("prefix"), "UTF-8");
                     }
+                    if (params.containsKey("sort")) {
+                        appQuery.sort = params.get("sort");
+                    }
+                    appQuery.descending = "desc".equals(params.get("order"));
 
-                    appsJson.append("]");
-                    response = appsJson.toString();
-                    break;
+                    sendAppsStream(out, systemMonitor.queryApps(appQuery), format, fields, compact);
+                    return;
 
                 case "/appIcon":
                     String packageName = params.get("packageName");
@@ -276,17 +357,364 @@ public class HttpServer {
                         sendErrorResponse(writer, 400, "Bad Request: Missing packageName parameter");
                         return;
                     }
-                    String iconBase64 = AppMonitor.getIconBase64(packageName);
-                    JsonBuilder iconJson = new JsonBuilder();
-                    iconJson.add("packageName", packageName);
-                    iconJson.add("iconBase64", iconBase64);
-                    response = iconJson.build();
+                    String iconFormat = params.get("format");
+                    if (iconFormat != null) {
+                        // 指定format时直接返回图片字节
+                        if (!isIconFormat(iconFormat)) {
+                            sendErrorResponse(writer, 400, "Bad Request: format must be png or webp");
+                            return;
+                        }
+                        byte[] icon = IconCache.getInstance().getIcon(packageName, getIconSize(params), iconFormat);
+                        if (icon == null) {
+                            sendErrorResponse(writer, 404, "Not Found: No icon for " + packageName);
+                            return;
+                        }
+                        sendBinaryResponse(out, icon, "image/" + iconFormat);
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    document.beginObject().field("packageName", packageName);
+                    if (document.accepts("iconBase64")) {
+                        document.field("iconBase64", AppMonitor.getIconBase64(packageName));
+                    }
+                    document.endObject();
+                    break;
+
+                case "/appIcons":
+                    String packagesParam = params.get("packages");
+                    if (packagesParam == null || packagesParam.isEmpty()) {
+                        sendErrorResponse(writer, 400, "Bad Request: Missing packages parameter");
+                        return;
+                    }
+                    String bulkFormat = params.containsKey("format") ? params.get("format") : IconCache.FORMAT_PNG;
+                    if (!isIconFormat(bulkFormat)) {
+                        sendErrorResponse(writer, 400, "Bad Request: format must be png or webp");
+                        return;
+                    }
+                    // 包名会写入各部分的头部，只接受包名字符，防止注入头部或分隔符
+                    List<String> iconPackages = new ArrayList<>();
+                    for (String iconPackage : URLDecoder.decode(packagesParam, "UTF-8").split(",")) {
+                        iconPackage = iconPackage.trim();
+                        if (iconPackage.isEmpty() || iconPackages.contains(iconPackage)) continue;
+                        if (!PACKAGE_NAME_PATTERN.matcher(iconPackage).matches()) {
+                            sendErrorResponse(writer, 400, "Bad Request: Invalid package name");
+                            return;
+                        }
+                        iconPackages.add(iconPackage);
+                    }
+                    sendIconsMultipart(out, iconPackages, getIconSize(params), bulkFormat);
+                    return;
+
+                case "/stream":
+                    String metricsParam = params.containsKey("metrics")
+                        ? URLDecoder.decode(params.get("metrics"), "UTF-8") : MetricStream.DEFAULT_METRICS;
+                    MetricStream stream = new MetricStream(systemMonitor, metricsParam.split(","), fields,
+                        getIntParam(params, "interval", MetricStream.DEFAULT_INTERVAL_MS),
+                        !"false".equals(params.get("delta")),
+                        getIntParam(params, "keyframe", MetricStream.DEFAULT_KEYFRAME_INTERVAL),
+                        getLongParam(params, "duration", 0));
+                    if (stream.isEmpty()) {
+                        sendErrorResponse(writer, 400, "Bad Request: metrics must include cpu, gpu, memory, battery, current-app, frames or alerts");
+                        return;
+                    }
+                    // 计数检查和加入需要原子完成，否则并发请求可能同时通过检查
+                    boolean admitted;
+                    synchronized (streams) {
+                        admitted = streams.size() < MAX_STREAMS && streams.add(stream);
+                    }
+                    if (!admitted) {
+                        sendErrorResponse(writer, 503, "Service Unavailable: Too many streams");
+                        return;
+                    }
+                    try {
+                        stream.run(out, format, compact);
+                    } finally {
+                        streams.remove(stream);
+                    }
+                    return;
+
+                case "/metrics":
+                    // Prometheus 抓取时 Accept 带 application/openmetrics-text 则输出 OpenMetrics
+                    String accept = headers.get("accept");
+                    metricsExporter.export(out, accept != null && accept.contains("application/openmetrics-text"));
+                    return;
+
+                case "/history":
+                    TimeSeriesStore store = systemMonitor.getTimeSeriesStore();
+                    if (!params.containsKey("metric")) {
+                        document = obtainDocument(format, fields, compact);
+                        JsonPlans.SERIES.writeArray(document, store.getAllSeries());
+                        break;
+                    }
+                    List<TimeSeriesStore.Series> selected =
+                        selectSeries(store, URLDecoder.decode(params.get("metric"), "UTF-8"));
+                    if (selected == null) {
+                        sendErrorResponse(writer, 404, "Not Found: Unknown metric, see /history for the list");
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    long since = getTimeParam(params, "since", 0, now);
+                    long until = getTimeParam(params, "until", now, now);
+                    // resolution=毫秒 选择降采样层级，0 为原始点；未指定时按范围自动选择，每个序列约 HISTORY_POINTS 个点
+                    long resolution = getLongParam(params, "resolution", -1);
+                    List<TimeSeriesStore.Points> history = new ArrayList<>(selected.size());
+                    for (TimeSeriesStore.Series series : selected) {
+                        long seriesResolution = resolution >= 0 ? resolution
+                            : (until - Math.max(since, series.getOldestRetained())) / HISTORY_POINTS;
+                        history.add(series.query(since, until, seriesResolution));
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.writeHistory(document, history, since, until);
+                    break;
+
+                case "/history/quantiles":
+                    List<TimeSeriesStore.Series> sketched = params.containsKey("metric")
+                        ? selectSeries(systemMonitor.getTimeSeriesStore(), URLDecoder.decode(params.get("metric"), "UTF-8"))
+                        : null;
+                    if (sketched == null) {
+                        sendErrorResponse(writer, 404, "Not Found: Unknown metric, see /history for the list");
+                        return;
+                    }
+                    double[] quantiles = getQuantilesParam(params);
+                    if (quantiles == null) {
+                        sendErrorResponse(writer, 400, "Bad Request: q must be comma-separated values between 0 and 1");
+                        return;
+                    }
+                    long quantilesNow = System.currentTimeMillis();
+                    long quantilesSince = getTimeParam(params, "since", 0, quantilesNow);
+                    long quantilesUntil = getTimeParam(params, "until", quantilesNow, quantilesNow);
+                    List<TimeSeriesStore.Series> withSketch = new ArrayList<>();
+                    for (TimeSeriesStore.Series series : sketched) {
+                        if (series.hasSketch()) {
+                            withSketch.add(series);
+                        }
+                    }
+                    if (withSketch.isEmpty()) {
+                        sendErrorResponse(writer, 400, "Bad Request: No quantile sketch for these metrics");
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.writeQuantiles(document, withSketch, quantiles, quantilesSince, quantilesUntil);
+                    break;
+
+                case "/history/archive":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.ARCHIVE.write(document, systemMonitor.getMetricRecorder().getArchive().getStats());
+                    break;
+
+                case "/alerts":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.ALERT_RULE.writeArray(document, systemMonitor.getAlertEngine().getRules());
+                    break;
+
+                case "/alerts/add":
+                    // above=90 或 below=45 二选一；clear 为恢复阈值 (回差)，for 为条件需持续的毫秒数
+                    String alertMetric = params.containsKey("metric") ? URLDecoder.decode(params.get("metric"), "UTF-8") : null;
+                    if (alertMetric == null || systemMonitor.getTimeSeriesStore().getSeries(alertMetric) == null) {
+                        sendErrorResponse(writer, 404, "Not Found: Unknown metric, see /history for the list");
+                        return;
+                    }
+                    Double above = getDoubleParam(params, "above");
+                    Double below = getDoubleParam(params, "below");
+                    if ((above == null) == (below == null)) {
+                        sendErrorResponse(writer, 400, "Bad Request: Exactly one of above or below is required");
+                        return;
+                    }
+                    double threshold = above != null ? above : below;
+                    Double clear = getDoubleParam(params, "clear");
+                    if (clear != null && (above != null ? clear > threshold : clear < threshold)) {
+                        sendErrorResponse(writer, 400, "Bad Request: clear must be on the recovery side of the threshold");
+                        return;
+                    }
+                    AlertEngine.Rule rule = systemMonitor.getAlertEngine().addRule(
+                        params.containsKey("name") ? URLDecoder.decode(params.get("name"), "UTF-8") : null,
+                        alertMetric, above != null, threshold, clear != null ? clear : threshold,
+                        getLongParam(params, "for", 0));
+                    if (rule == null) {
+                        sendErrorResponse(writer, 503, "Service Unavailable: Too many alert rules");
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.ALERT_RULE.write(document, rule);
+                    break;
+
+                case "/alerts/remove":
+                    if (!systemMonitor.getAlertEngine().removeRule(getIntParam(params, "id", -1))) {
+                        sendErrorResponse(writer, 404, "Not Found: No alert rule with this id");
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.ALERT_RULE.writeArray(document, systemMonitor.getAlertEngine().getRules());
+                    break;
+
+                case "/alerts/events":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.ALERT_EVENT.writeArray(document,
+                        systemMonitor.getAlertEngine().getEvents(getLongParam(params, "since", 0)));
+                    break;
+
+                case "/flight":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.FLIGHT_RECORDER.write(document, systemMonitor.getFlightRecorder().getStats());
+                    break;
+
+                case "/flight/config":
+                    // rule=none 只手动触发，rule=any 任意告警规则触发，rule=<id> 指定规则触发
+                    FlightRecorder flightRecorder = systemMonitor.getFlightRecorder();
+                    FlightRecorder.Stats flightStats = flightRecorder.getStats();
+                    String triggerParam = params.get("rule");
+                    int triggerRule = "none".equals(triggerParam) ? FlightRecorder.TRIGGER_NONE
+                        : "any".equals(triggerParam) ? FlightRecorder.TRIGGER_ANY_RULE
+                        : getIntParam(params, "rule", flightStats.triggerRule);
+                    flightRecorder.configure(getLongParam(params, "pre", flightStats.preTriggerMs),
+                        getLongParam(params, "post", flightStats.postTriggerMs), triggerRule);
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.FLIGHT_RECORDER.write(document, flightRecorder.getStats());
+                    break;
+
+                case "/flight/trigger":
+                    String flightReason = params.containsKey("reason")
+                        ? URLDecoder.decode(params.get("reason"), "UTF-8") : "manual";
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.FLIGHT_CAPTURE.write(document,
+                        systemMonitor.getFlightRecorder().trigger(flightReason, System.currentTimeMillis()));
+                    break;
+
+                case "/flight/capture":
+                    FlightRecorder.Capture capture = systemMonitor.getFlightRecorder()
+                        .getCapture(getIntParam(params, "id", -1), true);
+                    if (capture == null) {
+                        sendErrorResponse(writer, 404, "Not Found: No capture with this id, see /flight");
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.writeCapture(document, capture);
+                    break;
+
+                case "/sampling":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.SAMPLER.writeArray(document, getSamplerStats(systemMonitor.getMetricRecorder().getSamplers()));
+                    break;
+
+                case "/sampling/config":
+                    // mode=adaptive|fixed 作用于所有采样源 (或 source 指定的一个)，floor/ceiling/change 未指定时保持不变
+                    MetricRecorder recorder = systemMonitor.getMetricRecorder();
+                    List<AdaptiveSampler> samplers = recorder.getSamplers();
+                    if (params.containsKey("source")) {
+                        AdaptiveSampler sampler = recorder.getSampler(params.get("source"));
+                        if (sampler == null) {
+                            sendErrorResponse(writer, 404, "Not Found: Unknown source, see /sampling");
+                            return;
+                        }
+                        samplers = Collections.singletonList(sampler);
+                    }
+                    String samplingMode = params.get("mode");
+                    if (samplingMode != null && !"adaptive".equals(samplingMode) && !"fixed".equals(samplingMode)) {
+                        sendErrorResponse(writer, 400, "Bad Request: mode must be adaptive or fixed");
+                        return;
+                    }
+                    Double change = getDoubleParam(params, "change");
+                    for (AdaptiveSampler sampler : samplers) {
+                        AdaptiveSampler.Stats current = sampler.getStats();
+                        sampler.configure(samplingMode != null ? "adaptive".equals(samplingMode) : current.adaptive,
+                            getLongParam(params, "floor", current.floorMs),
+                            getLongParam(params, "ceiling", current.ceilingMs),
+                            change != null ? change : current.changeThreshold);
+                    }
+                    Logger.i(TAG, "Sampling configured: " + params);
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.SAMPLER.writeArray(document, getSamplerStats(samplers));
+                    break;
+
+                case "/profile":
+                    ProfileRecorder profiles = systemMonitor.getProfileRecorder();
+                    if (!params.containsKey("name")) {
+                        document = obtainDocument(format, fields, compact);
+                        JsonPlans.PROFILE_REPORT.writeArray(document, profiles.getReports());
+                        break;
+                    }
+                    ProfileRecorder.Report profileReport = profiles.getReport(URLDecoder.decode(params.get("name"), "UTF-8"));
+                    if (profileReport == null) {
+                        sendErrorResponse(writer, 404, "Not Found: No profile session with this name");
+                        return;
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.PROFILE_REPORT.write(document, profileReport);
+                    break;
+
+                case "/profile/start":
+                case "/profile/stop":
+                    String profileName = params.containsKey("name") ? URLDecoder.decode(params.get("name"), "UTF-8") : null;
+                    if (profileName == null || profileName.isEmpty()) {
+                        sendErrorResponse(writer, 400, "Bad Request: Missing name parameter");
+                        return;
+                    }
+                    ProfileRecorder.Report profile;
+                    if ("/profile/start".equals(basePath)) {
+                        // 未指定 package 时测试当前前台应用
+                        String profilePackage = params.containsKey("package")
+                            ? URLDecoder.decode(params.get("package"), "UTF-8")
+                            : systemMonitor.getFrontendAppSample(0).value.packageName;
+                        if (profilePackage == null || profilePackage.isEmpty() || "Unknown".equals(profilePackage)) {
+                            sendErrorResponse(writer, 400, "Bad Request: Missing package parameter and no foreground app");
+                            return;
+                        }
+                        profile = systemMonitor.getProfileRecorder().startSession(profileName, profilePackage);
+                        if (profile == null) {
+                            sendErrorResponse(writer, 409, "Conflict: Profile session or its frame/power session is already running, or storage unavailable");
+                            return;
+                        }
+                    } else {
+                        profile = systemMonitor.getProfileRecorder().stopSession(profileName);
+                        if (profile == null) {
+                            sendErrorResponse(writer, 404, "Not Found: No profile session named " + profileName);
+                            return;
+                        }
+                    }
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.PROFILE_REPORT.write(document, profile);
+                    break;
+
+                case "/profile/data":
+                    File profileData = params.containsKey("name")
+                        ? systemMonitor.getProfileRecorder().getDataFile(URLDecoder.decode(params.get("name"), "UTF-8"))
+                        : null;
+                    if (profileData == null || !profileData.isFile()) {
+                        sendErrorResponse(writer, 404, "Not Found: No profile data with this name");
+                        return;
+                    }
+                    sendFileResponse(out, profileData, "text/csv; charset=utf-8");
+                    return;
+
+                case "/export":
+                    sendExport(writer, out, params);
+                    return;
+
+                case "/cache/stats":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.RESPONSE_CACHE.write(document, responseCache.getStats());
+                    break;
+
+                case "/shell/stats":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.SHELL.write(document, ShellExecutor.getInstance().getStats());
+                    break;
+
+                case "/appIcon/stats":
+                    document = obtainDocument(format, fields, compact);
+                    JsonPlans.ICON_CACHE.write(document, IconCache.getInstance().getStats());
+                    break;
+
+                case "/schema":
+                    document = DocumentWriter.obtain(format);
+                    JsonPlans.writeSchema(document);
                     break;
 
                 case "/system":
                 case "/summary":
                     Map<String, Object> summary = systemMonitor.getSystemSummary();
-                    response = JsonBuilder.fromMap(summary);
+                    document = obtainDocument(format, fields, compact);
+                    document.value((Object) summary);
                     break;
 
                 case "/api":
@@ -299,24 +727,539 @@ public class HttpServer {
                     return;
             }
 
-            sendSuccessResponse(writer, response, contentType);
+            if (document != null) {
+                sendDocumentResponse(out, document);
+            } else {
+                sendSuccessResponse(out, response, contentType);
+            }
 
         } catch (Exception e) {
             Logger.e(TAG, "Error processing request: " + path, e);
             sendErrorResponse(writer, 500, "Internal Server Error: " + e.getMessage());
+        } finally {
+            if (document != null) {
+                document.release();
+            }
         }
     }
 
-    private void sendSuccessResponse(PrintWriter writer, String content, String contentType) {
-        writer.println("HTTP/1.1 200 OK");
-        writer.println("Content-Type: " + contentType + "; charset=utf-8");
-        writer.println("Content-Length: " + content.getBytes().length);
-        writer.println("Access-Control-Allow-Origin: *");
-        writer.println("Access-Control-Allow-Methods: GET, POST, OPTIONS");
-        writer.println("Access-Control-Allow-Headers: Content-Type");
-        writer.println();
-        writer.println(content);
-        writer.flush();
+    private int getIntParam(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * fields 参数解析为字段名集合，未指定时返回 null
+     */
+    private Set<String> getFieldsParam(Map<String, String> params) throws UnsupportedEncodingException {
+        String value = params.get("fields");
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>();
+        for (String field : URLDecoder.decode(value, "UTF-8").split(",")) {
+            String trimmed = field.trim();
+            if (!trimmed.isEmpty()) {
+                fields.add(trimmed);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * format 参数为 json/cbor 时以其为准（/appIcon 的 format 是图片格式，不在此列），
+     * 否则看 Accept 头是否要求 application/cbor
+     */
+    private static String negotiateFormat(Map<String, String> params, Map<String, String> headers) {
+        String format = params.get("format");
+        if (DocumentWriter.isFormat(format)) {
+            return format;
+        }
+        String accept = headers.get("accept");
+        if (accept != null && accept.contains("application/cbor")) {
+            return DocumentWriter.FORMAT_CBOR;
+        }
+        return DocumentWriter.FORMAT_JSON;
+    }
+
+    private static DocumentWriter obtainDocument(String format, Set<String> fields, boolean compact) {
+        return DocumentWriter.obtain(format).setFieldFilter(fields).setCompact(compact);
+    }
+
+    /**
+     * 带字段过滤和紧凑模式的缓存响应体；查询参数是缓存键的一部分，不同投影各自缓存
+     */
+    private static <T> ResponseCache.BodyWriter<T> projected(JsonPlan<T> plan, long mask, Set<String> fields, boolean compact) {
+        return (writer, value) -> {
+            writer.setFieldFilter(fields).setCompact(compact);
+            plan.write(writer, value, mask);
+        };
+    }
+
+    private static boolean isIconFormat(String format) {
+        return IconCache.FORMAT_PNG.equals(format) || IconCache.FORMAT_WEBP.equals(format);
+    }
+
+    /**
+     * 图标边长参数，0表示原始尺寸
+     */
+    private int getIconSize(Map<String, String> params) {
+        return Math.max(0, Math.min(getIntParam(params, "size", 0), MAX_ICON_SIZE));
+    }
+
+    /**
+     * 以 multipart/mixed 分块流式返回多个应用图标
+     * 图标在线程池中并行渲染，哪个先完成就先写出哪个；取不到图标的包返回空的部分并带 X-Icon-Status: not-found
+     */
+    private void sendIconsMultipart(OutputStream out, List<String> packages, int size, String format) throws IOException {
+        CompletionService<Object[]> completion = new ExecutorCompletionService<>(iconExecutor);
+        for (String packageName : packages) {
+            completion.submit(() -> new Object[]{packageName, IconCache.getInstance().getIcon(packageName, size, format)});
+        }
+
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: multipart/mixed; boundary=" + MULTIPART_BOUNDARY + "\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+
+        ChunkedOutputStream body = new ChunkedOutputStream(out);
+        try {
+            for (int i = 0; i < packages.size(); i++) {
+                Object[] result;
+                try {
+                    result = completion.take().get();
+                } catch (Exception e) {
+                    Logger.w(TAG, "Icon render failed: " + e.getMessage());
+                    continue;
+                }
+                String packageName = (String) result[0];
+                byte[] icon = (byte[]) result[1];
+
+                StringBuilder part = new StringBuilder();
+                part.append("--").append(MULTIPART_BOUNDARY).append("\r\n");
+                part.append("Content-Type: ").append(icon != null ? "image/" + format : "application/octet-stream").append("\r\n");
+                part.append("Content-Disposition: inline; name=\"").append(packageName).append("\"\r\n");
+                part.append("X-Package-Name: ").append(packageName).append("\r\n");
+                if (icon == null) {
+                    part.append("X-Icon-Status: not-found\r\n");
+                }
+                part.append("Content-Length: ").append(icon != null ? icon.length : 0).append("\r\n\r\n");
+                body.write(part.toString().getBytes(StandardCharsets.UTF_8));
+                if (icon != null) {
+                    body.write(icon);
+                }
+                body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                // 每个图标写完立即发出，客户端可以边收边显示
+                body.flush();
+            }
+            body.write(("--" + MULTIPART_BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            body.finish();
+        }
+    }
+
+    /**
+     * 按逗号分隔的指标名选择序列，以 * 结尾的名称按前缀匹配 (如 cpu.core*)
+     * @return 有任一名称不匹配时返回 null
+     */
+    private List<TimeSeriesStore.Series> selectSeries(TimeSeriesStore store, String metrics) {
+        List<TimeSeriesStore.Series> selected = new ArrayList<>();
+        for (String metric : metrics.split(",")) {
+            metric = metric.trim();
+            if (metric.isEmpty()) continue;
+            int matched = 0;
+            if (metric.endsWith("*")) {
+                String prefix = metric.substring(0, metric.length() - 1);
+                for (TimeSeriesStore.Series series : store.getAllSeries()) {
+                    if (series.name.startsWith(prefix) && !selected.contains(series)) {
+                        selected.add(series);
+                        matched++;
+                    }
+                }
+            } else {
+                TimeSeriesStore.Series series = store.getSeries(metric);
+                if (series != null) {
+                    if (!selected.contains(series)) selected.add(series);
+                    matched++;
+                }
+            }
+            if (matched == 0) {
+                return null;
+            }
+        }
+        return selected.isEmpty() ? null : selected;
+    }
+
+    /**
+     * 时间参数 (毫秒)，负数表示相对当前时间，如 since=-60000 为最近一分钟
+     */
+    private long getTimeParam(Map<String, String> params, String name, long defaultValue, long now) {
+        long value = getLongParam(params, name, defaultValue);
+        return value < 0 ? now + value : value;
+    }
+
+    /**
+     * q=0.5,0.99 分位数列表，默认 p50/p90/p95/p99，有无效值时返回 null
+     */
+    private double[] getQuantilesParam(Map<String, String> params) throws UnsupportedEncodingException {
+        String value = params.get("q");
+        if (value == null || value.isEmpty()) {
+            return DEFAULT_QUANTILES;
+        }
+        String[] parts = URLDecoder.decode(value, "UTF-8").split(",");
+        double[] quantiles = new double[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                quantiles[i] = Double.parseDouble(parts[i].trim());
+                if (!(quantiles[i] >= 0 && quantiles[i] <= 1)) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return quantiles;
+    }
+
+    private long getLongParam(Map<String, String> params, String name, long defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static List<AdaptiveSampler.Stats> getSamplerStats(List<AdaptiveSampler> samplers) {
+        List<AdaptiveSampler.Stats> stats = new ArrayList<>(samplers.size());
+        for (AdaptiveSampler sampler : samplers) {
+            stats.add(sampler.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * 数值参数，未指定或无效时返回 null
+     */
+    private Double getDoubleParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            double parsed = Double.parseDouble(value);
+            return Double.isNaN(parsed) ? null : parsed;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 参数为 true/false 时返回对应值，否则返回 null 表示不过滤
+     */
+    private Boolean getBooleanParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if ("true".equals(value)) return Boolean.TRUE;
+        if ("false".equals(value)) return Boolean.FALSE;
+        return null;
+    }
+
+    /**
+     * 以分块传输流式输出应用列表 JSON 数组
+     * 每个应用等待自己的名称解析完成后立即写出，不必等整个列表就绪；
+     * 过滤后的总数和索引代数通过 X-Total-Count / X-Generation 头返回
+     */
+    private void sendAppsStream(OutputStream out, PackageIndex.QueryResult result, String format,
+                                Set<String> fields, boolean compact) throws IOException {
+        ChunkedOutputStream body = new ChunkedOutputStream(out);
+        DocumentWriter document = DocumentWriter.obtain(format, body).setFieldFilter(fields).setCompact(compact);
+
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: " + document.contentType() + "\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "X-Total-Count: " + result.total + "\r\n" +
+            "X-Generation: " + result.generation + "\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "Access-Control-Expose-Headers: X-Total-Count, X-Generation\r\n" +
+            "\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+
+        // 未请求 appName 时不等待名称解析
+        boolean needLabel = fields == null || fields.contains("appName");
+        try {
+            document.beginArray();
+            for (int i = 0; i < result.apps.size(); i++) {
+                AppMonitor.AppBaseInfo info = result.apps.get(i);
+                if (needLabel) {
+                    systemMonitor.ensureAppLabel(info);
+                }
+                JsonPlans.APP.write(document, info);
+                // 第一条立即发出以降低首字节时间，之后由缓冲区满时自动分块
+                if (i == 0) {
+                    document.flush();
+                }
+            }
+            document.endArray();
+            document.flush();
+        } finally {
+            document.release();
+            body.finish();
+        }
+    }
+
+    private void writeAppChanges(DocumentWriter document, PackageIndex.Changes changes) throws IOException {
+        document.beginObject();
+        document.field("generation", changes.generation);
+        document.field("full", changes.full);
+        document.name("apps");
+        JsonPlans.APP.writeArray(document, changes.apps);
+        document.name("removed").beginArray();
+        for (String packageName : changes.removed) {
+            document.value(packageName);
+        }
+        document.endArray();
+        document.field("timestamp", System.currentTimeMillis());
+        document.endObject();
+    }
+
+    private void sendSuccessResponse(OutputStream out, String content, String contentType) throws IOException {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        out.write(successHeaders(contentType + "; charset=utf-8", body.length));
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * 先写出头部，再把写入器中的字节段原样写到socket，不再拷贝或重新编码
+     */
+    private void sendDocumentResponse(OutputStream out, DocumentWriter document) throws IOException {
+        out.write(successHeaders(document.contentType(), document.size()));
+        document.writeTo(out);
+        out.flush();
+    }
+
+    private static byte[] successHeaders(String contentType, long contentLength) {
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: " + contentType + "\r\n" +
+            "Content-Length: " + contentLength + "\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n" +
+            "Access-Control-Allow-Headers: Content-Type\r\n" +
+            "\r\n";
+        return headers.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 从响应缓存发送；同一样本代数的请求共享已编码的完整响应，一次写出。
+     * If-None-Match 与 ETag 一致时返回 304
+     */
+    private <T> void sendCached(OutputStream out, String format, String path, Map<String, String> headers,
+                                SampleCache.Sample<T> sample, ResponseCache.BodyWriter<T> bodyWriter) throws IOException {
+        // 编码可能来自 Accept 头而不在路径中，缓存键需要包含编码
+        ResponseCache.Entry entry = responseCache.get(format + " " + path, sample, format, bodyWriter);
+        String ifNoneMatch = headers.get("if-none-match");
+        if (ifNoneMatch != null && ifNoneMatch.contains(entry.etag)) {
+            responseCache.recordNotModified();
+            out.write(entry.notModified);
+        } else {
+            out.write(entry.response);
+        }
+        out.flush();
+    }
+
+    private void sendBinaryResponse(OutputStream out, byte[] data, String contentType) throws IOException {
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: " + contentType + "\r\n" +
+            "Content-Length: " + data.length + "\r\n" +
+            "Cache-Control: max-age=3600\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+        out.write(data);
+        out.flush();
+    }
+
+    /**
+     * /export: 把历史、持久化记录、飞行记录器捕获或性能测试会话流式导出为 trace 或 CSV
+     * 逐个序列查询 (history)、逐块读取 (archive)、逐行读取 (profile)，数据不会整体进入内存
+     */
+    private void sendExport(PrintWriter writer, OutputStream out, Map<String, String> params) throws IOException {
+        String exportFormat = params.containsKey("format") ? params.get("format") : ExportWriter.FORMAT_TRACE;
+        if (!ExportWriter.isFormat(exportFormat)) {
+            sendErrorResponse(writer, 400, "Bad Request: format must be trace or csv");
+            return;
+        }
+        String source = params.containsKey("source") ? params.get("source") : "history";
+        // clock=boot 时 trace 时间戳换算为设备启动时钟 (与 Perfetto 采集的应用 trace 对齐)，默认为 Unix 时间
+        long clockOffset = "boot".equals(params.get("clock"))
+            ? System.currentTimeMillis() - SystemClock.elapsedRealtime() : 0;
+        ExportWriter export = new ExportWriter(out, exportFormat, clockOffset);
+
+        TimeSeriesStore store = systemMonitor.getTimeSeriesStore();
+        String metricParam = params.containsKey("metric") ? URLDecoder.decode(params.get("metric"), "UTF-8") : "*";
+        List<TimeSeriesStore.Series> selected = selectSeries(store, metricParam);
+        long now = System.currentTimeMillis();
+        long since = getTimeParam(params, "since", 0, now);
+        long until = getTimeParam(params, "until", now, now);
+        String fileName = "androidtools-" + source + "-" + now;
+
+        switch (source) {
+            case "history":
+                if (selected == null) {
+                    sendErrorResponse(writer, 404, "Not Found: Unknown metric, see /history for the list");
+                    return;
+                }
+                // resolution=毫秒 选择降采样层级，导出默认为原始点
+                long resolution = getLongParam(params, "resolution", 0);
+                export.begin("AndroidToolsServer history", fileName, true);
+                for (TimeSeriesStore.Series series : selected) {
+                    writeExportPoints(export, series.query(since, until, resolution));
+                }
+                break;
+
+            case "archive":
+                if (selected == null) {
+                    sendErrorResponse(writer, 404, "Not Found: Unknown metric, see /history for the list");
+                    return;
+                }
+                Set<String> names = new HashSet<>();
+                for (TimeSeriesStore.Series series : selected) {
+                    names.add(series.name);
+                }
+                export.begin("AndroidToolsServer archive", fileName, true);
+                try {
+                    systemMonitor.getMetricRecorder().getArchive().read(since, until, (metric, timestamp, value) -> {
+                        if (!names.contains(metric)) return;
+                        try {
+                            export.point(metric, timestamp, value);
+                        } catch (IOException e) {
+                            throw new ExportAbortedException(e);
+                        }
+                    });
+                } catch (ExportAbortedException e) {
+                    // 客户端断开，停止读取
+                    throw e.cause;
+                }
+                break;
+
+            case "flight":
+                FlightRecorder.Capture capture = systemMonitor.getFlightRecorder().getCapture(getIntParam(params, "id", -1), true);
+                if (capture == null || selected == null) {
+                    sendErrorResponse(writer, 404, "Not Found: No capture with this id, see /flight");
+                    return;
+                }
+                export.begin("AndroidToolsServer capture " + capture.id, fileName, true);
+                for (TimeSeriesStore.Points points : capture.series) {
+                    if (selected.contains(store.getSeries(points.metric))) {
+                        writeExportPoints(export, points);
+                    }
+                }
+                break;
+
+            case "profile":
+                String profileName = params.containsKey("name") ? URLDecoder.decode(params.get("name"), "UTF-8") : null;
+                File profileData = profileName != null ? systemMonitor.getProfileRecorder().getDataFile(profileName) : null;
+                if (profileData == null || !profileData.isFile()) {
+                    sendErrorResponse(writer, 404, "Not Found: No profile data with this name");
+                    return;
+                }
+                export.begin("AndroidToolsServer profile " + profileName, fileName, false);
+                try (InputStream in = new FileInputStream(profileData)) {
+                    if (export.isTrace()) {
+                        writeProfileTrace(export, in);
+                    } else {
+                        // 会话 CSV 已是每秒一行的宽表，原样转发
+                        export.copy(in);
+                    }
+                }
+                break;
+
+            default:
+                sendErrorResponse(writer, 400, "Bad Request: source must be history, archive, flight or profile");
+                return;
+        }
+        export.finish();
+        Logger.d(TAG, "Exported " + export.getCount() + " points from " + source);
+    }
+
+    private static void writeExportPoints(ExportWriter export, TimeSeriesStore.Points points) throws IOException {
+        for (int i = 0; i < points.size(); i++) {
+            export.point(points.metric, points.timestamps[i], points.values[i]);
+        }
+    }
+
+    /**
+     * 会话 CSV 逐行转为计数器事件，每列一条轨道，空值跳过
+     */
+    private static void writeProfileTrace(ExportWriter export, InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null) return;
+        String[] columns = header.split(",");
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] cells = line.split(",", -1);
+            if (cells.length != columns.length) continue;
+            try {
+                long timestamp = Long.parseLong(cells[0]);
+                for (int i = 1; i < cells.length; i++) {
+                    if (!cells[i].isEmpty()) {
+                        export.point(columns[i], timestamp, Double.parseDouble(cells[i]));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // 进程被杀时最后一行可能不完整
+            }
+        }
+    }
+
+    /**
+     * 在 MetricArchive.Visitor 回调中传递写出失败，结束读取
+     */
+    private static class ExportAbortedException extends RuntimeException {
+        final IOException cause;
+
+        ExportAbortedException(IOException cause) {
+            super(cause);
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * 分段读取文件写出，不把整个文件读入内存；文件仍在追加时只发送请求时已有的长度
+     */
+    private void sendFileResponse(OutputStream out, File file, String contentType) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            long remaining = file.length();
+            String headers = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + remaining + "\r\n" +
+                "Content-Disposition: attachment; filename=\"" + file.getName() + "\"\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                "Access-Control-Allow-Origin: *\r\n" +
+                "\r\n";
+            out.write(headers.getBytes(StandardCharsets.US_ASCII));
+            byte[] buffer = new byte[16 * 1024];
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) break;
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            out.flush();
+        }
     }
 
     private void sendErrorResponse(PrintWriter writer, int statusCode, String statusText) {
@@ -326,12 +1269,14 @@ public class HttpServer {
             .add("timestamp", System.currentTimeMillis())
             .build();
 
-        writer.println("HTTP/1.1 " + statusCode + " " + statusText);
-        writer.println("Content-Type: application/json; charset=utf-8");
-        writer.println("Content-Length: " + errorJson.getBytes().length);
-        writer.println("Access-Control-Allow-Origin: *");
-        writer.println();
-        writer.println(errorJson);
+        // 状态行只能包含ASCII，详细信息放在响应体中
+        String reason = statusText.split(":", 2)[0];
+        writer.print("HTTP/1.1 " + statusCode + " " + reason + "\r\n");
+        writer.print("Content-Type: application/json; charset=utf-8\r\n");
+        writer.print("Content-Length: " + errorJson.getBytes(StandardCharsets.UTF_8).length + "\r\n");
+        writer.print("Access-Control-Allow-Origin: *\r\n");
+        writer.print("\r\n");
+        writer.print(errorJson);
         writer.flush();
     }
 
@@ -352,6 +1297,50 @@ public class HttpServer {
                "<li><strong>GET /current-app</strong> - Current foreground app detailed information</li>" +
                "<li><strong>GET /current</strong> - Current foreground app detailed information (same as /current-app)</li>" +
                "<li><strong>GET /processes</strong> - 当前运行的所有进程信息</li>" +
+               "<li><strong>GET /fps?window=10</strong> - Foreground FPS, 1% low, 0.1% low and jank counts over a sliding window</li>" +
+               "<li><strong>GET /frames/histogram</strong> - Frame-time histogram of the foreground app since it came to front</li>" +
+               "<li><strong>GET /frames/session/start?name=xxx&amp;package=yyy</strong> - Start a frame-time histogram session; 409 while one with the same name is running, a finished one is replaced (the latest " + FrameMonitor.MAX_FINISHED_SESSIONS + " finished sessions are kept)</li>" +
+               "<li><strong>GET /frames/session/stop?name=xxx</strong> - Stop a frame session and return its histogram, jank and stutter</li>" +
+               "<li><strong>GET /power</strong> - Power sampler status and latest current/voltage/power sample</li>" +
+               "<li><strong>GET /power/start?rate=20</strong> - Start power sampling at 10-50 Hz</li>" +
+               "<li><strong>GET /power/stop</strong> - Stop power sampling</li>" +
+               "<li><strong>GET /power/samples?count=100</strong> - Recent power samples from the ring buffer</li>" +
+               "<li><strong>GET /power/session/start?name=xxx</strong> - Start a named energy (mWh) / charge (mAh) session; 409 while one with the same name is running, a finished one is replaced (the latest " + PowerMonitor.MAX_FINISHED_SESSIONS + " finished sessions are kept)</li>" +
+               "<li><strong>GET /power/session/stop?name=xxx</strong> - Stop a named session and return its totals</li>" +
+               "<li><strong>GET /current-app?icon=false</strong> - Current foreground app without loading the icon</li>" +
+               "<li><strong>GET /apps?isUser=true</strong> - Installed apps served from the package index</li>" +
+               "<li><strong>GET /apps?offset=0&amp;limit=50&amp;system=false&amp;enabled=true&amp;prefix=we&amp;sort=appName&amp;order=desc</strong> - Paged, filtered and sorted app list streamed with chunked encoding (X-Total-Count header)</li>" +
+               "<li><strong>GET /apps?since=0</strong> - Apps changed since a generation plus removed packages; pass back the returned generation</li>" +
+               "<li><strong>GET /appIcon?packageName=xxx</strong> - App icon as Base64 PNG in JSON</li>" +
+               "<li><strong>GET /appIcon?packageName=xxx&amp;format=webp&amp;size=48</strong> - Raw image/png or image/webp icon bytes scaled to size px</li>" +
+               "<li><strong>GET /appIcons?packages=a,b,c&amp;format=webp&amp;size=48</strong> - Many icons streamed as multipart/mixed, rendered in parallel</li>" +
+               "<li><strong>GET /appIcon/stats</strong> - Icon LRU cache statistics</li>" +
+               "<li><strong>GET /alerts/add?metric=cpu.temperature&amp;above=90&amp;clear=85&amp;for=2000&amp;name=hot</strong> - Register a threshold rule (above= or below=) evaluated on every recorded point, with hysteresis (clear=) and a duration condition (for= ms); firing/resolved events are pushed to /stream subscribers of alerts</li>" +
+               "<li><strong>GET /alerts</strong> - Alert rules with their state (ok/pending/firing); GET /alerts/remove?id=1 deletes one</li>" +
+               "<li><strong>GET /alerts/events?since=0</strong> - Alert events after the given event seq (last " + AlertEngine.EVENT_CAPACITY + " kept)</li>" +
+               "<li><strong>GET /sampling</strong> - Recorder sampling schedule per source (cpu, gpu, memory, battery): bounds, current interval and rate, samples taken versus the fixed schedule, measured cost per sample and the time saved</li>" +
+               "<li><strong>GET /sampling/config?mode=adaptive&amp;source=cpu&amp;floor=250&amp;ceiling=5000&amp;change=5</strong> - Switch between fixed and adaptive sampling; in adaptive mode the interval halves toward floor when the source's main metric moves by more than change or one of its alert rules is pending/firing, and grows toward ceiling while stable. Counters restart on every change</li>" +
+               "<li><strong>GET /flight</strong> - Flight recorder: fixed, preallocated full-rate ring of every recorded point (including per-frame times), its pre/post-trigger windows and the kept captures</li>" +
+               "<li><strong>GET /flight/config?pre=30000&amp;post=10000&amp;rule=any</strong> - Set the windows (max " + FlightRecorder.MAX_WINDOW_MS + " ms) and which alert rule triggers a capture (none, any or a rule id)</li>" +
+               "<li><strong>GET /flight/trigger?reason=jank</strong> - Freeze the pre-trigger window plus the upcoming post-trigger window into a capture</li>" +
+               "<li><strong>GET /flight/capture?id=1</strong> - Download a capture: raw points per metric in the /history column format</li>" +
+               "<li><strong>GET /profile/start?name=run1&amp;package=com.example.game</strong> - Start a profiling session for a package (default: the foreground app): app CPU and RSS, app FPS and jank, device CPU/GPU, temperatures and power, one row per second appended to a CSV file; starting a name whose run has ended replaces that run's report (its CSV stays on disk), 409 while it is still running</li>" +
+               "<li><strong>GET /profile/stop?name=run1</strong> - Stop the session and return its report: average/min/max/p50/p90/p95/p99 per metric, frame-time and jank summary, energy and charge</li>" +
+               "<li><strong>GET /profile?name=run1</strong> - Report of one session (live for a running one); without name lists all sessions</li>" +
+               "<li><strong>GET /profile/data?name=run1</strong> - Download the session's per-second CSV</li>" +
+               "<li><strong>GET /export?source=history&amp;metric=cpu.*&amp;since=-3600000&amp;format=trace&amp;clock=boot</strong> - Stream data as Chrome Trace Event Format counter tracks (open in Perfetto UI; clock=boot aligns with device traces) or format=csv; source=history|archive|flight&amp;id=|profile&amp;name=, chunked so any size is exported in constant memory</li>" +
+               "<li><strong>GET /cache/stats</strong> - Response cache statistics (/cpu, /gpu, /memory, /battery and /current-app are served per sample generation with ETag)</li>" +
+               "<li><strong>GET /shell/stats</strong> - Persistent shell executor command latency metrics</li>" +
+               "<li><strong>GET /cpu?fields=currentUsage,cores&amp;compact=true</strong> - Any JSON route accepts fields= (top-level fields to return; unrequested data such as CPU temperature or the app icon is not sampled) and compact=true (short keys, integral numbers without .0)</li>" +
+               "<li><strong>GET /summary?format=cbor</strong> - Any JSON route can be encoded as CBOR (RFC 8949) with format=cbor or Accept: application/cbor; the documents are the same as the JSON ones</li>" +
+               "<li><strong>GET /stream?metrics=cpu,memory,gpu,battery,current-app,frames,alerts&amp;interval=100&amp;delta=true&amp;keyframe=50&amp;duration=0</strong> - Chunked NDJSON (or CBOR sequence with format=cbor) metric frames with seq numbers; in delta mode only changed fields are sent between periodic keyframes</li>" +
+               "<li><strong>GET /metrics</strong> - Prometheus text exposition (or OpenMetrics when Accept asks for it) of CPU per core, GPU, memory, battery and thermal values, rendered from the cached samples into a reused buffer</li>" +
+               "<li><strong>GET /history</strong> - Recorded metric series (CPU total/per-core usage and frequency, GPU, memory, battery, temperatures) with capacity and time range</li>" +
+               "<li><strong>GET /history?metric=cpu.usage,cpu.core*&amp;since=-60000&amp;until=-10000</strong> - Columnar timestamps/values of the recorded series; since/until are epoch ms, negative values are relative to now</li>" +
+               "<li><strong>GET /history?metric=cpu.usage&amp;since=-86400000&amp;resolution=60000</strong> - Long ranges are answered from the coarsest 1s/10s/1m rollup that meets the resolution (min/max/avg/count per bucket); resolution=0 returns raw points, omitted picks about 1000 points</li>" +
+               "<li><strong>GET /history/quantiles?metric=frames.frameTime,cpu.usage&amp;since=-3600000&amp;q=0.5,0.95,0.99</strong> - Quantiles over any range merged from per-bucket sketches (cpu.usage, battery.current, frames.frameTime, frames.fps), no raw samples needed</li>" +
+               "<li><strong>GET /history/archive</strong> - On-device persistence under /data/local/tmp: segments, bytes, records, dropped and what was recovered/replayed after a restart</li>" +
+               "<li><strong>GET /schema</strong> - Short key used by compact=true for every field of every response type</li>" +
                "<li><strong>GET /system</strong> - Complete system summary</li>" +
                "<li><strong>GET /summary</strong> - Complete system summary (same as /system)</li>" +
                "<li><strong>GET /api</strong> - This API documentation</li>" +
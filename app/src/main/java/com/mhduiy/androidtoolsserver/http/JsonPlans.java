@@ -0,0 +1,593 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import com.mhduiy.androidtoolsserver.monitor.AdaptiveSampler;
+import com.mhduiy.androidtoolsserver.monitor.AlertEngine;
+import com.mhduiy.androidtoolsserver.monitor.AppMonitor;
+import com.mhduiy.androidtoolsserver.monitor.BatteryMonitor;
+import com.mhduiy.androidtoolsserver.monitor.CPUMonitor;
+import com.mhduiy.androidtoolsserver.monitor.FlightRecorder;
+import com.mhduiy.androidtoolsserver.monitor.FrameHistogram;
+import com.mhduiy.androidtoolsserver.monitor.FrameMonitor;
+import com.mhduiy.androidtoolsserver.monitor.FrontendAppMonitor;
+import com.mhduiy.androidtoolsserver.monitor.GPUMonitor;
+import com.mhduiy.androidtoolsserver.monitor.MemoryMonitor;
+import com.mhduiy.androidtoolsserver.monitor.MetricArchive;
+import com.mhduiy.androidtoolsserver.monitor.PowerMonitor;
+import com.mhduiy.androidtoolsserver.monitor.ProfileRecorder;
+import com.mhduiy.androidtoolsserver.monitor.QuantileSketch;
+import com.mhduiy.androidtoolsserver.monitor.TimeSeriesStore;
+import com.mhduiy.androidtoolsserver.util.DocumentWriter;
+import com.mhduiy.androidtoolsserver.util.IconCache;
+import com.mhduiy.androidtoolsserver.util.JsonPlan;
+import com.mhduiy.androidtoolsserver.util.JsonWriter;
+import com.mhduiy.androidtoolsserver.util.ShellExecutor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 各监控信息类的序列化计划 (JSON/CBOR 共用)，类加载时构建一次，所有路由共用
+ */
+public final class JsonPlans {
+
+    private JsonPlans() {
+    }
+
+    public static final JsonPlan<BatteryMonitor.BatteryInfo> BATTERY = JsonPlan.builder(BatteryMonitor.BatteryInfo.class)
+        .addInt("level", o -> o.level)
+        .addInt("scale", o -> o.scale)
+        .addLong("capacity", o -> o.capacity)
+        .addInt("voltage", o -> o.voltage)
+        .addInt("current", o -> o.current)
+        .addDouble("power", o -> o.power, 2)
+        .addInt("temperature", o -> o.temperature)
+        .addString("technology", o -> o.technology)
+        .addInt("chargeCounter", o -> o.chargeCounter)
+        .addInt("health", o -> o.health)
+        .addInt("status", o -> o.status)
+        .addInt("plugged", o -> o.plugged)
+        .addBoolean("present", o -> o.present)
+        .build();
+
+    public static final JsonPlan<CPUMonitor.CpuCoreInfo> CPU_CORE = JsonPlan.builder(CPUMonitor.CpuCoreInfo.class)
+        .addInt("coreId", o -> o.coreId)
+        .addDouble("usage", o -> o.usage, 2)
+        .addInt("frequency", o -> o.frequency)
+        .build();
+
+    public static final JsonPlan<CPUMonitor.CpuInfo> CPU = JsonPlan.builder(CPUMonitor.CpuInfo.class)
+        .addString("model", o -> o.model).requires(CPUMonitor.PART_BASIC)
+        .addString("architecture", o -> o.architecture).requires(CPUMonitor.PART_BASIC)
+        .addInt("coreCount", o -> o.coreCount).requires(CPUMonitor.PART_BASIC)
+        .addDouble("currentUsage", o -> o.currentUsage, 2)
+        .addArray("cores", o -> o.cores, CPU_CORE).requires(CPUMonitor.PART_FREQUENCY)
+        .addInt("temperature", o -> o.temperature).requires(CPUMonitor.PART_TEMPERATURE)
+        .addInt("maxFrequency", o -> o.maxFrequency).requires(CPUMonitor.PART_FREQUENCY)
+        .addInt("minFrequency", o -> o.minFrequency).requires(CPUMonitor.PART_FREQUENCY)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<GPUMonitor.GpuInfo> GPU = JsonPlan.builder(GPUMonitor.GpuInfo.class)
+        .addString("name", o -> o.name)
+        .addString("vendor", o -> o.vendor)
+        .addString("renderer", o -> o.renderer)
+        .addString("version", o -> o.version)
+        .addInt("currentFrequency", o -> o.currentFrequency)
+        .addInt("maxFrequency", o -> o.maxFrequency)
+        .addInt("minFrequency", o -> o.minFrequency)
+        .addDouble("usage", o -> o.usage, 2)
+        .addInt("temperature", o -> o.temperature)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<MemoryMonitor.MemInfo> MEMORY = JsonPlan.builder(MemoryMonitor.MemInfo.class)
+        .addLong("totalMemory", o -> o.totalMemory)
+        .addLong("availableMemory", o -> o.availableMemory)
+        .addLong("usedMemory", o -> o.usedMemory)
+        // 以百分比输出
+        .addDouble("memoryUsageRatio", o -> o.memoryUsageRatio * 100.0, 2)
+        .addLong("threshold", o -> o.threshold)
+        .addBoolean("lowMemory", o -> o.lowMemory)
+        .addLong("totalStorage", o -> o.totalStorage)
+        .addLong("availableStorage", o -> o.availableStorage)
+        .addLong("usedStorage", o -> o.usedStorage)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<FrontendAppMonitor.FrontendAppInfo> FRONTEND_APP = JsonPlan.builder(FrontendAppMonitor.FrontendAppInfo.class)
+        .addString("packageName", o -> o.packageName)
+        .addString("appName", o -> o.appName)
+        .addString("activityName", o -> o.activityName)
+        .addString("version", o -> o.version)
+        .addString("versionCode", o -> o.versionCode)
+        .addLong("memoryUsageMB", o -> o.memoryUsageMB)
+        .addDouble("cpuUsage", o -> o.cpuUsage, 2)
+        .addInt("fps", o -> o.fps).requires(FrontendAppMonitor.PART_FRAMES)
+        .addDouble("onePercentLowFps", o -> o.onePercentLowFps).requires(FrontendAppMonitor.PART_FRAMES)
+        .addInt("jankCount", o -> o.jankCount).requires(FrontendAppMonitor.PART_FRAMES)
+        .addInt("bigJankCount", o -> o.bigJankCount).requires(FrontendAppMonitor.PART_FRAMES)
+        .addDouble("stutter", o -> o.stutter).requires(FrontendAppMonitor.PART_FRAMES)
+        .addInt("pid", o -> o.pid)
+        .addInt("uid", o -> o.uid)
+        .addInt("userId", o -> o.userId)
+        .addBoolean("isSystemApp", o -> o.isSystemApp)
+        .addString("iconBase64", o -> o.iconBase64).requires(FrontendAppMonitor.PART_ICON)
+        .addLong("installTime", o -> o.installTime)
+        .addLong("lastUpdateTime", o -> o.lastUpdateTime)
+        .addLong("timestamp", o -> o.timestamp)
+        .build();
+
+    /**
+     * /current-app?icon=false 使用的掩码
+     */
+    public static final long FRONTEND_APP_WITHOUT_ICON = FRONTEND_APP.maskWithout("iconBase64");
+
+    public static final JsonPlan<AppMonitor.AppBaseInfo> APP = JsonPlan.builder(AppMonitor.AppBaseInfo.class)
+        .addString("packageName", o -> o.packageName)
+        .addString("appName", o -> o.appName)
+        .addString("versionName", o -> o.versionName)
+        .addInt("versionCode", o -> o.versionCode)
+        .addBoolean("isSystemApp", o -> o.isSystemApp)
+        .addBoolean("isEnabled", o -> o.isEnabled)
+        .addLong("firstInstallTime", o -> o.firstInstallTime)
+        .addLong("lastUpdateTime", o -> o.lastUpdateTime)
+        .addLong("generation", o -> o.generation)
+        .build();
+
+    public static final JsonPlan<FrameMonitor.FrameInfo> FRAME = JsonPlan.builder(FrameMonitor.FrameInfo.class)
+        .addString("packageName", o -> o.packageName)
+        .addString("layer", o -> o.layer)
+        .addDouble("refreshRate", o -> o.refreshRate)
+        .addDouble("fps", o -> o.fps)
+        .addDouble("averageFps", o -> o.averageFps)
+        .addDouble("onePercentLow", o -> o.onePercentLow)
+        .addDouble("pointOnePercentLow", o -> o.pointOnePercentLow)
+        .addInt("jankCount", o -> o.jankCount)
+        .addInt("bigJankCount", o -> o.bigJankCount)
+        .addInt("frameCount", o -> o.frameCount)
+        .addDouble("maxFrameTime", o -> o.maxFrameTime)
+        .addLong("windowMs", o -> o.windowMs)
+        .addBoolean("running", o -> o.running)
+        .addLong("timestamp", o -> o.timestamp)
+        .build();
+
+    public static final JsonPlan<FrameHistogram.Summary> FRAME_SUMMARY = JsonPlan.builder(FrameHistogram.Summary.class)
+        .addLong("frameCount", o -> o.frameCount)
+        .addLong("durationMs", o -> o.durationMs)
+        .addDouble("averageFps", o -> o.averageFps)
+        .addDouble("averageFrameTime", o -> o.averageFrameTime)
+        .addDouble("maxFrameTime", o -> o.maxFrameTime)
+        .addDouble("p50FrameTime", o -> o.p50FrameTime)
+        .addDouble("p90FrameTime", o -> o.p90FrameTime)
+        .addDouble("p99FrameTime", o -> o.p99FrameTime)
+        .addDouble("onePercentLow", o -> o.onePercentLow)
+        .addLong("jankCount", o -> o.jankCount)
+        .addLong("bigJankCount", o -> o.bigJankCount)
+        .addDouble("stutter", o -> o.stutter)
+        .addDouble("bucketWidthMs", o -> FrameHistogram.BUCKET_WIDTH_NANOS / 1_000_000.0)
+        .build();
+
+    public static final JsonPlan<FrameMonitor.FrameSession> FRAME_SESSION = JsonPlan.builder(FrameMonitor.FrameSession.class)
+        .addString("name", o -> o.name)
+        .addString("packageName", o -> o.packageName)
+        .addBoolean("active", o -> o.active)
+        .addLong("startTime", o -> o.startTime)
+        .addLong("endTime", o -> o.endTime)
+        .addCustom("histogram", (w, o) -> writeFrameHistogram(w, o.histogram, true))
+        .build();
+
+    public static final JsonPlan<PowerMonitor.PowerSample> POWER_SAMPLE = JsonPlan.builder(PowerMonitor.PowerSample.class)
+        .addLong("timestamp", o -> o.timestamp)
+        .addInt("current", o -> o.current)
+        .addInt("voltage", o -> o.voltage)
+        .addDouble("power", o -> o.power, 2)
+        .build();
+
+    public static final JsonPlan<PowerMonitor.PowerSession> POWER_SESSION = JsonPlan.builder(PowerMonitor.PowerSession.class)
+        .addString("name", o -> o.name)
+        .addBoolean("active", o -> o.active)
+        .addLong("startTime", o -> o.startTime)
+        .addLong("endTime", o -> o.endTime)
+        .addLong("sampleCount", o -> o.sampleCount)
+        .addDouble("energy", o -> o.energy, 4)
+        .addDouble("charge", o -> o.charge, 4)
+        .addDouble("averagePower", o -> o.averagePower, 2)
+        .addDouble("minPower", o -> o.minPower, 2)
+        .addDouble("maxPower", o -> o.maxPower, 2)
+        .build();
+
+    public static final JsonPlan<PowerMonitor.PowerInfo> POWER = JsonPlan.builder(PowerMonitor.PowerInfo.class)
+        .addBoolean("sampling", o -> o.sampling)
+        .addInt("rate", o -> o.rate)
+        .addLong("sampleCount", o -> o.sampleCount)
+        .addInt("bufferedSamples", o -> o.bufferedSamples)
+        .addString("currentPath", o -> o.currentPath)
+        .addString("voltagePath", o -> o.voltagePath)
+        .addCustom("latest", (w, o) -> {
+            if (o.latest == null) {
+                w.nullValue();
+            } else {
+                POWER_SAMPLE.write(w, o.latest);
+            }
+        })
+        .addArray("sessions", o -> o.sessions, POWER_SESSION)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<ShellExecutor.CommandStats> SHELL_COMMAND = JsonPlan.builder(ShellExecutor.CommandStats.class)
+        .addString("command", o -> o.command)
+        .addLong("count", o -> o.count)
+        .addLong("failures", o -> o.failures)
+        .addLong("timeouts", o -> o.timeouts)
+        .addDouble("averageMs", ShellExecutor.CommandStats::getAverageMs, 2)
+        .addLong("maxMs", o -> o.maxMs)
+        .addLong("lastMs", o -> o.lastMs)
+        .build();
+
+    public static final JsonPlan<ShellExecutor.ExecutorStats> SHELL = JsonPlan.builder(ShellExecutor.ExecutorStats.class)
+        .addInt("poolSize", o -> o.poolSize)
+        .addInt("idleSessions", o -> o.idleSessions)
+        .addLong("sessionsStarted", o -> o.sessionsStarted)
+        .addLong("commandCount", o -> o.commandCount)
+        .addLong("failureCount", o -> o.failureCount)
+        .addLong("timeoutCount", o -> o.timeoutCount)
+        .addLong("truncatedCount", o -> o.truncatedCount)
+        .addLong("orphansKilled", o -> o.orphansKilled)
+        .addDouble("averageMs", o -> o.commandCount > 0 ? (double) o.totalMs / o.commandCount : 0.0, 2)
+        .addLong("maxMs", o -> o.maxMs)
+        .addArray("commands", o -> o.commands, SHELL_COMMAND)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<IconCache.Stats> ICON_CACHE = JsonPlan.builder(IconCache.Stats.class)
+        .addInt("entries", o -> o.entries)
+        .addLong("bytes", o -> o.bytes)
+        .addLong("maxBytes", o -> o.maxBytes)
+        .addLong("hits", o -> o.hits)
+        .addLong("misses", o -> o.misses)
+        .addLong("evictions", o -> o.evictions)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<ResponseCache.Stats> RESPONSE_CACHE = JsonPlan.builder(ResponseCache.Stats.class)
+        .addInt("entries", o -> o.entries)
+        .addLong("bytes", o -> o.bytes)
+        .addLong("hits", o -> o.hits)
+        .addLong("misses", o -> o.misses)
+        .addLong("notModified", o -> o.notModified)
+        .addLong("evictions", o -> o.evictions)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<TimeSeriesStore.Series> SERIES = JsonPlan.builder(TimeSeriesStore.Series.class)
+        .addString("metric", o -> o.name)
+        .addString("unit", o -> o.unit)
+        .addInt("capacity", TimeSeriesStore.Series::getCapacity)
+        .addInt("count", TimeSeriesStore.Series::size)
+        .addLong("oldest", TimeSeriesStore.Series::getOldest)
+        .addLong("newest", TimeSeriesStore.Series::getNewest)
+        .addLong("oldestRetained", TimeSeriesStore.Series::getOldestRetained)
+        .addBoolean("quantiles", TimeSeriesStore.Series::hasSketch)
+        .addCustom("rollups", (w, o) -> {
+            w.beginArray();
+            for (long interval : o.getRollupIntervals()) {
+                w.value(interval);
+            }
+            w.endArray();
+        })
+        .build();
+
+    public static final JsonPlan<MetricArchive.Stats> ARCHIVE = JsonPlan.builder(MetricArchive.Stats.class)
+        .addString("directory", o -> o.directory)
+        .addBoolean("active", o -> o.active)
+        .addInt("segments", o -> o.segments)
+        .addLong("bytes", o -> o.bytes)
+        .addLong("records", o -> o.records)
+        .addLong("blocks", o -> o.blocks)
+        .addLong("dropped", o -> o.dropped)
+        .addLong("recoveredBlocks", o -> o.recoveredBlocks)
+        .addLong("corruptSegments", o -> o.corruptSegments)
+        .addLong("replayed", o -> o.replayed)
+        .addLong("timestamp", o -> System.currentTimeMillis())
+        .build();
+
+    public static final JsonPlan<AlertEngine.Rule> ALERT_RULE = JsonPlan.builder(AlertEngine.Rule.class)
+        .addInt("id", o -> o.id)
+        .addString("name", o -> o.name)
+        .addString("metric", o -> o.metric)
+        .addString("condition", o -> o.above ? "above" : "below")
+        .addDouble("threshold", o -> o.threshold)
+        .addDouble("clear", o -> o.clear)
+        .addLong("for", o -> o.forMs)
+        .addString("state", o -> o.state)
+        .addLong("stateSince", o -> o.stateSince)
+        .addDouble("lastValue", o -> o.lastValue, 2)
+        .addLong("lastTimestamp", o -> o.lastTimestamp)
+        .addLong("fireCount", o -> o.fireCount)
+        .build();
+
+    public static final JsonPlan<AlertEngine.Event> ALERT_EVENT = JsonPlan.builder(AlertEngine.Event.class)
+        .addLong("seq", o -> o.seq)
+        .addInt("ruleId", o -> o.ruleId)
+        .addString("rule", o -> o.rule)
+        .addString("metric", o -> o.metric)
+        .addString("state", o -> o.state)
+        .addDouble("value", o -> o.value, 2)
+        .addDouble("threshold", o -> o.threshold)
+        .addLong("timestamp", o -> o.timestamp)
+        .build();
+
+    public static final JsonPlan<FlightRecorder.Capture> FLIGHT_CAPTURE = JsonPlan.builder(FlightRecorder.Capture.class)
+        .addInt("id", o -> o.id)
+        .addString("reason", o -> o.reason)
+        .addLong("triggerTime", o -> o.triggerTime)
+        .addLong("since", o -> o.since)
+        .addLong("until", o -> o.until)
+        .addBoolean("complete", o -> o.complete)
+        .addBoolean("truncated", o -> o.truncated)
+        .addInt("count", o -> o.count)
+        .build();
+
+    public static final JsonPlan<FlightRecorder.Stats> FLIGHT_RECORDER = JsonPlan.builder(FlightRecorder.Stats.class)
+        .addInt("capacity", o -> o.capacity)
+        .addInt("size", o -> o.size)
+        .addLong("oldest", o -> o.oldest)
+        .addLong("memoryBytes", o -> o.memoryBytes)
+        .addLong("pre", o -> o.preTriggerMs)
+        .addLong("post", o -> o.postTriggerMs)
+        .addInt("triggerRule", o -> o.triggerRule)
+        .addInt("activeCapture", o -> o.activeCapture)
+        .addArray("captures", o -> o.captures, FLIGHT_CAPTURE)
+        .build();
+
+    public static final JsonPlan<AdaptiveSampler.Stats> SAMPLER = JsonPlan.builder(AdaptiveSampler.Stats.class)
+        .addString("source", o -> o.source)
+        .addString("metric", o -> o.metric)
+        .addBoolean("adaptive", o -> o.adaptive)
+        .addLong("baseInterval", o -> o.baseIntervalMs)
+        .addLong("floor", o -> o.floorMs)
+        .addLong("ceiling", o -> o.ceilingMs)
+        .addDouble("change", o -> o.changeThreshold, 2)
+        .addLong("interval", o -> o.intervalMs)
+        .addDouble("rateHz", o -> o.rateHz, 3)
+        .addDouble("averageRateHz", o -> o.averageRateHz, 3)
+        .addLong("since", o -> o.since)
+        .addLong("samples", o -> o.samples)
+        .addLong("fixedSamples", o -> o.fixedSamples)
+        .addLong("savedSamples", o -> o.savedSamples)
+        .addDouble("sampleCostMs", o -> o.sampleCostMs, 3)
+        .addDouble("savedMs", o -> o.savedMs, 1)
+        .addLong("shrinks", o -> o.shrinks)
+        .addLong("grows", o -> o.grows)
+        .build();
+
+    public static final JsonPlan<ProfileRecorder.MetricSummary> PROFILE_METRIC = JsonPlan.builder(ProfileRecorder.MetricSummary.class)
+        .addString("metric", o -> o.name)
+        .addString("unit", o -> o.unit)
+        .addLong("count", o -> o.count)
+        .addDouble("average", o -> o.average, 2)
+        .addDouble("min", o -> o.min, 2)
+        .addDouble("max", o -> o.max, 2)
+        .addDouble("p50", o -> o.p50, 2)
+        .addDouble("p90", o -> o.p90, 2)
+        .addDouble("p95", o -> o.p95, 2)
+        .addDouble("p99", o -> o.p99, 2)
+        .build();
+
+    public static final JsonPlan<ProfileRecorder.Report> PROFILE_REPORT = JsonPlan.builder(ProfileRecorder.Report.class)
+        .addString("name", o -> o.name)
+        .addString("packageName", o -> o.packageName)
+        .addBoolean("active", o -> o.active)
+        .addLong("startTime", o -> o.startTime)
+        .addLong("endTime", o -> o.endTime)
+        .addLong("durationMs", o -> o.durationMs)
+        .addLong("samples", o -> o.samples)
+        .addString("file", o -> o.file)
+        .addLong("fileBytes", o -> o.fileBytes)
+        .addArray("metrics", o -> o.metrics, PROFILE_METRIC)
+        .addCustom("frames", (w, o) -> {
+            if (o.frames == null) {
+                w.nullValue();
+            } else {
+                FRAME_SUMMARY.write(w, o.frames);
+            }
+        })
+        .addDouble("energy", o -> o.energy, 4)
+        .addDouble("charge", o -> o.charge, 4)
+        .addDouble("averagePower", o -> o.averagePower, 2)
+        .build();
+
+    /**
+     * 按名称列出所有计划，/schema 据此输出紧凑模式的短字段名对照表
+     */
+    public static final Map<String, JsonPlan<?>> ALL = new LinkedHashMap<>();
+
+    static {
+        ALL.put("battery", BATTERY);
+        ALL.put("cpu", CPU);
+        ALL.put("cpuCore", CPU_CORE);
+        ALL.put("gpu", GPU);
+        ALL.put("memory", MEMORY);
+        ALL.put("currentApp", FRONTEND_APP);
+        ALL.put("app", APP);
+        ALL.put("frames", FRAME);
+        ALL.put("frameHistogram", FRAME_SUMMARY);
+        ALL.put("frameSession", FRAME_SESSION);
+        ALL.put("powerSample", POWER_SAMPLE);
+        ALL.put("powerSession", POWER_SESSION);
+        ALL.put("power", POWER);
+        ALL.put("shellCommand", SHELL_COMMAND);
+        ALL.put("shell", SHELL);
+        ALL.put("iconCache", ICON_CACHE);
+        ALL.put("responseCache", RESPONSE_CACHE);
+        ALL.put("series", SERIES);
+        ALL.put("archive", ARCHIVE);
+        ALL.put("alertRule", ALERT_RULE);
+        ALL.put("alertEvent", ALERT_EVENT);
+        ALL.put("flightCapture", FLIGHT_CAPTURE);
+        ALL.put("flightRecorder", FLIGHT_RECORDER);
+        ALL.put("sampler", SAMPLER);
+        ALL.put("profileMetric", PROFILE_METRIC);
+        ALL.put("profileReport", PROFILE_REPORT);
+    }
+
+    /**
+     * 历史查询结果，每个序列按列输出:
+     * {"since":..,"until":..,"series":[{"metric","unit","resolution","count","timestamps":[...],"values":[...]}]}
+     * resolution 为 0 时是原始点，否则为降采样桶宽度 (毫秒)，values 为桶内平均值，另有 min/max/counts 列
+     */
+    public static void writeHistory(DocumentWriter writer, List<TimeSeriesStore.Points> series,
+                                    long since, long until) throws IOException {
+        writer.beginObject()
+            .field("since", since)
+            .field("until", until);
+        writeHistorySeries(writer, series);
+        writer.endObject();
+    }
+
+    /**
+     * 飞行记录器捕获: 捕获信息 (FLIGHT_CAPTURE 的字段) 加上与 /history 相同格式的原始点 series 列
+     */
+    public static void writeCapture(DocumentWriter writer, FlightRecorder.Capture capture) throws IOException {
+        writer.beginObject();
+        FLIGHT_CAPTURE.writeFields(writer, capture, JsonPlan.ALL_FIELDS);
+        writeHistorySeries(writer, capture.series);
+        writer.endObject();
+    }
+
+    private static void writeHistorySeries(DocumentWriter writer, List<TimeSeriesStore.Points> series) throws IOException {
+        writer.name("series").beginArray();
+        for (TimeSeriesStore.Points points : series) {
+            writer.beginObject()
+                .field("metric", points.metric)
+                .field("unit", points.unit)
+                .field("resolution", points.resolution)
+                .field("count", points.size());
+            writer.name("timestamps").beginArray();
+            for (long timestamp : points.timestamps) {
+                writer.value(timestamp);
+            }
+            writer.endArray();
+            writeHistoryValues(writer, "values", points.values);
+            if (points.resolution > 0) {
+                writeHistoryValues(writer, "min", points.mins);
+                writeHistoryValues(writer, "max", points.maxs);
+                writer.name("counts").beginArray();
+                for (int count : points.counts) {
+                    writer.value(count);
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * 分位数查询结果:
+     * {"since":..,"until":..,"series":[{"metric","unit","resolution","count","min","max","mean","quantiles":{"p50":..,"p99":..}}]}
+     * resolution 为合并的降采样桶宽度 (毫秒)，时间范围按桶边界对齐
+     */
+    public static void writeQuantiles(DocumentWriter writer, List<TimeSeriesStore.Series> series,
+                                      double[] quantiles, long since, long until) throws IOException {
+        writer.beginObject()
+            .field("since", since)
+            .field("until", until);
+        writer.name("series").beginArray();
+        for (TimeSeriesStore.Series one : series) {
+            QuantileSketch sketch = one.sketch(since, until);
+            writer.beginObject()
+                .field("metric", one.name)
+                .field("unit", one.unit)
+                .field("resolution", one.sketchResolution(since))
+                .field("count", sketch.getCount())
+                .field("min", round2(sketch.getMin()))
+                .field("max", round2(sketch.getMax()))
+                .field("mean", round2(sketch.getMean()));
+            writer.name("quantiles").beginObject();
+            for (double quantile : quantiles) {
+                writer.field(quantileName(quantile), round2(sketch.getQuantile(quantile)));
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /**
+     * 0.5 -> p50, 0.999 -> p99.9
+     */
+    private static String quantileName(double quantile) {
+        double percent = Math.round(quantile * 100000.0) / 1000.0;
+        if (percent == Math.rint(percent)) {
+            return "p" + (long) percent;
+        }
+        return "p" + percent;
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    private static void writeHistoryValues(DocumentWriter writer, String name, double[] values) throws IOException {
+        writer.name(name).beginArray();
+        for (double value : values) {
+            writer.value(round2(value));
+        }
+        writer.endArray();
+    }
+
+    /**
+     * 帧耗时直方图: 汇总字段，加上可选的非零桶 [[桶下界(毫秒), 帧数], ...]
+     */
+    public static void writeFrameHistogram(DocumentWriter writer, FrameHistogram histogram, boolean includeBuckets) throws IOException {
+        writer.beginObject();
+        FRAME_SUMMARY.writeFields(writer, histogram.summarize(), JsonPlan.ALL_FIELDS);
+        if (includeBuckets && writer.accepts("buckets")) {
+            writer.name("buckets").beginArray();
+            for (int i = 0; i < FrameHistogram.SLOT_COUNT; i++) {
+                long count = histogram.getBucket(i);
+                if (count == 0) continue;
+                writer.beginArray().value(FrameHistogram.bucketLowerBoundMs(i)).value(count).endArray();
+            }
+            writer.endArray();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * 输出 {计划名: {字段名: 短字段名}}
+     */
+    public static void writeSchema(DocumentWriter writer) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, JsonPlan<?>> entry : ALL.entrySet()) {
+            JsonPlan<?> plan = entry.getValue();
+            writer.nameUnfiltered(entry.getKey()).beginObject();
+            for (int i = 0; i < plan.getFieldCount(); i++) {
+                writer.nameUnfiltered(plan.getFieldName(i)).value(plan.getShortName(i));
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * 序列化为字符串，供仍需要 String 的调用方使用（如命令行输出）
+     */
+    public static <T> String toJson(JsonPlan<T> plan, T obj) {
+        JsonWriter writer = JsonWriter.obtain();
+        try {
+            plan.write(writer, obj);
+            return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // 缓冲模式不会产生IO异常
+            throw new IllegalStateException(e);
+        } finally {
+            writer.release();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import com.mhduiy.androidtoolsserver.monitor.AlertEngine;
+import com.mhduiy.androidtoolsserver.monitor.FrontendAppMonitor;
+import com.mhduiy.androidtoolsserver.monitor.SampleCache;
+import com.mhduiy.androidtoolsserver.monitor.SystemMonitor;
+import com.mhduiy.androidtoolsserver.util.DocumentWriter;
+import com.mhduiy.androidtoolsserver.util.JsonPlan;
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * /stream: 以分块传输持续推送指标帧，JSON 为 NDJSON（每行一帧），CBOR 为 CBOR 序列
+ * 每帧: {"seq":序号,"metric":指标名,"keyframe":是否关键帧,"generation":样本代数,"timestamp":采样时间,"data":{...}}
+ * 增量模式下每个指标的第一帧和此后每 keyframeInterval 帧为完整的关键帧，其余帧的 data 只包含变化的字段；
+ * 样本代数没有变化或没有字段变化时不发送该指标的帧。seq 在整个流内连续递增，
+ * 客户端发现序号跳变时丢弃状态，等待下一个关键帧（或重新连接）即可重新同步。
+ * 订阅 alerts 时，连接之后产生的每个告警事件作为一帧推送 (keyframe 恒为 true，generation 为事件序号)
+ */
+public class MetricStream {
+    private static final String TAG = "MetricStream";
+
+    public static final int MIN_INTERVAL_MS = 100;
+    public static final int DEFAULT_INTERVAL_MS = 1000;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+    public static final String DEFAULT_METRICS = "cpu,memory";
+
+    /**
+     * 一个指标的订阅状态
+     */
+    private static class Channel<T> {
+        final String name;
+        final SampleCache<T> source;
+        final JsonPlan<T> plan;
+        final JsonPlan<T>.Delta delta;
+        final int parts;
+        final long mask;
+        // 增量帧比较的字段: 帧头已有采样时间，data 中的 timestamp 不单独触发增量帧
+        final long deltaMask;
+        long lastGeneration = -1;
+        int framesSinceKeyframe = 0;
+
+        Channel(String name, SampleCache<T> source, JsonPlan<T> plan, int parts, long mask) {
+            this.name = name;
+            this.source = source;
+            this.plan = plan;
+            this.delta = plan.newDelta();
+            this.parts = parts;
+            this.mask = mask;
+            this.deltaMask = mask & plan.maskWithout("timestamp");
+        }
+    }
+
+    private final List<Channel<?>> channels = new ArrayList<>();
+    // 告警事件不来自采样缓存，单独按事件序号增量读取
+    private AlertEngine alerts;
+    private long lastAlertSeq;
+    private final int intervalMs;
+    private final boolean deltaMode;
+    private final int keyframeInterval;
+    private final long durationMs;
+    private volatile boolean stopped = false;
+    private long seq = 0;
+
+    /**
+     * @param metrics 指标名，见 addChannel
+     * @param fields 只输出的字段，null 表示全部
+     * @param durationMs 推送时长，0 表示直到客户端断开
+     */
+    public MetricStream(SystemMonitor systemMonitor, String[] metrics, Set<String> fields,
+                        int intervalMs, boolean deltaMode, int keyframeInterval, long durationMs) {
+        this.intervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+        this.deltaMode = deltaMode;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.durationMs = Math.max(0, durationMs);
+        for (String metric : metrics) {
+            addChannel(systemMonitor, metric.trim(), fields);
+        }
+    }
+
+    /**
+     * 是否至少订阅了一个有效指标
+     */
+    public boolean isEmpty() {
+        return channels.isEmpty() && alerts == null;
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+
+    private void addChannel(SystemMonitor systemMonitor, String metric, Set<String> fields) {
+        for (Channel<?> channel : channels) {
+            if (channel.name.equals(metric)) return;
+        }
+        switch (metric) {
+            case "cpu":
+                channels.add(new Channel<>(metric, systemMonitor.getCpuSamples(), JsonPlans.CPU,
+                    JsonPlans.CPU.requiredParts(fields), JsonPlans.CPU.maskOf(fields)));
+                break;
+            case "gpu":
+                channels.add(new Channel<>(metric, systemMonitor.getGpuSamples(), JsonPlans.GPU,
+                    SampleCache.ALL_PARTS, JsonPlans.GPU.maskOf(fields)));
+                break;
+            case "memory":
+                channels.add(new Channel<>(metric, systemMonitor.getMemorySamples(), JsonPlans.MEMORY,
+                    SampleCache.ALL_PARTS, JsonPlans.MEMORY.maskOf(fields)));
+                break;
+            case "battery":
+                channels.add(new Channel<>(metric, systemMonitor.getBatterySamples(), JsonPlans.BATTERY,
+                    SampleCache.ALL_PARTS, JsonPlans.BATTERY.maskOf(fields)));
+                break;
+            case "current-app":
+                // 未明确请求 iconBase64 时流中不带图标
+                int appParts = JsonPlans.FRONTEND_APP.requiredParts(fields);
+                long appMask = JsonPlans.FRONTEND_APP.maskOf(fields);
+                if (fields == null) {
+                    appParts &= ~FrontendAppMonitor.PART_ICON;
+                    appMask = JsonPlans.FRONTEND_APP_WITHOUT_ICON;
+                }
+                channels.add(new Channel<>(metric, systemMonitor.getFrontendAppSamples(), JsonPlans.FRONTEND_APP,
+                    appParts, appMask));
+                break;
+            case "alerts":
+                if (alerts == null) {
+                    alerts = systemMonitor.getAlertEngine();
+                    lastAlertSeq = alerts.getLastSeq();
+                }
+                break;
+            case "frames":
+                channels.add(new Channel<>(metric, systemMonitor.getFrameSamples(), JsonPlans.FRAME,
+                    SampleCache.ALL_PARTS, JsonPlans.FRAME.maskOf(fields)));
+                break;
+            default:
+                Logger.w(TAG, "Unknown stream metric: " + metric);
+        }
+    }
+
+    /**
+     * 写出响应头并持续推送，直到客户端断开、到达时长或 stop()
+     */
+    public void run(OutputStream out, String format, boolean compact) throws IOException {
+        ChunkedOutputStream body = new ChunkedOutputStream(out);
+        DocumentWriter writer = DocumentWriter.obtain(format, body).setCompact(compact);
+
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: " + writer.sequenceContentType() + "\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+
+        long deadline = durationMs > 0 ? System.currentTimeMillis() + durationMs : Long.MAX_VALUE;
+        try {
+            while (!stopped && System.currentTimeMillis() < deadline) {
+                long tickStart = System.currentTimeMillis();
+                for (Channel<?> channel : channels) {
+                    writeFrame(writer, channel);
+                }
+                if (alerts != null) {
+                    writeAlerts(writer);
+                }
+                // 每个周期的帧作为一个分块发出
+                writer.flush();
+
+                long sleep = intervalMs - (System.currentTimeMillis() - tickStart);
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            }
+            body.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端断开是结束推送的正常方式
+            Logger.d(TAG, "Stream closed after " + seq + " frames: " + e.getMessage());
+        } finally {
+            writer.release();
+        }
+    }
+
+    private void writeAlerts(DocumentWriter writer) throws IOException {
+        for (AlertEngine.Event event : alerts.getEvents(lastAlertSeq)) {
+            lastAlertSeq = event.seq;
+            writer.beginObject()
+                .field("seq", seq++)
+                .field("metric", "alerts")
+                .field("keyframe", true)
+                .field("generation", event.seq)
+                .field("timestamp", event.timestamp);
+            writer.name("data");
+            JsonPlans.ALERT_EVENT.write(writer, event);
+            writer.endObject();
+            writer.endRecord();
+        }
+    }
+
+    private <T> void writeFrame(DocumentWriter writer, Channel<T> channel) throws IOException {
+        // 样本最长复用一个推送周期，间隔短于默认采样间隔时按推送频率重新采样
+        SampleCache.Sample<T> sample = channel.source.get(channel.parts, intervalMs);
+        if (sample.generation == channel.lastGeneration) {
+            return;
+        }
+        channel.lastGeneration = sample.generation;
+
+        boolean keyframe = !deltaMode || channel.framesSinceKeyframe == 0
+            || channel.framesSinceKeyframe >= keyframeInterval;
+        // 关键帧也要更新增量状态，后续帧才能与之比较
+        long changed = deltaMode ? channel.delta.update(sample.value, channel.deltaMask) : channel.mask;
+        long mask = keyframe ? channel.mask : changed;
+        if (mask == 0) {
+            return;
+        }
+
+        writer.beginObject()
+            .field("seq", seq++)
+            .field("metric", channel.name)
+            .field("keyframe", keyframe)
+            .field("generation", sample.generation)
+            .field("timestamp", sample.timestamp);
+        writer.name("data");
+        channel.plan.write(writer, sample.value, mask);
+        writer.endObject();
+        writer.endRecord();
+
+        channel.framesSinceKeyframe = keyframe ? 1 : channel.framesSinceKeyframe + 1;
+    }
+}
@@ -0,0 +1,186 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import com.mhduiy.androidtoolsserver.monitor.AdaptiveSampler;
+import com.mhduiy.androidtoolsserver.monitor.BatteryMonitor;
+import com.mhduiy.androidtoolsserver.monitor.CPUMonitor;
+import com.mhduiy.androidtoolsserver.monitor.FrontendAppMonitor;
+import com.mhduiy.androidtoolsserver.monitor.GPUMonitor;
+import com.mhduiy.androidtoolsserver.monitor.MemoryMonitor;
+import com.mhduiy.androidtoolsserver.monitor.MetricArchive;
+import com.mhduiy.androidtoolsserver.monitor.SampleCache;
+import com.mhduiy.androidtoolsserver.monitor.SystemMonitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * /metrics: Prometheus 文本格式 (0.0.4) 或 OpenMetrics 1.0 的指标导出
+ * 数据取自采样缓存中已有的样本 (MetricRecorder 按各采样源当前的间隔刷新)，抓取本身通常不触发采样；
+ * 输出写入复用的字节缓冲区，数字直接按位写入，渲染过程除标签转义外不分配对象
+ */
+public class MetricsExporter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    // 样本最长复用时间的下限；实际取采样源当前间隔的 2.5 倍，自适应间隔放大后抓取仍直接使用记录器采到的样本
+    private static final long SNAPSHOT_MAX_AGE_MS = 2500;
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private final SystemMonitor systemMonitor;
+    private final TextBuffer text = new TextBuffer(INITIAL_CAPACITY);
+    private long scrapes = 0;
+
+    public MetricsExporter(SystemMonitor systemMonitor) {
+        this.systemMonitor = systemMonitor;
+    }
+
+    /**
+     * 渲染并写出完整的 HTTP 响应；抓取串行执行，共用同一个缓冲区
+     * @param openMetrics 客户端接受 application/openmetrics-text 时使用 OpenMetrics 格式
+     */
+    public synchronized void export(OutputStream out, boolean openMetrics) throws IOException {
+        text.reset();
+        scrapes++;
+        render(openMetrics);
+
+        String headers = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: " + (openMetrics ? OPENMETRICS_CONTENT_TYPE : CONTENT_TYPE) + "\r\n" +
+            "Content-Length: " + text.length() + "\r\n" +
+            "Cache-Control: no-cache\r\n" +
+            "Access-Control-Allow-Origin: *\r\n" +
+            "\r\n";
+        out.write(headers.getBytes(StandardCharsets.US_ASCII));
+        text.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * 采样源的样本最长复用时间，随记录器当前的采样间隔放大
+     */
+    private long maxAge(String source) {
+        AdaptiveSampler sampler = systemMonitor.getMetricRecorder().getSampler(source);
+        if (sampler == null) {
+            return SNAPSHOT_MAX_AGE_MS;
+        }
+        return Math.max(SNAPSHOT_MAX_AGE_MS, sampler.getIntervalMs() * 5 / 2);
+    }
+
+    private void render(boolean openMetrics) {
+        CPUMonitor.CpuInfo cpu = systemMonitor.getCpuSamples().get(SampleCache.ALL_PARTS, maxAge("cpu")).value;
+        family("android_cpu_usage_percent", "gauge", "Overall CPU usage");
+        sample("android_cpu_usage_percent", cpu.currentUsage);
+        family("android_cpu_cores", "gauge", "Number of CPU cores");
+        sample("android_cpu_cores", cpu.coreCount);
+        family("android_cpu_core_usage_percent", "gauge", "Per-core CPU usage");
+        for (int i = 0; i < cpu.coreUsages.size(); i++) {
+            coreSample("android_cpu_core_usage_percent", i, cpu.coreUsages.get(i));
+        }
+        family("android_cpu_core_frequency_mhz", "gauge", "Per-core current frequency");
+        for (int i = 0; i < cpu.frequencies.size(); i++) {
+            coreSample("android_cpu_core_frequency_mhz", i, cpu.frequencies.get(i));
+        }
+        family("android_cpu_frequency_max_mhz", "gauge", "Highest core maximum frequency");
+        sample("android_cpu_frequency_max_mhz", cpu.maxFrequency);
+        family("android_cpu_frequency_min_mhz", "gauge", "Lowest core minimum frequency");
+        sample("android_cpu_frequency_min_mhz", cpu.minFrequency);
+
+        GPUMonitor.GpuInfo gpu = systemMonitor.getGpuSamples().get(SampleCache.ALL_PARTS, maxAge("gpu")).value;
+        family("android_gpu_usage_percent", "gauge", "GPU usage");
+        sample("android_gpu_usage_percent", gpu.usage);
+        family("android_gpu_frequency_mhz", "gauge", "GPU current frequency");
+        sample("android_gpu_frequency_mhz", gpu.currentFrequency);
+        family("android_gpu_frequency_max_mhz", "gauge", "GPU maximum frequency");
+        sample("android_gpu_frequency_max_mhz", gpu.maxFrequency);
+
+        MemoryMonitor.MemInfo memory = systemMonitor.getMemorySamples().get(SampleCache.ALL_PARTS, maxAge("memory")).value;
+        family("android_memory_total_bytes", "gauge", "Total RAM");
+        sample("android_memory_total_bytes", memory.totalMemory);
+        family("android_memory_available_bytes", "gauge", "Available RAM (MemAvailable)");
+        sample("android_memory_available_bytes", memory.availableMemory);
+        family("android_memory_used_bytes", "gauge", "Used RAM");
+        sample("android_memory_used_bytes", memory.usedMemory);
+        family("android_memory_swap_free_bytes", "gauge", "Free swap");
+        sample("android_memory_swap_free_bytes", memory.SwapFree * 1024);
+        family("android_memory_swap_cached_bytes", "gauge", "Swap cached");
+        sample("android_memory_swap_cached_bytes", memory.SwapCached * 1024);
+
+        BatteryMonitor.BatteryInfo battery = systemMonitor.getBatterySamples().get(SampleCache.ALL_PARTS,
+            Math.max(SystemMonitor.BATTERY_MAX_AGE_MS, maxAge("battery"))).value;
+        family("android_battery_level_percent", "gauge", "Battery level");
+        sample("android_battery_level_percent", battery.level);
+        family("android_battery_current_microamperes", "gauge", "Battery current, positive while charging");
+        sample("android_battery_current_microamperes", battery.current);
+        family("android_battery_voltage_millivolts", "gauge", "Battery voltage");
+        sample("android_battery_voltage_millivolts", battery.voltage);
+        family("android_battery_power_milliwatts", "gauge", "Battery power, positive while charging");
+        sample("android_battery_power_milliwatts", battery.power);
+        family("android_battery_status", "gauge", "BatteryManager.BATTERY_STATUS_* value");
+        sample("android_battery_status", battery.status);
+        family("android_battery_plugged", "gauge", "BatteryManager.BATTERY_PLUGGED_* value, 0 when unplugged");
+        sample("android_battery_plugged", battery.plugged);
+
+        // 温度统一为一个指标族，用 sensor 标签区分；读不到的传感器不输出
+        family("android_temperature_celsius", "gauge", "Thermal readings by sensor");
+        if (cpu.temperature >= 0) {
+            labeledSample("android_temperature_celsius", "sensor", "cpu", cpu.temperature);
+        }
+        if (gpu.temperature >= 0) {
+            labeledSample("android_temperature_celsius", "sensor", "gpu", gpu.temperature);
+        }
+        labeledSample("android_temperature_celsius", "sensor", "battery", battery.temperature / 10.0);
+
+        SampleCache.Sample<FrontendAppMonitor.FrontendAppInfo> app = systemMonitor.getFrontendAppSamples().peek();
+        if (app != null) {
+            family("android_foreground_app_info", "gauge", "Foreground app, value is always 1");
+            labeledSample("android_foreground_app_info", "package", app.value.packageName, 1);
+        }
+
+        MetricArchive.Stats archive = systemMonitor.getMetricRecorder().getArchive().getStats();
+        family("android_tools_archive_bytes", "gauge", "Bytes used by persisted metric segments");
+        sample("android_tools_archive_bytes", archive.bytes);
+        counter("android_tools_archive_dropped", "Points dropped because the archive staging buffer was full",
+            archive.dropped, openMetrics);
+        counter("android_tools_scrapes", "Scrapes of this endpoint", scrapes, openMetrics);
+
+        if (openMetrics) {
+            text.ascii("# EOF\n");
+        }
+    }
+
+    // ---- 文本输出 ----
+
+    private void family(String name, String type, String help) {
+        text.ascii("# HELP ").ascii(name).writeByte(' ').ascii(help)
+            .ascii("\n# TYPE ").ascii(name).writeByte(' ').ascii(type).writeByte('\n');
+    }
+
+    /**
+     * 计数器: OpenMetrics 的指标族名不带 _total 而样本带；Prometheus 文本格式两者都带 _total
+     */
+    private void counter(String name, String help, long value, boolean openMetrics) {
+        family(openMetrics ? name : name + "_total", "counter", help);
+        text.ascii(name).ascii("_total ").number(value).writeByte('\n');
+    }
+
+    private void sample(String name, long value) {
+        text.ascii(name).writeByte(' ').number(value).writeByte('\n');
+    }
+
+    private void sample(String name, double value) {
+        text.ascii(name).writeByte(' ').decimal(value).writeByte('\n');
+    }
+
+    private void coreSample(String name, int core, double value) {
+        text.ascii(name).ascii("{core=\"").number(core).ascii("\"} ").decimal(value).writeByte('\n');
+    }
+
+    private void labeledSample(String name, String label, String labelValue, double value) {
+        text.ascii(name).writeByte('{').ascii(label).ascii("=\"");
+        // 标签值: 转义反斜杠、双引号和换行，按 UTF-8 编码
+        if (labelValue != null) {
+            text.utf8(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+        }
+        text.ascii("\"} ").decimal(value).writeByte('\n');
+    }
+}
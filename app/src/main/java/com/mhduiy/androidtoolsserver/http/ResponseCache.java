@@ -0,0 +1,203 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import com.mhduiy.androidtoolsserver.monitor.SampleCache;
+import com.mhduiy.androidtoolsserver.util.DocumentWriter;
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 按 编码+路由+查询参数+样本代数 缓存已编码的完整HTTP响应
+ * 同一代数的样本只序列化一次，所有客户端共享同一个字节数组，一次写出即可；
+ * 样本源产生新代数时，旧代数的条目立即淘汰
+ */
+public class ResponseCache implements SampleCache.Listener {
+    private static final String TAG = "ResponseCache";
+
+    // 查询参数组合过多时的上限，超出后淘汰最早创建的条目
+    private static final int MAX_ENTRIES = 256;
+
+    public interface BodyWriter<T> {
+        void write(DocumentWriter writer, T value) throws IOException;
+    }
+
+    /**
+     * 缓存条目：状态行、头部和正文拼接后的完整响应
+     */
+    public static class Entry {
+        public final SampleCache<?> source;
+        public final long generation;
+        public final String etag;
+        public final byte[] response; // 200 响应
+        public final byte[] notModified; // 304 响应
+        public final int contentLength;
+        final long createdAt;
+
+        Entry(SampleCache<?> source, long generation, String etag, byte[] response, byte[] notModified, int contentLength) {
+            this.source = source;
+            this.generation = generation;
+            this.etag = etag;
+            this.response = response;
+            this.notModified = notModified;
+            this.contentLength = contentLength;
+            this.createdAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * 缓存统计
+     */
+    public static class Stats {
+        public int entries;
+        public long bytes;
+        public long hits;
+        public long misses;
+        public long notModified;
+        public long evictions;
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Object> buildLocks = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 获取或构建某个样本的响应
+     * 并发请求同一个键时只有一个线程序列化，其余线程等待后复用结果
+     * @param key 编码 + 路由 + 查询参数
+     * @param format DocumentWriter.FORMAT_*
+     */
+    public <T> Entry get(String key, SampleCache.Sample<T> sample, String format, BodyWriter<T> bodyWriter) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.source == sample.source && entry.generation == sample.generation) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        if (buildLocks.size() > MAX_ENTRIES * 4) {
+            // 锁对象只用于合并并发构建，清空后最多导致一次重复序列化
+            buildLocks.clear();
+        }
+        // putIfAbsent 而非 computeIfAbsent: 后者在 API 24 以下不可用
+        Object lock = new Object();
+        Object existing = buildLocks.putIfAbsent(key, lock);
+        if (existing != null) {
+            lock = existing;
+        }
+        synchronized (lock) {
+            entry = entries.get(key);
+            if (entry != null && entry.source == sample.source && entry.generation >= sample.generation) {
+                hits.incrementAndGet();
+                return entry;
+            }
+
+            misses.incrementAndGet();
+            sample.source.addListener(this);
+            entry = build(sample, format, bodyWriter);
+            entries.put(key, entry);
+        }
+
+        if (entries.size() > MAX_ENTRIES) {
+            evictOldest();
+        }
+        return entry;
+    }
+
+    public void recordNotModified() {
+        notModified.incrementAndGet();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public Stats getStats() {
+        Stats stats = new Stats();
+        for (Entry entry : entries.values()) {
+            stats.entries++;
+            stats.bytes += entry.response.length;
+        }
+        stats.hits = hits.get();
+        stats.misses = misses.get();
+        stats.notModified = notModified.get();
+        stats.evictions = evictions.get();
+        return stats;
+    }
+
+    /**
+     * 新样本产生后淘汰同一来源的旧代数条目
+     */
+    @Override
+    public void onNewGeneration(SampleCache<?> source, long generation) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.source == source && entry.generation < generation) {
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private <T> Entry build(SampleCache.Sample<T> sample, String format, BodyWriter<T> bodyWriter) throws IOException {
+        DocumentWriter document = DocumentWriter.obtain(format);
+        try {
+            bodyWriter.write(document, sample.value);
+            byte[] body = document.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            String etag = "\"" + sample.source.getName() + "-" + sample.generation + "-"
+                + Long.toHexString(crc.getValue()) + "\"";
+
+            byte[] headers = ("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + document.contentType() + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "ETag: " + etag + "\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                "Access-Control-Allow-Origin: *\r\n" +
+                "Access-Control-Allow-Methods: GET, POST, OPTIONS\r\n" +
+                "Access-Control-Allow-Headers: Content-Type, If-None-Match\r\n" +
+                "Access-Control-Expose-Headers: ETag\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+            byte[] response = new byte[headers.length + body.length];
+            System.arraycopy(headers, 0, response, 0, headers.length);
+            System.arraycopy(body, 0, response, headers.length, body.length);
+
+            byte[] notModifiedResponse = ("HTTP/1.1 304 Not Modified\r\n" +
+                "ETag: " + etag + "\r\n" +
+                "Access-Control-Allow-Origin: *\r\n" +
+                "Access-Control-Expose-Headers: ETag\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+            return new Entry(sample.source, sample.generation, etag, response, notModifiedResponse, body.length);
+        } finally {
+            document.release();
+        }
+    }
+
+    private void evictOldest() {
+        String oldestKey = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().createdAt < oldest) {
+                oldest = entry.getValue().createdAt;
+                oldestKey = entry.getKey();
+            }
+        }
+        if (oldestKey != null && entries.remove(oldestKey) != null) {
+            buildLocks.remove(oldestKey);
+            evictions.incrementAndGet();
+            Logger.d(TAG, "Evicted " + oldestKey + " (cache full)");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.mhduiy.androidtoolsserver.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 可复用的文本字节缓冲区，供 /metrics、/export 等逐行生成的文本输出使用
+ * 数字直接按位写入，不经过 String，常量文本按 ASCII 逐字符拷贝
+ */
+class TextBuffer {
+    private byte[] buffer;
+    private int length = 0;
+
+    TextBuffer(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * 指标名、帮助文本等常量只含 ASCII
+     */
+    TextBuffer ascii(String text) {
+        int count = text.length();
+        ensure(count);
+        for (int i = 0; i < count; i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    TextBuffer utf8(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    TextBuffer writeByte(int value) {
+        ensure(1);
+        buffer[length++] = (byte) value;
+        return this;
+    }
+
+    TextBuffer number(long value) {
+        ensure(20);
+        if (value == Long.MIN_VALUE) {
+            return ascii(Long.toString(value));
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // 数字是倒序写入的
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        return this;
+    }
+
+    /**
+     * 最多三位小数的定点输出，去掉末尾的 0
+     */
+    TextBuffer decimal(double value) {
+        if (Double.isNaN(value)) {
+            return ascii("NaN");
+        }
+        if (Double.isInfinite(value)) {
+            return ascii(value > 0 ? "+Inf" : "-Inf");
+        }
+        if (Math.abs(value) >= 1e15) {
+            return ascii(Double.toString(value));
+        }
+        long scaled = Math.round(value * 1000.0);
+        if (scaled < 0) {
+            writeByte('-');
+            scaled = -scaled;
+        }
+        number(scaled / 1000);
+        int fraction = (int) (scaled % 1000);
+        if (fraction == 0) return this;
+        ensure(4);
+        buffer[length++] = '.';
+        for (int divisor = 100; divisor > 0 && fraction > 0; divisor /= 10) {
+            buffer[length++] = (byte) ('0' + fraction / divisor);
+            fraction %= divisor;
+        }
+        return this;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+/**
+ * 单个采样源 (cpu / gpu / memory / battery) 的采样间隔调度
+ * 固定模式下按基准间隔采样；自适应模式下按主指标的变化调整间隔:
+ * 相邻两次样本的差值超过变化阈值、或该源的序列上有告警规则处于 pending/firing 时间隔减半，直到下限；
+ * 连续平稳时每次增加 1/4，直到上限。快降慢升，突发开始时很快提高采样率，空闲时逐步降低开销。
+ * 同时统计实际采样次数、固定间隔下应有的次数和单次采样耗时，用于衡量节省的开销
+ */
+public class AdaptiveSampler {
+    public static final long MIN_INTERVAL_MS = 100;
+    public static final long MAX_INTERVAL_MS = 60_000;
+
+    /**
+     * 调度状态和开销统计，计数从上次调整配置开始
+     */
+    public static class Stats {
+        public String source;
+        public String metric; // 判断变化的主指标
+        public boolean adaptive;
+        public long baseIntervalMs; // 固定模式的间隔
+        public long floorMs;
+        public long ceilingMs;
+        public double changeThreshold; // 主指标单位下的变化阈值
+        public long intervalMs; // 当前间隔
+        public double rateHz; // 当前采样率
+        public double averageRateHz; // 统计区间内的平均采样率
+        public long since;
+        public long samples;
+        public long fixedSamples; // 同一区间内按基准间隔应有的采样次数
+        public long savedSamples; // 负数表示突发期间比固定间隔多采样
+        public double sampleCostMs; // 单次采样的平均耗时
+        public double savedMs; // savedSamples * sampleCostMs
+        public long shrinks;
+        public long grows;
+    }
+
+    private final String source;
+    private final String metric;
+    private final long baseIntervalMs;
+
+    private boolean adaptive = false;
+    private long floorMs;
+    private long ceilingMs;
+    private double changeThreshold;
+
+    private long intervalMs;
+    private long nextDue = 0;
+    private double lastValue = Double.NaN;
+
+    private long since = System.currentTimeMillis();
+    private long samples = 0;
+    private long costedSamples = 0;
+    private long costNanos = 0;
+    private long shrinks = 0;
+    private long grows = 0;
+
+    public AdaptiveSampler(String source, String metric, long baseIntervalMs,
+                           long floorMs, long ceilingMs, double changeThreshold) {
+        this.source = source;
+        this.metric = metric;
+        this.baseIntervalMs = baseIntervalMs;
+        this.intervalMs = baseIntervalMs;
+        configure(false, floorMs, ceilingMs, changeThreshold);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 调整模式和边界，并重新开始统计
+     * @param floorMs 间隔下限，不小于 MIN_INTERVAL_MS
+     * @param ceilingMs 间隔上限，不大于 MAX_INTERVAL_MS 且不小于下限
+     */
+    public synchronized void configure(boolean adaptive, long floorMs, long ceilingMs, double changeThreshold) {
+        this.adaptive = adaptive;
+        this.floorMs = Math.max(MIN_INTERVAL_MS, Math.min(floorMs, MAX_INTERVAL_MS));
+        this.ceilingMs = Math.max(this.floorMs, Math.min(ceilingMs, MAX_INTERVAL_MS));
+        this.changeThreshold = Math.max(0, changeThreshold);
+        // 切换模式时从基准间隔重新开始
+        intervalMs = adaptive ? clamp(baseIntervalMs) : baseIntervalMs;
+        nextDue = 0;
+        lastValue = Double.NaN;
+        since = System.currentTimeMillis();
+        samples = 0;
+        costedSamples = 0;
+        costNanos = 0;
+        shrinks = 0;
+        grows = 0;
+    }
+
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public synchronized long getNextDue() {
+        return nextDue;
+    }
+
+    public synchronized boolean isDue(long now) {
+        return now >= nextDue;
+    }
+
+    /**
+     * 本轮已取样，下一次在当前间隔之后
+     */
+    public synchronized void scheduleNext(long now) {
+        nextDue = now + intervalMs;
+    }
+
+    /**
+     * 记录一次采样的耗时，只在本轮实际触发了采样 (而非复用缓存样本) 时调用
+     */
+    public synchronized void addCost(long nanos) {
+        costedSamples++;
+        costNanos += nanos;
+    }
+
+    /**
+     * 新样本到达，按主指标的变化调整间隔
+     * @param alerting 该源的序列上是否有告警规则处于 pending/firing
+     */
+    public synchronized void update(double value, boolean alerting) {
+        samples++;
+        double previous = lastValue;
+        lastValue = value;
+        if (!adaptive) return;
+
+        boolean changed = !Double.isNaN(previous) && Math.abs(value - previous) > changeThreshold;
+        if (changed || alerting) {
+            long shrunk = clamp(intervalMs / 2);
+            if (shrunk < intervalMs) {
+                intervalMs = shrunk;
+                shrinks++;
+            }
+        } else {
+            long grown = clamp(intervalMs + Math.max(1, intervalMs / 4));
+            if (grown > intervalMs) {
+                intervalMs = grown;
+                grows++;
+            }
+        }
+    }
+
+    public synchronized Stats getStats() {
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(1, now - since);
+        Stats stats = new Stats();
+        stats.source = source;
+        stats.metric = metric;
+        stats.adaptive = adaptive;
+        stats.baseIntervalMs = baseIntervalMs;
+        stats.floorMs = floorMs;
+        stats.ceilingMs = ceilingMs;
+        stats.changeThreshold = changeThreshold;
+        stats.intervalMs = intervalMs;
+        stats.rateHz = 1000.0 / intervalMs;
+        stats.averageRateHz = samples * 1000.0 / elapsed;
+        stats.since = since;
+        stats.samples = samples;
+        stats.fixedSamples = elapsed / baseIntervalMs + (samples > 0 ? 1 : 0);
+        stats.savedSamples = stats.fixedSamples - samples;
+        stats.sampleCostMs = costedSamples > 0 ? costNanos / 1_000_000.0 / costedSamples : 0;
+        stats.savedMs = stats.savedSamples * stats.sampleCostMs;
+        stats.shrinks = shrinks;
+        stats.grows = grows;
+        return stats;
+    }
+
+    private long clamp(long interval) {
+        return Math.max(floorMs, Math.min(interval, ceilingMs));
+    }
+}
@@ -0,0 +1,298 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 阈值告警引擎：规则挂在 TimeSeriesStore 的序列上，每个新数据点到达时增量判断
+ * 规则按序列 id 建索引，一个点只检查挂在该序列上的规则，没有规则的序列只是一次数组读取；
+ * 规则表写时复制，判断路径不分配内存，只有状态切换时才生成事件。
+ * 状态: ok -> pending (越过阈值，等待持续时间) -> firing -> ok (回到恢复阈值，含等于)；
+ * 恢复阈值与触发阈值之间是回差区间，值在其中抖动不会反复触发。
+ * 事件 (firing/resolved) 保存在定长环形缓冲区中，按 seq 递增，/stream 和 /alerts/events 据此增量读取
+ */
+public class AlertEngine {
+    private static final String TAG = "AlertEngine";
+
+    public static final int MAX_RULES = 64;
+    public static final int EVENT_CAPACITY = 256;
+
+    public static final String STATE_OK = "ok";
+    public static final String STATE_PENDING = "pending";
+    public static final String STATE_FIRING = "firing";
+    public static final String STATE_RESOLVED = "resolved";
+
+    private static final Rule[] NO_RULES = new Rule[0];
+
+    /**
+     * 事件回调，在引擎锁内调用，实现必须足够轻量
+     */
+    public interface Listener {
+        void onEvent(Event event);
+    }
+
+    /**
+     * 一条告警规则及其当前状态
+     */
+    public static class Rule {
+        public int id;
+        public String name;
+        public String metric;
+        public boolean above; // true: 值高于阈值时触发；false: 低于阈值时触发
+        public double threshold;
+        public double clear; // 恢复阈值，默认等于触发阈值
+        public long forMs; // 条件需持续的时长 (毫秒)，0 表示立即触发
+        public String state = STATE_OK;
+        public long stateSince; // 进入当前状态的数据点时间，从未越过阈值时为 0
+        public double lastValue;
+        public long lastTimestamp;
+        public long fireCount;
+
+        private int seriesId;
+    }
+
+    /**
+     * 规则状态切换事件
+     */
+    public static class Event {
+        public long seq;
+        public int ruleId;
+        public String rule;
+        public String metric;
+        public String state; // firing 或 resolved
+        public double value;
+        public double threshold;
+        public long timestamp; // 触发切换的数据点时间
+    }
+
+    private final TimeSeriesStore store;
+    // 按序列 id 索引的规则，写时复制，判断时无需遍历全部规则
+    private volatile Rule[][] rulesBySeries;
+    private final List<Rule> rules = new ArrayList<>();
+    private int nextId = 1;
+
+    private final Event[] events = new Event[EVENT_CAPACITY];
+    private long lastSeq = 0;
+    private volatile Listener listener;
+
+    public AlertEngine(TimeSeriesStore store) {
+        this.store = store;
+        List<TimeSeriesStore.Series> all = store.getAllSeries();
+        Rule[][] empty = new Rule[all.size()][];
+        Arrays.fill(empty, NO_RULES);
+        this.rulesBySeries = empty;
+    }
+
+    /**
+     * 添加规则
+     * @param name 规则名，null 时由指标和阈值生成
+     * @param clear 恢复阈值，需位于触发阈值的恢复一侧 (above 时不大于 threshold)
+     * @return 新规则的快照；指标不存在或规则数已满时返回 null
+     */
+    public synchronized Rule addRule(String name, String metric, boolean above, double threshold,
+                                     double clear, long forMs) {
+        TimeSeriesStore.Series series = store.getSeries(metric);
+        if (series == null || rules.size() >= MAX_RULES) {
+            return null;
+        }
+
+        Rule rule = new Rule();
+        rule.id = nextId++;
+        rule.name = name != null ? name : metric + (above ? " > " : " < ") + threshold;
+        rule.metric = metric;
+        rule.above = above;
+        rule.threshold = threshold;
+        rule.clear = above ? Math.min(clear, threshold) : Math.max(clear, threshold);
+        rule.forMs = Math.max(0, forMs);
+        rule.seriesId = series.id;
+        rules.add(rule);
+        rebuildIndex();
+        Logger.i(TAG, "Alert rule added: #" + rule.id + " " + rule.name);
+        return copyOf(rule);
+    }
+
+    public synchronized boolean removeRule(int id) {
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).id == id) {
+                rules.remove(i);
+                rebuildIndex();
+                Logger.i(TAG, "Alert rule removed: #" + id);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized List<Rule> getRules() {
+        List<Rule> copies = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            copies.add(copyOf(rule));
+        }
+        return copies;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 最新事件的序号，没有事件时为 0
+     */
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * seq 大于 afterSeq 的事件，按序号升序；已被覆盖的旧事件不再返回，客户端可由序号跳变发现
+     */
+    public synchronized List<Event> getEvents(long afterSeq) {
+        long first = Math.max(afterSeq + 1, lastSeq - EVENT_CAPACITY + 1);
+        if (first > lastSeq) {
+            return new ArrayList<>();
+        }
+        List<Event> result = new ArrayList<>((int) (lastSeq - first + 1));
+        for (long seq = first; seq <= lastSeq; seq++) {
+            result.add(events[(int) (seq % EVENT_CAPACITY)]);
+        }
+        return result;
+    }
+
+    /**
+     * 序列上是否挂有规则，供记录器让按需采集的数据源 (如帧率) 保持运行
+     */
+    public boolean hasRules(int seriesId) {
+        Rule[][] index = rulesBySeries;
+        return seriesId < index.length && index[seriesId].length > 0;
+    }
+
+    /**
+     * 序列上是否有规则越过了阈值 (pending 或 firing)，供自适应采样提高采样率
+     */
+    public boolean isActive(int seriesId) {
+        Rule[][] index = rulesBySeries;
+        if (seriesId >= index.length || index[seriesId].length == 0) return false;
+        synchronized (this) {
+            for (Rule rule : index[seriesId]) {
+                if (!STATE_OK.equals(rule.state)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 新数据点到达，由 MetricRecorder 的存储下游在 Series.add() 中调用
+     */
+    public void evaluate(int seriesId, long timestamp, double value) {
+        Rule[][] index = rulesBySeries;
+        if (seriesId >= index.length) return;
+        Rule[] seriesRules = index[seriesId];
+        if (seriesRules.length == 0) return;
+
+        synchronized (this) {
+            for (Rule rule : seriesRules) {
+                evaluate(rule, timestamp, value);
+            }
+        }
+    }
+
+    private void evaluate(Rule rule, long timestamp, double value) {
+        rule.lastValue = value;
+        rule.lastTimestamp = timestamp;
+        boolean breached = rule.above ? value > rule.threshold : value < rule.threshold;
+
+        switch (rule.state) {
+            case STATE_OK:
+                if (!breached) return;
+                setState(rule, STATE_PENDING, timestamp);
+                // 持续时间为 0 时同一个点直接触发
+                checkDuration(rule, timestamp, value);
+                return;
+
+            case STATE_PENDING:
+                if (!breached) {
+                    setState(rule, STATE_OK, timestamp);
+                    return;
+                }
+                checkDuration(rule, timestamp, value);
+                return;
+
+            case STATE_FIRING:
+                boolean cleared = rule.above ? value <= rule.clear : value >= rule.clear;
+                if (cleared) {
+                    setState(rule, STATE_OK, timestamp);
+                    appendEvent(rule, STATE_RESOLVED, timestamp, value);
+                }
+                return;
+        }
+    }
+
+    private void checkDuration(Rule rule, long timestamp, double value) {
+        if (timestamp - rule.stateSince >= rule.forMs) {
+            setState(rule, STATE_FIRING, timestamp);
+            rule.fireCount++;
+            appendEvent(rule, STATE_FIRING, timestamp, value);
+        }
+    }
+
+    private static void setState(Rule rule, String state, long timestamp) {
+        rule.state = state;
+        rule.stateSince = timestamp;
+    }
+
+    private void appendEvent(Rule rule, String state, long timestamp, double value) {
+        Event event = new Event();
+        event.seq = ++lastSeq;
+        event.ruleId = rule.id;
+        event.rule = rule.name;
+        event.metric = rule.metric;
+        event.state = state;
+        event.value = value;
+        event.threshold = STATE_FIRING.equals(state) ? rule.threshold : rule.clear;
+        event.timestamp = timestamp;
+        events[(int) (event.seq % EVENT_CAPACITY)] = event;
+        Logger.i(TAG, "Alert " + state + ": " + rule.name + " (value " + value + ")");
+        Listener current = listener;
+        if (current != null) {
+            current.onEvent(event);
+        }
+    }
+
+    private void rebuildIndex() {
+        Rule[][] index = new Rule[rulesBySeries.length][];
+        int[] counts = new int[index.length];
+        for (Rule rule : rules) {
+            counts[rule.seriesId]++;
+        }
+        for (int i = 0; i < index.length; i++) {
+            index[i] = counts[i] == 0 ? NO_RULES : new Rule[counts[i]];
+            counts[i] = 0;
+        }
+        for (Rule rule : rules) {
+            index[rule.seriesId][counts[rule.seriesId]++] = rule;
+        }
+        rulesBySeries = index;
+    }
+
+    private static Rule copyOf(Rule rule) {
+        Rule copy = new Rule();
+        copy.id = rule.id;
+        copy.name = rule.name;
+        copy.metric = rule.metric;
+        copy.above = rule.above;
+        copy.threshold = rule.threshold;
+        copy.clear = rule.clear;
+        copy.forMs = rule.forMs;
+        copy.state = rule.state;
+        copy.stateSince = rule.stateSince;
+        copy.lastValue = rule.lastValue;
+        copy.lastTimestamp = rule.lastTimestamp;
+        copy.fireCount = rule.fireCount;
+        copy.seriesId = rule.seriesId;
+        return copy;
+    }
+}
@@ -1,18 +1,11 @@
 package com.mhduiy.androidtoolsserver.monitor;
 
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.graphics.drawable.Drawable;
 import android.util.Log;
 
 import com.mhduiy.androidtoolsserver.util.ContextManager;
+import com.mhduiy.androidtoolsserver.util.IconCache;
 import com.mhduiy.androidtoolsserver.util.Logger;
-import com.mhduiy.androidtoolsserver.util.Utils;
-
-import java.util.ArrayList;
-import java.util.List;
 
 public class AppMonitor {
     private static final String TAG = "AppMonitor";
@@ -26,87 +19,41 @@ public class AppMonitor {
         public boolean isEnabled;
         public long firstInstallTime;
         public long lastUpdateTime;
+        public long generation; // 索引中最后一次变化时的代数
     }
 
-    public List<AppBaseInfo> getAllApps() {
-        List<AppBaseInfo> apps = new ArrayList<>();
-        Context context = ContextManager.getContext();
-
-        if (context == null) {
-            Log.e(TAG, "Context is null, cannot get installed apps");
-            return apps;
-        }
-
-        try {
-            PackageManager pm = context.getPackageManager();
-            List<PackageInfo> packages = pm.getInstalledPackages(PackageManager.GET_META_DATA);
-
-            for (PackageInfo packageInfo : packages) {
-                AppBaseInfo appInfo = new AppBaseInfo();
-
-                // 基本包信息
-                appInfo.packageName = packageInfo.packageName;
-                appInfo.versionName = packageInfo.versionName;
-                appInfo.versionCode = packageInfo.versionCode;
-                appInfo.firstInstallTime = packageInfo.firstInstallTime;
-                appInfo.lastUpdateTime = packageInfo.lastUpdateTime;
-
-                // 获取应用名称
-                try {
-                    ApplicationInfo applicationInfo = packageInfo.applicationInfo;
-                    appInfo.appName = pm.getApplicationLabel(applicationInfo).toString();
-                    appInfo.isSystemApp = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                    appInfo.isEnabled = applicationInfo.enabled;
-                } catch (Exception e) {
-                    appInfo.appName = packageInfo.packageName;
-                    appInfo.isSystemApp = false;
-                    appInfo.isEnabled = true;
-                }
-
-                apps.add(appInfo);
-            }
+    private final PackageIndex packageIndex = new PackageIndex();
 
-            Log.i(TAG, "Successfully retrieved " + apps.size() + " installed apps");
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to get installed apps: " + e.getMessage());
-        }
+    /**
+     * 过滤、排序并分页查询应用，返回的应用名称可能仍在解析，输出前需调用 ensureLabel
+     */
+    public PackageIndex.QueryResult queryApps(PackageIndex.Query query) {
+        return packageIndex.query(query);
+    }
 
-        return apps;
+    public void ensureLabel(AppBaseInfo app) {
+        packageIndex.ensureLabel(app);
     }
 
     /**
-     * 获取用户安装的应用（排除系统应用）
+     * 获取指定代数之后变化的应用
      */
-    public List<AppBaseInfo> getUserApps() {
-        List<AppBaseInfo> allApps = getAllApps();
-        List<AppBaseInfo> userApps = new ArrayList<>();
-
-        for (AppBaseInfo app : allApps) {
-            if (!app.isSystemApp) {
-                userApps.add(app);
-            }
-        }
+    public PackageIndex.Changes getChanges(long since) {
+        return packageIndex.getChanges(since);
+    }
 
-        return userApps;
+    public PackageIndex getPackageIndex() {
+        return packageIndex;
     }
 
     public static String getIconBase64(String packageName) {
-        Logger.e(TAG, "Getting icon for package: " + packageName);
+        Logger.d(TAG, "Getting icon for package: " + packageName);
         Context context = ContextManager.getContext();
         if (context == null) {
             Log.e(TAG, "Context is null, cannot get app icon");
             return null;
         }
 
-        try {
-            PackageManager pm = context.getPackageManager();
-            Drawable icon = pm.getApplicationIcon(packageName);
-            return Utils.drawableToBase64(icon);
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to get app icon for " + packageName + ": " + e.getMessage());
-        }
-
-        return null;
+        return IconCache.getInstance().getBase64(packageName);
     }
 }
@@ -8,10 +8,9 @@ import android.os.Build;
 import android.util.Log;
 
 import com.mhduiy.androidtoolsserver.util.ContextManager;
+import com.mhduiy.androidtoolsserver.util.FileUtils;
 import com.mhduiy.androidtoolsserver.util.Logger;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,7 +22,8 @@ public class BatteryMonitor {
         public int scale; // 电池容量 (通常为100)
         public long capacity; // 电池容量 (单位: 微安时)
         public int voltage; // 电池电压 (单位: 毫伏)
-        public int current; // 当前电流 (单位: 毫安)
+        public int current; // 当前电流 (单位: 微安，正值充电，负值放电)
+        public double power; // 当前功率 (单位: 毫瓦)
         public int temperature; // 电池温度 (单位: 摄氏度*10)
         public String technology; // 电池技术类型 (如 Li-ion)
         public int chargeCounter; // 充电计数器
@@ -45,6 +45,8 @@ public class BatteryMonitor {
                     batteryInfo.capacity = batteryManager.getLongProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
                     batteryInfo.chargeCounter = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
                 }
+                // 微安 x 毫伏 -> 毫瓦
+                batteryInfo.power = batteryInfo.current / 1000.0 * batteryInfo.voltage / 1000.0;
             } catch (Exception e) {
                 Logger.w(TAG, "Android API failed: " + e.getMessage());
             }
@@ -56,11 +58,13 @@ public class BatteryMonitor {
         BatteryInfo batteryInfo = new BatteryInfo();
 
         try {
-            Process process = Runtime.getRuntime().exec("dumpsys battery");
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
+            String output = FileUtils.executeCommand("dumpsys battery");
+            if (output == null) {
+                Log.e(TAG, "Failed to get battery info from dumpsys: no output");
+                return batteryInfo;
+            }
 
-            while ((line = reader.readLine()) != null) {
+            for (String line : output.split("\n")) {
                 line = line.trim();
                 if (line.startsWith("level:")) {
                     batteryInfo.level = Integer.parseInt(line.split(":")[1].trim());
@@ -88,8 +92,6 @@ public class BatteryMonitor {
                     }
                 }
             }
-            reader.close();
-            process.waitFor();
 
             // 尝试从power_supply获取电流信息
             batteryInfo.current = getCurrentFromPowerSupply();
@@ -117,14 +119,11 @@ public class BatteryMonitor {
 
         for (String path : paths) {
             try {
-                Process process = Runtime.getRuntime().exec("cat " + path);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                String line = reader.readLine();
-                reader.close();
-                process.waitFor();
-
-                if (line != null && !line.trim().isEmpty()) {
-                    int current = Integer.parseInt(line.trim());
+                // sysfs属性直接读取，不需要启动cat进程
+                String line = FileUtils.readFile(path);
+
+                if (line != null && !line.isEmpty()) {
+                    int current = Integer.parseInt(line);
                     if (current != 0) {
                         return current;
                     }
@@ -146,14 +145,11 @@ public class BatteryMonitor {
 
         for (String path : paths) {
             try {
-                Process process = Runtime.getRuntime().exec("cat " + path);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                String line = reader.readLine();
-                reader.close();
-                process.waitFor();
-
-                if (line != null && !line.trim().isEmpty()) {
-                    long capacity = Long.parseLong(line.trim());
+                // sysfs属性直接读取，不需要启动cat进程
+                String line = FileUtils.readFile(path);
+
+                if (line != null && !line.isEmpty()) {
+                    long capacity = Long.parseLong(line);
                     if (capacity != 0) {
                         return capacity;
                     }
@@ -17,6 +17,12 @@ public class CPUMonitor {
     private static final File CPU_STAT_FILE = new File("/proc/stat");
     private static final File THERMAL_ZONE_DIR = new File("/sys/class/thermal");
     private static final String TAG = "CPUMonitor";
+
+    // 可按需采集的部分，使用率总是计算（需要连续的 /proc/stat 快照）
+    public static final int PART_BASIC = 1;        // /proc/cpuinfo: 型号、架构、核心数
+    public static final int PART_FREQUENCY = 1 << 1; // 各核心当前频率和频率范围
+    public static final int PART_TEMPERATURE = 1 << 2; // 遍历 thermal_zone 读取温度
+    public static final int PART_ALL = PART_BASIC | PART_FREQUENCY | PART_TEMPERATURE;
     // 上次CPU统计信息，用于计算使用率
     private CpuStat lastCpuStat = null;
     private long lastStatTime = 0;
@@ -69,12 +75,21 @@ public class CPUMonitor {
     }
 
     public CpuInfo getInfo() {
+        return getInfo(PART_ALL);
+    }
+
+    /**
+     * 只采集 parts 指定的部分，其余字段保持默认值
+     */
+    public CpuInfo getInfo(int parts) {
         CpuInfo cpuInfo = new CpuInfo();
         try {
             // 读取CPU基本信息
-            String cpuInfoContent = readAllText(CPU_INFO_FILE);
-            if (!cpuInfoContent.isEmpty()) {
-                parseCpuBasicInfo(cpuInfo, cpuInfoContent);
+            if ((parts & (PART_BASIC | PART_FREQUENCY)) != 0) {
+                String cpuInfoContent = readAllText(CPU_INFO_FILE);
+                if (!cpuInfoContent.isEmpty()) {
+                    parseCpuBasicInfo(cpuInfo, cpuInfoContent);
+                }
             }
 
             // 获取CPU使用率
@@ -89,14 +104,18 @@ public class CPUMonitor {
                 lastStatTime = System.currentTimeMillis();
             }
 
-            // 获取CPU频率信息
-            getCpuFrequencies(cpuInfo);
+            if ((parts & PART_FREQUENCY) != 0) {
+                // 获取CPU频率信息
+                getCpuFrequencies(cpuInfo);
 
-            // 生成核心详细信息
-            generateCoreInfoList(cpuInfo);
+                // 生成核心详细信息
+                generateCoreInfoList(cpuInfo);
+            }
 
             // 获取CPU温度
-            cpuInfo.temperature = getCpuTemperature();
+            if ((parts & PART_TEMPERATURE) != 0) {
+                cpuInfo.temperature = getCpuTemperature();
+            }
 
         } catch (Exception e) {
             Logger.e(TAG, "Error getting CPU info: " + e.getMessage(), e);
@@ -104,6 +123,42 @@ public class CPUMonitor {
         return cpuInfo;
     }
 
+    /**
+     * 在已有样本上补采 parts 部分，使用率沿用已有样本且不推进 /proc/stat 基准，
+     * 避免同一采样间隔内的补采得到几毫秒窗口内的使用率
+     */
+    public CpuInfo topUp(CpuInfo previous, int parts) {
+        CpuInfo cpuInfo = new CpuInfo();
+        cpuInfo.model = previous.model;
+        cpuInfo.architecture = previous.architecture;
+        cpuInfo.coreCount = previous.coreCount;
+        cpuInfo.currentUsage = previous.currentUsage;
+        cpuInfo.coreUsages.addAll(previous.coreUsages);
+        cpuInfo.frequencies.addAll(previous.frequencies);
+        cpuInfo.cores.addAll(previous.cores);
+        cpuInfo.temperature = previous.temperature;
+        cpuInfo.maxFrequency = previous.maxFrequency;
+        cpuInfo.minFrequency = previous.minFrequency;
+        try {
+            if ((parts & (PART_BASIC | PART_FREQUENCY)) != 0) {
+                String cpuInfoContent = readAllText(CPU_INFO_FILE);
+                if (!cpuInfoContent.isEmpty()) {
+                    parseCpuBasicInfo(cpuInfo, cpuInfoContent);
+                }
+            }
+            if ((parts & PART_FREQUENCY) != 0) {
+                getCpuFrequencies(cpuInfo);
+                generateCoreInfoList(cpuInfo);
+            }
+            if ((parts & PART_TEMPERATURE) != 0) {
+                cpuInfo.temperature = getCpuTemperature();
+            }
+        } catch (Exception e) {
+            Logger.e(TAG, "Error topping up CPU info: " + e.getMessage(), e);
+        }
+        return cpuInfo;
+    }
+
     /**
      * 解析CPU基本信息
      */
@@ -282,7 +337,7 @@ public class CPUMonitor {
     /**
      * 通过/sys目录获取CPU核心数
      */
-    private int getCoreCountFromSys() {
+    static int getCoreCountFromSys() {
         File cpuDir = new File("/sys/devices/system/cpu");
         if (!cpuDir.exists()) return 1;
 
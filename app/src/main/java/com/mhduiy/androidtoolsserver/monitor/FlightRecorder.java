@@ -0,0 +1,305 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 飞行记录器：按原始速率 (含逐帧耗时) 滚动保存所有序列最近的数据点，
+ * 触发时 (手动调用或告警规则触发) 把触发前窗口和之后 postTriggerMs 内的点冻结为一份捕获，可整体下载。
+ * 滚动缓冲区是创建时一次性分配的三个平行数组 (序列 id / 时间戳 / 值)，写满后覆盖最旧的点，
+ * 与 TimeSeriesStore 各序列独立的环形缓冲区不同，所有序列共享一个按到达顺序的环，逐帧数据越多回溯时间越短；
+ * 默认容量按每秒约 160 点 (40 个序列点加 120 帧) 可回溯约 200 秒，覆盖 MAX_WINDOW_MS 的触发前窗口。
+ * 捕获在触发时分配，结束时裁剪到实际点数，最多保留 MAX_CAPTURES 份
+ */
+public class FlightRecorder {
+    private static final String TAG = "FlightRecorder";
+
+    // 每点 2 + 8 + 8 字节，约 576KB；每秒约 40 个序列点加 60-120 帧时可回溯约 200-330 秒
+    public static final int DEFAULT_CAPACITY = 32768;
+    public static final long DEFAULT_PRE_TRIGGER_MS = 30_000;
+    public static final long DEFAULT_POST_TRIGGER_MS = 10_000;
+    public static final long MAX_WINDOW_MS = 120_000;
+    public static final int MAX_CAPTURES = 4;
+
+    // 告警触发设置: 不触发 / 任意规则触发，其他值为规则 id
+    public static final int TRIGGER_NONE = -1;
+    public static final int TRIGGER_ANY_RULE = 0;
+
+    private static final int POINT_BYTES = 18;
+
+    /**
+     * 一份捕获: [since, until] 内所有序列的原始点，按到达顺序保存
+     */
+    public static class Capture {
+        public int id;
+        public String reason;
+        public long triggerTime;
+        public long since; // triggerTime - 触发前窗口
+        public long until; // triggerTime + 触发后窗口
+        public boolean complete; // 触发后窗口已结束
+        public boolean truncated; // 窗口内的点超出容量，之后的点被丢弃
+        public int count;
+        // 按序列分组的列式点集，只在 getCapture(id, true) 的结果中填充
+        public List<TimeSeriesStore.Points> series;
+
+        private short[] seriesIds;
+        private long[] timestamps;
+        private double[] values;
+
+        private void add(short seriesId, long timestamp, double value) {
+            if (count == timestamps.length) {
+                truncated = true;
+                return;
+            }
+            seriesIds[count] = seriesId;
+            timestamps[count] = timestamp;
+            values[count] = value;
+            count++;
+        }
+    }
+
+    /**
+     * 记录器状态
+     */
+    public static class Stats {
+        public int capacity;
+        public int size;
+        public long oldest; // 缓冲区中最旧点的到达时间，空时为 0
+        public long memoryBytes;
+        public long preTriggerMs;
+        public long postTriggerMs;
+        public int triggerRule;
+        public int activeCapture; // 正在进行的捕获 id，没有时为 0
+        public List<Capture> captures = new ArrayList<>();
+    }
+
+    private final TimeSeriesStore store;
+    private final short[] seriesIds;
+    private final long[] timestamps;
+    private final double[] values;
+    private int head = 0; // 下一个写入位置
+    private int size = 0;
+
+    private long preTriggerMs = DEFAULT_PRE_TRIGGER_MS;
+    private long postTriggerMs = DEFAULT_POST_TRIGGER_MS;
+    private int triggerRule = TRIGGER_NONE;
+
+    private final List<Capture> captures = new ArrayList<>();
+    private Capture active;
+    private int nextCaptureId = 1;
+
+    public FlightRecorder(TimeSeriesStore store, int capacity) {
+        this.store = store;
+        this.seriesIds = new short[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * 新数据点，由 MetricRecorder 的存储下游在 Series.add() 中调用，不分配内存
+     */
+    public synchronized void append(int seriesId, long timestamp, double value) {
+        seriesIds[head] = (short) seriesId;
+        timestamps[head] = timestamp;
+        this.values[head] = value;
+        head = head + 1 == timestamps.length ? 0 : head + 1;
+        if (size < timestamps.length) {
+            size++;
+        }
+
+        if (active != null) {
+            if (timestamp > active.until) {
+                finish();
+            } else if (timestamp >= active.since) {
+                active.add((short) seriesId, timestamp, value);
+            }
+        }
+    }
+
+    /**
+     * @param preMs 触发前窗口，不超过 MAX_WINDOW_MS
+     * @param postMs 触发后窗口，不超过 MAX_WINDOW_MS
+     * @param rule 告警触发设置，TRIGGER_NONE / TRIGGER_ANY_RULE / 规则 id
+     */
+    public synchronized void configure(long preMs, long postMs, int rule) {
+        preTriggerMs = Math.max(0, Math.min(preMs, MAX_WINDOW_MS));
+        postTriggerMs = Math.max(0, Math.min(postMs, MAX_WINDOW_MS));
+        triggerRule = rule;
+        Logger.i(TAG, "Configured pre " + preTriggerMs + "ms, post " + postTriggerMs + "ms, rule " + rule);
+    }
+
+    /**
+     * AlertEngine 事件回调，规则触发 (firing) 且匹配触发设置时开始捕获
+     */
+    public void onAlert(AlertEngine.Event event) {
+        if (!AlertEngine.STATE_FIRING.equals(event.state)) return;
+        synchronized (this) {
+            if (triggerRule == TRIGGER_NONE || (triggerRule != TRIGGER_ANY_RULE && triggerRule != event.ruleId)) {
+                return;
+            }
+            trigger("alert: " + event.rule, event.timestamp);
+        }
+    }
+
+    /**
+     * 开始一份捕获；已有捕获进行中时不重复触发，返回进行中的那一份
+     * @return 捕获的快照 (不含数据)
+     */
+    public synchronized Capture trigger(String reason, long triggerTime) {
+        if (active != null && System.currentTimeMillis() > active.until) {
+            finish();
+        }
+        if (active != null) {
+            return summaryOf(active);
+        }
+
+        Capture capture = new Capture();
+        capture.id = nextCaptureId++;
+        capture.reason = reason;
+        capture.triggerTime = triggerTime;
+        capture.since = triggerTime - preTriggerMs;
+        capture.until = triggerTime + postTriggerMs;
+        // 触发后的点继续追加，容量与滚动缓冲区相同
+        capture.seriesIds = new short[timestamps.length];
+        capture.timestamps = new long[timestamps.length];
+        capture.values = new double[timestamps.length];
+
+        // 按到达顺序冻结触发前窗口；不同来源的时间戳交错，不能二分查找
+        int start = head - size < 0 ? head - size + timestamps.length : head - size;
+        for (int i = 0; i < size; i++) {
+            int index = start + i < timestamps.length ? start + i : start + i - timestamps.length;
+            if (timestamps[index] >= capture.since && timestamps[index] <= capture.until) {
+                capture.add(seriesIds[index], timestamps[index], values[index]);
+            }
+        }
+
+        active = capture;
+        captures.add(capture);
+        if (captures.size() > MAX_CAPTURES) {
+            captures.remove(0);
+        }
+        Logger.i(TAG, "Capture #" + capture.id + " triggered (" + reason + "), " + capture.count + " pre-trigger points");
+        if (postTriggerMs == 0) {
+            finish();
+        }
+        return summaryOf(capture);
+    }
+
+    /**
+     * 捕获的快照，不存在时返回 null
+     * @param withData 是否带上按序列分组的数据点
+     */
+    public Capture getCapture(int id, boolean withData) {
+        Capture summary;
+        Capture source;
+        synchronized (this) {
+            finishIfExpired();
+            Capture capture = find(id);
+            if (capture == null) {
+                return null;
+            }
+            summary = summaryOf(capture);
+            if (!withData) {
+                return summary;
+            }
+            source = capture;
+            if (!capture.complete) {
+                // 进行中的捕获拷贝当前的点，分组在锁外进行
+                source = summaryOf(capture);
+                source.seriesIds = Arrays.copyOf(capture.seriesIds, capture.count);
+                source.timestamps = Arrays.copyOf(capture.timestamps, capture.count);
+                source.values = Arrays.copyOf(capture.values, capture.count);
+            }
+        }
+        // 完成的捕获不再修改，可在锁外读取
+        summary.series = toPoints(source);
+        return summary;
+    }
+
+    public synchronized Stats getStats() {
+        finishIfExpired();
+        Stats stats = new Stats();
+        stats.capacity = timestamps.length;
+        stats.size = size;
+        stats.oldest = size == 0 ? 0 : timestamps[head - size < 0 ? head - size + timestamps.length : head - size];
+        stats.memoryBytes = (long) timestamps.length * POINT_BYTES;
+        stats.preTriggerMs = preTriggerMs;
+        stats.postTriggerMs = postTriggerMs;
+        stats.triggerRule = triggerRule;
+        stats.activeCapture = active != null ? active.id : 0;
+        for (Capture capture : captures) {
+            stats.captures.add(summaryOf(capture));
+        }
+        return stats;
+    }
+
+    private List<TimeSeriesStore.Points> toPoints(Capture capture) {
+        List<TimeSeriesStore.Series> all = store.getAllSeries();
+        int[] counts = new int[all.size()];
+        for (int i = 0; i < capture.count; i++) {
+            counts[capture.seriesIds[i]]++;
+        }
+
+        TimeSeriesStore.Points[] points = new TimeSeriesStore.Points[all.size()];
+        List<TimeSeriesStore.Points> result = new ArrayList<>();
+        for (int i = 0; i < points.length; i++) {
+            TimeSeriesStore.Series series = all.get(i);
+            points[i] = new TimeSeriesStore.Points(series.name, series.unit, 0, counts[i]);
+            if (counts[i] > 0) {
+                result.add(points[i]);
+            }
+            counts[i] = 0;
+        }
+        // 每个序列的点在环中按时间顺序到达，分组后仍然有序
+        for (int i = 0; i < capture.count; i++) {
+            int seriesId = capture.seriesIds[i];
+            TimeSeriesStore.Points target = points[seriesId];
+            target.timestamps[counts[seriesId]] = capture.timestamps[i];
+            target.values[counts[seriesId]] = capture.values[i];
+            counts[seriesId]++;
+        }
+        return result;
+    }
+
+    private void finishIfExpired() {
+        if (active != null && System.currentTimeMillis() > active.until) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        Capture capture = active;
+        active = null;
+        capture.complete = true;
+        capture.seriesIds = Arrays.copyOf(capture.seriesIds, capture.count);
+        capture.timestamps = Arrays.copyOf(capture.timestamps, capture.count);
+        capture.values = Arrays.copyOf(capture.values, capture.count);
+        Logger.i(TAG, "Capture #" + capture.id + " complete, " + capture.count + " points"
+            + (capture.truncated ? " (truncated)" : ""));
+    }
+
+    private Capture find(int id) {
+        for (Capture capture : captures) {
+            if (capture.id == id) {
+                return capture;
+            }
+        }
+        return null;
+    }
+
+    private static Capture summaryOf(Capture capture) {
+        Capture copy = new Capture();
+        copy.id = capture.id;
+        copy.reason = capture.reason;
+        copy.triggerTime = capture.triggerTime;
+        copy.since = capture.since;
+        copy.until = capture.until;
+        copy.complete = capture.complete;
+        copy.truncated = capture.truncated;
+        copy.count = capture.count;
+        return copy;
+    }
+}
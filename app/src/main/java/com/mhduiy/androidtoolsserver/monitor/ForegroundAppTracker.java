@@ -0,0 +1,318 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+
+import com.mhduiy.androidtoolsserver.util.ContextManager;
+import com.mhduiy.androidtoolsserver.util.FileUtils;
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 前台应用跟踪器
+ * 通过反射向 ActivityManager 注册 OnUidImportanceListener，在前台 uid 变化时
+ * 用 binder 查询栈顶 Activity 并缓存在内存中，查询前台应用只需读取缓存。
+ * 注册失败时退回到解析 dumpsys activity activities
+ */
+public class ForegroundAppTracker {
+    private static final String TAG = "ForegroundAppTracker";
+
+    // 缓存超过该时间后再用 binder 刷新一次，用于捕获同一应用内的 Activity 切换
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    // 快照超过该时间仍未被监听或后台刷新更新，说明刷新一直失败，不再信任快照而走回退查询
+    private static final long STALE_AFTER_MS = 5 * REFRESH_INTERVAL_MS;
+
+    // 回退查询 (同步 binder 查询 + dumpsys) 的最小间隔，间隔内返回上一次的结果
+    private static final long FALLBACK_INTERVAL_MS = 1000;
+
+    private static final int PER_USER_RANGE = 100000;
+
+    // 例如: topResumedActivity=ActivityRecord{b945e78 u10 tv.danmaku.bilibilihd/tv.danmaku.bili.MainActivityV2 t85}
+    private static final Pattern ACTIVITY_RECORD_PATTERN =
+        Pattern.compile("\\su(\\d+)\\s+([^\\s/{}]+/[^\\s}]+)");
+
+    /**
+     * 前台应用快照
+     */
+    public static class ForegroundApp {
+        public String packageName;
+        public String activityName; // 完整路径: 包名/Activity名
+        public int pid = 0;
+        public int uid = 0;
+        public int userId = 0;
+        public long timestamp; // 最后一次更新时间 (毫秒)
+    }
+
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ForegroundAppTracker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+    private volatile ForegroundApp current;
+    private volatile boolean listening = false;
+    private volatile boolean started = false;
+    private Object listenerProxy;
+
+    private final Object fallbackLock = new Object();
+    private ForegroundApp fallbackApp;
+    private long lastFallbackTime = 0;
+
+    /**
+     * 注册前台变化监听，只会执行一次
+     */
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+
+        ActivityManager am = ContextManager.getActivityManager();
+        if (am == null) {
+            Logger.w(TAG, "ActivityManager unavailable, using dumpsys fallback");
+            return;
+        }
+
+        try {
+            Class<?> listenerClass = Class.forName("android.app.ActivityManager$OnUidImportanceListener");
+            InvocationHandler handler = new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    switch (method.getName()) {
+                        case "onUidImportance":
+                            scheduleRefresh();
+                            return null;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return TAG + "$UidImportanceListener";
+                        default:
+                            return null;
+                    }
+                }
+            };
+            listenerProxy = Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[]{listenerClass}, handler);
+
+            Method addListener = ActivityManager.class.getMethod("addOnUidImportanceListener", listenerClass, int.class);
+            addListener.invoke(am, listenerProxy, ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND);
+            listening = true;
+            Logger.i(TAG, "Registered uid importance listener for foreground tracking");
+        } catch (Throwable t) {
+            Logger.w(TAG, "Failed to register uid importance listener, using dumpsys fallback: " + t.getMessage());
+            listenerProxy = null;
+            return;
+        }
+
+        // 先同步查询一次，保证首次读取有数据
+        ForegroundApp app = queryTopTask(am);
+        if (app != null) {
+            current = app;
+        }
+    }
+
+    public synchronized void stop() {
+        if (listenerProxy != null) {
+            try {
+                Class<?> listenerClass = Class.forName("android.app.ActivityManager$OnUidImportanceListener");
+                Method removeListener = ActivityManager.class.getMethod("removeOnUidImportanceListener", listenerClass);
+                removeListener.invoke(ContextManager.getActivityManager(), listenerProxy);
+            } catch (Throwable t) {
+                Logger.d(TAG, "Failed to remove uid importance listener: " + t.getMessage());
+            }
+            listenerProxy = null;
+        }
+        listening = false;
+        refreshExecutor.shutdownNow();
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * 获取当前前台应用
+     * 监听生效且快照未过期时直接返回内存中的快照，否则同步查询或解析 dumpsys
+     */
+    public ForegroundApp getForegroundApp() {
+        if (!started) {
+            start();
+        }
+
+        ForegroundApp app = current;
+        if (listening && app != null) {
+            long age = System.currentTimeMillis() - app.timestamp;
+            if (age > REFRESH_INTERVAL_MS) {
+                scheduleRefresh();
+            }
+            if (age <= STALE_AFTER_MS) {
+                return app;
+            }
+        }
+
+        // 并发请求在锁上等待并复用同一次查询的结果
+        synchronized (fallbackLock) {
+            if (System.currentTimeMillis() - lastFallbackTime < FALLBACK_INTERVAL_MS) {
+                return fallbackApp;
+            }
+            app = null;
+            if (listening) {
+                // 监听已注册但 binder 查询不到任务（例如缺少 REAL_GET_TASKS），退回 dumpsys
+                app = queryTopTask(ContextManager.getActivityManager());
+                if (app != null) {
+                    current = app;
+                }
+            }
+            if (app == null) {
+                app = queryFromDumpsys();
+            }
+            fallbackApp = app;
+            // 从查询结束开始计时，慢速 dumpsys 不会被紧接着的请求重复执行
+            lastFallbackTime = System.currentTimeMillis();
+            return app;
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (!refreshPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                refreshPending.set(false);
+                ForegroundApp app = queryTopTask(ContextManager.getActivityManager());
+                if (app != null) {
+                    current = app;
+                }
+            });
+        } catch (Exception e) {
+            refreshPending.set(false);
+        }
+    }
+
+    /**
+     * 通过 binder 查询栈顶任务及其进程
+     */
+    @SuppressWarnings("deprecation")
+    private ForegroundApp queryTopTask(ActivityManager am) {
+        if (am == null) return null;
+
+        try {
+            List<ActivityManager.RunningTaskInfo> tasks = am.getRunningTasks(1);
+            if (tasks == null || tasks.isEmpty() || tasks.get(0).topActivity == null) {
+                return null;
+            }
+
+            ActivityManager.RunningTaskInfo task = tasks.get(0);
+            ComponentName top = task.topActivity;
+
+            ForegroundApp app = new ForegroundApp();
+            app.packageName = top.getPackageName();
+            app.activityName = top.flattenToShortString();
+            app.userId = getTaskUserId(task);
+            app.timestamp = System.currentTimeMillis();
+            fillProcessInfo(am, app);
+            return app;
+        } catch (Exception e) {
+            Logger.d(TAG, "Failed to query top task: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * TaskInfo.userId 是隐藏字段 (API 29+)，取不到时返回 -1 交由进程 uid 推算
+     */
+    private int getTaskUserId(ActivityManager.RunningTaskInfo task) {
+        try {
+            return task.getClass().getField("userId").getInt(task);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private void fillProcessInfo(ActivityManager am, ForegroundApp app) {
+        List<ActivityManager.RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+        if (processes == null) return;
+
+        ActivityManager.RunningAppProcessInfo match = null;
+        for (ActivityManager.RunningAppProcessInfo process : processes) {
+            if (!containsPackage(process, app.packageName)) continue;
+            if (app.userId >= 0 && process.uid / PER_USER_RANGE != app.userId) continue;
+
+            // 优先选择前台进程，其次选择主进程
+            if (process.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND) {
+                match = process;
+                break;
+            }
+            if (match == null || app.packageName.equals(process.processName)) {
+                match = process;
+            }
+        }
+
+        if (match != null) {
+            app.pid = match.pid;
+            app.uid = match.uid;
+            if (app.userId < 0) {
+                app.userId = match.uid / PER_USER_RANGE;
+            }
+        }
+        if (app.userId < 0) {
+            app.userId = 0;
+        }
+    }
+
+    private static boolean containsPackage(ActivityManager.RunningAppProcessInfo process, String packageName) {
+        if (packageName.equals(process.processName)) return true;
+        if (process.pkgList != null) {
+            for (String pkg : process.pkgList) {
+                if (packageName.equals(pkg)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析 dumpsys activity activities 获取前台应用，支持任意用户 (u0, u10 ...)
+     */
+    private ForegroundApp queryFromDumpsys() {
+        try {
+            // 在设备端用grep过滤，只传回需要的一行
+            String output = FileUtils.executeCommand(
+                "dumpsys activity activities | grep -m 1 -E 'topResumedActivity=|mResumedActivity:'");
+            String targetLine = output != null && !output.isEmpty() ? output.split("\n")[0].trim() : null;
+
+            if (targetLine != null) {
+                Matcher matcher = ACTIVITY_RECORD_PATTERN.matcher(targetLine);
+                if (matcher.find()) {
+                    ForegroundApp app = new ForegroundApp();
+                    app.userId = Integer.parseInt(matcher.group(1));
+                    app.activityName = matcher.group(2);
+                    app.packageName = app.activityName.substring(0, app.activityName.indexOf('/'));
+                    app.timestamp = System.currentTimeMillis();
+
+                    ActivityManager am = ContextManager.getActivityManager();
+                    if (am != null) {
+                        fillProcessInfo(am, app);
+                    }
+                    return app;
+                }
+            }
+        } catch (Exception e) {
+            Logger.e(TAG, "Error getting foreground app from dumpsys", e);
+        }
+
+        Logger.w(TAG, "无法解析前台应用路径");
+        return null;
+    }
+}
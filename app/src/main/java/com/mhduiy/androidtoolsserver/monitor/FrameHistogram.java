@@ -0,0 +1,198 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+/**
+ * 帧耗时直方图
+ * 固定 0.5ms 分辨率、覆盖 0-200ms，超过 200ms 的帧计入溢出桶。
+ * 只保存原始计数器，不保存帧数据，多个窗口或会话的直方图可以直接相加合并
+ */
+public class FrameHistogram {
+    public static final long BUCKET_WIDTH_NANOS = 500_000L; // 0.5ms
+    public static final int BUCKET_COUNT = 400; // 0-200ms
+    public static final int SLOT_COUNT = BUCKET_COUNT + 1; // 含溢出桶
+    private static final int OVERFLOW = BUCKET_COUNT;
+
+    private final long[] buckets = new long[SLOT_COUNT];
+    private long frameCount = 0;
+    private long totalFrameTime = 0; // 纳秒
+    private long maxFrameTime = 0; // 纳秒
+    private long jankCount = 0;
+    private long bigJankCount = 0;
+    private long jankTime = 0; // 卡顿帧的总耗时，纳秒
+
+    /**
+     * 直方图摘要
+     */
+    public static class Summary {
+        public long frameCount;
+        public double averageFps;
+        public double averageFrameTime; // 毫秒
+        public double maxFrameTime; // 毫秒
+        public double p50FrameTime; // 毫秒
+        public double p90FrameTime; // 毫秒
+        public double p99FrameTime; // 毫秒
+        public double onePercentLow; // 帧率
+        public long jankCount;
+        public long bigJankCount;
+        public double stutter; // 卡顿时长占比 (%)
+        public long durationMs;
+    }
+
+    /**
+     * 记录一帧
+     * @param frameTime 帧耗时 (纳秒)
+     * @param type FrameMonitor.FRAME_* 卡顿分类
+     */
+    public void add(long frameTime, int type) {
+        if (frameTime <= 0) return;
+
+        int bucket = (int) Math.min(frameTime / BUCKET_WIDTH_NANOS, OVERFLOW);
+        buckets[bucket]++;
+        frameCount++;
+        totalFrameTime += frameTime;
+        if (frameTime > maxFrameTime) {
+            maxFrameTime = frameTime;
+        }
+
+        if (type == FrameMonitor.FRAME_BIG_JANK) {
+            bigJankCount++;
+            jankCount++;
+            jankTime += frameTime;
+        } else if (type == FrameMonitor.FRAME_JANK) {
+            jankCount++;
+            jankTime += frameTime;
+        }
+    }
+
+    /**
+     * 把另一个直方图累加到当前直方图
+     */
+    public void merge(FrameHistogram other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        frameCount += other.frameCount;
+        totalFrameTime += other.totalFrameTime;
+        maxFrameTime = Math.max(maxFrameTime, other.maxFrameTime);
+        jankCount += other.jankCount;
+        bigJankCount += other.bigJankCount;
+        jankTime += other.jankTime;
+    }
+
+    public FrameHistogram copy() {
+        FrameHistogram copy = new FrameHistogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        frameCount = 0;
+        totalFrameTime = 0;
+        maxFrameTime = 0;
+        jankCount = 0;
+        bigJankCount = 0;
+        jankTime = 0;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * 卡顿时长占总时长的比例 (%)
+     */
+    public double getStutter() {
+        return totalFrameTime > 0 ? (double) jankTime / totalFrameTime * 100.0 : 0.0;
+    }
+
+    /**
+     * 按桶计数估算分位数帧耗时，返回桶上界 (纳秒)；溢出桶返回最大帧耗时
+     * @param quantile 0-1
+     */
+    public long getQuantile(double quantile) {
+        if (frameCount == 0) return 0;
+
+        long rank = (long) Math.ceil(quantile * frameCount);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min((i + 1) * BUCKET_WIDTH_NANOS, maxFrameTime);
+            }
+        }
+        return maxFrameTime;
+    }
+
+    /**
+     * 最慢 1% 帧的平均耗时换算的帧率；溢出桶以其平均耗时近似
+     */
+    public double getOnePercentLow() {
+        if (frameCount == 0) return 0.0;
+
+        long worst = Math.max(1, frameCount / 100);
+        long remaining = worst;
+        double total = 0;
+
+        // 溢出桶内的帧无法区分，用溢出部分的平均耗时估算
+        long overflowCount = buckets[OVERFLOW];
+        if (overflowCount > 0) {
+            long inBuckets = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                inBuckets += buckets[i] * (i * BUCKET_WIDTH_NANOS + BUCKET_WIDTH_NANOS / 2);
+            }
+            double overflowAverage = Math.max(BUCKET_COUNT * BUCKET_WIDTH_NANOS,
+                (double) (totalFrameTime - inBuckets) / overflowCount);
+            long take = Math.min(remaining, overflowCount);
+            total += take * overflowAverage;
+            remaining -= take;
+        }
+
+        for (int i = BUCKET_COUNT - 1; i >= 0 && remaining > 0; i--) {
+            long take = Math.min(remaining, buckets[i]);
+            total += take * (i * BUCKET_WIDTH_NANOS + BUCKET_WIDTH_NANOS / 2.0);
+            remaining -= take;
+        }
+        return total > 0 ? worst * 1_000_000_000.0 / total : 0.0;
+    }
+
+    public Summary summarize() {
+        Summary summary = new Summary();
+        summary.frameCount = frameCount;
+        summary.jankCount = jankCount;
+        summary.bigJankCount = bigJankCount;
+        summary.durationMs = totalFrameTime / 1_000_000L;
+        if (frameCount == 0) {
+            return summary;
+        }
+
+        summary.averageFps = round2(frameCount * 1_000_000_000.0 / totalFrameTime);
+        summary.averageFrameTime = round2(totalFrameTime / 1_000_000.0 / frameCount);
+        summary.maxFrameTime = round2(maxFrameTime / 1_000_000.0);
+        summary.p50FrameTime = round2(getQuantile(0.50) / 1_000_000.0);
+        summary.p90FrameTime = round2(getQuantile(0.90) / 1_000_000.0);
+        summary.p99FrameTime = round2(getQuantile(0.99) / 1_000_000.0);
+        summary.onePercentLow = round2(getOnePercentLow());
+        summary.stutter = round2(getStutter());
+        return summary;
+    }
+
+    /**
+     * @param index 0 到 SLOT_COUNT-1，最后一个为溢出桶
+     */
+    public long getBucket(int index) {
+        return buckets[index];
+    }
+
+    /**
+     * 桶下标换算为桶下界 (毫秒)
+     */
+    public static double bucketLowerBoundMs(int bucket) {
+        return bucket * (BUCKET_WIDTH_NANOS / 1_000_000.0);
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
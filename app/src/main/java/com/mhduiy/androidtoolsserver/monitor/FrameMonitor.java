@@ -0,0 +1,662 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import com.mhduiy.androidtoolsserver.util.Logger;
+import com.mhduiy.androidtoolsserver.util.LongRingBuffer;
+import com.mhduiy.androidtoolsserver.util.ShellExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 帧率监控
+ * 周期性读取 dumpsys SurfaceFlinger --latency 中前台图层的实际显示时间戳，
+ * 增量地只追加比上次更新的帧，存入 long 环形缓冲区，
+ * 在滑动窗口上计算 FPS、1% Low、0.1% Low 和卡顿次数
+ */
+public class FrameMonitor {
+    private static final String TAG = "FrameMonitor";
+
+    // SurfaceFlinger 只保留最近 128 帧，120Hz 下约 1 秒，采集间隔必须小于该值
+    private static final long TICK_INTERVAL_MS = 500;
+    // 超过该时间没有读取者时停止采集
+    private static final long IDLE_STOP_MS = 30000;
+    // 定期重新选择图层，应对 SurfaceView 重建等情况
+    private static final long LAYER_REFRESH_MS = 5000;
+    // 连续多少次没有新帧时重新选择图层
+    private static final int EMPTY_TICKS_BEFORE_RESELECT = 4;
+
+    // 240Hz 下约 60 秒
+    private static final int BUFFER_CAPACITY = 16384;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long DEFAULT_REFRESH_PERIOD = 16_666_667L;
+    private static final long PENDING_FENCE_TIME = Long.MAX_VALUE;
+
+    public static final int DEFAULT_WINDOW_SECONDS = 10;
+
+    // 保留的已结束会话数，超出时删除最早开始的；每一帧都要遍历会话表，数量必须有上限
+    public static final int MAX_FINISHED_SESSIONS = 16;
+
+    /**
+     * 卡顿判定：帧耗时超过前三帧平均值的两倍，且超过指定数量的刷新周期
+     */
+    public static final int JANK_PERIODS = 3; // 60Hz 下约 50ms
+    public static final int BIG_JANK_PERIODS = 6; // 60Hz 下约 100ms
+
+    public static final int FRAME_NORMAL = 0;
+    public static final int FRAME_JANK = 1;
+    public static final int FRAME_BIG_JANK = 2;
+
+    /**
+     * 帧率统计信息
+     */
+    public static class FrameInfo {
+        public String packageName = "Unknown";
+        public String layer = "";
+        public double refreshRate = 0.0; // 屏幕刷新率 (Hz)
+        public double fps = 0.0; // 最近1秒的帧率
+        public double averageFps = 0.0; // 窗口内平均帧率
+        public double onePercentLow = 0.0; // 1% Low 帧率
+        public double pointOnePercentLow = 0.0; // 0.1% Low 帧率
+        public int jankCount = 0;
+        public int bigJankCount = 0;
+        public int frameCount = 0; // 窗口内帧数
+        public double maxFrameTime = 0.0; // 窗口内最大帧耗时 (毫秒)
+        public long windowMs = 0;
+        public boolean running = false;
+        public long timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * 帧耗时统计会话
+     */
+    public static class FrameSession {
+        public String name;
+        public String packageName; // 为空时统计任意前台应用
+        public long startTime;
+        public long endTime; // 进行中为 0
+        public boolean active;
+        public FrameHistogram histogram = new FrameHistogram();
+    }
+
+    private final FrontendAppMonitor frontendAppMonitor;
+    private final LongRingBuffer presentTimes = new LongRingBuffer(BUFFER_CAPACITY);
+    // 统计时复用的临时数组，避免每次计算分配
+    private final long[] frameTimes = new long[BUFFER_CAPACITY];
+    private final long[] sortedFrameTimes = new long[BUFFER_CAPACITY];
+    private final int[] lineStarts = new int[512];
+    // 当前前台应用自切换到前台以来的直方图
+    private final FrameHistogram foregroundHistogram = new FrameHistogram();
+    private final Map<String, FrameSession> sessions = new LinkedHashMap<>();
+    // 最近三帧的耗时，用于增量卡顿分类
+    private long previousFrameTime1 = 0;
+    private long previousFrameTime2 = 0;
+    private long previousFrameTime3 = 0;
+
+    private String packageName;
+    private String layer;
+    private long layerSelectedAt = 0;
+    private int emptyTicks = 0;
+    private long refreshPeriod = DEFAULT_REFRESH_PERIOD;
+    private long lastPresentTime = 0;
+    // 上一帧的显示时间，为 0 表示下一帧不计算耗时
+    private long previousPresentTime = 0;
+    private long lastTickNanos = 0;
+
+    private Thread tickThread;
+    private volatile boolean running = false;
+    private volatile FrameListener frameListener;
+    private volatile long lastAccess = 0;
+    // 本次运行第一次和最近一次成功采集的时间 (墙上时钟毫秒)，未运行或尚未采集到时为 0
+    private volatile long collectedSince = 0;
+    private volatile long collectedUntil = 0;
+
+    /**
+     * 新帧回调，在采集线程上持有 FrameMonitor 锁时调用，实现必须足够轻量
+     */
+    public interface FrameListener {
+        /**
+         * @param timestamp 帧的显示时间 (毫秒，墙上时钟)
+         * @param frameTime 与上一帧的间隔 (纳秒)
+         */
+        void onFrame(long timestamp, long frameTime);
+    }
+
+    public FrameMonitor(FrontendAppMonitor frontendAppMonitor) {
+        this.frontendAppMonitor = frontendAppMonitor;
+    }
+
+    /**
+     * 设置新帧回调，只在后台采集运行时有帧
+     */
+    public void setFrameListener(FrameListener listener) {
+        this.frameListener = listener;
+    }
+
+    public FrameInfo getInfo() {
+        return getInfo(DEFAULT_WINDOW_SECONDS);
+    }
+
+    /**
+     * 获取帧率统计，首次调用时启动后台采集
+     * @param windowSeconds 统计 1% Low 和卡顿的窗口长度
+     */
+    public FrameInfo getInfo(int windowSeconds) {
+        lastAccess = System.currentTimeMillis();
+        ensureRunning();
+
+        synchronized (this) {
+            FrameInfo info = new FrameInfo();
+            info.running = running;
+            if (packageName != null) info.packageName = packageName;
+            if (layer != null) info.layer = layer;
+            info.refreshRate = Math.round((double) NANOS_PER_SECOND / refreshPeriod * 10.0) / 10.0;
+            computeStats(info, Math.max(1, windowSeconds) * NANOS_PER_SECOND);
+            return info;
+        }
+    }
+
+    /**
+     * 标记有读取者，防止后台采集因空闲而停止（供会话等长期使用者调用）
+     */
+    public void keepAlive() {
+        lastAccess = System.currentTimeMillis();
+        ensureRunning();
+    }
+
+    /**
+     * 本次运行开始采集的时间，每次 (重新) 启动后的第一次采集时更新；未采集到时为 0
+     */
+    public long getCollectedSince() {
+        return collectedSince;
+    }
+
+    /**
+     * 显示时间不晚于该时刻的帧都已交给 FrameListener (墙上时钟毫秒)，停止后不再前进；
+     * 使用者据此判断某一秒的帧是否已经到齐，没有新帧的秒也能确定为 0 帧
+     */
+    public long getCollectedUntil() {
+        return collectedUntil;
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (tickThread != null) {
+            tickThread.interrupt();
+            tickThread = null;
+        }
+    }
+
+    /**
+     * 开始一个帧耗时会话，同名的已结束会话会被替换
+     * @param targetPackage 只统计该应用的帧，为空时统计任意前台应用
+     * @return 同名会话正在进行时返回 null
+     */
+    public FrameSession startSession(String name, String targetPackage) {
+        FrameSession session = new FrameSession();
+        session.name = name;
+        session.packageName = targetPackage;
+        session.startTime = System.currentTimeMillis();
+        session.active = true;
+        synchronized (this) {
+            FrameSession existing = sessions.get(name);
+            if (existing != null && existing.active) {
+                return null;
+            }
+            // 重新插入，保持按开始顺序排列
+            sessions.remove(name);
+            sessions.put(name, session);
+        }
+        keepAlive();
+        Logger.i(TAG, "Frame session started: " + name);
+        return copyOf(session);
+    }
+
+    /**
+     * 结束会话并返回最终直方图，会话不存在时返回null
+     */
+    public synchronized FrameSession stopSession(String name) {
+        FrameSession session = sessions.get(name);
+        if (session == null) return null;
+        if (session.active) {
+            session.active = false;
+            session.endTime = System.currentTimeMillis();
+            Logger.i(TAG, "Frame session stopped: " + name + ", frames: " + session.histogram.getFrameCount());
+            pruneFinishedSessions();
+        }
+        return copyOf(session);
+    }
+
+    /**
+     * 已结束的会话超过 MAX_FINISHED_SESSIONS 时删除最早开始的
+     */
+    private void pruneFinishedSessions() {
+        int finished = 0;
+        for (FrameSession session : sessions.values()) {
+            if (!session.active) finished++;
+        }
+        Iterator<FrameSession> iterator = sessions.values().iterator();
+        while (finished > MAX_FINISHED_SESSIONS && iterator.hasNext()) {
+            if (!iterator.next().active) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    public synchronized FrameSession getSession(String name) {
+        FrameSession session = sessions.get(name);
+        return session != null ? copyOf(session) : null;
+    }
+
+    public synchronized boolean removeSession(String name) {
+        return sessions.remove(name) != null;
+    }
+
+    public synchronized List<FrameSession> getSessions() {
+        List<FrameSession> result = new ArrayList<>();
+        for (FrameSession session : sessions.values()) {
+            result.add(copyOf(session));
+        }
+        return result;
+    }
+
+    /**
+     * 当前前台应用自进入前台以来的直方图副本
+     */
+    public FrameHistogram getForegroundHistogram() {
+        keepAlive();
+        synchronized (this) {
+            return foregroundHistogram.copy();
+        }
+    }
+
+    private static FrameSession copyOf(FrameSession source) {
+        FrameSession copy = new FrameSession();
+        copy.name = source.name;
+        copy.packageName = source.packageName;
+        copy.startTime = source.startTime;
+        copy.endTime = source.endTime;
+        copy.active = source.active;
+        copy.histogram = source.histogram.copy();
+        return copy;
+    }
+
+    private synchronized boolean hasActiveSession() {
+        for (FrameSession session : sessions.values()) {
+            if (session.active) return true;
+        }
+        return false;
+    }
+
+    private void ensureRunning() {
+        boolean firstTick = false;
+        synchronized (this) {
+            if (!running) {
+                running = true;
+                // 停止期间错过的帧无法补回，下一帧不计算耗时
+                resetFrameTiming();
+                collectedSince = 0;
+                collectedUntil = 0;
+                // 在同一个锁内创建并启动，并发的 stop() 要么看不到线程，要么能中断已启动的线程
+                tickThread = new Thread(this::tickLoop, "FrameMonitor");
+                tickThread.setDaemon(true);
+                tickThread.start();
+                firstTick = true;
+            }
+        }
+
+        if (firstTick) {
+            Logger.i(TAG, "Frame monitor started");
+            // 同步采集一次，让第一次请求就能拿到数据；
+            // 后台线程先休眠一个周期，即使与其重叠，增量解析也会跳过已处理的帧
+            tick();
+        }
+    }
+
+    private void tickLoop() {
+        while (running) {
+            try {
+                Thread.sleep(TICK_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (System.currentTimeMillis() - lastAccess > IDLE_STOP_MS && !hasActiveSession()) {
+                synchronized (this) {
+                    running = false;
+                    tickThread = null;
+                }
+                Logger.i(TAG, "Frame monitor idle, stopped");
+                break;
+            }
+
+            tick();
+        }
+    }
+
+    /**
+     * 采集一次新帧
+     */
+    private void tick() {
+        String foreground = frontendAppMonitor.getForegroundPackage();
+        if (foreground == null) {
+            return;
+        }
+
+        boolean reselect;
+        synchronized (this) {
+            if (!foreground.equals(packageName)) {
+                // 前台应用切换，清空历史帧
+                packageName = foreground;
+                presentTimes.clear();
+                foregroundHistogram.clear();
+                lastPresentTime = 0;
+                resetFrameTiming();
+                layer = null;
+            }
+            reselect = layer == null || emptyTicks >= EMPTY_TICKS_BEFORE_RESELECT
+                || System.currentTimeMillis() - layerSelectedAt > LAYER_REFRESH_MS;
+        }
+
+        if (reselect) {
+            // 在锁外执行dumpsys，避免阻塞读取统计的请求
+            String selected = selectLayer(foreground);
+            synchronized (this) {
+                if (foreground.equals(packageName)) {
+                    if (selected != null && !selected.equals(layer)) {
+                        Logger.d(TAG, "Frame layer for " + packageName + ": " + selected);
+                        layer = selected;
+                    }
+                    layerSelectedAt = System.currentTimeMillis();
+                    emptyTicks = 0;
+                }
+            }
+        }
+
+        String target = layer;
+        if (target == null) {
+            return;
+        }
+
+        long tickNanos = System.nanoTime();
+        long tickTime = System.currentTimeMillis();
+        ShellExecutor.CommandResult result = ShellExecutor.getInstance().execute(
+            "dumpsys SurfaceFlinger --latency " + shellQuote(target), 2000, 64 * 1024);
+        if (!result.isSuccess()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!target.equals(layer)) {
+                return;
+            }
+            // 先于回调设置，回调中即可识别新的一次运行
+            if (collectedSince == 0) {
+                collectedSince = tickTime;
+            }
+            int added = appendNewFrames(result.output);
+            emptyTicks = added > 0 ? 0 : emptyTicks + 1;
+            lastTickNanos = tickNanos;
+            collectedUntil = tickTime;
+        }
+    }
+
+    /**
+     * 增量解析 --latency 输出：从末尾向前找到第一个已处理过的帧，只解析其后的新行
+     * @return 新增帧数
+     */
+    private int appendNewFrames(String output) {
+        int lineCount = 0;
+        int length = output.length();
+        for (int i = 0; i < length && lineCount < lineStarts.length; ) {
+            lineStarts[lineCount++] = i;
+            int next = output.indexOf('\n', i);
+            if (next < 0) break;
+            i = next + 1;
+        }
+        if (lineCount == 0) return 0;
+
+        // 第一行是刷新周期
+        long period = parseLongAt(output, lineStarts[0], 0);
+        if (period > 0) {
+            refreshPeriod = period;
+        }
+
+        int firstNew = lineCount;
+        boolean foundKnown = false;
+        for (int line = lineCount - 1; line >= 1; line--) {
+            long present = parseLongAt(output, lineStarts[line], 1);
+            if (present <= 0 || present == PENDING_FENCE_TIME) continue;
+            if (present <= lastPresentTime) {
+                foundKnown = true;
+                break;
+            }
+            firstNew = line;
+        }
+        if (!foundKnown) {
+            // 两次采集之间 SurfaceFlinger 的缓冲已经滚过，中间有帧丢失，第一帧不计算耗时
+            resetFrameTiming();
+        }
+
+        // 显示时间是单调时钟 (纳秒)，换算为墙上时钟供回调使用
+        FrameListener listener = frameListener;
+        long wallOffsetMs = System.currentTimeMillis() - System.nanoTime() / 1_000_000L;
+        int added = 0;
+        for (int line = firstNew; line < lineCount; line++) {
+            long present = parseLongAt(output, lineStarts[line], 1);
+            if (present <= lastPresentTime || present == PENDING_FENCE_TIME) continue;
+            if (previousPresentTime > 0) {
+                recordFrameTime(present - previousPresentTime);
+                if (listener != null) {
+                    listener.onFrame(present / 1_000_000L + wallOffsetMs, present - previousPresentTime);
+                }
+            }
+            presentTimes.add(present);
+            lastPresentTime = present;
+            previousPresentTime = present;
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * 对新帧做卡顿分类，并计入前台直方图和匹配的会话
+     */
+    private void recordFrameTime(long frameTime) {
+        int type = classifyFrame(frameTime, previousFrameTime1, previousFrameTime2, previousFrameTime3, refreshPeriod);
+        foregroundHistogram.add(frameTime, type);
+        for (FrameSession session : sessions.values()) {
+            if (session.active && (session.packageName == null || session.packageName.equals(packageName))) {
+                session.histogram.add(frameTime, type);
+            }
+        }
+
+        previousFrameTime3 = previousFrameTime2;
+        previousFrameTime2 = previousFrameTime1;
+        previousFrameTime1 = frameTime;
+    }
+
+    private void resetFrameTiming() {
+        previousPresentTime = 0;
+        previousFrameTime1 = 0;
+        previousFrameTime2 = 0;
+        previousFrameTime3 = 0;
+    }
+
+    /**
+     * 在不创建子字符串的情况下解析一行中第column列的数字，解析失败返回-1
+     */
+    private static long parseLongAt(String text, int start, int column) {
+        int i = start;
+        int length = text.length();
+        for (int c = 0; c < column; c++) {
+            while (i < length && !Character.isWhitespace(text.charAt(i))) i++;
+            while (i < length && text.charAt(i) != '\n' && Character.isWhitespace(text.charAt(i))) i++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        while (i < length) {
+            char ch = text.charAt(i);
+            if (ch < '0' || ch > '9') break;
+            value = value * 10 + (ch - '0');
+            digits++;
+            i++;
+        }
+        return digits > 0 ? value : -1;
+    }
+
+    /**
+     * 计算窗口内的统计值，调用方持有锁
+     */
+    private void computeStats(FrameInfo info, long windowNanos) {
+        int size = presentTimes.size();
+        if (size < 2 || lastTickNanos == 0) {
+            return;
+        }
+
+        long end = lastTickNanos;
+        long windowStart = end - windowNanos;
+        long secondStart = end - NANOS_PER_SECOND;
+
+        int framesLastSecond = 0;
+        int count = 0;
+        long previous = -1;
+        long totalFrameTime = 0;
+
+        for (int i = 0; i < size; i++) {
+            long present = presentTimes.get(i);
+            if (present > secondStart) {
+                framesLastSecond++;
+            }
+            if (present <= windowStart) {
+                previous = present;
+                continue;
+            }
+            if (previous > 0) {
+                frameTimes[count++] = present - previous;
+                totalFrameTime += present - previous;
+            }
+            previous = present;
+        }
+
+        info.fps = framesLastSecond;
+        info.frameCount = count;
+        info.windowMs = windowNanos / 1_000_000L;
+        if (count == 0) {
+            return;
+        }
+
+        if (totalFrameTime > 0) {
+            info.averageFps = round2((double) count * NANOS_PER_SECOND / totalFrameTime);
+        }
+
+        for (int i = 0; i < count; i++) {
+            int type = classifyFrame(frameTimes, i, refreshPeriod);
+            if (type == FRAME_BIG_JANK) {
+                info.bigJankCount++;
+                info.jankCount++;
+            } else if (type == FRAME_JANK) {
+                info.jankCount++;
+            }
+        }
+
+        System.arraycopy(frameTimes, 0, sortedFrameTimes, 0, count);
+        Arrays.sort(sortedFrameTimes, 0, count);
+        info.maxFrameTime = round2(sortedFrameTimes[count - 1] / 1_000_000.0);
+        info.onePercentLow = round2(lowFps(sortedFrameTimes, count, 100));
+        info.pointOnePercentLow = round2(lowFps(sortedFrameTimes, count, 1000));
+    }
+
+    /**
+     * 最慢 1/divisor 帧的平均帧耗时换算成的帧率
+     */
+    private static double lowFps(long[] sorted, int count, int divisor) {
+        int worst = Math.max(1, count / divisor);
+        long total = 0;
+        for (int i = count - worst; i < count; i++) {
+            total += sorted[i];
+        }
+        return total > 0 ? (double) worst * NANOS_PER_SECOND / total : 0.0;
+    }
+
+    /**
+     * 卡顿分类：当前帧耗时超过前三帧平均值的两倍，并且超过
+     * JANK_PERIODS（或 BIG_JANK_PERIODS）个刷新周期
+     * @param frameTimes 按时间顺序排列的帧耗时(纳秒)
+     * @param index 当前帧下标，前面不足三帧时不判定
+     */
+    public static int classifyFrame(long[] frameTimes, int index, long refreshPeriod) {
+        if (index < 3) {
+            return FRAME_NORMAL;
+        }
+        return classifyFrame(frameTimes[index], frameTimes[index - 1], frameTimes[index - 2], frameTimes[index - 3], refreshPeriod);
+    }
+
+    /**
+     * @param previous1 上一帧耗时，前三帧任一为 0 时不判定
+     */
+    public static int classifyFrame(long frameTime, long previous1, long previous2, long previous3, long refreshPeriod) {
+        if (previous1 <= 0 || previous2 <= 0 || previous3 <= 0) {
+            return FRAME_NORMAL;
+        }
+
+        long previousAverage = (previous1 + previous2 + previous3) / 3;
+        if (frameTime <= previousAverage * 2) {
+            return FRAME_NORMAL;
+        }
+        if (frameTime > refreshPeriod * BIG_JANK_PERIODS) {
+            return FRAME_BIG_JANK;
+        }
+        if (frameTime > refreshPeriod * JANK_PERIODS) {
+            return FRAME_JANK;
+        }
+        return FRAME_NORMAL;
+    }
+
+    /**
+     * 从 dumpsys SurfaceFlinger --list 中选择前台应用的图层
+     * 优先 SurfaceView（游戏、视频），其次应用窗口
+     */
+    private String selectLayer(String pkg) {
+        String output = ShellExecutor.getInstance().run("dumpsys SurfaceFlinger --list");
+        if (output == null || output.isEmpty()) {
+            return null;
+        }
+
+        String surfaceView = null;
+        String window = null;
+        String any = null;
+        for (String line : output.split("\n")) {
+            line = line.trim();
+            if (!line.contains(pkg)) continue;
+
+            if (line.startsWith("SurfaceView")) {
+                // 同一应用的多个SurfaceView取最后一个（最新创建的）
+                if (surfaceView == null || line.contains("BLAST") || !surfaceView.contains("BLAST")) {
+                    surfaceView = line;
+                }
+            } else if (line.startsWith(pkg + "/")) {
+                window = line;
+            } else if (any == null) {
+                any = line;
+            }
+        }
+
+        if (surfaceView != null) return surfaceView;
+        if (window != null) return window;
+        return any;
+    }
+
+    private static String shellQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
@@ -2,7 +2,7 @@ package com.mhduiy.androidtoolsserver.monitor;
 
 import com.mhduiy.androidtoolsserver.util.Logger;
 import com.mhduiy.androidtoolsserver.util.ContextManager;
-import com.mhduiy.androidtoolsserver.util.Utils;
+import com.mhduiy.androidtoolsserver.util.IconCache;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -24,6 +24,11 @@ import java.util.List;
 
 public class FrontendAppMonitor {
     private static final String TAG = "FrontendAppMonitor";
+
+    // 可按需采集的部分
+    public static final int PART_ICON = 1;        // 加载并编码应用图标
+    public static final int PART_FRAMES = 1 << 1; // 帧率、卡顿 (由 SystemMonitor 从 FrameMonitor 填充)
+    public static final int PART_ALL = PART_ICON | PART_FRAMES;
     public static class FrontendAppInfo {
         public String packageName = "Unknown";
         public String appName = "Unknown";
@@ -33,8 +38,13 @@ public class FrontendAppMonitor {
         public long memoryUsageMB = 0;
         public double cpuUsage = 0.0;
         public int fps = 0;
+        public double onePercentLowFps = 0.0;
+        public int jankCount = 0;
+        public int bigJankCount = 0;
+        public double stutter = 0.0; // 进入前台以来卡顿时长占比 (%)
         public int pid = 0;
         public int uid = 0;
+        public int userId = 0;
         public boolean isSystemApp = false;
         public String iconBase64 = "";
         public long installTime = 0;
@@ -42,19 +52,29 @@ public class FrontendAppMonitor {
         public long timestamp = System.currentTimeMillis();
     }
 
+    private final ForegroundAppTracker foregroundTracker = new ForegroundAppTracker();
+
     public FrontendAppInfo getInfo() {
+        return getInfo(true);
+    }
+
+    /**
+     * @param includeIcon 为false时不加载和编码图标，iconBase64 保持为空
+     */
+    public FrontendAppInfo getInfo(boolean includeIcon) {
         FrontendAppInfo appInfo =  new FrontendAppInfo();
         try {
-            // 获取前台应用完整路径
-            String foregroundAppPath = getForegroundAppPath();
-            if (foregroundAppPath != null && !foregroundAppPath.isEmpty()) {
-                // 从完整路径中提取包名
-                String packageName = extractPackageNameFromPath(foregroundAppPath);
-                appInfo.packageName = packageName;
-                appInfo.activityName = foregroundAppPath; // 保存完整的Activity路径
+            // 获取前台应用（内存快照，监听不可用时退回dumpsys）
+            ForegroundAppTracker.ForegroundApp foregroundApp = foregroundTracker.getForegroundApp();
+            if (foregroundApp != null && foregroundApp.packageName != null) {
+                appInfo.packageName = foregroundApp.packageName;
+                appInfo.activityName = foregroundApp.activityName; // 保存完整的Activity路径
+                appInfo.pid = foregroundApp.pid;
+                appInfo.uid = foregroundApp.uid;
+                appInfo.userId = foregroundApp.userId;
 
                 // 获取应用详细信息
-                getAppDetailsViaReflection(appInfo);
+                getAppDetailsViaReflection(appInfo, includeIcon);
 
                 // 获取应用内存使用情况
                 getAppMemoryUsageViaReflection(appInfo);
@@ -68,20 +88,17 @@ public class FrontendAppMonitor {
     }
 
     /**
-     * 从完整路径中提取包名
-     * 例如: tv.danmaku.bilibilihd/tv.danmaku.bili.MainActivityV2 -> tv.danmaku.bilibilihd
+     * 获取前台应用包名，只读取内存快照，不查询应用详情
      */
-    private String extractPackageNameFromPath(String fullPath) {
-        if (fullPath != null && fullPath.contains("/")) {
-            return fullPath.substring(0, fullPath.indexOf("/"));
-        }
-        return fullPath;
+    public String getForegroundPackage() {
+        ForegroundAppTracker.ForegroundApp foregroundApp = foregroundTracker.getForegroundApp();
+        return foregroundApp != null ? foregroundApp.packageName : null;
     }
 
     /**
      * 通过反射获取应用详细信息
      */
-    private void getAppDetailsViaReflection(FrontendAppInfo appInfo) {
+    private void getAppDetailsViaReflection(FrontendAppInfo appInfo, boolean includeIcon) {
         try {
             PackageManager pm = ContextManager.getPackageManager();
             if (pm == null) {
@@ -98,13 +115,16 @@ public class FrontendAppMonitor {
             appInfo.isSystemApp = (androidAppInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
             appInfo.installTime = pkgInfo.firstInstallTime;
             appInfo.lastUpdateTime = pkgInfo.lastUpdateTime;
-            appInfo.uid = androidAppInfo.uid;
+            if (appInfo.uid == 0) {
+                appInfo.uid = androidAppInfo.uid;
+            }
 
-            // 处理应用图标 - 支持多种类型的Drawable
-            Drawable icon = pm.getApplicationIcon(appInfo.packageName);
-            Logger.d(TAG, "Icon type: " + icon.getClass().getSimpleName());
+            if (!includeIcon) {
+                return;
+            }
 
-            String iconBase64 = Utils.drawableToBase64(icon);
+            // 处理应用图标 - 命中缓存时不再渲染和压缩
+            String iconBase64 = IconCache.getInstance().getBase64(appInfo.packageName, pkgInfo.lastUpdateTime);
             if (iconBase64 != null) {
                 appInfo.iconBase64 = iconBase64;
             } else {
@@ -122,53 +142,4 @@ public class FrontendAppMonitor {
     private void getAppMemoryUsageViaReflection(FrontendAppInfo appInfo) {
 
     }
-
-
-    /**
-     * 获取前台应用完整路径 (包名/Activity名)
-     */
-    private String getForegroundAppPath() {
-        try {
-            Process p = Runtime.getRuntime().exec(new String[]{
-                    "sh", "-c", "dumpsys activity activities"
-            });
-            BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            String line;
-            String targetLine = null;
-
-            // 读取所有行，寻找包含topResumedActivity的行
-            while ((line = br.readLine()) != null) {
-                if (line.contains("topResumedActivity=")) {
-                    targetLine = line.trim();
-                    break;
-                }
-            }
-            br.close();
-            p.waitFor();
-
-            if (targetLine != null) {
-                // 解析格式: topResumedActivity=ActivityRecord{b945e78 u0 tv.danmaku.bilibilihd/tv.danmaku.bili.MainActivityV2 t85}
-
-                int u0Index = targetLine.indexOf(" u0 ");
-                if (u0Index != -1) {
-                    int pathStart = u0Index + 4; // " u0 " 长度为4
-                    // 查找路径的结束位置 - 可能是空格或者右括号
-                    int pathEnd = targetLine.indexOf(" ", pathStart);
-                    if (pathEnd == -1) {
-                        pathEnd = targetLine.indexOf("}", pathStart);
-                    }
-
-                    if (pathEnd != -1) {
-                        String fullPath = targetLine.substring(pathStart, pathEnd);
-                        return fullPath;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            Logger.e(TAG, "Error getting foreground app path", e);
-        }
-
-        Logger.w(TAG, "无法解析前台应用路径");
-        return null;
-    }
 }
@@ -0,0 +1,572 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 指标持久化: /data/local/tmp 下只追加的内存映射分段文件，服务进程被杀 (adb 断开、OOM) 后重启可恢复
+ *
+ * 采样线程的 append() 只把一条 14 字节记录拷入暂存缓冲区；后台线程每秒交换双缓冲，
+ * 把整批记录作为一个块写入当前分段的映射区。写入映射区的数据在进程死亡后仍由内核落盘，
+ * 只有掉电才可能丢失最后未 force() 的部分。
+ *
+ * 分段文件 metrics-&lt;创建时间&gt;.seg:
+ *   头部 (HEADER_BYTES): magic, 版本, 创建时间, 序列数, 各序列名 (short 长度 + UTF-8)
+ *   块: magic(4) 负载长度(4) 基准时间(8) 最小时间(8) 最大时间(8) 负载 CRC32(4)，CRC 覆盖 magic 之后到负载末尾
+ *   记录: 序列号(short) 相对基准时间的毫秒数(int) 值(double)
+ * 每个分段在内存中保留块的时间索引 (偏移, 最小/最大时间)，按时间读取时跳过无关的分段和块。
+ * 重启时逐块校验 CRC，遇到第一个无效块即视为分段结尾并截断；总大小超过上限时删除最旧的分段
+ */
+public class MetricArchive implements TimeSeriesStore.Sink {
+    private static final String TAG = "MetricArchive";
+
+    public static final String DEFAULT_DIRECTORY = "/data/local/tmp/androidtools-server-metrics";
+
+    private static final int SEGMENT_MAGIC = 0x41545353; // "ATSS"
+    private static final int BLOCK_MAGIC = 0x41544231; // "ATB1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4096;
+    private static final int BLOCK_HEADER_BYTES = 32;
+    private static final int BLOCK_OVERHEAD = BLOCK_HEADER_BYTES + 4;
+    private static final int RECORD_BYTES = 14;
+
+    private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final long MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+    // 暂存缓冲区可容纳约 4600 条记录，远大于一秒内的采样量
+    private static final int STAGING_BYTES = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    /**
+     * 读取记录的回调，series 为写入时的序列名
+     */
+    public interface Visitor {
+        void visit(String series, long timestamp, double value);
+    }
+
+    /**
+     * 统计信息
+     */
+    public static class Stats {
+        public String directory;
+        public boolean active;
+        public int segments;
+        public long bytes;
+        public long records;
+        public long blocks;
+        public long dropped;
+        public long recoveredBlocks;
+        public long corruptSegments;
+        public long replayed;
+    }
+
+    /**
+     * 一个分段文件及其块时间索引
+     */
+    private static class Segment {
+        final File file;
+        final String[] names;
+        long[] blockOffsets = new long[64];
+        long[] blockMins = new long[64];
+        long[] blockMaxs = new long[64];
+        int blockCount = 0;
+        long end = HEADER_BYTES; // 有效数据结尾
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+
+        Segment(File file, String[] names) {
+            this.file = file;
+            this.names = names;
+        }
+
+        void index(long offset, long min, long max) {
+            if (blockCount == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+                blockMins = Arrays.copyOf(blockMins, blockCount * 2);
+                blockMaxs = Arrays.copyOf(blockMaxs, blockCount * 2);
+            }
+            blockOffsets[blockCount] = offset;
+            blockMins[blockCount] = min;
+            blockMaxs[blockCount] = max;
+            blockCount++;
+            first = Math.min(first, min);
+            last = Math.max(last, max);
+        }
+
+        long size() {
+            return file.length();
+        }
+    }
+
+    /**
+     * 读取用的分段快照: 快照时已写入的块
+     */
+    private static class SegmentView {
+        final File file;
+        final String[] names;
+        final long[] offsets;
+        final long[] mins;
+        final long[] maxs;
+        final ByteBuffer buffer; // 当前分段的映射副本，已封存的分段为 null，读取时再映射
+
+        SegmentView(Segment segment, ByteBuffer buffer) {
+            this.file = segment.file;
+            this.names = segment.names;
+            this.offsets = Arrays.copyOf(segment.blockOffsets, segment.blockCount);
+            this.mins = Arrays.copyOf(segment.blockMins, segment.blockCount);
+            this.maxs = Arrays.copyOf(segment.blockMaxs, segment.blockCount);
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final String[] names;
+
+    // 暂存双缓冲，由 stagingLock 保护
+    private final Object stagingLock = new Object();
+    private ByteBuffer staging = ByteBuffer.allocate(STAGING_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(STAGING_BYTES);
+    private long stagingBase;
+    private long stagingMin = Long.MAX_VALUE;
+    private long stagingMax = Long.MIN_VALUE;
+    private long dropped = 0;
+
+    // 分段状态，由 this 保护
+    private final List<Segment> sealed = new ArrayList<>();
+    private Segment current;
+    private RandomAccessFile currentFile;
+    private MappedByteBuffer currentBuffer;
+    private final byte[] blockHeader = new byte[BLOCK_HEADER_BYTES];
+    private final ByteBuffer blockHeaderBuffer = ByteBuffer.wrap(blockHeader);
+    private final CRC32 crc = new CRC32();
+    private long records = 0;
+    private long blocks = 0;
+    private long recoveredBlocks = 0;
+    private long corruptSegments = 0;
+    private long replayed = 0;
+
+    private volatile boolean running = false;
+    private Thread flushThread;
+
+    /**
+     * @param names 序列名，下标即 append() 的序列号
+     */
+    public MetricArchive(File directory, String[] names) {
+        this.directory = directory;
+        this.names = names.clone();
+    }
+
+    /**
+     * 扫描已有分段，重建时间索引，截断损坏或未写完的结尾
+     * @return 目录不可用时返回 false，此时不持久化
+     */
+    public synchronized boolean open() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.w(TAG, "Cannot create " + directory + ", metrics will not be persisted");
+            return false;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            Logger.w(TAG, "Cannot list " + directory + ", metrics will not be persisted");
+            return false;
+        }
+
+        List<File> segmentFiles = new ArrayList<>();
+        for (File file : files) {
+            if (segmentTime(file) >= 0) {
+                segmentFiles.add(file);
+            }
+        }
+        File[] ordered = segmentFiles.toArray(new File[0]);
+        Arrays.sort(ordered, (a, b) -> Long.compare(segmentTime(a), segmentTime(b)));
+
+        for (File file : ordered) {
+            try {
+                Segment segment = scan(file);
+                if (segment == null) {
+                    corruptSegments++;
+                    if (!file.delete()) {
+                        Logger.w(TAG, "Cannot delete invalid segment " + file);
+                    }
+                    continue;
+                }
+                sealed.add(segment);
+            } catch (IOException e) {
+                corruptSegments++;
+                Logger.w(TAG, "Skip unreadable segment " + file + ": " + e.getMessage());
+            }
+        }
+        enforceRetention();
+        Logger.i(TAG, "Recovered " + sealed.size() + " segments, " + recoveredBlocks + " blocks from " + directory);
+        return true;
+    }
+
+    /**
+     * 按时间读取 [since, until] 内的记录，用块索引跳过无关数据
+     * 块索引在锁内取快照，读取和回调在锁外进行，慢速的读取方 (如 /export 写网络) 不会阻塞落盘线程；
+     * 已写入的块不再修改，封存时的截断也只去掉有效数据之后的部分
+     * @return 读取的记录数
+     */
+    public long read(long since, long until, Visitor visitor) {
+        List<SegmentView> views = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : sealed) {
+                addView(views, segment, null, since, until);
+            }
+            if (current != null) {
+                addView(views, current, currentBuffer.duplicate(), since, until);
+            }
+        }
+
+        long count = 0;
+        for (SegmentView view : views) {
+            try {
+                // 分段可能在快照之后被保留策略删除，此时跳过
+                ByteBuffer buffer = view.buffer != null ? view.buffer : map(view.file, FileChannel.MapMode.READ_ONLY);
+                for (int i = 0; i < view.offsets.length; i++) {
+                    if (view.maxs[i] < since || view.mins[i] > until) {
+                        continue;
+                    }
+                    count += readBlock(buffer, (int) view.offsets[i], view.names, since, until, visitor);
+                }
+            } catch (IOException e) {
+                Logger.w(TAG, "Read " + view.file + " failed: " + e.getMessage());
+            }
+        }
+        return count;
+    }
+
+    private static void addView(List<SegmentView> views, Segment segment, ByteBuffer buffer, long since, long until) {
+        if (segment.blockCount == 0 || segment.last < since || segment.first > until) {
+            return;
+        }
+        views.add(new SegmentView(segment, buffer));
+    }
+
+    /**
+     * 把最近的持久化记录重放到内存存储，在设置 Sink 之前调用，避免重放的数据被再次写入
+     */
+    public long replay(TimeSeriesStore store, long since) {
+        long count = read(since, Long.MAX_VALUE, (series, timestamp, value) -> {
+            TimeSeriesStore.Series target = store.getSeries(series);
+            if (target != null) {
+                target.add(timestamp, value);
+            }
+        });
+        synchronized (this) {
+            replayed += count;
+        }
+        return count;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        flushThread = new Thread(this::flushLoop, "MetricArchive");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    /**
+     * 写出剩余记录，封存当前分段
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            thread = flushThread;
+            flushThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        synchronized (this) {
+            sealCurrent();
+        }
+    }
+
+    /**
+     * 采样线程调用: 只拷贝一条记录到暂存缓冲区，不做 I/O，不分配内存
+     */
+    @Override
+    public void append(int seriesId, long timestamp, double value) {
+        synchronized (stagingLock) {
+            ByteBuffer buffer = staging;
+            if (buffer.remaining() < RECORD_BYTES) {
+                dropped++;
+                return;
+            }
+            if (buffer.position() == 0) {
+                stagingBase = timestamp;
+            }
+            long delta = timestamp - stagingBase;
+            if (delta > Integer.MAX_VALUE || delta < Integer.MIN_VALUE) {
+                dropped++;
+                return;
+            }
+            buffer.putShort((short) seriesId).putInt((int) delta).putDouble(value);
+            if (timestamp < stagingMin) stagingMin = timestamp;
+            if (timestamp > stagingMax) stagingMax = timestamp;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.directory = directory.getPath();
+        stats.active = running;
+        stats.segments = sealed.size() + (current != null ? 1 : 0);
+        for (Segment segment : sealed) {
+            stats.bytes += segment.size();
+        }
+        if (current != null) {
+            stats.bytes += current.end;
+        }
+        stats.records = records;
+        stats.blocks = blocks;
+        synchronized (stagingLock) {
+            stats.dropped = dropped;
+        }
+        stats.recoveredBlocks = recoveredBlocks;
+        stats.corruptSegments = corruptSegments;
+        stats.replayed = replayed;
+        return stats;
+    }
+
+    // ---- 写入 ----
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * 交换暂存缓冲区，把整批记录写成一个块
+     */
+    private void flush() {
+        ByteBuffer batch;
+        long base;
+        long min;
+        long max;
+        synchronized (stagingLock) {
+            if (staging.position() == 0) return;
+            batch = staging;
+            staging = spare;
+            spare = batch;
+            base = stagingBase;
+            min = stagingMin;
+            max = stagingMax;
+            stagingMin = Long.MAX_VALUE;
+            stagingMax = Long.MIN_VALUE;
+        }
+
+        // 下一次交换在本次写完之后，batch 在此期间不会被采样线程使用
+        synchronized (this) {
+            try {
+                writeBlock(batch.array(), batch.position(), base, min, max);
+            } catch (IOException e) {
+                Logger.w(TAG, "Write block failed: " + e.getMessage());
+            }
+        }
+        batch.clear();
+    }
+
+    private void writeBlock(byte[] payload, int length, long base, long min, long max) throws IOException {
+        if (current == null || currentBuffer.remaining() < BLOCK_OVERHEAD + length) {
+            sealCurrent();
+            createSegment(min);
+        }
+
+        blockHeaderBuffer.clear();
+        blockHeaderBuffer.putInt(BLOCK_MAGIC).putInt(length).putLong(base).putLong(min).putLong(max);
+        crc.reset();
+        crc.update(blockHeader, 4, BLOCK_HEADER_BYTES - 4);
+        crc.update(payload, 0, length);
+
+        int offset = currentBuffer.position();
+        currentBuffer.put(blockHeader).put(payload, 0, length).putInt((int) crc.getValue());
+        current.index(offset, min, max);
+        current.end = currentBuffer.position();
+        records += length / RECORD_BYTES;
+        blocks++;
+    }
+
+    private void createSegment(long timestamp) throws IOException {
+        File file = new File(directory, "metrics-" + timestamp + ".seg");
+        while (file.exists()) {
+            file = new File(directory, "metrics-" + (++timestamp) + ".seg");
+        }
+        currentFile = new RandomAccessFile(file, "rw");
+        currentBuffer = currentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        current = new Segment(file, names);
+
+        currentBuffer.putInt(SEGMENT_MAGIC).putInt(VERSION).putLong(timestamp).putInt(names.length);
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            currentBuffer.putShort((short) bytes.length).put(bytes);
+        }
+        if (currentBuffer.position() > HEADER_BYTES) {
+            throw new IOException("Too many series for segment header");
+        }
+        currentBuffer.position(HEADER_BYTES);
+        enforceRetention();
+    }
+
+    /**
+     * 落盘并截断到有效长度，之后该分段只读
+     */
+    private void sealCurrent() {
+        if (current == null) return;
+        try {
+            currentBuffer.force();
+            currentFile.setLength(current.end);
+            currentFile.close();
+        } catch (IOException e) {
+            Logger.w(TAG, "Seal " + current.file + " failed: " + e.getMessage());
+        }
+        sealed.add(current);
+        current = null;
+        currentFile = null;
+        currentBuffer = null;
+    }
+
+    /**
+     * 总大小 (当前分段按完整映射大小计) 超过上限时删除最旧的分段
+     */
+    private void enforceRetention() {
+        long total = current != null ? SEGMENT_BYTES : 0;
+        for (Segment segment : sealed) {
+            total += segment.size();
+        }
+        while (total > MAX_TOTAL_BYTES && !sealed.isEmpty()) {
+            Segment oldest = sealed.remove(0);
+            total -= oldest.size();
+            if (!oldest.file.delete()) {
+                Logger.w(TAG, "Cannot delete " + oldest.file);
+            }
+        }
+    }
+
+    // ---- 读取与恢复 ----
+
+    /**
+     * 读取分段头部并逐块校验，建立块索引；第一个无效块之后的内容被截断
+     * @return 头部无效时返回 null
+     */
+    private Segment scan(File file) throws IOException {
+        ByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY);
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt() != SEGMENT_MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        buffer.getLong();
+        int count = buffer.getInt();
+        String[] segmentNames = new String[Math.max(0, count)];
+        for (int i = 0; i < segmentNames.length; i++) {
+            int length = buffer.getShort();
+            if (length < 0 || buffer.position() + length > HEADER_BYTES) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            segmentNames[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        Segment segment = new Segment(file, segmentNames);
+        int offset = HEADER_BYTES;
+        byte[] payload = new byte[STAGING_BYTES];
+        while (offset + BLOCK_OVERHEAD <= buffer.limit()) {
+            buffer.position(offset);
+            if (buffer.getInt() != BLOCK_MAGIC) break;
+            int length = buffer.getInt();
+            if (length <= 0 || length > STAGING_BYTES || length % RECORD_BYTES != 0
+                || offset + BLOCK_OVERHEAD + length > buffer.limit()) break;
+            buffer.getLong();
+            long min = buffer.getLong();
+            long max = buffer.getLong();
+
+            buffer.position(offset);
+            buffer.get(blockHeader);
+            buffer.get(payload, 0, length);
+            crc.reset();
+            crc.update(blockHeader, 4, BLOCK_HEADER_BYTES - 4);
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt()) break;
+
+            segment.index(offset, min, max);
+            offset += BLOCK_OVERHEAD + length;
+            recoveredBlocks++;
+        }
+        segment.end = offset;
+
+        if (file.length() > offset) {
+            // 崩溃时未封存的分段: 去掉映射区剩余的零和写了一半的块
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(offset);
+            }
+        }
+        return segment;
+    }
+
+    private int readBlock(ByteBuffer buffer, int offset, String[] segmentNames, long since, long until, Visitor visitor) {
+        buffer.position(offset + 4);
+        int length = buffer.getInt();
+        long base = buffer.getLong();
+        buffer.position(offset + BLOCK_HEADER_BYTES);
+        int count = 0;
+        for (int i = 0; i < length / RECORD_BYTES; i++) {
+            int seriesId = buffer.getShort();
+            long timestamp = base + buffer.getInt();
+            double value = buffer.getDouble();
+            if (timestamp < since || timestamp > until || seriesId < 0 || seriesId >= segmentNames.length) {
+                continue;
+            }
+            visitor.visit(segmentNames[seriesId], timestamp, value);
+            count++;
+        }
+        return count;
+    }
+
+    private static ByteBuffer map(File file, FileChannel.MapMode mode) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(mode, 0, raf.length());
+        }
+    }
+
+    /**
+     * 从文件名解析分段创建时间，不是分段文件时返回 -1
+     */
+    private static long segmentTime(File file) {
+        String name = file.getName();
+        if (!name.startsWith("metrics-") || !name.endsWith(".seg")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring("metrics-".length(), name.length() - ".seg".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
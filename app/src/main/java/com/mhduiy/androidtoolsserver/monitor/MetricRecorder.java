@@ -0,0 +1,461 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 指标记录器：后台线程按各采样源的间隔从采样缓存取样本，写入 TimeSeriesStore
+ * 默认按固定间隔采样；自适应模式下每个采样源由 AdaptiveSampler 按主指标的变化和告警状态调整间隔。
+ * 与 HTTP 请求共享同一个采样缓存，间隔内已有新鲜样本时不重复采样；
+ * 同一代样本只记录一次，请求触发的额外采样也会被记录。
+ * 记录的点同时写入 MetricArchive，启动时先把上次进程留下的数据重放回内存。
+ * 每个新点还交给 AlertEngine 判断告警规则 (重放的历史点不参与判断)，
+ * 并写入 FlightRecorder 的滚动缓冲区，手动或告警触发时冻结为捕获。
+ * 帧耗时和帧率不主动采样 (会让帧采集常驻)，只在 FrameMonitor 运行时记录：帧耗时逐帧记录，
+ * 帧率由记录线程按秒结算，FrameMonitor 确认某一秒的帧已到齐后记录该秒的帧数，没有新帧的秒记为 0。
+ * frames.* 上有告警规则时，记录线程每轮让 FrameMonitor 保持运行，frames.fps 规则每秒都有一个点 (含 0) 可判断
+ */
+public class MetricRecorder {
+    private static final String TAG = "MetricRecorder";
+
+    public static final long DEFAULT_INTERVAL_MS = 1000;
+
+    // 自适应模式的默认边界和变化阈值 (主指标单位)
+    private static final long ADAPTIVE_FLOOR_MS = 250;
+    private static final long ADAPTIVE_CEILING_MS = 5000;
+    private static final long BATTERY_ADAPTIVE_FLOOR_MS = 5000;
+    private static final long BATTERY_ADAPTIVE_CEILING_MS = 60_000;
+    private static final double CPU_CHANGE = 5; // %
+    private static final double GPU_CHANGE = 5; // %
+    private static final double MEMORY_CHANGE = 1; // %
+    private static final double BATTERY_POWER_CHANGE = 100; // mW
+
+    private final SampleCache<CPUMonitor.CpuInfo> cpuSamples;
+    private final SampleCache<GPUMonitor.GpuInfo> gpuSamples;
+    private final SampleCache<MemoryMonitor.MemInfo> memorySamples;
+    private final SampleCache<BatteryMonitor.BatteryInfo> batterySamples;
+    private final FrameMonitor frameMonitor;
+
+    private final TimeSeriesStore store;
+    private final MetricArchive archive;
+    private final AlertEngine alerts;
+    private final FlightRecorder flightRecorder;
+    private volatile boolean archiving = false;
+    private final TimeSeriesStore.Series cpuUsage;
+    private final TimeSeriesStore.Series[] coreUsages;
+    private final TimeSeriesStore.Series[] coreFrequencies;
+    private final TimeSeriesStore.Series cpuTemperature;
+    private final TimeSeriesStore.Series gpuUsage;
+    private final TimeSeriesStore.Series gpuFrequency;
+    private final TimeSeriesStore.Series gpuTemperature;
+    private final TimeSeriesStore.Series memoryUsed;
+    private final TimeSeriesStore.Series memoryAvailable;
+    private final TimeSeriesStore.Series memoryUsage;
+    private final TimeSeriesStore.Series batteryLevel;
+    private final TimeSeriesStore.Series batteryCurrent;
+    private final TimeSeriesStore.Series batteryVoltage;
+    private final TimeSeriesStore.Series batteryPower;
+    private final TimeSeriesStore.Series batteryTemperature;
+    private final TimeSeriesStore.Series frameTime;
+    private final TimeSeriesStore.Series fps;
+
+    // 最近几秒的帧数 (按秒取模)，由 fpsLock 保护；帧回调在采集线程，结算在记录线程
+    private static final int FPS_WINDOW_SECONDS = 16;
+    private final Object fpsLock = new Object();
+    private final int[] fpsCounts = new int[FPS_WINDOW_SECONDS];
+    private long fpsRun = 0; // 对应的 FrameMonitor 运行 (开始采集的时间)
+    private long fpsNext = -1; // 下一个待记录的秒，-1 表示尚未开始
+
+    private long lastCpuGeneration = -1;
+    private long lastGpuGeneration = -1;
+    private long lastMemoryGeneration = -1;
+    private long lastBatteryGeneration = -1;
+
+    private final long intervalMs = DEFAULT_INTERVAL_MS;
+    private final AdaptiveSampler cpuSampler;
+    private final AdaptiveSampler gpuSampler;
+    private final AdaptiveSampler memorySampler;
+    private final AdaptiveSampler batterySampler;
+    private final AdaptiveSampler[] samplers;
+    // 各采样源产生的序列，任一序列上的告警规则越过阈值时该源按下限采样
+    private final TimeSeriesStore.Series[] cpuSeries;
+    private final TimeSeriesStore.Series[] gpuSeries;
+    private final TimeSeriesStore.Series[] memorySeries;
+    private final TimeSeriesStore.Series[] batterySeries;
+    private final TimeSeriesStore.Series[] frameSeries;
+    private volatile boolean recording = false;
+    private Thread recorderThread;
+
+    MetricRecorder(SampleCache<CPUMonitor.CpuInfo> cpuSamples,
+                   SampleCache<GPUMonitor.GpuInfo> gpuSamples,
+                   SampleCache<MemoryMonitor.MemInfo> memorySamples,
+                   SampleCache<BatteryMonitor.BatteryInfo> batterySamples,
+                   FrameMonitor frameMonitor,
+                   int capacity) {
+        this.cpuSamples = cpuSamples;
+        this.gpuSamples = gpuSamples;
+        this.memorySamples = memorySamples;
+        this.batterySamples = batterySamples;
+        this.frameMonitor = frameMonitor;
+
+        // 所有序列在启动时一次性分配，之后内存占用不再变化
+        store = new TimeSeriesStore(capacity);
+        // 关心分布 (p50/p95/p99) 的指标维护分位数草图
+        cpuUsage = store.define("cpu.usage", "%", QuantileSketch.unsigned(0.1));
+        int coreCount = CPUMonitor.getCoreCountFromSys();
+        coreUsages = new TimeSeriesStore.Series[coreCount];
+        coreFrequencies = new TimeSeriesStore.Series[coreCount];
+        for (int i = 0; i < coreCount; i++) {
+            coreUsages[i] = store.define("cpu.core" + i + ".usage", "%");
+        }
+        for (int i = 0; i < coreCount; i++) {
+            coreFrequencies[i] = store.define("cpu.core" + i + ".frequency", "MHz");
+        }
+        cpuTemperature = store.define("cpu.temperature", "°C");
+        gpuUsage = store.define("gpu.usage", "%");
+        gpuFrequency = store.define("gpu.frequency", "MHz");
+        gpuTemperature = store.define("gpu.temperature", "°C");
+        memoryUsed = store.define("memory.used", "B");
+        memoryAvailable = store.define("memory.available", "B");
+        memoryUsage = store.define("memory.usage", "%");
+        batteryLevel = store.define("battery.level", "%");
+        batteryCurrent = store.define("battery.current", "µA", QuantileSketch.signed(1000));
+        batteryVoltage = store.define("battery.voltage", "mV");
+        batteryPower = store.define("battery.power", "mW");
+        batteryTemperature = store.define("battery.temperature", "°C");
+        frameTime = store.define("frames.frameTime", "ms", QuantileSketch.unsigned(0.1));
+        fps = store.define("frames.fps", "fps", QuantileSketch.unsigned(0.1));
+        store.freeze();
+
+        List<TimeSeriesStore.Series> all = store.getAllSeries();
+        String[] names = new String[all.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = all.get(i).name;
+        }
+        archive = new MetricArchive(new File(MetricArchive.DEFAULT_DIRECTORY), names);
+        alerts = new AlertEngine(store);
+        flightRecorder = new FlightRecorder(store, FlightRecorder.DEFAULT_CAPACITY);
+        alerts.setListener(flightRecorder::onAlert);
+
+        cpuSampler = new AdaptiveSampler("cpu", cpuUsage.name, intervalMs,
+            ADAPTIVE_FLOOR_MS, ADAPTIVE_CEILING_MS, CPU_CHANGE);
+        gpuSampler = new AdaptiveSampler("gpu", gpuUsage.name, intervalMs,
+            ADAPTIVE_FLOOR_MS, ADAPTIVE_CEILING_MS, GPU_CHANGE);
+        memorySampler = new AdaptiveSampler("memory", memoryUsage.name, intervalMs,
+            ADAPTIVE_FLOOR_MS, ADAPTIVE_CEILING_MS, MEMORY_CHANGE);
+        batterySampler = new AdaptiveSampler("battery", batteryPower.name, Math.max(intervalMs, SystemMonitor.BATTERY_MAX_AGE_MS),
+            BATTERY_ADAPTIVE_FLOOR_MS, BATTERY_ADAPTIVE_CEILING_MS, BATTERY_POWER_CHANGE);
+        samplers = new AdaptiveSampler[]{cpuSampler, gpuSampler, memorySampler, batterySampler};
+        cpuSeries = seriesWithPrefix(all, "cpu.");
+        gpuSeries = seriesWithPrefix(all, "gpu.");
+        memorySeries = seriesWithPrefix(all, "memory.");
+        batterySeries = seriesWithPrefix(all, "battery.");
+        frameSeries = seriesWithPrefix(all, "frames.");
+
+        Logger.i(TAG, store.getAllSeries().size() + " series x " + capacity + " points, "
+            + store.getMemoryBytes() / 1024 + "KB");
+    }
+
+    public TimeSeriesStore getStore() {
+        return store;
+    }
+
+    public MetricArchive getArchive() {
+        return archive;
+    }
+
+    public AlertEngine getAlerts() {
+        return alerts;
+    }
+
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * 采样源名称 (cpu / gpu / memory / battery) 对应的调度，不存在时返回 null
+     */
+    public AdaptiveSampler getSampler(String source) {
+        for (AdaptiveSampler sampler : samplers) {
+            if (sampler.getSource().equals(source)) {
+                return sampler;
+            }
+        }
+        return null;
+    }
+
+    public List<AdaptiveSampler> getSamplers() {
+        return Arrays.asList(samplers);
+    }
+
+    public synchronized void start() {
+        if (recording) return;
+        recording = true;
+        recorderThread = new Thread(this::recordLoop, "MetricRecorder");
+        recorderThread.setDaemon(true);
+        recorderThread.start();
+        frameMonitor.setFrameListener(this::onFrame);
+        Logger.i(TAG, "Metric recorder started, interval " + intervalMs + "ms");
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!recording) return;
+            recording = false;
+            thread = recorderThread;
+            recorderThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        frameMonitor.setFrameListener(null);
+        store.setSink(null);
+        archiving = false;
+        archive.stop();
+        Logger.i(TAG, "Metric recorder stopped");
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    private void recordLoop() {
+        // 恢复放在记录线程中，不拖慢服务启动
+        if (archive.open()) {
+            long replayed = archive.replay(store, System.currentTimeMillis() - store.getRetentionMs());
+            Logger.i(TAG, "Replayed " + replayed + " persisted points");
+            archive.start();
+            archiving = true;
+        }
+        // 持久化不可用时告警照常工作
+        store.setSink(this::append);
+
+        while (recording) {
+            long tickStart = System.currentTimeMillis();
+            try {
+                record(tickStart);
+            } catch (Exception e) {
+                // 单次采样失败不影响后续记录
+                Logger.w(TAG, "Record failed: " + e.getMessage());
+            }
+
+            // 睡到最早到期的采样源，最多一个基准间隔，重新配置后及时生效
+            long nextDue = Long.MAX_VALUE;
+            for (AdaptiveSampler sampler : samplers) {
+                nextDue = Math.min(nextDue, sampler.getNextDue());
+            }
+            long sleep = Math.min(nextDue - System.currentTimeMillis(), intervalMs);
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 只采样已到期的源，每个源用自己的当前间隔作为缓存新鲜度
+     */
+    private void record(long now) {
+        if (hasRules(frameSeries)) {
+            // 帧采集空闲时会停止，告警规则需要它持续产生数据
+            frameMonitor.keepAlive();
+        }
+        recordFps();
+
+        if (cpuSampler.isDue(now)) {
+            cpuSampler.scheduleNext(now);
+            long start = System.nanoTime();
+            SampleCache.Sample<CPUMonitor.CpuInfo> cpu = cpuSamples.get(SampleCache.ALL_PARTS, cpuSampler.getIntervalMs());
+            if (cpu.generation != lastCpuGeneration) {
+                lastCpuGeneration = cpu.generation;
+                addCost(cpuSampler, cpu, now, start);
+                recordCpu(cpu.timestamp, cpu.value);
+                cpuSampler.update(cpu.value.currentUsage, isAlerting(cpuSeries));
+            }
+        }
+
+        if (gpuSampler.isDue(now)) {
+            gpuSampler.scheduleNext(now);
+            long start = System.nanoTime();
+            SampleCache.Sample<GPUMonitor.GpuInfo> gpu = gpuSamples.get(SampleCache.ALL_PARTS, gpuSampler.getIntervalMs());
+            if (gpu.generation != lastGpuGeneration) {
+                lastGpuGeneration = gpu.generation;
+                addCost(gpuSampler, gpu, now, start);
+                gpuUsage.add(gpu.timestamp, gpu.value.usage);
+                gpuFrequency.add(gpu.timestamp, gpu.value.currentFrequency);
+                if (gpu.value.temperature >= 0) {
+                    gpuTemperature.add(gpu.timestamp, gpu.value.temperature);
+                }
+                gpuSampler.update(gpu.value.usage, isAlerting(gpuSeries));
+            }
+        }
+
+        if (memorySampler.isDue(now)) {
+            memorySampler.scheduleNext(now);
+            long start = System.nanoTime();
+            SampleCache.Sample<MemoryMonitor.MemInfo> memory =
+                memorySamples.get(SampleCache.ALL_PARTS, memorySampler.getIntervalMs());
+            if (memory.generation != lastMemoryGeneration) {
+                lastMemoryGeneration = memory.generation;
+                addCost(memorySampler, memory, now, start);
+                memoryUsed.add(memory.timestamp, memory.value.usedMemory);
+                memoryAvailable.add(memory.timestamp, memory.value.availableMemory);
+                memoryUsage.add(memory.timestamp, memory.value.memoryUsageRatio * 100.0);
+                memorySampler.update(memory.value.memoryUsageRatio * 100.0, isAlerting(memorySeries));
+            }
+        }
+
+        if (batterySampler.isDue(now)) {
+            batterySampler.scheduleNext(now);
+            long start = System.nanoTime();
+            SampleCache.Sample<BatteryMonitor.BatteryInfo> battery =
+                batterySamples.get(SampleCache.ALL_PARTS, batterySampler.getIntervalMs());
+            if (battery.generation != lastBatteryGeneration) {
+                lastBatteryGeneration = battery.generation;
+                addCost(batterySampler, battery, now, start);
+                batteryLevel.add(battery.timestamp, battery.value.level);
+                batteryCurrent.add(battery.timestamp, battery.value.current);
+                batteryVoltage.add(battery.timestamp, battery.value.voltage);
+                batteryPower.add(battery.timestamp, battery.value.power);
+                batteryTemperature.add(battery.timestamp, battery.value.temperature / 10.0);
+                batterySampler.update(battery.value.power, isAlerting(batterySeries));
+            }
+        }
+    }
+
+    /**
+     * 样本时间不早于本轮开始时说明是本轮触发的采样 (而非其他请求留下的缓存)，计入采样耗时
+     */
+    private static void addCost(AdaptiveSampler sampler, SampleCache.Sample<?> sample, long now, long startNanos) {
+        if (sample.timestamp >= now) {
+            sampler.addCost(System.nanoTime() - startNanos);
+        }
+    }
+
+    private boolean hasRules(TimeSeriesStore.Series[] seriesList) {
+        for (TimeSeriesStore.Series series : seriesList) {
+            if (alerts.hasRules(series.id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAlerting(TimeSeriesStore.Series[] seriesList) {
+        for (TimeSeriesStore.Series series : seriesList) {
+            if (alerts.isActive(series.id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static TimeSeriesStore.Series[] seriesWithPrefix(List<TimeSeriesStore.Series> all, String prefix) {
+        List<TimeSeriesStore.Series> matched = new ArrayList<>();
+        for (TimeSeriesStore.Series series : all) {
+            if (series.name.startsWith(prefix)) {
+                matched.add(series);
+            }
+        }
+        return matched.toArray(new TimeSeriesStore.Series[0]);
+    }
+
+    /**
+     * 存储下游，在 Series.add() 的锁内调用
+     */
+    private void append(int seriesId, long timestamp, double value) {
+        if (archiving) {
+            archive.append(seriesId, timestamp, value);
+        }
+        // 先写入飞行记录器，告警触发的捕获包含触发点本身
+        flightRecorder.append(seriesId, timestamp, value);
+        alerts.evaluate(seriesId, timestamp, value);
+    }
+
+    /**
+     * FrameMonitor 采集线程回调
+     */
+    private void onFrame(long timestamp, long frameTimeNanos) {
+        frameTime.add(timestamp, frameTimeNanos / 1_000_000.0);
+        long second = timestamp / 1000;
+        synchronized (fpsLock) {
+            syncFpsRun();
+            // 启动时补报的缓冲帧所在的秒不完整，不计入
+            if (fpsNext < 0 || second < fpsNext) return;
+            if (second >= fpsNext + FPS_WINDOW_SECONDS) {
+                // 帧按显示顺序到达，更早的秒已经到齐
+                flushFps(second - FPS_WINDOW_SECONDS + 1);
+            }
+            fpsCounts[(int) (second % FPS_WINDOW_SECONDS)]++;
+        }
+    }
+
+    /**
+     * 记录帧已到齐的各秒的帧率，包括没有新帧的秒；FrameMonitor 未运行时采集时间不再前进，不会记录
+     */
+    private void recordFps() {
+        long until = frameMonitor.getCollectedUntil();
+        synchronized (fpsLock) {
+            syncFpsRun();
+            if (fpsNext >= 0) {
+                flushFps(until / 1000);
+            }
+        }
+    }
+
+    /**
+     * FrameMonitor 重新启动后从新一次运行开始后的第一个整秒重新计数，停止期间的秒不记录
+     */
+    private void syncFpsRun() {
+        long since = frameMonitor.getCollectedSince();
+        if (since != fpsRun) {
+            fpsRun = since;
+            fpsNext = since > 0 ? since / 1000 + 1 : -1;
+            Arrays.fill(fpsCounts, 0);
+        }
+    }
+
+    /**
+     * 记录 end 之前的各秒
+     */
+    private void flushFps(long end) {
+        for (; fpsNext < end; fpsNext++) {
+            int index = (int) (fpsNext % FPS_WINDOW_SECONDS);
+            fps.add(fpsNext * 1000, fpsCounts[index]);
+            fpsCounts[index] = 0;
+        }
+    }
+
+    private void recordCpu(long timestamp, CPUMonitor.CpuInfo info) {
+        cpuUsage.add(timestamp, info.currentUsage);
+        int usageCount = Math.min(coreUsages.length, info.coreUsages.size());
+        for (int i = 0; i < usageCount; i++) {
+            coreUsages[i].add(timestamp, info.coreUsages.get(i));
+        }
+        int frequencyCount = Math.min(coreFrequencies.length, info.frequencies.size());
+        for (int i = 0; i < frequencyCount; i++) {
+            coreFrequencies[i].add(timestamp, info.frequencies.get(i));
+        }
+        if (info.temperature >= 0) {
+            cpuTemperature.add(timestamp, info.temperature);
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.mhduiy.androidtoolsserver.util.ContextManager;
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 已安装应用的内存索引
+ * 首次使用时全量扫描一次，之后通过 PACKAGE_ADDED/REMOVED/REPLACED/CHANGED 广播增量更新。
+ * 广播注册失败时退回 PackageManager.getChangedPackages (API 26+)，再不行则定期全量对比。
+ * 每次变化递增代数(generation)，条目记录自己的代数，删除的包保留墓碑，
+ * 客户端可以只拉取某个代数之后的变化。
+ * 全量扫描时应用名称（getApplicationLabel，最慢的部分）在有界线程池中并行解析，
+ * 读取方通过 ensureLabel 等待单个应用的名称，因此可以边解析边输出。
+ * 名称在索引锁内写入，解析完成后对应的 Future 移出待解析表
+ */
+public class PackageIndex {
+    private static final String TAG = "PackageIndex";
+
+    // 没有广播和 getChangedPackages 可用时，全量对比的最短间隔
+    private static final long RESCAN_INTERVAL_MS = 30_000;
+
+    // 最多保留的墓碑数量，超出后更早的增量查询返回全量
+    private static final int MAX_TOMBSTONES = 1024;
+
+    private static final int LABEL_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    public static final String SORT_PACKAGE_NAME = "packageName";
+    public static final String SORT_APP_NAME = "appName";
+    public static final String SORT_FIRST_INSTALL_TIME = "firstInstallTime";
+    public static final String SORT_LAST_UPDATE_TIME = "lastUpdateTime";
+
+    /**
+     * 应用列表查询条件
+     */
+    public static class Query {
+        public int offset = 0;
+        public int limit = -1; // 小于0表示不限制
+        public Boolean system; // null 表示不过滤
+        public Boolean enabled; // null 表示不过滤
+        public String prefix; // 应用名称或包名前缀，忽略大小写
+        public String sort = SORT_PACKAGE_NAME;
+        public boolean descending = false;
+    }
+
+    /**
+     * 查询结果，apps 中的应用名称可能仍在解析，输出前需调用 ensureLabel
+     */
+    public static class QueryResult {
+        public long generation;
+        public int total; // 过滤后、分页前的数量
+        public List<AppMonitor.AppBaseInfo> apps = new ArrayList<>();
+    }
+
+    /**
+     * 增量查询结果
+     */
+    public static class Changes {
+        public long generation; // 当前代数，下次查询时作为 since 传入
+        public boolean full; // true 表示 apps 是全量列表，客户端应丢弃本地缓存
+        public List<AppMonitor.AppBaseInfo> apps = new ArrayList<>();
+        public List<String> removed = new ArrayList<>();
+    }
+
+    private final Map<String, AppMonitor.AppBaseInfo> apps = new HashMap<>();
+    // 包名 -> 删除时的代数，按删除顺序排列
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+    private long generation = 0;
+    // 早于该代数的增量已无法还原（墓碑被淘汰）
+    private long tombstoneFloor = 0;
+
+    private boolean built = false;
+    private boolean receiverRegistered = false;
+    private HandlerThread receiverThread;
+    private BroadcastReceiver receiver;
+    private int changedSequence = 0;
+    private long lastRescanTime = 0;
+
+    // 包名 -> 全量扫描时尚未完成的名称解析
+    private final Map<String, Future<String>> pendingLabels = new ConcurrentHashMap<>();
+    private final ExecutorService labelExecutor = Executors.newFixedThreadPool(LABEL_THREADS, r -> {
+        Thread thread = new Thread(r, "PackageLabelLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 过滤、排序并分页
+     * 只有按名称过滤或排序时才需要等待名称解析，其余情况立即返回
+     */
+    public QueryResult query(Query query) {
+        ensureFresh();
+        QueryResult result = new QueryResult();
+        List<AppMonitor.AppBaseInfo> matched = new ArrayList<>();
+        synchronized (this) {
+            result.generation = generation;
+            for (AppMonitor.AppBaseInfo app : apps.values()) {
+                if (query.system != null && app.isSystemApp != query.system) continue;
+                if (query.enabled != null && app.isEnabled != query.enabled) continue;
+                matched.add(app);
+            }
+        }
+
+        boolean needLabels = (query.prefix != null && !query.prefix.isEmpty()) || SORT_APP_NAME.equals(query.sort);
+        if (needLabels) {
+            for (AppMonitor.AppBaseInfo app : matched) {
+                ensureLabel(app);
+            }
+        }
+
+        if (query.prefix != null && !query.prefix.isEmpty()) {
+            String prefix = query.prefix.toLowerCase(Locale.ROOT);
+            List<AppMonitor.AppBaseInfo> filtered = new ArrayList<>();
+            for (AppMonitor.AppBaseInfo app : matched) {
+                if (app.packageName.toLowerCase(Locale.ROOT).startsWith(prefix)
+                    || (app.appName != null && app.appName.toLowerCase(Locale.ROOT).startsWith(prefix))) {
+                    filtered.add(app);
+                }
+            }
+            matched = filtered;
+        }
+
+        Comparator<AppMonitor.AppBaseInfo> comparator = comparatorFor(query.sort);
+        Collections.sort(matched, query.descending ? Collections.reverseOrder(comparator) : comparator);
+
+        result.total = matched.size();
+        int from = Math.min(Math.max(query.offset, 0), matched.size());
+        int to = query.limit < 0 ? matched.size() : (int) Math.min((long) from + query.limit, matched.size());
+        result.apps = new ArrayList<>(matched.subList(from, to));
+        return result;
+    }
+
+    /**
+     * 等待应用名称解析完成；解析失败时使用包名
+     */
+    public void ensureLabel(AppMonitor.AppBaseInfo app) {
+        Future<String> label = pendingLabels.get(app.packageName);
+        if (label != null) {
+            try {
+                label.get();
+            } catch (Exception e) {
+                // 解析任务被取消 (stop) 或等待被中断，下面使用包名
+            }
+        }
+        // 加锁读取，保证看到解析线程在锁内写入的名称
+        synchronized (this) {
+            if (label != null && label.isDone()) {
+                pendingLabels.remove(app.packageName, label);
+            }
+            if (app.appName == null) {
+                app.appName = app.packageName;
+            }
+        }
+    }
+
+    private static Comparator<AppMonitor.AppBaseInfo> comparatorFor(String sort) {
+        if (SORT_APP_NAME.equals(sort)) {
+            return (a, b) -> {
+                int result = a.appName.compareToIgnoreCase(b.appName);
+                return result != 0 ? result : a.packageName.compareTo(b.packageName);
+            };
+        }
+        if (SORT_FIRST_INSTALL_TIME.equals(sort)) {
+            return (a, b) -> Long.compare(a.firstInstallTime, b.firstInstallTime);
+        }
+        if (SORT_LAST_UPDATE_TIME.equals(sort)) {
+            return (a, b) -> Long.compare(a.lastUpdateTime, b.lastUpdateTime);
+        }
+        return (a, b) -> a.packageName.compareTo(b.packageName);
+    }
+
+    /**
+     * 获取 since 代数之后新增或变化的应用以及被删除的包名
+     * @param since 上次查询返回的 generation，0 表示全量
+     */
+    public Changes getChanges(long since) {
+        ensureFresh();
+        Changes changes = new Changes();
+        synchronized (this) {
+            changes.generation = generation;
+            changes.full = since <= 0 || since < tombstoneFloor || since > generation;
+
+            for (AppMonitor.AppBaseInfo app : apps.values()) {
+                if (changes.full || app.generation > since) {
+                    changes.apps.add(app);
+                }
+            }
+            Collections.sort(changes.apps, (a, b) -> a.packageName.compareTo(b.packageName));
+
+            if (!changes.full) {
+                for (Map.Entry<String, Long> tombstone : tombstones.entrySet()) {
+                    if (tombstone.getValue() > since) {
+                        changes.removed.add(tombstone.getKey());
+                    }
+                }
+            }
+        }
+        for (AppMonitor.AppBaseInfo app : changes.apps) {
+            ensureLabel(app);
+        }
+        return changes;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized int size() {
+        return apps.size();
+    }
+
+    public boolean isReceiverRegistered() {
+        return receiverRegistered;
+    }
+
+    public synchronized void stop() {
+        Context context = ContextManager.getContext();
+        if (receiver != null && context != null) {
+            try {
+                context.unregisterReceiver(receiver);
+            } catch (Exception e) {
+                Logger.d(TAG, "Failed to unregister package receiver: " + e.getMessage());
+            }
+        }
+        receiver = null;
+        receiverRegistered = false;
+        if (receiverThread != null) {
+            receiverThread.quitSafely();
+            receiverThread = null;
+        }
+        labelExecutor.shutdownNow();
+    }
+
+    /**
+     * 首次调用时建立索引并注册广播；广播不可用时按退回方案同步变化
+     */
+    private void ensureFresh() {
+        synchronized (this) {
+            if (!built) {
+                build();
+                registerReceiver();
+                built = true;
+                return;
+            }
+            if (receiverRegistered) {
+                return;
+            }
+        }
+        syncWithoutReceiver();
+    }
+
+    private void build() {
+        PackageManager pm = ContextManager.getPackageManager();
+        if (pm == null) {
+            Logger.e(TAG, "PackageManager is null, cannot build package index");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            List<PackageInfo> packages = pm.getInstalledPackages(0);
+            generation++;
+            for (PackageInfo packageInfo : packages) {
+                AppMonitor.AppBaseInfo app = toAppInfo(pm, packageInfo, false);
+                app.generation = generation;
+                apps.put(app.packageName, app);
+                loadLabelAsync(pm, packageInfo, app);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                ChangedPackages changed = pm.getChangedPackages(0);
+                changedSequence = changed != null ? changed.getSequenceNumber() : 0;
+            }
+            lastRescanTime = System.currentTimeMillis();
+            Logger.i(TAG, "Indexed " + apps.size() + " packages in " + (lastRescanTime - start)
+                + "ms, resolving labels on " + LABEL_THREADS + " threads");
+        } catch (Exception e) {
+            Logger.e(TAG, "Failed to build package index: " + e.getMessage());
+        }
+    }
+
+    private void registerReceiver() {
+        Context context = ContextManager.getContext();
+        if (context == null) return;
+
+        try {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addDataScheme("package");
+
+            receiverThread = new HandlerThread("PackageIndex");
+            receiverThread.start();
+            receiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    handlePackageBroadcast(intent);
+                }
+            };
+            context.registerReceiver(receiver, filter, null, new Handler(receiverThread.getLooper()));
+            receiverRegistered = true;
+            Logger.i(TAG, "Registered package broadcast receiver");
+        } catch (Throwable t) {
+            Logger.w(TAG, "Failed to register package receiver, using fallback sync: " + t.getMessage());
+            receiver = null;
+            if (receiverThread != null) {
+                receiverThread.quitSafely();
+                receiverThread = null;
+            }
+        }
+    }
+
+    private void handlePackageBroadcast(Intent intent) {
+        Uri data = intent.getData();
+        String packageName = data != null ? data.getSchemeSpecificPart() : null;
+        if (packageName == null) return;
+
+        // 覆盖安装时先收到 REMOVED(replacing=true)，随后会有 ADDED/REPLACED，这里忽略
+        if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+            && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+            return;
+        }
+
+        Logger.d(TAG, "Package broadcast " + intent.getAction() + ": " + packageName);
+        refreshPackage(packageName);
+    }
+
+    /**
+     * 没有广播时的同步：优先 getChangedPackages，否则按间隔全量对比
+     */
+    private void syncWithoutReceiver() {
+        PackageManager pm = ContextManager.getPackageManager();
+        if (pm == null) return;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            try {
+                int sequence;
+                synchronized (this) {
+                    sequence = changedSequence;
+                }
+                ChangedPackages changed = pm.getChangedPackages(sequence);
+                if (changed != null) {
+                    for (String packageName : changed.getPackageNames()) {
+                        refreshPackage(packageName);
+                    }
+                    synchronized (this) {
+                        changedSequence = changed.getSequenceNumber();
+                    }
+                }
+                return;
+            } catch (Exception e) {
+                Logger.d(TAG, "getChangedPackages failed: " + e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            if (System.currentTimeMillis() - lastRescanTime < RESCAN_INTERVAL_MS) {
+                return;
+            }
+            lastRescanTime = System.currentTimeMillis();
+        }
+        rescan(pm);
+    }
+
+    /**
+     * 全量扫描并与索引对比，只有变化的包会进入新的代数
+     */
+    private void rescan(PackageManager pm) {
+        List<PackageInfo> packages;
+        try {
+            packages = pm.getInstalledPackages(0);
+        } catch (Exception e) {
+            Logger.e(TAG, "Failed to rescan packages: " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            Map<String, AppMonitor.AppBaseInfo> remaining = new HashMap<>(apps);
+            long next = generation + 1;
+            boolean changed = false;
+            for (PackageInfo packageInfo : packages) {
+                AppMonitor.AppBaseInfo existing = remaining.remove(packageInfo.packageName);
+                boolean enabled = packageInfo.applicationInfo == null || packageInfo.applicationInfo.enabled;
+                if (existing != null && existing.lastUpdateTime == packageInfo.lastUpdateTime
+                    && existing.isEnabled == enabled) {
+                    continue;
+                }
+                AppMonitor.AppBaseInfo app = toAppInfo(pm, packageInfo, true);
+                pendingLabels.remove(app.packageName);
+                app.generation = next;
+                apps.put(app.packageName, app);
+                tombstones.remove(app.packageName);
+                changed = true;
+            }
+            for (String packageName : remaining.keySet()) {
+                apps.remove(packageName);
+                pendingLabels.remove(packageName);
+                addTombstone(packageName, next);
+                changed = true;
+            }
+            if (changed) {
+                generation = next;
+            }
+        }
+    }
+
+    private void refreshPackage(String packageName) {
+        PackageManager pm = ContextManager.getPackageManager();
+        if (pm == null) return;
+
+        AppMonitor.AppBaseInfo app = null;
+        try {
+            app = toAppInfo(pm, pm.getPackageInfo(packageName, 0), true);
+        } catch (PackageManager.NameNotFoundException e) {
+            // 包已卸载
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to refresh package " + packageName + ": " + e.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            if (app == null && !apps.containsKey(packageName)) {
+                return;
+            }
+            generation++;
+            pendingLabels.remove(packageName);
+            if (app != null) {
+                app.generation = generation;
+                apps.put(packageName, app);
+                tombstones.remove(packageName);
+            } else {
+                apps.remove(packageName);
+                addTombstone(packageName, generation);
+            }
+        }
+    }
+
+    private void addTombstone(String packageName, long removedGeneration) {
+        tombstones.remove(packageName);
+        tombstones.put(packageName, removedGeneration);
+        Iterator<Map.Entry<String, Long>> iterator = tombstones.entrySet().iterator();
+        while (tombstones.size() > MAX_TOMBSTONES && iterator.hasNext()) {
+            tombstoneFloor = Math.max(tombstoneFloor, iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 在线程池中解析名称，完成后在索引锁内写入 app.appName 并移出待解析表；
+     * build() 提交时持有同一把锁，因此 put 一定先于任务中的 remove
+     */
+    private void loadLabelAsync(PackageManager pm, PackageInfo packageInfo, AppMonitor.AppBaseInfo app) {
+        ApplicationInfo applicationInfo = packageInfo.applicationInfo;
+        if (applicationInfo == null) return;
+        try {
+            pendingLabels.put(app.packageName, labelExecutor.submit(() -> {
+                String label;
+                try {
+                    label = pm.getApplicationLabel(applicationInfo).toString();
+                } catch (Exception e) {
+                    label = app.packageName;
+                }
+                synchronized (PackageIndex.this) {
+                    app.appName = label;
+                    pendingLabels.remove(app.packageName);
+                }
+                return label;
+            }));
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to schedule label for " + packageInfo.packageName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param resolveLabel 为false时不解析应用名称，appName 保持为 null，由 loadLabelAsync 异步填充
+     */
+    static AppMonitor.AppBaseInfo toAppInfo(PackageManager pm, PackageInfo packageInfo, boolean resolveLabel) {
+        AppMonitor.AppBaseInfo appInfo = new AppMonitor.AppBaseInfo();
+
+        // 基本包信息
+        appInfo.packageName = packageInfo.packageName;
+        appInfo.versionName = packageInfo.versionName;
+        appInfo.versionCode = packageInfo.versionCode;
+        appInfo.firstInstallTime = packageInfo.firstInstallTime;
+        appInfo.lastUpdateTime = packageInfo.lastUpdateTime;
+
+        // 获取应用名称
+        try {
+            ApplicationInfo applicationInfo = packageInfo.applicationInfo;
+            if (resolveLabel) {
+                appInfo.appName = pm.getApplicationLabel(applicationInfo).toString();
+            }
+            appInfo.isSystemApp = (applicationInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+            appInfo.isEnabled = applicationInfo.enabled;
+        } catch (Exception e) {
+            appInfo.appName = packageInfo.packageName;
+            appInfo.isSystemApp = false;
+            appInfo.isEnabled = true;
+        }
+        return appInfo;
+    }
+}
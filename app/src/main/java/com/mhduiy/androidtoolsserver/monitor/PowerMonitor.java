@@ -0,0 +1,587 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import android.content.Context;
+import android.os.BatteryManager;
+
+import com.mhduiy.androidtoolsserver.util.ContextManager;
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 电池功率采样器
+ * 以 10-50Hz 读取 current_now / voltage_now，计算瞬时功率，
+ * 并按命名会话积分能量(mWh)和电荷量(mAh)
+ *
+ * 电流符号遵循 Android BATTERY_PROPERTY_CURRENT_NOW 约定：
+ * 正值表示充电（流入电池），负值表示放电，因此放电会话的能量和电荷量为负数
+ */
+public class PowerMonitor {
+    private static final String TAG = "PowerMonitor";
+
+    public static final int MIN_RATE_HZ = 10;
+    public static final int MAX_RATE_HZ = 50;
+    public static final int DEFAULT_RATE_HZ = 20;
+
+    // 环形缓冲区容量：最高采样率下约 80 秒
+    private static final int BUFFER_CAPACITY = 4096;
+
+    // 部分内核以毫安上报 current_now；单位按路径检测一次，读数绝对值不小于该阈值时一定是微安
+    private static final int MILLIAMP_THRESHOLD = 20000;
+
+    // 保留的已结束会话数，超出时删除最早结束的
+    public static final int MAX_FINISHED_SESSIONS = 16;
+
+    private static final String[] CURRENT_PATHS = {
+        "/sys/class/power_supply/battery/current_now",
+        "/sys/class/power_supply/bms/current_now",
+        "/sys/class/power_supply/main/current_now"
+    };
+
+    private static final String[] VOLTAGE_PATHS = {
+        "/sys/class/power_supply/battery/voltage_now",
+        "/sys/class/power_supply/bms/voltage_now",
+        "/sys/class/power_supply/main/voltage_now"
+    };
+
+    /**
+     * 单个功率采样
+     */
+    public static class PowerSample {
+        public long timestamp; // 采样时间 (毫秒)
+        public int current; // 电流 (单位: 微安)
+        public int voltage; // 电压 (单位: 微伏)
+        public double power; // 功率 (单位: 毫瓦)
+    }
+
+    /**
+     * 功率会话统计
+     */
+    public static class PowerSession {
+        public String name;
+        public long startTime; // 会话开始时间 (毫秒)
+        public long endTime; // 会话结束时间 (毫秒)，进行中为 0
+        public long sampleCount;
+        public double energy; // 累计能量 (单位: 毫瓦时)
+        public double charge; // 累计电荷量 (单位: 毫安时)
+        public double averagePower; // 平均功率 (单位: 毫瓦)
+        public double minPower; // 最小功率 (单位: 毫瓦)
+        public double maxPower; // 最大功率 (单位: 毫瓦)
+        public boolean active;
+
+        private long lastNanos;
+        private long sampledNanos; // 实际积分的时长，不含采样器停止的间隔
+        private double lastPower;
+        private double lastCurrent;
+    }
+
+    /**
+     * 采样器状态
+     */
+    public static class PowerInfo {
+        public boolean sampling;
+        public int rate; // 采样频率 (Hz)
+        public long sampleCount; // 累计采样次数
+        public int bufferedSamples; // 环形缓冲区中的采样数
+        public String currentPath;
+        public String voltagePath;
+        public PowerSample latest;
+        public List<PowerSession> sessions = new ArrayList<>();
+    }
+
+    /**
+     * 紧凑的环形缓冲区，按列存储原始整数采样，避免为每个采样创建对象
+     */
+    private static class SampleRing {
+        final long[] timestamps = new long[BUFFER_CAPACITY];
+        final int[] currents = new int[BUFFER_CAPACITY];
+        final int[] voltages = new int[BUFFER_CAPACITY];
+        int head = 0; // 下一个写入位置
+        int size = 0;
+
+        void add(long timestamp, int current, int voltage) {
+            timestamps[head] = timestamp;
+            currents[head] = current;
+            voltages[head] = voltage;
+            head = (head + 1) % BUFFER_CAPACITY;
+            if (size < BUFFER_CAPACITY) {
+                size++;
+            }
+        }
+
+        /**
+         * @param age 0表示最新的采样
+         */
+        int indexOf(int age) {
+            return (head - 1 - age + BUFFER_CAPACITY) % BUFFER_CAPACITY;
+        }
+    }
+
+    private final SampleRing ring = new SampleRing();
+    private final Map<String, PowerSession> sessions = new LinkedHashMap<>();
+    private final byte[] readBuffer = new byte[32];
+
+    private RandomAccessFile currentFile;
+    private RandomAccessFile voltageFile;
+    private String currentPath;
+    private String voltagePath;
+
+    // current_now 的单位换算: 1 为微安，1000 为毫安，0 为尚未确定；换路径时重新检测
+    private int currentScale = 0;
+    private String scalePath;
+
+    private Thread samplerThread;
+    private volatile boolean sampling = false;
+    private volatile int rateHz = DEFAULT_RATE_HZ;
+    private long sampleCount = 0;
+
+    /**
+     * 启动后台采样
+     * @param rate 采样频率(Hz)，会被限制在 10-50Hz 之间
+     */
+    public synchronized void start(int rate) {
+        rateHz = clampRate(rate);
+        if (sampling) {
+            Logger.i(TAG, "Power sampler rate changed to " + rateHz + "Hz");
+            return;
+        }
+
+        if (!openFiles()) {
+            Logger.w(TAG, "No readable current_now/voltage_now found, power sampler not started");
+            return;
+        }
+
+        sampling = true;
+        samplerThread = new Thread(this::sampleLoop, "PowerSampler");
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+        Logger.i(TAG, "Power sampler started at " + rateHz + "Hz");
+    }
+
+    /**
+     * 停止后台采样，进行中的会话会保留，重新开始采样后继续积分
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            if (!sampling) return;
+            sampling = false;
+            thread = samplerThread;
+            samplerThread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            closeFiles();
+            // 采样中断期间不积分，避免用一个跨越停止时间的大梯形污染结果
+            for (PowerSession session : sessions.values()) {
+                session.lastNanos = 0;
+            }
+        }
+        Logger.i(TAG, "Power sampler stopped");
+    }
+
+    /**
+     * 是否有进行中的会话，后台采样被其他使用者关闭前据此判断是否还有人依赖它
+     */
+    public synchronized boolean hasActiveSession() {
+        for (PowerSession session : sessions.values()) {
+            if (session.active) return true;
+        }
+        return false;
+    }
+
+    public boolean isSampling() {
+        return sampling;
+    }
+
+    /**
+     * 开始一个命名会话，如采样器未运行则自动以默认频率启动
+     * 同名的已结束会话会被替换
+     * @return 同名会话正在进行时返回 null
+     */
+    public PowerSession startSession(String name) {
+        synchronized (this) {
+            PowerSession existing = sessions.get(name);
+            if (existing != null && existing.active) {
+                return null;
+            }
+        }
+        if (!sampling) {
+            start(rateHz);
+        }
+
+        synchronized (this) {
+            PowerSession existing = sessions.get(name);
+            if (existing != null && existing.active) {
+                return null;
+            }
+            // 重新插入，保持按开始顺序排列
+            sessions.remove(name);
+            PowerSession session = new PowerSession();
+            session.name = name;
+            session.startTime = System.currentTimeMillis();
+            session.minPower = Double.MAX_VALUE;
+            session.maxPower = -Double.MAX_VALUE;
+            session.active = true;
+            sessions.put(name, session);
+            Logger.i(TAG, "Power session started: " + name);
+            return copyOf(session);
+        }
+    }
+
+    /**
+     * 结束一个命名会话并返回最终统计，会话不存在时返回null
+     */
+    public synchronized PowerSession stopSession(String name) {
+        PowerSession session = sessions.get(name);
+        if (session == null) {
+            return null;
+        }
+
+        if (session.active) {
+            session.active = false;
+            session.endTime = System.currentTimeMillis();
+            Logger.i(TAG, "Power session stopped: " + name + ", energy: " + session.energy + "mWh");
+            pruneFinishedSessions();
+        }
+        return copyOf(session);
+    }
+
+    /**
+     * 已结束的会话超过 MAX_FINISHED_SESSIONS 时删除最早开始的
+     */
+    private void pruneFinishedSessions() {
+        int finished = 0;
+        for (PowerSession session : sessions.values()) {
+            if (!session.active) finished++;
+        }
+        Iterator<PowerSession> iterator = sessions.values().iterator();
+        while (finished > MAX_FINISHED_SESSIONS && iterator.hasNext()) {
+            if (!iterator.next().active) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    /**
+     * 删除一个会话
+     */
+    public synchronized boolean removeSession(String name) {
+        return sessions.remove(name) != null;
+    }
+
+    public synchronized PowerSession getSession(String name) {
+        PowerSession session = sessions.get(name);
+        return session != null ? copyOf(session) : null;
+    }
+
+    public synchronized PowerInfo getInfo() {
+        PowerInfo info = new PowerInfo();
+        info.sampling = sampling;
+        info.rate = rateHz;
+        info.sampleCount = sampleCount;
+        info.bufferedSamples = ring.size;
+        info.currentPath = currentPath;
+        info.voltagePath = voltagePath;
+
+        if (ring.size > 0) {
+            info.latest = sampleAt(ring.indexOf(0));
+        } else {
+            // 采样器未运行时做一次即时读取
+            info.latest = readOnce();
+        }
+
+        for (PowerSession session : sessions.values()) {
+            info.sessions.add(copyOf(session));
+        }
+        return info;
+    }
+
+    /**
+     * 获取环形缓冲区中最近的采样，按时间升序排列
+     */
+    public synchronized List<PowerSample> getRecentSamples(int count) {
+        int n = Math.min(Math.max(count, 0), ring.size);
+        List<PowerSample> samples = new ArrayList<>(n);
+        for (int age = n - 1; age >= 0; age--) {
+            samples.add(sampleAt(ring.indexOf(age)));
+        }
+        return samples;
+    }
+
+    public static int clampRate(int rate) {
+        return Math.max(MIN_RATE_HZ, Math.min(MAX_RATE_HZ, rate));
+    }
+
+    private void sampleLoop() {
+        long nextTick = System.nanoTime();
+
+        while (sampling) {
+            synchronized (this) {
+                if (!sampling) break;
+                sampleOnce();
+            }
+
+            long periodNanos = 1_000_000_000L / rateHz;
+            nextTick += periodNanos;
+            long sleepNanos = nextTick - System.nanoTime();
+            if (sleepNanos <= 0) {
+                // 读取过慢时丢弃错过的节拍，而不是连续补采
+                nextTick = System.nanoTime();
+                continue;
+            }
+
+            try {
+                Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 读取一次电流电压，写入环形缓冲区并更新活动会话
+     */
+    private void sampleOnce() {
+        try {
+            long now = System.nanoTime();
+            int current = normalizeCurrent(readInt(currentFile));
+            int voltage = readInt(voltageFile);
+            double power = toPowerMilliwatts(current, voltage);
+
+            ring.add(System.currentTimeMillis(), current, voltage);
+            sampleCount++;
+
+            for (PowerSession session : sessions.values()) {
+                if (session.active) {
+                    integrate(session, now, current, power);
+                }
+            }
+        } catch (IOException e) {
+            Logger.w(TAG, "Failed to read power sample: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 梯形法积分
+     */
+    private void integrate(PowerSession session, long now, int current, double power) {
+        double currentMilliamps = current / 1000.0;
+
+        if (session.lastNanos != 0) {
+            double hours = (now - session.lastNanos) / 3_600_000_000_000.0;
+            session.energy += (session.lastPower + power) / 2.0 * hours;
+            session.charge += (session.lastCurrent + currentMilliamps) / 2.0 * hours;
+
+            // 平均功率只按实际采样的时长计算，采样器停止的间隔不计入
+            session.sampledNanos += now - session.lastNanos;
+            if (session.sampledNanos > 0) {
+                session.averagePower = session.energy / (session.sampledNanos / 3_600_000_000_000.0);
+            }
+        }
+
+        session.lastNanos = now;
+        session.lastPower = power;
+        session.lastCurrent = currentMilliamps;
+        session.sampleCount++;
+        session.minPower = Math.min(session.minPower, power);
+        session.maxPower = Math.max(session.maxPower, power);
+    }
+
+    private PowerSample readOnce() {
+        boolean opened = currentFile != null || openFiles();
+        if (!opened) {
+            return null;
+        }
+
+        try {
+            PowerSample sample = new PowerSample();
+            sample.timestamp = System.currentTimeMillis();
+            sample.current = normalizeCurrent(readInt(currentFile));
+            sample.voltage = readInt(voltageFile);
+            sample.power = toPowerMilliwatts(sample.current, sample.voltage);
+            return sample;
+        } catch (IOException e) {
+            Logger.w(TAG, "Failed to read power: " + e.getMessage());
+            return null;
+        } finally {
+            if (!sampling) {
+                closeFiles();
+            }
+        }
+    }
+
+    private PowerSample sampleAt(int index) {
+        PowerSample sample = new PowerSample();
+        sample.timestamp = ring.timestamps[index];
+        sample.current = ring.currents[index];
+        sample.voltage = ring.voltages[index];
+        sample.power = toPowerMilliwatts(sample.current, sample.voltage);
+        return sample;
+    }
+
+    private static PowerSession copyOf(PowerSession source) {
+        PowerSession copy = new PowerSession();
+        copy.name = source.name;
+        copy.startTime = source.startTime;
+        copy.endTime = source.endTime;
+        copy.sampleCount = source.sampleCount;
+        copy.energy = source.energy;
+        copy.charge = source.charge;
+        copy.averagePower = source.averagePower;
+        copy.minPower = source.sampleCount > 0 ? source.minPower : 0;
+        copy.maxPower = source.sampleCount > 0 ? source.maxPower : 0;
+        copy.active = source.active;
+        return copy;
+    }
+
+    /**
+     * 微安 x 微伏 -> 毫瓦
+     */
+    private static double toPowerMilliwatts(int currentMicroamps, int voltageMicrovolts) {
+        return (double) currentMicroamps * voltageMicrovolts / 1_000_000_000.0;
+    }
+
+    private int normalizeCurrent(int raw) {
+        if (currentScale == 0) {
+            currentScale = detectCurrentScale(raw);
+            if (currentScale == 0) {
+                return raw;
+            }
+            Logger.i(TAG, currentPath + " reports " + (currentScale == 1 ? "µA" : "mA"));
+        }
+        return raw * currentScale;
+    }
+
+    /**
+     * 按一个读数判断 current_now 的单位，之后该路径的所有读数使用同一换算，不再逐个猜测
+     * 优先与 BatteryManager.BATTERY_PROPERTY_CURRENT_NOW (微安) 对照；
+     * 没有可用参照时按读数大小判断: 检测发生在采样器启动时，设备处于唤醒状态，微安内核的读数不会低于 20mA
+     * @return 1 / 1000，读数为 0 (充满或断开) 时返回 0，等下一次读数再判断
+     */
+    private int detectCurrentScale(int raw) {
+        if (raw == 0) {
+            return 0;
+        }
+        long magnitude = Math.abs((long) raw);
+        if (magnitude >= MILLIAMP_THRESHOLD) {
+            return 1;
+        }
+        long reference = Math.abs((long) readReferenceCurrent());
+        if (reference != 0) {
+            // 参照值与读数同量级时为微安，约为读数的 1000 倍时为毫安
+            if (reference >= magnitude * 100) return 1000;
+            if (reference * 10 >= magnitude && reference <= magnitude * 10) return 1;
+        }
+        return 1000;
+    }
+
+    /**
+     * BatteryManager 上报的电流 (微安)，不可用时返回 0
+     */
+    private static int readReferenceCurrent() {
+        Context context = ContextManager.getContext();
+        if (context == null) {
+            return 0;
+        }
+        try {
+            BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+            if (batteryManager == null) {
+                return 0;
+            }
+            int current = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+            // 不支持时返回 Integer.MIN_VALUE
+            return current == Integer.MIN_VALUE ? 0 : current;
+        } catch (Exception e) {
+            Logger.d(TAG, "BatteryManager current unavailable: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private boolean openFiles() {
+        closeFiles();
+        currentPath = findReadable(CURRENT_PATHS);
+        voltagePath = findReadable(VOLTAGE_PATHS);
+        if (currentPath == null || voltagePath == null) {
+            return false;
+        }
+        if (!currentPath.equals(scalePath)) {
+            scalePath = currentPath;
+            currentScale = 0;
+        }
+
+        try {
+            currentFile = new RandomAccessFile(currentPath, "r");
+            voltageFile = new RandomAccessFile(voltagePath, "r");
+            return true;
+        } catch (IOException e) {
+            Logger.w(TAG, "Failed to open power supply files: " + e.getMessage());
+            closeFiles();
+            return false;
+        }
+    }
+
+    private void closeFiles() {
+        try {
+            if (currentFile != null) currentFile.close();
+            if (voltageFile != null) voltageFile.close();
+        } catch (IOException e) {
+            Logger.d(TAG, "Error closing power supply files: " + e.getMessage());
+        }
+        currentFile = null;
+        voltageFile = null;
+    }
+
+    private static String findReadable(String[] paths) {
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.exists() && file.canRead()) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从文件头重新读取sysfs属性并解析整数，不分配对象
+     */
+    private int readInt(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        int count = file.read(readBuffer, 0, readBuffer.length);
+        if (count <= 0) {
+            throw new IOException("empty read");
+        }
+
+        int value = 0;
+        int i = 0;
+        boolean negative = false;
+        while (i < count && readBuffer[i] == ' ') i++;
+        if (i < count && readBuffer[i] == '-') {
+            negative = true;
+            i++;
+        }
+        for (; i < count; i++) {
+            byte b = readBuffer[i];
+            if (b < '0' || b > '9') break;
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+}
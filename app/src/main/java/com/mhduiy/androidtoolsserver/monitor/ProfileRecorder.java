@@ -0,0 +1,636 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import com.mhduiy.androidtoolsserver.util.FileUtils;
+import com.mhduiy.androidtoolsserver.util.Logger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 应用性能测试会话 (类似 PerfDog 的一次测试)
+ * 会话针对一个目标包，每秒记录一行: 应用进程 CPU 和内存 (/proc/<pid>)、应用帧率、
+ * 整机 CPU/GPU 使用率、温度和电池功率。每行立即追加到会话的 CSV 文件，堆上只保留
+ * 每个指标一个固定大小的 QuantileSketch，会话再长内存也不增长。
+ * 帧耗时和卡顿由 FrameMonitor 的同名帧会话统计 (只计目标包的帧)，能量由 PowerMonitor 的同名功率会话积分；
+ * 结束时汇总为报告: 各指标的平均值、分位数、卡顿统计和能耗
+ */
+public class ProfileRecorder {
+    private static final String TAG = "ProfileRecorder";
+
+    public static final String DEFAULT_DIRECTORY = "/data/local/tmp/androidtools-server-profiles";
+    public static final long SAMPLE_INTERVAL_MS = 1000;
+    // 保留的会话数 (含已结束的)，超出时丢弃最早结束的会话的报告，数据文件保留在磁盘上
+    public static final int MAX_SESSIONS = 16;
+
+    // 目标进程不存在 (未启动或被杀) 时重新查找 pid 的间隔
+    private static final long PID_LOOKUP_INTERVAL_MS = 5000;
+    // /proc/<pid>/stat 的时间单位 (USER_HZ)，Android 内核固定为 100
+    private static final double CLOCK_TICKS_PER_SECOND = 100.0;
+    // 帧会话和功率会话的名称前缀，与用户手动创建的会话区分
+    private static final String SESSION_PREFIX = "profile:";
+
+    // 每行的指标列
+    private static final String[] METRICS = {
+        "appCpu", "appMemory", "fps", "cpuUsage", "gpuUsage",
+        "cpuTemperature", "gpuTemperature", "batteryTemperature", "power"
+    };
+    private static final String[] UNITS = {"%", "MB", "fps", "%", "%", "°C", "°C", "°C", "mW"};
+    private static final int APP_CPU = 0;
+    private static final int APP_MEMORY = 1;
+    private static final int FPS = 2;
+    private static final int CPU_USAGE = 3;
+    private static final int GPU_USAGE = 4;
+    private static final int CPU_TEMPERATURE = 5;
+    private static final int GPU_TEMPERATURE = 6;
+    private static final int BATTERY_TEMPERATURE = 7;
+    private static final int POWER = 8;
+
+    /**
+     * 一个指标在会话内的统计
+     */
+    public static class MetricSummary {
+        public String name;
+        public String unit;
+        public long count;
+        public double average;
+        public double min;
+        public double max;
+        public double p50;
+        public double p90;
+        public double p95;
+        public double p99;
+    }
+
+    /**
+     * 会话报告，进行中的会话为截至当前的统计
+     */
+    public static class Report {
+        public String name;
+        public String packageName;
+        public boolean active;
+        public long startTime;
+        public long endTime; // 进行中为 0
+        public long durationMs;
+        public long samples; // 已记录的行数
+        public String file;
+        public long fileBytes;
+        public List<MetricSummary> metrics = new ArrayList<>();
+        public FrameHistogram.Summary frames;
+        public double energy; // 累计能量 (毫瓦时)，放电为负
+        public double charge; // 累计电荷量 (毫安时)
+        public double averagePower; // 平均功率 (毫瓦)
+    }
+
+    private static class Session {
+        String name;
+        String packageName;
+        long startTime;
+        long endTime;
+        boolean active;
+        File file;
+        Writer writer;
+        long samples;
+        final QuantileSketch[] sketches = new QuantileSketch[METRICS.length];
+        // 采样线程复用的一行数据
+        final double[] row = new double[METRICS.length];
+
+        int pid;
+        long lastPidLookup;
+        long lastCpuTicks = -1;
+        long lastCpuTime;
+        long lastFrameCount = -1;
+        long lastFrameTime;
+        double lastEnergy = Double.NaN;
+        long lastEnergyTime;
+
+        // 结束时的最终报告
+        Report report;
+    }
+
+    private final SampleCache<CPUMonitor.CpuInfo> cpuSamples;
+    private final SampleCache<GPUMonitor.GpuInfo> gpuSamples;
+    private final SampleCache<BatteryMonitor.BatteryInfo> batterySamples;
+    private final FrameMonitor frameMonitor;
+    private final PowerMonitor powerMonitor;
+    private final File directory;
+    private final int coreCount;
+
+    private final Map<String, Session> sessions = new LinkedHashMap<>();
+    private final StringBuilder line = new StringBuilder(256);
+    private Thread samplerThread;
+    // 功率后台采样是否由性能测试会话开启，是则在最后一个会话结束时关闭
+    private boolean startedPowerSampler = false;
+
+    ProfileRecorder(SampleCache<CPUMonitor.CpuInfo> cpuSamples,
+                    SampleCache<GPUMonitor.GpuInfo> gpuSamples,
+                    SampleCache<BatteryMonitor.BatteryInfo> batterySamples,
+                    FrameMonitor frameMonitor,
+                    PowerMonitor powerMonitor,
+                    File directory) {
+        this.cpuSamples = cpuSamples;
+        this.gpuSamples = gpuSamples;
+        this.batterySamples = batterySamples;
+        this.frameMonitor = frameMonitor;
+        this.powerMonitor = powerMonitor;
+        this.directory = directory;
+        this.coreCount = Math.max(1, CPUMonitor.getCoreCountFromSys());
+    }
+
+    /**
+     * 开始会话
+     * 同名会话已结束时由新会话替换，旧会话的报告不再保留 (数据文件仍在磁盘上)
+     * @return 会话的初始报告；同名会话进行中、对应的帧/功率会话名已被占用或无法创建数据文件时返回 null
+     */
+    public Report startSession(String name, String packageName) {
+        synchronized (this) {
+            Session existing = sessions.get(name);
+            if (existing != null && existing.active) {
+                return null;
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Logger.w(TAG, "Cannot create " + directory);
+                return null;
+            }
+        }
+
+        // 先占用帧和功率会话，名字已被占用时报告会读到别人的数据，直接失败
+        boolean wasSampling = powerMonitor.isSampling();
+        if (frameMonitor.startSession(SESSION_PREFIX + name, packageName) == null) {
+            Logger.w(TAG, "Frame session " + SESSION_PREFIX + name + " is already running");
+            return null;
+        }
+        if (powerMonitor.startSession(SESSION_PREFIX + name) == null) {
+            Logger.w(TAG, "Power session " + SESSION_PREFIX + name + " is already running");
+            abortSubSessions(name, false, wasSampling);
+            return null;
+        }
+
+        synchronized (this) {
+            Session existing = sessions.get(name);
+            if (existing != null && existing.active) {
+                abortSubSessions(name, true, wasSampling);
+                return null;
+            }
+
+            Session session = new Session();
+            session.name = name;
+            session.packageName = packageName;
+            session.startTime = System.currentTimeMillis();
+            session.active = true;
+            session.file = new File(directory, fileName(name, session.startTime));
+            try {
+                session.writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(session.file), StandardCharsets.UTF_8));
+                line.setLength(0);
+                line.append("timestamp");
+                for (int i = 0; i < METRICS.length; i++) {
+                    line.append(',').append(METRICS[i]).append('(').append(UNITS[i]).append(')');
+                }
+                line.append('\n');
+                writeLine(session);
+            } catch (IOException e) {
+                Logger.w(TAG, "Cannot write " + session.file + ": " + e.getMessage());
+                abortSubSessions(name, true, wasSampling);
+                return null;
+            }
+            // 分位数按统一的刻度统计；功率放电为负，使用有符号刻度
+            for (int i = 0; i < METRICS.length; i++) {
+                session.sketches[i] = new QuantileSketch(i == POWER ? QuantileSketch.signed(1)
+                    : i == APP_MEMORY ? QuantileSketch.unsigned(1) : QuantileSketch.unsigned(0.1));
+            }
+
+            sessions.remove(name);
+            sessions.put(name, session);
+            trimSessions();
+            ensureSampling();
+            if (!wasSampling && powerMonitor.isSampling()) {
+                startedPowerSampler = true;
+            }
+        }
+
+        Logger.i(TAG, "Profile session started: " + name + " (" + packageName + ")");
+        return getReport(name);
+    }
+
+    /**
+     * 结束会话并生成最终报告，会话不存在时返回 null
+     */
+    public Report stopSession(String name) {
+        Session session;
+        synchronized (this) {
+            session = sessions.get(name);
+            if (session == null) {
+                return null;
+            }
+            if (!session.active) {
+                return session.report;
+            }
+            session.active = false;
+            session.endTime = System.currentTimeMillis();
+            closeWriter(session);
+        }
+
+        FrameMonitor.FrameSession frames = frameMonitor.stopSession(SESSION_PREFIX + name);
+        frameMonitor.removeSession(SESSION_PREFIX + name);
+        PowerMonitor.PowerSession power = powerMonitor.stopSession(SESSION_PREFIX + name);
+        powerMonitor.removeSession(SESSION_PREFIX + name);
+        releasePowerSampler();
+
+        synchronized (this) {
+            session.report = buildReport(session, frames, power);
+            Logger.i(TAG, "Profile session stopped: " + name + ", " + session.samples + " samples");
+            return session.report;
+        }
+    }
+
+    /**
+     * 会话启动失败时撤销本次占用的帧和功率会话，以及本次调用开启的功率采样
+     * @param powerStarted 功率会话是否由本次调用创建，否则它属于其他使用者，不能结束
+     */
+    private void abortSubSessions(String name, boolean powerStarted, boolean wasSampling) {
+        frameMonitor.stopSession(SESSION_PREFIX + name);
+        frameMonitor.removeSession(SESSION_PREFIX + name);
+        if (powerStarted) {
+            powerMonitor.stopSession(SESSION_PREFIX + name);
+            powerMonitor.removeSession(SESSION_PREFIX + name);
+        }
+        if (!wasSampling) {
+            synchronized (this) {
+                if (powerMonitor.isSampling()) {
+                    startedPowerSampler = true;
+                }
+            }
+            releasePowerSampler();
+        }
+    }
+
+    /**
+     * 最后一个会话结束后关闭由会话开启的功率采样；仍有其他功率会话进行时保留
+     */
+    private void releasePowerSampler() {
+        synchronized (this) {
+            if (!startedPowerSampler || hasActiveSession()) {
+                return;
+            }
+            startedPowerSampler = false;
+        }
+        if (!powerMonitor.hasActiveSession()) {
+            powerMonitor.stop();
+        }
+    }
+
+    /**
+     * 会话报告，进行中的会话返回截至当前的统计；会话不存在时返回 null
+     */
+    public Report getReport(String name) {
+        synchronized (this) {
+            Session session = sessions.get(name);
+            if (session == null) {
+                return null;
+            }
+            if (!session.active) {
+                return session.report;
+            }
+        }
+        FrameMonitor.FrameSession frames = frameMonitor.getSession(SESSION_PREFIX + name);
+        PowerMonitor.PowerSession power = powerMonitor.getSession(SESSION_PREFIX + name);
+        synchronized (this) {
+            Session session = sessions.get(name);
+            if (session == null) {
+                return null;
+            }
+            return session.active ? buildReport(session, frames, power) : session.report;
+        }
+    }
+
+    public List<Report> getReports() {
+        List<String> names;
+        synchronized (this) {
+            names = new ArrayList<>(sessions.keySet());
+        }
+        List<Report> reports = new ArrayList<>(names.size());
+        for (String name : names) {
+            Report report = getReport(name);
+            if (report != null) {
+                reports.add(report);
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * 会话的 CSV 数据文件，进行中的会话先把缓冲的行写入文件；会话不存在时返回 null
+     */
+    public synchronized File getDataFile(String name) {
+        Session session = sessions.get(name);
+        if (session == null) {
+            return null;
+        }
+        if (session.active) {
+            try {
+                session.writer.flush();
+            } catch (IOException e) {
+                Logger.w(TAG, "Flush failed: " + e.getMessage());
+            }
+        }
+        return session.file;
+    }
+
+    private void ensureSampling() {
+        if (samplerThread != null) return;
+        samplerThread = new Thread(this::sampleLoop, "ProfileSampler");
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+    }
+
+    private void sampleLoop() {
+        while (true) {
+            long tickStart = System.currentTimeMillis();
+            synchronized (this) {
+                if (!hasActiveSession()) {
+                    samplerThread = null;
+                    return;
+                }
+            }
+            try {
+                sampleOnce();
+            } catch (Exception e) {
+                // 单次采样失败不影响后续记录
+                Logger.w(TAG, "Profile sample failed: " + e.getMessage());
+            }
+
+            long sleep = SAMPLE_INTERVAL_MS - (System.currentTimeMillis() - tickStart);
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    synchronized (this) {
+                        samplerThread = null;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void sampleOnce() {
+        // 与其他请求共享采样缓存，一个周期内已有新鲜样本时不重复采样
+        CPUMonitor.CpuInfo cpu = cpuSamples.get(SampleCache.ALL_PARTS, SAMPLE_INTERVAL_MS).value;
+        GPUMonitor.GpuInfo gpu = gpuSamples.get(SampleCache.ALL_PARTS, SAMPLE_INTERVAL_MS).value;
+        BatteryMonitor.BatteryInfo battery = batterySamples.get(SampleCache.ALL_PARTS, SystemMonitor.BATTERY_MAX_AGE_MS).value;
+
+        List<Session> active = new ArrayList<>();
+        synchronized (this) {
+            for (Session session : sessions.values()) {
+                if (session.active) {
+                    active.add(session);
+                }
+            }
+        }
+
+        for (Session session : active) {
+            long now = System.currentTimeMillis();
+            double[] row = session.row;
+            sampleProcess(session, now, row);
+            row[FPS] = sampleFps(session, now);
+            row[CPU_USAGE] = cpu.currentUsage;
+            row[GPU_USAGE] = gpu.usage;
+            row[CPU_TEMPERATURE] = cpu.temperature >= 0 ? cpu.temperature : Double.NaN;
+            row[GPU_TEMPERATURE] = gpu.temperature >= 0 ? gpu.temperature : Double.NaN;
+            row[BATTERY_TEMPERATURE] = battery.temperature / 10.0;
+            row[POWER] = samplePower(session, now);
+
+            synchronized (this) {
+                if (session.active) {
+                    appendRow(session, now, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * 目标进程的 CPU 使用率 (占全部核心的百分比) 和常驻内存 (MB)
+     */
+    private void sampleProcess(Session session, long now, double[] row) {
+        row[APP_CPU] = Double.NaN;
+        row[APP_MEMORY] = Double.NaN;
+
+        String stat = session.pid > 0 ? FileUtils.readFile("/proc/" + session.pid + "/stat") : null;
+        if (stat == null) {
+            // 进程未启动或已退出，按间隔重新查找，CPU 基准重置
+            session.lastCpuTicks = -1;
+            if (now - session.lastPidLookup < PID_LOOKUP_INTERVAL_MS) {
+                return;
+            }
+            session.lastPidLookup = now;
+            session.pid = findPid(session.packageName);
+            if (session.pid <= 0) {
+                return;
+            }
+            stat = FileUtils.readFile("/proc/" + session.pid + "/stat");
+            if (stat == null) {
+                return;
+            }
+        }
+
+        // 进程名可能含空格，字段从最后一个 ')' 之后开始: state ppid ... utime(第 14 项) stime(第 15 项)
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        if (fields.length > 12) {
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            if (session.lastCpuTicks >= 0 && now > session.lastCpuTime) {
+                double seconds = (now - session.lastCpuTime) / 1000.0;
+                row[APP_CPU] = (ticks - session.lastCpuTicks) / CLOCK_TICKS_PER_SECOND / seconds / coreCount * 100.0;
+            }
+            session.lastCpuTicks = ticks;
+            session.lastCpuTime = now;
+        }
+
+        String[] status = FileUtils.readLines("/proc/" + session.pid + "/status");
+        if (status != null) {
+            for (String statusLine : status) {
+                if (statusLine.startsWith("VmRSS:")) {
+                    String value = statusLine.substring(6).trim();
+                    int space = value.indexOf(' ');
+                    row[APP_MEMORY] = Long.parseLong(space > 0 ? value.substring(0, space) : value) / 1024.0;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 上个周期目标应用的帧率，由帧会话的帧数增量得到
+     */
+    private double sampleFps(Session session, long now) {
+        FrameMonitor.FrameSession frames = frameMonitor.getSession(SESSION_PREFIX + session.name);
+        if (frames == null) {
+            return Double.NaN;
+        }
+        long count = frames.histogram.getFrameCount();
+        double fps = Double.NaN;
+        if (session.lastFrameCount >= 0 && now > session.lastFrameTime) {
+            fps = (count - session.lastFrameCount) * 1000.0 / (now - session.lastFrameTime);
+        }
+        session.lastFrameCount = count;
+        session.lastFrameTime = now;
+        return fps;
+    }
+
+    /**
+     * 上个周期的平均功率 (毫瓦)，由功率会话的能量增量得到，比单个瞬时采样稳定
+     */
+    private double samplePower(Session session, long now) {
+        PowerMonitor.PowerSession power = powerMonitor.getSession(SESSION_PREFIX + session.name);
+        if (power == null || power.sampleCount == 0) {
+            return Double.NaN;
+        }
+        double milliwatts = Double.NaN;
+        if (!Double.isNaN(session.lastEnergy) && now > session.lastEnergyTime) {
+            milliwatts = (power.energy - session.lastEnergy) * 3_600_000.0 / (now - session.lastEnergyTime);
+        }
+        session.lastEnergy = power.energy;
+        session.lastEnergyTime = now;
+        return milliwatts;
+    }
+
+    private void appendRow(Session session, long timestamp, double[] row) {
+        line.setLength(0);
+        line.append(timestamp);
+        for (int i = 0; i < row.length; i++) {
+            line.append(',');
+            // 不可用的值留空
+            if (!Double.isNaN(row[i])) {
+                line.append(Math.round(row[i] * 100.0) / 100.0);
+                session.sketches[i].add(row[i]);
+            }
+        }
+        line.append('\n');
+        try {
+            writeLine(session);
+            // 每行写入文件，进程被杀时最多丢失一行
+            session.writer.flush();
+            session.samples++;
+        } catch (IOException e) {
+            Logger.w(TAG, "Cannot append to " + session.file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeLine(Session session) throws IOException {
+        session.writer.append(line);
+    }
+
+    private Report buildReport(Session session, FrameMonitor.FrameSession frames, PowerMonitor.PowerSession power) {
+        Report report = new Report();
+        report.name = session.name;
+        report.packageName = session.packageName;
+        report.active = session.active;
+        report.startTime = session.startTime;
+        report.endTime = session.endTime;
+        report.durationMs = (session.active ? System.currentTimeMillis() : session.endTime) - session.startTime;
+        report.samples = session.samples;
+        report.file = session.file.getAbsolutePath();
+        // 每行都已写入文件，文件长度即已持久化的数据量
+        report.fileBytes = session.file.length();
+        for (int i = 0; i < METRICS.length; i++) {
+            QuantileSketch sketch = session.sketches[i];
+            MetricSummary summary = new MetricSummary();
+            summary.name = METRICS[i];
+            summary.unit = UNITS[i];
+            summary.count = sketch.getCount();
+            summary.average = sketch.getMean();
+            summary.min = sketch.getMin();
+            summary.max = sketch.getMax();
+            summary.p50 = sketch.getQuantile(0.5);
+            summary.p90 = sketch.getQuantile(0.9);
+            summary.p95 = sketch.getQuantile(0.95);
+            summary.p99 = sketch.getQuantile(0.99);
+            report.metrics.add(summary);
+        }
+        if (frames != null) {
+            report.frames = frames.histogram.summarize();
+        }
+        if (power != null) {
+            report.energy = power.energy;
+            report.charge = power.charge;
+            report.averagePower = power.averagePower;
+        }
+        return report;
+    }
+
+    private void closeWriter(Session session) {
+        try {
+            session.writer.close();
+        } catch (IOException e) {
+            Logger.w(TAG, "Cannot close " + session.file + ": " + e.getMessage());
+        }
+    }
+
+    private boolean hasActiveSession() {
+        for (Session session : sessions.values()) {
+            if (session.active) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 超出 MAX_SESSIONS 时丢弃最早的已结束会话
+     */
+    private void trimSessions() {
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (sessions.size() > MAX_SESSIONS && iterator.hasNext()) {
+            if (!iterator.next().active) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String fileName(String name, long startTime) {
+        return "profile-" + name.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + startTime + ".csv";
+    }
+
+    /**
+     * 按 /proc/<pid>/cmdline 查找包的主进程
+     */
+    private static int findPid(String packageName) {
+        String[] entries = new File("/proc").list();
+        if (entries == null) {
+            return 0;
+        }
+        byte[] expected = packageName.getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[expected.length + 1];
+        for (String entry : entries) {
+            if (entry.isEmpty() || entry.charAt(0) < '0' || entry.charAt(0) > '9') continue;
+            try (FileInputStream in = new FileInputStream("/proc/" + entry + "/cmdline")) {
+                int read = in.read(buffer);
+                // cmdline 以 \0 分隔，主进程名与包名完全相同 (子进程为 包名:后缀)
+                if (read >= expected.length && (read == expected.length || buffer[expected.length] == 0)
+                    && startsWith(buffer, expected)) {
+                    return Integer.parseInt(entry);
+                }
+            } catch (IOException | NumberFormatException e) {
+                // 进程已退出或无权限读取
+            }
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(byte[] buffer, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
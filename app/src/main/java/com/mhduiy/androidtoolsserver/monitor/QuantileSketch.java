@@ -0,0 +1,173 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+/**
+ * 可合并的固定内存分位数草图 (对数-线性桶，类似 HDR 直方图)
+ * 按绝对值分桶：小于 floor 的值落入零桶，之后每个 2 倍区间细分为 subBins 个桶，
+ * 桶宽度按比例增长，相对误差固定；有符号的刻度负值与正值各占一半桶。
+ * 草图只是桶计数，任意个草图按桶相加即可合并，不保存原始样本。
+ * TimeSeriesStore 的降采样桶把计数平铺保存在 char[] 中 (16 位饱和计数)，查询时合并到一个草图
+ */
+public class QuantileSketch {
+    public static final int BIN_COUNT = 128;
+    private static final int MAX_BIN_COUNT = Character.MAX_VALUE;
+
+    /**
+     * 值到桶的映射
+     */
+    public static final class Scale {
+        final double floor;
+        final int subBins;
+        final boolean signed;
+        // 每个符号方向 (含零桶) 的桶数
+        final int half;
+        private final double log2Floor;
+
+        private Scale(double floor, boolean signed) {
+            this.floor = floor;
+            this.signed = signed;
+            // 有符号时每侧桶数减半，降低每倍区间的细分保持相同的量程 (约 2^15.8 倍 floor)
+            this.subBins = signed ? 4 : 8;
+            this.half = signed ? BIN_COUNT / 2 : BIN_COUNT;
+            this.log2Floor = Math.log(floor) / Math.log(2);
+        }
+
+        /**
+         * 值所在的桶；有符号时零桶位于中间，负值桶在左侧，桶下标顺序与值的大小顺序一致
+         */
+        public int index(double value) {
+            int magnitude = magnitudeIndex(Math.abs(value));
+            if (!signed) {
+                return value < 0 ? 0 : magnitude;
+            }
+            return value < 0 ? half - 1 - magnitude : half - 1 + magnitude;
+        }
+
+        /**
+         * 桶的代表值 (桶上下界的几何中点)
+         */
+        public double value(int index) {
+            if (!signed) {
+                return magnitudeValue(index);
+            }
+            int magnitude = index - (half - 1);
+            return magnitude < 0 ? -magnitudeValue(-magnitude) : magnitudeValue(magnitude);
+        }
+
+        private int magnitudeIndex(double magnitude) {
+            if (!(magnitude >= floor)) {
+                return 0;
+            }
+            double octaves = Math.log(magnitude) / Math.log(2) - log2Floor;
+            return (int) Math.min(half - 1, 1 + (long) (octaves * subBins));
+        }
+
+        private double magnitudeValue(int magnitude) {
+            return magnitude == 0 ? 0.0 : floor * Math.pow(2, (magnitude - 0.5) / subBins);
+        }
+    }
+
+    /**
+     * 非负指标，如使用率、帧耗时、帧率
+     * @param floor 可区分的最小值，更小的值计入零桶
+     */
+    public static Scale unsigned(double floor) {
+        return new Scale(floor, false);
+    }
+
+    /**
+     * 可正可负的指标，如充放电电流
+     */
+    public static Scale signed(double floor) {
+        return new Scale(floor, true);
+    }
+
+    private final Scale scale;
+    private final long[] counts = new long[BIN_COUNT];
+    private long total = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double sum = 0;
+
+    public QuantileSketch(Scale scale) {
+        this.scale = scale;
+    }
+
+    public void add(double value) {
+        counts[scale.index(value)]++;
+        total++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * 合并另一个同刻度的草图
+     */
+    public void merge(QuantileSketch other) {
+        for (int i = 0; i < BIN_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * 合并平铺保存的桶计数和该段数据的精确 min/max/sum
+     */
+    void merge(char[] bins, int offset, double binMin, double binMax, double binSum) {
+        for (int i = 0; i < BIN_COUNT; i++) {
+            int count = bins[offset + i];
+            counts[i] += count;
+            total += count;
+        }
+        sum += binSum;
+        min = Math.min(min, binMin);
+        max = Math.max(max, binMax);
+    }
+
+    /**
+     * 把一个值计入平铺保存的桶计数，计数在 65535 饱和
+     */
+    static void add(char[] bins, int offset, Scale scale, double value) {
+        int index = offset + scale.index(value);
+        if (bins[index] < MAX_BIN_COUNT) {
+            bins[index]++;
+        }
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public double getMin() {
+        return total == 0 ? 0.0 : min;
+    }
+
+    public double getMax() {
+        return total == 0 ? 0.0 : max;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0.0 : sum / total;
+    }
+
+    /**
+     * 估算分位数，结果限制在精确的 [min, max] 内
+     * @param quantile 0-1
+     */
+    public double getQuantile(double quantile) {
+        if (total == 0) return 0.0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BIN_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, scale.value(i)));
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,166 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 带代数(generation)的采样缓存
+ * 距上次采样不足最小间隔时直接返回上一次的样本，并发请求只触发一次采样。
+ * 每次新采样代数加一，并通知监听者（例如让旧代数的响应缓存失效）。
+ * 样本对象在多个请求之间共享，调用方不能修改。
+ * 采样可以按部分 (parts 位掩码) 进行，只采集请求需要的数据：
+ * 新鲜样本已包含所需部分时直接复用；否则有 TopUp 时只补采缺少的部分并沿用已有部分，
+ * 没有时以 所需部分|已有部分 重新采样
+ * @param <T> 样本类型
+ */
+public class SampleCache<T> {
+
+    /**
+     * 所有部分
+     */
+    public static final int ALL_PARTS = ~0;
+
+    public interface Sampler<T> {
+        /**
+         * @param parts 需要采集的部分，不区分部分的采样器可以忽略
+         */
+        T sample(int parts);
+    }
+
+    /**
+     * 在已有样本上补采缺少的部分，用于已有部分不能在短间隔内重新采集的样本
+     * (如 CPU 使用率依赖前后两次 /proc/stat 快照的差值，间隔过短时结果只有噪声)
+     */
+    public interface TopUp<T> {
+        /**
+         * @param previous 共享的已有样本，不能修改，返回新对象
+         * @param missing 需要补采的部分
+         */
+        T topUp(T previous, int missing);
+    }
+
+    public interface Listener {
+        void onNewGeneration(SampleCache<?> source, long generation);
+    }
+
+    /**
+     * 一次采样结果
+     */
+    public static class Sample<T> {
+        public final SampleCache<T> source;
+        public final T value;
+        public final long generation;
+        public final long timestamp; // 采样时间 (毫秒)
+        public final int parts; // 已采集的部分
+
+        Sample(SampleCache<T> source, T value, long generation, long timestamp, int parts) {
+            this.source = source;
+            this.value = value;
+            this.generation = generation;
+            this.timestamp = timestamp;
+            this.parts = parts;
+        }
+
+        public boolean covers(int required) {
+            return (parts & required) == required;
+        }
+    }
+
+    private final String name;
+    private final Sampler<T> sampler;
+    private final TopUp<T> topUp;
+    private final long minIntervalMs;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile Sample<T> latest;
+    private long generation = 0;
+
+    public SampleCache(String name, long minIntervalMs, Sampler<T> sampler) {
+        this(name, minIntervalMs, sampler, null);
+    }
+
+    public SampleCache(String name, long minIntervalMs, Sampler<T> sampler, TopUp<T> topUp) {
+        this.name = name;
+        this.minIntervalMs = minIntervalMs;
+        this.sampler = sampler;
+        this.topUp = topUp;
+    }
+
+    /**
+     * 获取不早于最小间隔的样本，必要时重新采样
+     */
+    public Sample<T> get() {
+        return get(ALL_PARTS);
+    }
+
+    /**
+     * 获取至少包含 required 部分的样本
+     */
+    public Sample<T> get(int required) {
+        return get(required, minIntervalMs);
+    }
+
+    /**
+     * 获取至少包含 required 部分、且不早于 maxAgeMs 的样本，用于采样频率高于默认间隔的流式订阅
+     */
+    public Sample<T> get(int required, long maxAgeMs) {
+        Sample<T> sample = latest;
+        if (isFresh(sample, maxAgeMs) && sample.covers(required)) {
+            return sample;
+        }
+
+        long newGeneration;
+        synchronized (this) {
+            sample = latest;
+            boolean fresh = isFresh(sample, maxAgeMs);
+            int parts = required;
+            T value;
+            long timestamp;
+            if (fresh && sample.covers(required)) {
+                return sample;
+            } else if (fresh && topUp != null) {
+                // 只补采缺少的部分，保留原样本的采样时间，到期后照常完整重采
+                value = topUp.topUp(sample.value, required & ~sample.parts);
+                timestamp = sample.timestamp;
+                parts |= sample.parts;
+            } else {
+                if (fresh) {
+                    // 同一间隔内补采缺少的部分，保留其他请求已需要的部分
+                    parts |= sample.parts;
+                }
+                value = sampler.sample(parts);
+                timestamp = System.currentTimeMillis();
+            }
+            newGeneration = ++generation;
+            sample = new Sample<>(this, value, newGeneration, timestamp, parts);
+            latest = sample;
+        }
+
+        for (Listener listener : listeners) {
+            listener.onNewGeneration(this, newGeneration);
+        }
+        return sample;
+    }
+
+    /**
+     * 最近一次样本，不触发采样；从未采样时返回 null
+     */
+    public Sample<T> peek() {
+        return latest;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static boolean isFresh(Sample<?> sample, long maxAgeMs) {
+        return sample != null && System.currentTimeMillis() - sample.timestamp < maxAgeMs;
+    }
+}
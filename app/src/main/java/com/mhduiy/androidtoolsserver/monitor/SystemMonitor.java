@@ -2,6 +2,7 @@ package com.mhduiy.androidtoolsserver.monitor;
 
 import com.mhduiy.androidtoolsserver.util.Logger;
 
+import java.io.File;
 import java.util.*;
 
 public class SystemMonitor {
@@ -11,8 +12,39 @@ public class SystemMonitor {
     private final FrontendAppMonitor frontendAppMonitor = new FrontendAppMonitor();
     private final BatteryMonitor batteryMonitor = new BatteryMonitor();
     private final AppMonitor appMonitor = new AppMonitor();
+    private final PowerMonitor powerMonitor = new PowerMonitor();
+    private final FrameMonitor frameMonitor = new FrameMonitor(frontendAppMonitor);
     private static final String TAG = "SystemMonitor";
 
+    // 同一间隔内的请求共享一次采样
+    private static final long SAMPLE_INTERVAL_MS = 500;
+
+    private final SampleCache<CPUMonitor.CpuInfo> cpuSamples =
+        new SampleCache<>("cpu", SAMPLE_INTERVAL_MS, parts -> cpuMonitor.getInfo(parts & CPUMonitor.PART_ALL),
+            (previous, missing) -> cpuMonitor.topUp(previous, missing & CPUMonitor.PART_ALL));
+    private final SampleCache<GPUMonitor.GpuInfo> gpuSamples =
+        new SampleCache<>("gpu", SAMPLE_INTERVAL_MS, parts -> gpuMonitor.getInfo());
+    private final SampleCache<MemoryMonitor.MemInfo> memorySamples =
+        new SampleCache<>("memory", SAMPLE_INTERVAL_MS, parts -> memoryMonitor.getInfo());
+    // 电池样本的最长复用时间，记录器、性能测试会话和 /metrics 共用:
+    // 每次采样都启动一次 dumpsys battery 进程，再用 BatteryManager 覆盖电流、容量和电荷计数，
+    // 其余字段 (电量、电压、温度) 变化慢
+    public static final long BATTERY_MAX_AGE_MS = 10000;
+    private final SampleCache<BatteryMonitor.BatteryInfo> batterySamples =
+        new SampleCache<>("battery", SAMPLE_INTERVAL_MS, parts -> batteryMonitor.getInfo());
+    private final SampleCache<FrontendAppMonitor.FrontendAppInfo> frontendAppSamples =
+        new SampleCache<>("current-app", SAMPLE_INTERVAL_MS, this::sampleFrontendAppInfo);
+    private final SampleCache<FrameMonitor.FrameInfo> frameSamples =
+        new SampleCache<>("frames", SAMPLE_INTERVAL_MS, parts -> frameMonitor.getInfo());
+
+    // 指标历史，由 SystemInfoServer 启动记录
+    private final MetricRecorder metricRecorder = new MetricRecorder(
+        cpuSamples, gpuSamples, memorySamples, batterySamples, frameMonitor, TimeSeriesStore.DEFAULT_CAPACITY);
+
+    // 应用性能测试会话，有会话进行时才运行采样线程
+    private final ProfileRecorder profileRecorder = new ProfileRecorder(
+        cpuSamples, gpuSamples, batterySamples, frameMonitor, powerMonitor, new File(ProfileRecorder.DEFAULT_DIRECTORY));
+
     public SystemMonitor() {
         try {
             Logger.i(TAG, "SystemMonitor initializing with file system access...");
@@ -37,27 +69,150 @@ public class SystemMonitor {
     }
 
     public GPUMonitor.GpuInfo getGpuInfo() {
-        return gpuMonitor.getInfo();
+        return gpuSamples.get().value;
     }
 
     public CPUMonitor.CpuInfo getCpuInfo() {
-        return cpuMonitor.getInfo();
+        return cpuSamples.get().value;
     }
 
     public MemoryMonitor.MemInfo getMemoryInfo() {
-        return memoryMonitor.getInfo();
+        return memorySamples.get().value;
+    }
+
+    public SampleCache.Sample<CPUMonitor.CpuInfo> getCpuSample() {
+        return cpuSamples.get();
+    }
+
+    /**
+     * @param parts CPUMonitor.PART_* 的组合
+     */
+    public SampleCache.Sample<CPUMonitor.CpuInfo> getCpuSample(int parts) {
+        return cpuSamples.get(parts);
+    }
+
+    public SampleCache.Sample<GPUMonitor.GpuInfo> getGpuSample() {
+        return gpuSamples.get();
+    }
+
+    public SampleCache.Sample<MemoryMonitor.MemInfo> getMemorySample() {
+        return memorySamples.get();
+    }
+
+    public SampleCache.Sample<BatteryMonitor.BatteryInfo> getBatterySample() {
+        return batterySamples.get();
+    }
+
+    /**
+     * @param parts FrontendAppMonitor.PART_* 的组合
+     */
+    public SampleCache.Sample<FrontendAppMonitor.FrontendAppInfo> getFrontendAppSample(int parts) {
+        return frontendAppSamples.get(parts);
+    }
+
+    // 样本源，供 /stream 等需要自定义采样间隔的订阅者使用
+
+    public SampleCache<CPUMonitor.CpuInfo> getCpuSamples() {
+        return cpuSamples;
+    }
+
+    public SampleCache<GPUMonitor.GpuInfo> getGpuSamples() {
+        return gpuSamples;
+    }
+
+    public SampleCache<MemoryMonitor.MemInfo> getMemorySamples() {
+        return memorySamples;
+    }
+
+    public SampleCache<BatteryMonitor.BatteryInfo> getBatterySamples() {
+        return batterySamples;
+    }
+
+    public SampleCache<FrontendAppMonitor.FrontendAppInfo> getFrontendAppSamples() {
+        return frontendAppSamples;
+    }
+
+    /**
+     * 默认窗口 (FrameMonitor.DEFAULT_WINDOW_SECONDS) 的帧率样本
+     */
+    public SampleCache<FrameMonitor.FrameInfo> getFrameSamples() {
+        return frameSamples;
+    }
+
+    public MetricRecorder getMetricRecorder() {
+        return metricRecorder;
+    }
+
+    public TimeSeriesStore getTimeSeriesStore() {
+        return metricRecorder.getStore();
+    }
+
+    public AlertEngine getAlertEngine() {
+        return metricRecorder.getAlerts();
+    }
+
+    public FlightRecorder getFlightRecorder() {
+        return metricRecorder.getFlightRecorder();
+    }
+
+    public ProfileRecorder getProfileRecorder() {
+        return profileRecorder;
     }
 
     public FrontendAppMonitor.FrontendAppInfo getFrontendAppInfo() {
-        return frontendAppMonitor.getInfo();
+        return getFrontendAppInfo(true);
+    }
+
+    public FrontendAppMonitor.FrontendAppInfo getFrontendAppInfo(boolean includeIcon) {
+        int parts = includeIcon ? FrontendAppMonitor.PART_ALL : FrontendAppMonitor.PART_FRAMES;
+        return getFrontendAppSample(parts).value;
+    }
+
+    private FrontendAppMonitor.FrontendAppInfo sampleFrontendAppInfo(int parts) {
+        FrontendAppMonitor.FrontendAppInfo appInfo =
+            frontendAppMonitor.getInfo((parts & FrontendAppMonitor.PART_ICON) != 0);
+        if ((parts & FrontendAppMonitor.PART_FRAMES) == 0) {
+            return appInfo;
+        }
+
+        // 帧率只对当前前台应用有效
+        FrameMonitor.FrameInfo frameInfo = frameMonitor.getInfo();
+        if (frameInfo.packageName.equals(appInfo.packageName)) {
+            appInfo.fps = (int) Math.round(frameInfo.fps);
+            appInfo.onePercentLowFps = frameInfo.onePercentLow;
+            appInfo.jankCount = frameInfo.jankCount;
+            appInfo.bigJankCount = frameInfo.bigJankCount;
+            appInfo.stutter = Math.round(frameMonitor.getForegroundHistogram().getStutter() * 100.0) / 100.0;
+        }
+        return appInfo;
+    }
+
+    public FrameMonitor getFrameMonitor() {
+        return frameMonitor;
+    }
+
+    public FrameMonitor.FrameInfo getFrameInfo(int windowSeconds) {
+        return frameMonitor.getInfo(windowSeconds);
     }
 
     public BatteryMonitor.BatteryInfo getBatteryInfo() {
-        return batteryMonitor.getInfo();
+        return batterySamples.get().value;
+    }
+
+    public PowerMonitor getPowerMonitor() {
+        return powerMonitor;
+    }
+
+    public PackageIndex.QueryResult queryApps(PackageIndex.Query query) {
+        return appMonitor.queryApps(query);
+    }
+
+    public void ensureAppLabel(AppMonitor.AppBaseInfo app) {
+        appMonitor.ensureLabel(app);
     }
 
-    public List<AppMonitor.AppBaseInfo> getAllApps(Boolean isUser) {
-        return isUser ? appMonitor.getUserApps() : appMonitor.getAllApps();
+    public PackageIndex.Changes getAppChanges(long since) {
+        return appMonitor.getChanges(since);
     }
 
     /**
@@ -67,8 +222,8 @@ public class SystemMonitor {
         Map<String, Object> summary = new HashMap<>();
 
         try {
-            CPUMonitor.CpuInfo cpuInfo = cpuMonitor.getInfo();
-            GPUMonitor.GpuInfo gpuInfo = gpuMonitor.getInfo();
+            CPUMonitor.CpuInfo cpuInfo = getCpuInfo();
+            GPUMonitor.GpuInfo gpuInfo = getGpuInfo();
             MemoryMonitor.MemInfo memInfo = getMemoryInfo();
 
             // CPU信息
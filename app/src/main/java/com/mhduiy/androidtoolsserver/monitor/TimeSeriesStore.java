@@ -0,0 +1,447 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存时间序列存储
+ * 每个序列是固定容量的环形缓冲区 (long[] 时间戳 + double[] 值)，创建时一次性分配，
+ * 写满后覆盖最旧的点；add() 不分配内存。序列在启动时定义，之后只读，查询不需要锁住整个存储。
+ * 每个序列另有 1s/10s/1m 三级降采样，每个桶保存 min/max/sum/count，
+ * 原始点只保留最近一段，长时间范围的查询由满足分辨率的最粗层级回答。
+ * 定义时指定了刻度的序列，每个降采样桶另有一个 QuantileSketch 桶计数，任意时间范围的分位数由合并桶得到
+ */
+public class TimeSeriesStore {
+    public static final int DEFAULT_CAPACITY = 600;
+
+    // 降采样层级: 桶宽度和桶数，分别保留 15 分钟、2 小时、24 小时
+    private static final long[] ROLLUP_INTERVALS_MS = {1000, 10_000, 60_000};
+    private static final int[] ROLLUP_CAPACITIES = {900, 720, 1440};
+
+    // 原始点: 8 字节时间戳 + 8 字节值；降采样桶: 起始时间 + min/max/sum 各 8 字节 + 4 字节计数
+    private static final int POINT_BYTES = 16;
+    private static final int BUCKET_BYTES = 36;
+    private static final int SKETCH_BYTES = QuantileSketch.BIN_COUNT * 2;
+
+    /**
+     * 新数据点的下游 (如持久化)，在 Series.add() 的锁内调用，实现必须足够轻量
+     */
+    public interface Sink {
+        void append(int seriesId, long timestamp, double value);
+    }
+
+    /**
+     * 一个降采样层级，桶按起始时间对齐 (start = timestamp - timestamp % intervalMs)，
+     * 最新的桶在下一个桶开始前持续累加
+     */
+    private static class Rollup {
+        final long intervalMs;
+        final long[] starts;
+        final double[] mins;
+        final double[] maxs;
+        final double[] sums;
+        final int[] counts;
+        // 每个桶 BIN_COUNT 个分位数草图计数，序列没有刻度时为 null
+        final QuantileSketch.Scale scale;
+        final char[] bins;
+        int head = 0; // 下一个写入位置
+        int size = 0;
+
+        Rollup(long intervalMs, int capacity, QuantileSketch.Scale scale) {
+            this.intervalMs = intervalMs;
+            this.scale = scale;
+            this.bins = scale != null ? new char[capacity * QuantileSketch.BIN_COUNT] : null;
+            this.starts = new long[capacity];
+            this.mins = new double[capacity];
+            this.maxs = new double[capacity];
+            this.sums = new double[capacity];
+            this.counts = new int[capacity];
+        }
+
+        void add(long timestamp, double value) {
+            long start = timestamp - timestamp % intervalMs;
+            int last = head == 0 ? starts.length - 1 : head - 1;
+            if (size > 0 && starts[last] == start) {
+                if (value < mins[last]) mins[last] = value;
+                if (value > maxs[last]) maxs[last] = value;
+                sums[last] += value;
+                counts[last]++;
+                if (bins != null) {
+                    QuantileSketch.add(bins, last * QuantileSketch.BIN_COUNT, scale, value);
+                }
+                return;
+            }
+            starts[head] = start;
+            mins[head] = value;
+            maxs[head] = value;
+            sums[head] = value;
+            counts[head] = 1;
+            if (bins != null) {
+                int offset = head * QuantileSketch.BIN_COUNT;
+                Arrays.fill(bins, offset, offset + QuantileSketch.BIN_COUNT, (char) 0);
+                QuantileSketch.add(bins, offset, scale, value);
+            }
+            head = head + 1 == starts.length ? 0 : head + 1;
+            if (size < starts.length) {
+                size++;
+            }
+        }
+
+        long oldest() {
+            return size == 0 ? Long.MAX_VALUE : starts[physical(0)];
+        }
+
+        /**
+         * 复制与 [since, until] 有重叠的桶，时间戳为桶起始时间，values 为平均值
+         */
+        Points query(String name, String unit, long since, long until) {
+            int from = lowerBound(since - intervalMs + 1);
+            int to = lowerBound(until == Long.MAX_VALUE ? until : until + 1);
+            int count = Math.max(0, to - from);
+            Points points = new Points(name, unit, intervalMs, count);
+            for (int i = from; i < to; i++) {
+                int index = physical(i);
+                int out = i - from;
+                points.timestamps[out] = starts[index];
+                points.values[out] = sums[index] / counts[index];
+                points.mins[out] = mins[index];
+                points.maxs[out] = maxs[index];
+                points.counts[out] = counts[index];
+            }
+            return points;
+        }
+
+        /**
+         * 把与 [since, until] 有重叠的桶的草图合并到 sketch
+         */
+        void mergeInto(QuantileSketch sketch, long since, long until) {
+            int from = lowerBound(since - intervalMs + 1);
+            int to = lowerBound(until == Long.MAX_VALUE ? until : until + 1);
+            for (int i = from; i < to; i++) {
+                int index = physical(i);
+                sketch.merge(bins, index * QuantileSketch.BIN_COUNT, mins[index], maxs[index], sums[index]);
+            }
+        }
+
+        private int lowerBound(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (starts[physical(mid)] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int physical(int logical) {
+            int index = head - size + logical;
+            return index < 0 ? index + starts.length : index;
+        }
+    }
+
+    /**
+     * 一个指标序列
+     */
+    public static class Series {
+        private final TimeSeriesStore store;
+        public final int id; // 定义顺序
+        public final String name;
+        public final String unit;
+        private final long[] timestamps;
+        private final double[] values;
+        private final Rollup[] rollups;
+        private final QuantileSketch.Scale scale;
+        private int head = 0; // 下一个写入位置
+        private int size = 0;
+
+        Series(TimeSeriesStore store, int id, String name, String unit, int capacity, QuantileSketch.Scale scale) {
+            this.store = store;
+            this.id = id;
+            this.name = name;
+            this.unit = unit;
+            this.scale = scale;
+            this.timestamps = new long[capacity];
+            this.values = new double[capacity];
+            this.rollups = new Rollup[ROLLUP_INTERVALS_MS.length];
+            for (int i = 0; i < rollups.length; i++) {
+                rollups[i] = new Rollup(ROLLUP_INTERVALS_MS[i], ROLLUP_CAPACITIES[i], scale);
+            }
+        }
+
+        /**
+         * 追加一个点并累加到各降采样层级；时钟回拨时沿用上一个时间戳，保证序列有序以便二分查找
+         */
+        public synchronized void add(long timestamp, double value) {
+            if (size > 0) {
+                int last = head == 0 ? timestamps.length - 1 : head - 1;
+                timestamp = Math.max(timestamp, timestamps[last]);
+            }
+            timestamps[head] = timestamp;
+            values[head] = value;
+            head = head + 1 == timestamps.length ? 0 : head + 1;
+            if (size < timestamps.length) {
+                size++;
+            }
+            for (Rollup rollup : rollups) {
+                rollup.add(timestamp, value);
+            }
+            Sink sink = store.sink;
+            if (sink != null) {
+                sink.append(id, timestamp, value);
+            }
+        }
+
+        public int getCapacity() {
+            return timestamps.length;
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        /**
+         * 最旧原始点的时间戳，为空时返回 0
+         */
+        public synchronized long getOldest() {
+            return size == 0 ? 0 : timestamps[physical(0)];
+        }
+
+        /**
+         * 最新点的时间戳，为空时返回 0
+         */
+        public synchronized long getNewest() {
+            return size == 0 ? 0 : timestamps[physical(size - 1)];
+        }
+
+        /**
+         * 任一层级中保留的最旧数据的时间，为空时返回 0
+         */
+        public synchronized long getOldestRetained() {
+            long oldest = size == 0 ? Long.MAX_VALUE : timestamps[physical(0)];
+            for (Rollup rollup : rollups) {
+                oldest = Math.min(oldest, rollup.oldest());
+            }
+            return oldest == Long.MAX_VALUE ? 0 : oldest;
+        }
+
+        /**
+         * 复制 [since, until] 内的原始点
+         */
+        public synchronized Points query(long since, long until) {
+            int from = lowerBound(since);
+            int to = lowerBound(until == Long.MAX_VALUE ? until : until + 1);
+            Points points = new Points(name, unit, 0, Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                int index = physical(i);
+                points.timestamps[i - from] = timestamps[index];
+                points.values[i - from] = values[index];
+            }
+            return points;
+        }
+
+        /**
+         * 按分辨率查询: 使用桶宽度不超过 resolutionMs 的最粗层级，分辨率小于最细层级时返回原始点；
+         * 所选层级的保留时长不够覆盖 since 时，改用保留了更早数据的更粗层级
+         * @param resolutionMs 期望的点间隔，<=0 表示原始点
+         */
+        public synchronized Points query(long since, long until, long resolutionMs) {
+            int level = -1;
+            for (int i = 0; i < rollups.length; i++) {
+                if (rollups[i].intervalMs <= resolutionMs) {
+                    level = i;
+                }
+            }
+            while (level + 1 < rollups.length && oldestAt(level) > since
+                && rollups[level + 1].oldest() < oldestAt(level)) {
+                level++;
+            }
+            return level < 0 ? query(since, until) : rollups[level].query(name, unit, since, until);
+        }
+
+        public boolean hasSketch() {
+            return scale != null;
+        }
+
+        /**
+         * 合并 [since, until] 内各降采样桶的分位数草图，使用仍保留了 since 时刻数据的最细层级；
+         * 结果的时间粒度为该层级的桶宽度
+         * @return 序列没有刻度时返回 null
+         */
+        public synchronized QuantileSketch sketch(long since, long until) {
+            if (scale == null) {
+                return null;
+            }
+            QuantileSketch sketch = new QuantileSketch(scale);
+            rollups[sketchLevel(since)].mergeInto(sketch, since, until);
+            return sketch;
+        }
+
+        /**
+         * sketch() 对该时间范围使用的层级的桶宽度 (毫秒)
+         */
+        public synchronized long sketchResolution(long since) {
+            return rollups[sketchLevel(since)].intervalMs;
+        }
+
+        private int sketchLevel(long since) {
+            int level = 0;
+            while (level + 1 < rollups.length && rollups[level].oldest() > since
+                && rollups[level + 1].oldest() < rollups[level].oldest()) {
+                level++;
+            }
+            return level;
+        }
+
+        /**
+         * 各层级的桶宽度 (毫秒)
+         */
+        public long[] getRollupIntervals() {
+            return ROLLUP_INTERVALS_MS.clone();
+        }
+
+        private long oldestAt(int level) {
+            if (level < 0) {
+                return size == 0 ? Long.MAX_VALUE : timestamps[physical(0)];
+            }
+            return rollups[level].oldest();
+        }
+
+        /**
+         * 第一个时间戳 >= timestamp 的逻辑下标 (0 为最旧)
+         */
+        private int lowerBound(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[physical(mid)] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int physical(int logical) {
+            int index = head - size + logical;
+            return index < 0 ? index + timestamps.length : index;
+        }
+    }
+
+    /**
+     * 查询结果 (列式)
+     * 原始点的 resolution 为 0，mins/maxs/counts 为 null；
+     * 降采样结果的时间戳为桶起始时间，values 为桶内平均值
+     */
+    public static class Points {
+        public final String metric;
+        public final String unit;
+        public final long resolution;
+        public final long[] timestamps;
+        public final double[] values;
+        public final double[] mins;
+        public final double[] maxs;
+        public final int[] counts;
+
+        Points(String metric, String unit, long resolution, int count) {
+            this.metric = metric;
+            this.unit = unit;
+            this.resolution = resolution;
+            this.timestamps = new long[count];
+            this.values = new double[count];
+            this.mins = resolution > 0 ? new double[count] : null;
+            this.maxs = resolution > 0 ? new double[count] : null;
+            this.counts = resolution > 0 ? new int[count] : null;
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Series> series = new LinkedHashMap<>();
+    private boolean frozen = false;
+    private volatile Sink sink;
+
+    public TimeSeriesStore(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 定义一个序列，只能在 freeze() 之前调用
+     */
+    public Series define(String name, String unit) {
+        return define(name, unit, null);
+    }
+
+    /**
+     * 定义一个带分位数草图的序列
+     * @param scale 草图刻度，null 表示不维护草图
+     */
+    public synchronized Series define(String name, String unit, QuantileSketch.Scale scale) {
+        if (frozen) {
+            throw new IllegalStateException("TimeSeriesStore is frozen");
+        }
+        Series created = new Series(this, series.size(), name, unit, capacity, scale);
+        series.put(name, created);
+        return created;
+    }
+
+    /**
+     * 定义完成，之后序列集合不再变化，读取无需同步
+     */
+    public synchronized void freeze() {
+        frozen = true;
+    }
+
+    public Series getSeries(String name) {
+        return series.get(name);
+    }
+
+    public List<Series> getAllSeries() {
+        return Collections.unmodifiableList(new ArrayList<>(series.values()));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * 最粗层级的保留时长
+     */
+    public long getRetentionMs() {
+        long retention = 0;
+        for (int i = 0; i < ROLLUP_INTERVALS_MS.length; i++) {
+            retention = Math.max(retention, ROLLUP_INTERVALS_MS[i] * ROLLUP_CAPACITIES[i]);
+        }
+        return retention;
+    }
+
+    /**
+     * 所有序列 (原始点、各降采样层级和草图) 缓冲区占用的字节数
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Series one : series.values()) {
+            bytes += (long) capacity * POINT_BYTES;
+            for (int rollupCapacity : ROLLUP_CAPACITIES) {
+                bytes += (long) rollupCapacity * (BUCKET_BYTES + (one.hasSketch() ? SKETCH_BYTES : 0));
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,188 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 流式CBOR (RFC 8949) 写入器，与 JsonWriter 输出相同的逻辑文档
+ * 对象和数组使用不定长编码 (0xBF/0x9F ... 0xFF)，不需要预先知道元素个数，
+ * 因此可以与JSON一样边序列化边分块发送；浮点数能无损表示为 float32 时用4字节编码。
+ * 非线程安全
+ */
+public class CborWriter extends DocumentWriter {
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT32 = 0xFA;
+    private static final int FLOAT64 = 0xFB;
+
+    private CborWriter(OutputStream sink) {
+        super(sink);
+    }
+
+    /**
+     * 缓冲模式，用完必须调用 release()
+     */
+    public static CborWriter obtain() {
+        return new CborWriter(null);
+    }
+
+    /**
+     * 流模式，写满一段即写入 out；结束时调用 flush() 再 release()
+     */
+    public static CborWriter obtain(OutputStream out) {
+        return new CborWriter(out);
+    }
+
+    @Override
+    public String contentType() {
+        return "application/cbor";
+    }
+
+    /**
+     * RFC 8742 CBOR 序列: 数据项直接首尾相接
+     */
+    @Override
+    public String sequenceContentType() {
+        return "application/cbor-seq";
+    }
+
+    // ---- 编码 ----
+
+    @Override
+    protected void encodeBeginObject() throws IOException {
+        writeByte(INDEFINITE_MAP);
+    }
+
+    @Override
+    protected void encodeEndObject() throws IOException {
+        writeByte(BREAK);
+    }
+
+    @Override
+    protected void encodeBeginArray() throws IOException {
+        writeByte(INDEFINITE_ARRAY);
+    }
+
+    @Override
+    protected void encodeEndArray() throws IOException {
+        writeByte(BREAK);
+    }
+
+    @Override
+    protected void encodeName(String name) throws IOException {
+        encodeString(name);
+    }
+
+    @Override
+    protected void encodeString(String value) throws IOException {
+        int length = value.length();
+        writeHead(MAJOR_TEXT, utf8Length(value));
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeByte(c);
+            } else {
+                i = writeUtf8Char(value, i, c);
+            }
+        }
+    }
+
+    @Override
+    protected void encodeBoolean(boolean value) throws IOException {
+        writeByte(value ? TRUE : FALSE);
+    }
+
+    @Override
+    protected void encodeLong(long value) throws IOException {
+        if (value >= 0) {
+            writeHead(MAJOR_UNSIGNED, value);
+        } else {
+            // 负整数编码为 -1 - n
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    @Override
+    protected void encodeDouble(double value) throws IOException {
+        float single = (float) value;
+        if (single == value) {
+            writeByte(FLOAT32);
+            writeFixed(Float.floatToIntBits(single) & 0xFFFFFFFFL, 4);
+        } else {
+            writeByte(FLOAT64);
+            writeFixed(Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    @Override
+    protected void encodeNull() throws IOException {
+        writeByte(NULL);
+    }
+
+    @Override
+    protected void encodeRecordSeparator() {
+        // CBOR 数据项自带长度/结束标记，不需要分隔符
+    }
+
+    // ---- 内部实现 ----
+
+    /**
+     * 类型头: 主类型 + 参数，参数按大小使用 0/1/2/4/8 个附加字节
+     */
+    private void writeHead(int major, long argument) throws IOException {
+        if (argument < 24) {
+            writeByte(major | (int) argument);
+        } else if (argument <= 0xFFL) {
+            writeByte(major | 24);
+            writeByte((int) argument);
+        } else if (argument <= 0xFFFFL) {
+            writeByte(major | 25);
+            writeFixed(argument, 2);
+        } else if (argument <= 0xFFFFFFFFL) {
+            writeByte(major | 26);
+            writeFixed(argument, 4);
+        } else {
+            writeByte(major | 27);
+            writeFixed(argument, 8);
+        }
+    }
+
+    private void writeFixed(long value, int bytes) throws IOException {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            writeByte((int) (value >>> shift) & 0xFF);
+        }
+    }
+
+    /**
+     * UTF-8编码后的字节数，与 writeUtf8Char 的编码方式一致（孤立代理字符写为 '?'）
+     */
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,486 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式文档写入器基类，与编码格式无关的部分：池化字节段、嵌套深度、字段过滤和输出方式
+ * 子类 (JsonWriter、CborWriter) 只负责把结构和值编码为字节。
+ * 两种用法：
+ * 缓冲模式 (obtain)：写完后通过 size() 得到 Content-Length，再 writeTo() 把各段原样写到socket，最后 release() 归还字节段；
+ * 流模式 (obtain(format, OutputStream))：字节段写满即刷到输出流，适合分块传输。
+ * 可设置字段过滤（只输出记录对象中指定的字段，根为数组时记录为数组元素）和紧凑模式。
+ * 非线程安全
+ */
+public abstract class DocumentWriter {
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_CBOR = "cbor";
+
+    public static final int SEGMENT_SIZE = 8192;
+    private static final int MAX_POOLED_SEGMENTS = 64;
+    protected static final int MAX_DEPTH = 32;
+
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger(0);
+
+    private final OutputStream sink;
+    private final List<byte[]> filled = new ArrayList<>();
+    private byte[] current;
+    private int position = 0;
+    private long flushedBytes = 0;
+
+    // 当前嵌套深度，编码钩子被调用时仍是进入/退出容器之前的深度
+    protected int depth = 0;
+
+    // 字段过滤: 只对记录层级 (根对象为1，根数组的元素为2) 的字段生效
+    private Set<String> fieldFilter;
+    private int recordDepth = 1;
+    // 正在跳过被过滤字段的值，直到深度回到 skipDepth
+    private boolean skipping = false;
+    private int skipDepth = 0;
+    protected boolean compact = false;
+
+    protected DocumentWriter(OutputStream sink) {
+        this.sink = sink;
+        this.current = acquireSegment();
+    }
+
+    /**
+     * 按格式创建缓冲模式写入器，用完必须调用 release()
+     * @param format FORMAT_JSON 或 FORMAT_CBOR
+     */
+    public static DocumentWriter obtain(String format) {
+        return FORMAT_CBOR.equals(format) ? CborWriter.obtain() : JsonWriter.obtain();
+    }
+
+    /**
+     * 按格式创建流模式写入器
+     */
+    public static DocumentWriter obtain(String format, OutputStream out) {
+        return FORMAT_CBOR.equals(format) ? CborWriter.obtain(out) : JsonWriter.obtain(out);
+    }
+
+    public static boolean isFormat(String format) {
+        return FORMAT_JSON.equals(format) || FORMAT_CBOR.equals(format);
+    }
+
+    /**
+     * 响应的 Content-Type
+     */
+    public abstract String contentType();
+
+    /**
+     * 连续多个顶层文档组成的流 (每帧一个文档) 的 Content-Type
+     */
+    public abstract String sequenceContentType();
+
+    /**
+     * 结束一个顶层文档，之后可以开始下一个；JSON 写入换行 (NDJSON)，CBOR 序列不需要分隔符
+     */
+    public void endRecord() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("endRecord() inside an open container");
+        }
+        encodeRecordSeparator();
+    }
+
+    // ---- 配置 ----
+
+    /**
+     * 只输出记录对象中的指定字段，null 表示不过滤；需在写入前设置
+     */
+    public DocumentWriter setFieldFilter(Set<String> fields) {
+        this.fieldFilter = fields;
+        return this;
+    }
+
+    /**
+     * 紧凑模式：整数值的浮点数按整数编码，序列化计划使用短字段名
+     */
+    public DocumentWriter setCompact(boolean compact) {
+        this.compact = compact;
+        return this;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * 在当前位置写入该字段是否会被输出，用于在取值前跳过不需要的字段
+     */
+    public boolean accepts(String name) {
+        return !skipping && (fieldFilter == null || depth != recordDepth || fieldFilter.contains(name));
+    }
+
+    // ---- 结构 ----
+
+    public DocumentWriter beginObject() throws IOException {
+        if (skipping) {
+            depth++;
+            return this;
+        }
+        if (depth == 0) {
+            recordDepth = 1;
+        }
+        checkDepth();
+        encodeBeginObject();
+        depth++;
+        return this;
+    }
+
+    public DocumentWriter endObject() throws IOException {
+        depth--;
+        if (skipping) {
+            endSkippedContainer();
+            return this;
+        }
+        encodeEndObject();
+        return this;
+    }
+
+    public DocumentWriter beginArray() throws IOException {
+        if (skipping) {
+            depth++;
+            return this;
+        }
+        if (depth == 0) {
+            recordDepth = 2;
+        }
+        checkDepth();
+        encodeBeginArray();
+        depth++;
+        return this;
+    }
+
+    public DocumentWriter endArray() throws IOException {
+        depth--;
+        if (skipping) {
+            endSkippedContainer();
+            return this;
+        }
+        encodeEndArray();
+        return this;
+    }
+
+    public DocumentWriter name(String name) throws IOException {
+        if (skipping) {
+            return this;
+        }
+        if (fieldFilter != null && depth == recordDepth && !fieldFilter.contains(name)) {
+            // 跳过该字段及其值
+            skipping = true;
+            skipDepth = depth;
+            return this;
+        }
+        return nameUnfiltered(name);
+    }
+
+    /**
+     * 写入字段名但不经过字段过滤，调用方已通过 accepts() 用原始字段名检查过
+     */
+    public DocumentWriter nameUnfiltered(String name) throws IOException {
+        encodeName(name);
+        return this;
+    }
+
+    // ---- 值 ----
+
+    public DocumentWriter value(String value) throws IOException {
+        if (skipValue()) return this;
+        if (value == null) {
+            encodeNull();
+        } else {
+            encodeString(value);
+        }
+        return this;
+    }
+
+    public DocumentWriter value(boolean value) throws IOException {
+        if (skipValue()) return this;
+        encodeBoolean(value);
+        return this;
+    }
+
+    public DocumentWriter value(int value) throws IOException {
+        return value((long) value);
+    }
+
+    public DocumentWriter value(long value) throws IOException {
+        if (skipValue()) return this;
+        encodeLong(value);
+        return this;
+    }
+
+    /**
+     * NaN 和无穷大在JSON中没有表示，各格式统一写为 null
+     */
+    public DocumentWriter value(double value) throws IOException {
+        if (skipValue()) return this;
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            encodeNull();
+        } else if (compact && value == Math.rint(value) && Math.abs(value) < 1e15) {
+            // 紧凑模式下整数值不保留小数部分
+            encodeLong((long) value);
+        } else {
+            encodeDouble(value);
+        }
+        return this;
+    }
+
+    public DocumentWriter nullValue() throws IOException {
+        if (skipValue()) return this;
+        encodeNull();
+        return this;
+    }
+
+    /**
+     * 按运行时类型写入 Map/List/String/Number/Boolean，用于 getSystemSummary 这类动态结构
+     */
+    @SuppressWarnings("unchecked")
+    public DocumentWriter value(Object value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            return value(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                name(entry.getKey());
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            beginArray();
+            for (int i = 0; i < list.size(); i++) {
+                value(list.get(i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    // ---- 便捷方法: name + value ----
+
+    public DocumentWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public DocumentWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public DocumentWriter field(String name, int value) throws IOException {
+        return name(name).value((long) value);
+    }
+
+    public DocumentWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+
+    public DocumentWriter field(String name, double value) throws IOException {
+        return name(name).value(value);
+    }
+
+    // ---- 编码钩子 ----
+
+    protected abstract void encodeBeginObject() throws IOException;
+
+    protected abstract void encodeEndObject() throws IOException;
+
+    protected abstract void encodeBeginArray() throws IOException;
+
+    protected abstract void encodeEndArray() throws IOException;
+
+    protected abstract void encodeName(String name) throws IOException;
+
+    protected abstract void encodeString(String value) throws IOException;
+
+    protected abstract void encodeBoolean(boolean value) throws IOException;
+
+    protected abstract void encodeLong(long value) throws IOException;
+
+    /**
+     * 有限的浮点数，NaN/无穷大和紧凑模式的整数已由调用方处理
+     */
+    protected abstract void encodeDouble(double value) throws IOException;
+
+    protected abstract void encodeNull() throws IOException;
+
+    protected abstract void encodeRecordSeparator() throws IOException;
+
+    // ---- 输出 ----
+
+    /**
+     * 已写入的字节总数
+     */
+    public long size() {
+        long size = flushedBytes + position;
+        for (byte[] segment : filled) {
+            size += segment.length;
+        }
+        return size;
+    }
+
+    /**
+     * 缓冲模式下把所有字节段依次写出，不做额外拷贝
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        for (byte[] segment : filled) {
+            out.write(segment);
+        }
+        out.write(current, 0, position);
+    }
+
+    /**
+     * 缓冲模式下复制为一个字节数组，用于需要长期保存结果的场景
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[(int) size()];
+        int offset = 0;
+        for (byte[] segment : filled) {
+            System.arraycopy(segment, 0, result, offset, segment.length);
+            offset += segment.length;
+        }
+        System.arraycopy(current, 0, result, offset, position);
+        return result;
+    }
+
+    /**
+     * 流模式下把当前字节段写入输出流
+     */
+    public void flush() throws IOException {
+        if (sink != null && position > 0) {
+            sink.write(current, 0, position);
+            flushedBytes += position;
+            position = 0;
+        }
+        if (sink != null) {
+            sink.flush();
+        }
+    }
+
+    /**
+     * 归还字节段，之后不能再使用该写入器
+     */
+    public void release() {
+        for (byte[] segment : filled) {
+            releaseSegment(segment);
+        }
+        filled.clear();
+        if (current != null) {
+            releaseSegment(current);
+            current = null;
+        }
+    }
+
+    // ---- 内部实现 ----
+
+    /**
+     * 被跳过字段的基本类型值：深度等于跳过起点时该值结束
+     */
+    private boolean skipValue() {
+        if (!skipping) {
+            return false;
+        }
+        if (depth == skipDepth) {
+            skipping = false;
+        }
+        return true;
+    }
+
+    private void endSkippedContainer() {
+        if (depth == skipDepth) {
+            skipping = false;
+        }
+    }
+
+    private void checkDepth() {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("Document nesting too deep");
+        }
+    }
+
+    protected final void writeByte(int b) throws IOException {
+        if (position == current.length) {
+            nextSegment();
+        }
+        current[position++] = (byte) b;
+    }
+
+    protected final void writeBytes(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        if (sink != null) {
+            sink.write(current, 0, position);
+            flushedBytes += position;
+        } else {
+            filled.add(current);
+            current = acquireSegment();
+        }
+        position = 0;
+    }
+
+    /**
+     * 写入一个非ASCII字符的UTF-8编码，返回最后消费的下标（代理对占两个）
+     */
+    protected final int writeUtf8Char(String value, int index, char c) throws IOException {
+        if (c < 0x800) {
+            writeByte(0xC0 | (c >> 6));
+            writeByte(0x80 | (c & 0x3F));
+            return index;
+        }
+        if (Character.isHighSurrogate(c) && index + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+            return index + 1;
+        }
+        if (Character.isSurrogate(c)) {
+            // 孤立的代理字符无法编码为UTF-8
+            writeByte('?');
+            return index;
+        }
+        writeByte(0xE0 | (c >> 12));
+        writeByte(0x80 | ((c >> 6) & 0x3F));
+        writeByte(0x80 | (c & 0x3F));
+        return index;
+    }
+
+    private static byte[] acquireSegment() {
+        byte[] segment = POOL.poll();
+        if (segment != null) {
+            POOLED.decrementAndGet();
+            return segment;
+        }
+        return new byte[SEGMENT_SIZE];
+    }
+
+    private static void releaseSegment(byte[] segment) {
+        if (POOLED.incrementAndGet() <= MAX_POOLED_SEGMENTS) {
+            POOL.offer(segment);
+        } else {
+            POOLED.decrementAndGet();
+        }
+    }
+}
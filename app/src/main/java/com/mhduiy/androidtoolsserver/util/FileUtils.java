@@ -75,27 +75,15 @@ public class FileUtils {
     }
 
     /**
-     * 执行shell命令并获取输出
+     * 执行shell命令并获取输出，通过常驻shell执行，不再每次fork新进程
      * @param command 命令
      * @return 命令输出，如果执行失败返回null
      */
     public static String executeCommand(String command) {
-        try {
-            Process process = Runtime.getRuntime().exec(command);
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                StringBuilder output = new StringBuilder();
-                String line;
-
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-
-                process.waitFor();
-                return output.toString().trim();
-            }
-        } catch (Exception e) {
-            Logger.d(TAG, "Failed to execute command: " + command + ", error: " + e.getMessage());
-            return null;
+        String output = ShellExecutor.getInstance().run(command);
+        if (output == null) {
+            Logger.d(TAG, "Failed to execute command: " + command);
         }
+        return output;
     }
 }
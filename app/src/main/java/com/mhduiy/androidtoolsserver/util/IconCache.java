@@ -0,0 +1,205 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.util.Base64;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 应用图标LRU缓存
+ * 以 包名 + lastUpdateTime（加尺寸和格式）为键缓存编码后的图标字节，应用更新后键自然失效。
+ * 按占用内存（编码字节 + Base64字符串）淘汰最久未使用的条目
+ */
+public class IconCache {
+    private static final String TAG = "IconCache";
+
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_WEBP = "webp";
+
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static volatile IconCache instance;
+
+    /**
+     * 缓存统计
+     */
+    public static class Stats {
+        public int entries;
+        public long bytes;
+        public long maxBytes;
+        public long hits;
+        public long misses;
+        public long evictions;
+    }
+
+    private static class Entry {
+        final byte[] data;
+        String base64;
+        long size;
+
+        Entry(byte[] data) {
+            this.data = data;
+            this.size = data.length;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxBytes;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public static IconCache getInstance() {
+        if (instance == null) {
+            synchronized (IconCache.class) {
+                if (instance == null) {
+                    instance = new IconCache(DEFAULT_MAX_BYTES);
+                }
+            }
+        }
+        return instance;
+    }
+
+    public IconCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取指定尺寸和格式的图标字节
+     * @param size 边长(像素)，小于等于0表示原始尺寸
+     * @param format FORMAT_PNG 或 FORMAT_WEBP
+     */
+    public byte[] getIcon(String packageName, int size, String format) {
+        long lastUpdateTime = getLastUpdateTime(packageName);
+        return lastUpdateTime < 0 ? null : getIcon(packageName, lastUpdateTime, size, format);
+    }
+
+    public byte[] getIcon(String packageName, long lastUpdateTime, int size, String format) {
+        String key = keyOf(packageName, lastUpdateTime, size, format);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return entry.data;
+        }
+
+        byte[] data = Utils.drawableToBytes(loadIcon(packageName), size, format);
+        if (data != null) {
+            put(key, new Entry(data));
+        }
+        return data;
+    }
+
+    public String getBase64(String packageName) {
+        long lastUpdateTime = getLastUpdateTime(packageName);
+        return lastUpdateTime < 0 ? null : getBase64(packageName, lastUpdateTime);
+    }
+
+    /**
+     * 获取Base64编码的PNG图标，Base64字符串也会被缓存
+     */
+    public String getBase64(String packageName, long lastUpdateTime) {
+        String key = keyOf(packageName, lastUpdateTime, 0, FORMAT_PNG);
+        Entry entry = lookup(key);
+        if (entry == null) {
+            byte[] png = Utils.drawableToPng(loadIcon(packageName));
+            if (png == null) {
+                return null;
+            }
+            entry = new Entry(png);
+            put(key, entry);
+        }
+
+        synchronized (this) {
+            if (entry.base64 == null) {
+                entry.base64 = Base64.encodeToString(entry.data, Base64.NO_WRAP);
+                // 字符串按每字符2字节计
+                long added = entry.base64.length() * 2L;
+                entry.size += added;
+                if (entries.get(key) == entry) {
+                    bytes += added;
+                    trim();
+                }
+            }
+            return entry.base64;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Stats getStats() {
+        Stats stats = new Stats();
+        stats.entries = entries.size();
+        stats.bytes = bytes;
+        stats.maxBytes = maxBytes;
+        stats.hits = hits;
+        stats.misses = misses;
+        stats.evictions = evictions;
+        return stats;
+    }
+
+    private synchronized Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += entry.size;
+        trim();
+    }
+
+    /**
+     * 淘汰最久未使用的条目直到低于内存上限，至少保留最新的一个
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && entries.size() > 1 && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            bytes -= eldest.size;
+            evictions++;
+        }
+    }
+
+    private static String keyOf(String packageName, long lastUpdateTime, int size, String format) {
+        return packageName + "@" + lastUpdateTime + "#" + Math.max(size, 0) + "." + format;
+    }
+
+    private static long getLastUpdateTime(String packageName) {
+        PackageManager pm = ContextManager.getPackageManager();
+        if (pm == null) return -1;
+        try {
+            PackageInfo info = pm.getPackageInfo(packageName, 0);
+            return info.lastUpdateTime;
+        } catch (Exception e) {
+            Logger.w(TAG, "Package not found: " + packageName);
+            return -1;
+        }
+    }
+
+    private static Drawable loadIcon(String packageName) {
+        PackageManager pm = ContextManager.getPackageManager();
+        if (pm == null) return null;
+        try {
+            return pm.getApplicationIcon(packageName);
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to load icon for " + packageName + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
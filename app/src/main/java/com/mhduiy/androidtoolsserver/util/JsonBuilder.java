@@ -116,11 +116,31 @@ public class JsonBuilder {
 
     private String escapeJson(String str) {
         if (str == null) return "";
-        return str.replace("\\", "\\\\")
-                  .replace("\"", "\\\"")
-                  .replace("\n", "\\n")
-                  .replace("\r", "\\r")
-                  .replace("\t", "\\t");
+        StringBuilder escaped = null;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            String replacement;
+            switch (c) {
+                case '\\': replacement = "\\\\"; break;
+                case '"': replacement = "\\\""; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\t': replacement = "\\t"; break;
+                default:
+                    // 其他控制字符必须转义为 unicode 形式
+                    replacement = c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            }
+            if (replacement == null) {
+                if (escaped != null) escaped.append(c);
+                continue;
+            }
+            if (escaped == null) {
+                escaped = new StringBuilder(str.length() + 16);
+                escaped.append(str, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped != null ? escaped.toString() : str;
     }
 
     public String build() {
@@ -150,34 +170,4 @@ public class JsonBuilder {
         }
         return builder.build();
     }
-
-    public static String fromObject(Object obj) {
-        // 这里可以使用反射将对象的字段转换为JSON字符串
-        // 简单示例，实际使用中可能需要更复杂的处理
-        JsonBuilder builder = new JsonBuilder();
-        try {
-            for (java.lang.reflect.Field field : obj.getClass().getDeclaredFields()) {
-                field.setAccessible(true);
-                Object value = field.get(obj);
-                if (value instanceof String) {
-                    builder.add(field.getName(), (String) value);
-                } else if (value instanceof Integer) {
-                    builder.add(field.getName(), (Integer) value);
-                } else if (value instanceof Long) {
-                    builder.add(field.getName(), (Long) value);
-                } else if (value instanceof Double) {
-                    builder.add(field.getName(), (Double) value);
-                } else if (value instanceof Boolean) {
-                    builder.add(field.getName(), (Boolean) value);
-                } else if (value instanceof List) {
-                    builder.add(field.getName(), (List<?>) value);
-                } else if (value instanceof Map) {
-                    builder.add(field.getName(), (Map<String, Object>) value);
-                }
-            }
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        }
-        return builder.build();
-    }
 }
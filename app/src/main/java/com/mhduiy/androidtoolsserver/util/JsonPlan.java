@@ -0,0 +1,417 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 某个类的JSON序列化计划
+ * 每个字段在构建时登记一个带类型的取值函数，写入时按顺序调用并直接写入 DocumentWriter (JSON 或 CBOR)，
+ * 不使用反射，也不装箱基本类型。计划是不可变的，应作为静态常量只构建一次。
+ * 写入器开启紧凑模式时输出自动生成的短字段名（见 getShortName），
+ * 设置了字段过滤时被过滤的字段不会调用取值函数；
+ * 字段可声明依赖的采样部分 (requires)，调用方据此只采集被请求字段需要的数据
+ * @param <T> 被序列化的类型
+ */
+public final class JsonPlan<T> {
+    public interface IntGetter<T> { int get(T obj); }
+    public interface LongGetter<T> { long get(T obj); }
+    public interface DoubleGetter<T> { double get(T obj); }
+    public interface BooleanGetter<T> { boolean get(T obj); }
+    public interface StringGetter<T> { String get(T obj); }
+    public interface ListGetter<T, E> { List<E> get(T obj); }
+
+    /**
+     * 自定义字段写入，用于嵌套结构
+     */
+    public interface ValueWriter<T> { void write(DocumentWriter writer, T obj) throws IOException; }
+
+    /**
+     * 所有字段的掩码
+     */
+    public static final long ALL_FIELDS = -1L;
+
+    private static final int KIND_INT = 0;
+    private static final int KIND_LONG = 1;
+    private static final int KIND_DOUBLE = 2;
+    private static final int KIND_BOOLEAN = 3;
+    private static final int KIND_STRING = 4;
+    private static final int KIND_CUSTOM = 5;
+
+    private final Class<T> type;
+    private final String[] names;
+    private final String[] shortNames;
+    private final int[] requiredParts;
+    private final int[] kinds;
+    private final Object[] getters;
+    private final double[] scales; // 保留的小数位对应的倍数，0表示不取整
+
+    private JsonPlan(Builder<T> builder) {
+        this.type = builder.type;
+        int count = builder.names.size();
+        this.names = builder.names.toArray(new String[count]);
+        this.shortNames = shortNames(names);
+        this.requiredParts = new int[count];
+        this.kinds = new int[count];
+        this.scales = new double[count];
+        this.getters = builder.getters.toArray();
+        for (int i = 0; i < count; i++) {
+            kinds[i] = builder.kinds.get(i);
+            scales[i] = builder.scales.get(i);
+            requiredParts[i] = builder.requiredParts.get(i);
+        }
+    }
+
+    /**
+     * 短字段名: 首字母加上各大写字母的小写，如 memoryUsageRatio -> mur；
+     * 冲突时改用逐渐加长的前缀，仍冲突则使用全名
+     */
+    private static String[] shortNames(String[] names) {
+        String[] result = new String[names.length];
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            StringBuilder abbreviation = new StringBuilder().append(name.charAt(0));
+            for (int j = 1; j < name.length(); j++) {
+                char c = name.charAt(j);
+                if (Character.isUpperCase(c)) {
+                    abbreviation.append(Character.toLowerCase(c));
+                }
+            }
+            String candidate = abbreviation.toString();
+            for (int length = 2; used.contains(candidate) && length < name.length(); length++) {
+                candidate = name.substring(0, length);
+            }
+            if (used.contains(candidate)) {
+                candidate = name;
+            }
+            used.add(candidate);
+            result[i] = candidate;
+        }
+        return result;
+    }
+
+    public static <T> Builder<T> builder(Class<T> type) {
+        return new Builder<>(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public int getFieldCount() {
+        return names.length;
+    }
+
+    public String getFieldName(int index) {
+        return names[index];
+    }
+
+    public String getShortName(int index) {
+        return shortNames[index];
+    }
+
+    /**
+     * 指定字段依赖的采样部分之并；fields 为 null 时返回所有字段的依赖
+     */
+    public int requiredParts(Set<String> fields) {
+        int parts = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (fields == null || fields.contains(names[i])) {
+                parts |= requiredParts[i];
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * 字段下标，不存在时返回 -1
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 只包含指定字段的掩码；fields 为 null 时返回 ALL_FIELDS
+     */
+    public long maskOf(Set<String> fields) {
+        if (fields == null) {
+            return ALL_FIELDS;
+        }
+        long mask = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (fields.contains(names[i])) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 排除指定字段后的掩码
+     */
+    public long maskWithout(String... excluded) {
+        long mask = ALL_FIELDS;
+        for (String name : excluded) {
+            int index = indexOf(name);
+            if (index >= 0) {
+                mask &= ~(1L << index);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 写入完整对象 {...}
+     */
+    public void write(DocumentWriter writer, T obj) throws IOException {
+        write(writer, obj, ALL_FIELDS);
+    }
+
+    /**
+     * 只写入掩码中置位的字段
+     */
+    public void write(DocumentWriter writer, T obj, long mask) throws IOException {
+        writer.beginObject();
+        writeFields(writer, obj, mask);
+        writer.endObject();
+    }
+
+    /**
+     * 写入字段但不包含外层花括号，用于与其他字段合并到同一个对象中
+     */
+    @SuppressWarnings("unchecked")
+    public void writeFields(DocumentWriter writer, T obj, long mask) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            if ((mask & (1L << i)) == 0 || !writer.accepts(names[i])) continue;
+
+            writer.nameUnfiltered(writer.isCompact() ? shortNames[i] : names[i]);
+            Object getter = getters[i];
+            switch (kinds[i]) {
+                case KIND_INT:
+                    writer.value(((IntGetter<T>) getter).get(obj));
+                    break;
+                case KIND_LONG:
+                    writer.value(((LongGetter<T>) getter).get(obj));
+                    break;
+                case KIND_DOUBLE:
+                    writer.value(doubleValue(i, obj));
+                    break;
+                case KIND_BOOLEAN:
+                    writer.value(((BooleanGetter<T>) getter).get(obj));
+                    break;
+                case KIND_STRING:
+                    writer.value(((StringGetter<T>) getter).get(obj));
+                    break;
+                default:
+                    ((ValueWriter<T>) getter).write(writer, obj);
+            }
+        }
+    }
+
+    /**
+     * 取整后的浮点字段值
+     */
+    @SuppressWarnings("unchecked")
+    private double doubleValue(int index, T obj) {
+        double value = ((DoubleGetter<T>) getters[index]).get(obj);
+        return scales[index] > 0 ? Math.round(value * scales[index]) / scales[index] : value;
+    }
+
+    /**
+     * 创建增量状态，用于只输出与上一次相比发生变化的字段
+     */
+    public Delta newDelta() {
+        return new Delta();
+    }
+
+    /**
+     * 增量状态: 记录每个字段上一次输出的值 (浮点数按输出精度取整后比较，嵌套结构按编码后的字节比较)
+     * 非线程安全
+     */
+    public final class Delta {
+        private final long[] previous = new long[names.length];
+        private final Object[] previousObjects = new Object[names.length];
+        private boolean primed = false;
+
+        /**
+         * 与上一次的值比较并更新状态，返回发生变化的字段掩码；第一次调用返回所有字段
+         */
+        public long update(T obj) throws IOException {
+            return update(obj, ALL_FIELDS);
+        }
+
+        /**
+         * 只比较 mask 中的字段，其余字段不读取 (自定义字段的编码开销不小)，也不计入返回的掩码
+         */
+        @SuppressWarnings("unchecked")
+        public long update(T obj, long mask) throws IOException {
+            long changed = 0;
+            for (int i = 0; i < names.length; i++) {
+                if ((mask & (1L << i)) == 0) {
+                    continue;
+                }
+                Object getter = getters[i];
+                long bits = 0;
+                Object object = null;
+                switch (kinds[i]) {
+                    case KIND_INT:
+                        bits = ((IntGetter<T>) getter).get(obj);
+                        break;
+                    case KIND_LONG:
+                        bits = ((LongGetter<T>) getter).get(obj);
+                        break;
+                    case KIND_DOUBLE:
+                        bits = Double.doubleToLongBits(doubleValue(i, obj));
+                        break;
+                    case KIND_BOOLEAN:
+                        bits = ((BooleanGetter<T>) getter).get(obj) ? 1 : 0;
+                        break;
+                    case KIND_STRING:
+                        object = ((StringGetter<T>) getter).get(obj);
+                        break;
+                    default:
+                        object = encodeCustom((ValueWriter<T>) getter, obj);
+                }
+
+                boolean same;
+                if (kinds[i] == KIND_STRING) {
+                    same = object == null ? previousObjects[i] == null : object.equals(previousObjects[i]);
+                } else if (kinds[i] == KIND_CUSTOM) {
+                    same = previousObjects[i] != null && Arrays.equals((byte[]) object, (byte[]) previousObjects[i]);
+                } else {
+                    same = bits == previous[i];
+                }
+                if (!primed || !same) {
+                    changed |= 1L << i;
+                    previous[i] = bits;
+                    previousObjects[i] = object;
+                }
+            }
+            primed = true;
+            return changed;
+        }
+
+        /**
+         * 清空状态，下一次 update 返回所有字段
+         */
+        public void reset() {
+            primed = false;
+        }
+
+        private byte[] encodeCustom(ValueWriter<T> writer, T obj) throws IOException {
+            JsonWriter scratch = JsonWriter.obtain();
+            try {
+                writer.write(scratch, obj);
+                return scratch.toByteArray();
+            } finally {
+                scratch.release();
+            }
+        }
+    }
+
+    /**
+     * 写入对象数组
+     */
+    public void writeArray(DocumentWriter writer, List<? extends T> list) throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < list.size(); i++) {
+            write(writer, list.get(i), ALL_FIELDS);
+        }
+        writer.endArray();
+    }
+
+    public static final class Builder<T> {
+        private final Class<T> type;
+        private final List<String> names = new ArrayList<>();
+        private final List<Integer> kinds = new ArrayList<>();
+        private final List<Object> getters = new ArrayList<>();
+        private final List<Double> scales = new ArrayList<>();
+        private final List<Integer> requiredParts = new ArrayList<>();
+
+        private Builder(Class<T> type) {
+            this.type = type;
+        }
+
+        public Builder<T> addInt(String name, IntGetter<T> getter) {
+            return add(name, KIND_INT, getter, 0);
+        }
+
+        public Builder<T> addLong(String name, LongGetter<T> getter) {
+            return add(name, KIND_LONG, getter, 0);
+        }
+
+        public Builder<T> addDouble(String name, DoubleGetter<T> getter) {
+            return add(name, KIND_DOUBLE, getter, 0);
+        }
+
+        /**
+         * @param decimals 四舍五入保留的小数位数
+         */
+        public Builder<T> addDouble(String name, DoubleGetter<T> getter, int decimals) {
+            return add(name, KIND_DOUBLE, getter, Math.pow(10, decimals));
+        }
+
+        public Builder<T> addBoolean(String name, BooleanGetter<T> getter) {
+            return add(name, KIND_BOOLEAN, getter, 0);
+        }
+
+        public Builder<T> addString(String name, StringGetter<T> getter) {
+            return add(name, KIND_STRING, getter, 0);
+        }
+
+        public Builder<T> addCustom(String name, ValueWriter<T> writer) {
+            return add(name, KIND_CUSTOM, writer, 0);
+        }
+
+        /**
+         * 以另一个计划序列化列表元素
+         */
+        public <E> Builder<T> addArray(String name, ListGetter<T, E> getter, JsonPlan<E> elementPlan) {
+            return addCustom(name, (writer, obj) -> {
+                List<E> list = getter.get(obj);
+                if (list == null) {
+                    writer.nullValue();
+                } else {
+                    elementPlan.writeArray(writer, list);
+                }
+            });
+        }
+
+        /**
+         * 声明最近添加的字段依赖的采样部分 (由监控类定义的 PART_* 位)
+         */
+        public Builder<T> requires(int parts) {
+            if (names.isEmpty()) {
+                throw new IllegalStateException("requires() must follow a field");
+            }
+            requiredParts.set(requiredParts.size() - 1, parts);
+            return this;
+        }
+
+        public JsonPlan<T> build() {
+            return new JsonPlan<>(this);
+        }
+
+        private Builder<T> add(String name, int kind, Object getter, double scale) {
+            if (names.size() == 64) {
+                throw new IllegalStateException("JsonPlan supports at most 64 fields");
+            }
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate field: " + name);
+            }
+            names.add(name);
+            kinds.add(kind);
+            getters.add(getter);
+            scales.add(scale);
+            requiredParts.add(0);
+            return this;
+        }
+    }
+}
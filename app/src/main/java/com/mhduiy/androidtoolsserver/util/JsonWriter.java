@@ -0,0 +1,243 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 流式JSON写入器
+ * 直接把UTF-8编码写入池化的字节段，不经过中间字符串；数字逐位写出，不装箱。
+ * 缓冲/流模式、字段过滤和紧凑模式见 DocumentWriter。
+ * 非线程安全
+ */
+public class JsonWriter extends DocumentWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = "true".getBytes();
+    private static final byte[] FALSE = "false".getBytes();
+    private static final byte[] NULL = "null".getBytes();
+    private static final byte[] MIN_LONG = "-9223372036854775808".getBytes();
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L};
+
+    // 每层是否还没有写过元素，用于决定是否需要逗号
+    private final boolean[] firstInScope = new boolean[MAX_DEPTH];
+    // 刚写完字段名，下一个值不需要逗号
+    private boolean afterName = false;
+    private final byte[] digits = new byte[20];
+
+    private JsonWriter(OutputStream sink) {
+        super(sink);
+    }
+
+    /**
+     * 缓冲模式，用完必须调用 release()
+     */
+    public static JsonWriter obtain() {
+        return new JsonWriter(null);
+    }
+
+    /**
+     * 流模式，写满一段即写入 out；结束时调用 flush() 再 release()
+     */
+    public static JsonWriter obtain(OutputStream out) {
+        return new JsonWriter(out);
+    }
+
+    @Override
+    public String contentType() {
+        return "application/json; charset=utf-8";
+    }
+
+    @Override
+    public String sequenceContentType() {
+        return "application/x-ndjson; charset=utf-8";
+    }
+
+    // ---- 编码 ----
+
+    @Override
+    protected void encodeBeginObject() throws IOException {
+        beforeValue();
+        writeByte('{');
+        firstInScope[depth] = true;
+    }
+
+    @Override
+    protected void encodeEndObject() throws IOException {
+        writeByte('}');
+    }
+
+    @Override
+    protected void encodeBeginArray() throws IOException {
+        beforeValue();
+        writeByte('[');
+        firstInScope[depth] = true;
+    }
+
+    @Override
+    protected void encodeEndArray() throws IOException {
+        writeByte(']');
+    }
+
+    @Override
+    protected void encodeName(String name) throws IOException {
+        if (depth > 0) {
+            if (!firstInScope[depth - 1]) {
+                writeByte(',');
+            }
+            firstInScope[depth - 1] = false;
+        }
+        writeString(name);
+        writeByte(':');
+        afterName = true;
+    }
+
+    @Override
+    protected void encodeString(String value) throws IOException {
+        beforeValue();
+        writeString(value);
+    }
+
+    @Override
+    protected void encodeBoolean(boolean value) throws IOException {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE);
+    }
+
+    @Override
+    protected void encodeLong(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+    }
+
+    @Override
+    protected void encodeDouble(double value) throws IOException {
+        beforeValue();
+        writeDouble(value);
+    }
+
+    @Override
+    protected void encodeNull() throws IOException {
+        beforeValue();
+        writeBytes(NULL);
+    }
+
+    @Override
+    protected void encodeRecordSeparator() throws IOException {
+        writeByte('\n');
+    }
+
+    // ---- 内部实现 ----
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (!firstInScope[depth - 1]) {
+                writeByte(',');
+            }
+            firstInScope[depth - 1] = false;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': writeByte('\\'); writeByte('"'); break;
+                case '\\': writeByte('\\'); writeByte('\\'); break;
+                case '\n': writeByte('\\'); writeByte('n'); break;
+                case '\r': writeByte('\\'); writeByte('r'); break;
+                case '\t': writeByte('\\'); writeByte('t'); break;
+                case '\b': writeByte('\\'); writeByte('b'); break;
+                case '\f': writeByte('\\'); writeByte('f'); break;
+                case '\u2028':
+                case '\u2029':
+                    // JSON合法但会破坏嵌入到JavaScript中的输出
+                    writeUnicodeEscape(c);
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writeUnicodeEscape(c);
+                    } else if (c < 0x80) {
+                        writeByte(c);
+                    } else {
+                        i = writeUtf8Char(value, i, c);
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeUnicodeEscape(char c) throws IOException {
+        writeByte('\\');
+        writeByte('u');
+        writeByte(HEX[(c >> 12) & 0xF]);
+        writeByte(HEX[(c >> 8) & 0xF]);
+        writeByte(HEX[(c >> 4) & 0xF]);
+        writeByte(HEX[c & 0xF]);
+    }
+
+    /**
+     * 不转义地写入ASCII，用于 Double.toString 的结果
+     */
+    private void writeAscii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        while (count > 0) {
+            writeByte(digits[--count]);
+        }
+    }
+
+    /**
+     * 最多6位小数且能精确还原的值按定点写出（与 Double.toString 的结果一致，如 12.0、0.25）；
+     * 其他值退回 Double.toString
+     */
+    private void writeDouble(double value) throws IOException {
+        double abs = Math.abs(value);
+        if (abs >= 1e-3 && abs < 1e7 || value == 0) {
+            for (int scale = 1; scale < POWERS_OF_TEN.length; scale++) {
+                long factor = POWERS_OF_TEN[scale];
+                long scaled = Math.round(abs * factor);
+                if ((double) scaled / factor == abs) {
+                    if (value < 0 || (value == 0 && 1 / value < 0)) {
+                        writeByte('-');
+                    }
+                    writeLong(scaled / factor);
+                    writeByte('.');
+                    long fraction = scaled % factor;
+                    // 去掉末尾的0，但至少保留一位小数
+                    int fractionDigits = scale;
+                    while (fractionDigits > 1 && fraction % 10 == 0) {
+                        fraction /= 10;
+                        fractionDigits--;
+                    }
+                    for (int d = fractionDigits - 1; d >= 0; d--) {
+                        writeByte('0' + (int) (fraction / POWERS_OF_TEN[d] % 10));
+                    }
+                    return;
+                }
+            }
+        }
+        writeAscii(Double.toString(value));
+    }
+}
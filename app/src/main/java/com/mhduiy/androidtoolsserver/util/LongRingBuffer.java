@@ -0,0 +1,61 @@
+package com.mhduiy.androidtoolsserver.util;
+
+/**
+ * 固定容量的 long 环形缓冲区，写满后覆盖最旧的数据，添加元素不分配对象
+ * 非线程安全，由调用方负责同步
+ */
+public class LongRingBuffer {
+    private final long[] values;
+    private int head = 0; // 下一个写入位置
+    private int size = 0;
+
+    public LongRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        values = new long[capacity];
+    }
+
+    public void add(long value) {
+        values[head] = value;
+        head = (head + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    /**
+     * 按时间顺序获取元素
+     * @param index 0表示最旧的元素
+     */
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return values[(head - size + index + values.length) % values.length];
+    }
+
+    /**
+     * 获取最新的元素，缓冲区为空时返回defaultValue
+     */
+    public long last(long defaultValue) {
+        return size > 0 ? values[(head - 1 + values.length) % values.length] : defaultValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
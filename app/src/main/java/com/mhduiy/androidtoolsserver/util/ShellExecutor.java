@@ -0,0 +1,536 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 常驻 shell 执行器
+ * 维护少量长期运行的 sh 进程，命令通过标准输入写入，输出以哨兵行分帧，
+ * 避免每次请求都 fork/exec 一个新的 sh。
+ * 每条命令有超时和输出大小限制；超时的会话连同其子进程一起被杀死并重建，
+ * 命令结束后残留的后台子进程也会被清理
+ */
+public class ShellExecutor {
+    private static final String TAG = "ShellExecutor";
+
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_MAX_OUTPUT = 1024 * 1024; // 字符数
+
+    private static final int POOL_SIZE = 2;
+    private static final long ACQUIRE_TIMEOUT_MS = 10000;
+    // 新会话回显 pid 的最长等待时间
+    private static final long HANDSHAKE_TIMEOUT_MS = 3000;
+
+    // 内核是否提供 /proc/<pid>/task/<pid>/children (CONFIG_PROC_CHILDREN)，没有时扫描各进程 stat 中的 ppid
+    private static volatile Boolean procChildren;
+    // 没有 children 文件时，不含 '&' 的命令成功结束后全量扫描 /proc 的最小间隔
+    private static final long ORPHAN_SCAN_INTERVAL_MS = 30000;
+    private static volatile long lastOrphanScan = 0;
+
+    private static volatile ShellExecutor instance;
+
+    /**
+     * 命令执行结果
+     */
+    public static class CommandResult {
+        public String output = "";
+        public int exitCode = -1;
+        public boolean timedOut = false;
+        public boolean truncated = false;
+        public long durationMs = 0;
+
+        public boolean isSuccess() {
+            return !timedOut && exitCode == 0;
+        }
+    }
+
+    /**
+     * 按命令名聚合的延迟统计
+     */
+    public static class CommandStats {
+        public String command;
+        public long count;
+        public long failures;
+        public long timeouts;
+        public long totalMs;
+        public long maxMs;
+        public long lastMs;
+
+        public double getAverageMs() {
+            return count > 0 ? (double) totalMs / count : 0;
+        }
+    }
+
+    /**
+     * 执行器整体统计
+     */
+    public static class ExecutorStats {
+        public int poolSize;
+        public int idleSessions;
+        public long sessionsStarted;
+        public long commandCount;
+        public long failureCount;
+        public long timeoutCount;
+        public long truncatedCount;
+        public long orphansKilled;
+        public long totalMs;
+        public long maxMs;
+        public List<CommandStats> commands = new ArrayList<>();
+    }
+
+    private final BlockingQueue<ShellSession> idle = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ShellWatchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger sessionIds = new AtomicInteger();
+    private final Map<String, CommandStats> commandStats = new LinkedHashMap<>();
+    private final ExecutorStats totals = new ExecutorStats();
+    private volatile boolean closed = false;
+
+    public static ShellExecutor getInstance() {
+        if (instance == null) {
+            synchronized (ShellExecutor.class) {
+                if (instance == null) {
+                    instance = new ShellExecutor(POOL_SIZE);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private ShellExecutor(int poolSize) {
+        totals.poolSize = poolSize;
+        for (int i = 0; i < poolSize; i++) {
+            ShellSession session = newSession();
+            if (session != null) {
+                idle.offer(session);
+            }
+        }
+    }
+
+    /**
+     * 执行命令，使用默认超时和输出限制
+     * @return 命令输出（已去除首尾空白），失败或超时返回null
+     */
+    public String run(String command) {
+        CommandResult result = execute(command, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_OUTPUT);
+        return result.timedOut || result.exitCode < 0 ? null : result.output;
+    }
+
+    /**
+     * 执行命令
+     * @param command shell命令
+     * @param timeoutMs 超时时间，超时后杀死会话及其子进程
+     * @param maxOutput 最大输出字符数，超出部分丢弃
+     */
+    public CommandResult execute(String command, long timeoutMs, int maxOutput) {
+        CommandResult result = new CommandResult();
+        long start = System.nanoTime();
+
+        ShellSession session = acquire();
+        if (session == null) {
+            Logger.w(TAG, "No shell session available for: " + command);
+            result.durationMs = (System.nanoTime() - start) / 1_000_000L;
+            record(command, result);
+            return result;
+        }
+
+        boolean healthy = false;
+        try {
+            healthy = session.run(command, timeoutMs, maxOutput, result);
+        } catch (IOException e) {
+            Logger.d(TAG, "Shell session " + session.id + " failed: " + e.getMessage());
+        } finally {
+            release(session, healthy);
+        }
+
+        result.durationMs = (System.nanoTime() - start) / 1_000_000L;
+        record(command, result);
+        return result;
+    }
+
+    public void close() {
+        closed = true;
+        watchdog.shutdownNow();
+        ShellSession session;
+        while ((session = idle.poll()) != null) {
+            session.kill();
+        }
+    }
+
+    public ExecutorStats getStats() {
+        synchronized (commandStats) {
+            ExecutorStats stats = new ExecutorStats();
+            stats.poolSize = totals.poolSize;
+            stats.idleSessions = idle.size();
+            stats.sessionsStarted = sessionIds.get();
+            stats.commandCount = totals.commandCount;
+            stats.failureCount = totals.failureCount;
+            stats.timeoutCount = totals.timeoutCount;
+            stats.truncatedCount = totals.truncatedCount;
+            stats.orphansKilled = totals.orphansKilled;
+            stats.totalMs = totals.totalMs;
+            stats.maxMs = totals.maxMs;
+            for (CommandStats source : commandStats.values()) {
+                CommandStats copy = new CommandStats();
+                copy.command = source.command;
+                copy.count = source.count;
+                copy.failures = source.failures;
+                copy.timeouts = source.timeouts;
+                copy.totalMs = source.totalMs;
+                copy.maxMs = source.maxMs;
+                copy.lastMs = source.lastMs;
+                stats.commands.add(copy);
+            }
+            return stats;
+        }
+    }
+
+    private ShellSession acquire() {
+        try {
+            ShellSession session = idle.poll(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (session == null && !closed) {
+                // 所有会话都被长命令占用，临时创建一个
+                return newSession();
+            }
+            return session;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void release(ShellSession session, boolean healthy) {
+        if (healthy && !closed && idle.size() < totals.poolSize) {
+            idle.offer(session);
+            return;
+        }
+
+        session.kill();
+        if (!closed && idle.size() < totals.poolSize) {
+            ShellSession replacement = newSession();
+            if (replacement != null) {
+                idle.offer(replacement);
+            }
+        }
+    }
+
+    private ShellSession newSession() {
+        try {
+            return new ShellSession(sessionIds.incrementAndGet());
+        } catch (IOException | RejectedExecutionException e) {
+            Logger.e(TAG, "Failed to start shell session: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void record(String command, CommandResult result) {
+        String name = commandName(command);
+        synchronized (commandStats) {
+            CommandStats stats = commandStats.get(name);
+            if (stats == null) {
+                stats = new CommandStats();
+                stats.command = name;
+                commandStats.put(name, stats);
+            }
+            stats.count++;
+            stats.totalMs += result.durationMs;
+            stats.lastMs = result.durationMs;
+            stats.maxMs = Math.max(stats.maxMs, result.durationMs);
+
+            totals.commandCount++;
+            totals.totalMs += result.durationMs;
+            totals.maxMs = Math.max(totals.maxMs, result.durationMs);
+            if (result.timedOut) {
+                stats.timeouts++;
+                totals.timeoutCount++;
+            }
+            if (!result.isSuccess()) {
+                stats.failures++;
+                totals.failureCount++;
+            }
+            if (result.truncated) {
+                totals.truncatedCount++;
+            }
+        }
+    }
+
+    private void recordOrphans(int count) {
+        synchronized (commandStats) {
+            totals.orphansKilled += count;
+        }
+    }
+
+    /**
+     * 统计按命令名（第一个单词加上dumpsys的服务名）聚合，避免参数导致统计项无限增长
+     */
+    private static String commandName(String command) {
+        String[] parts = command.trim().split("\\s+", 3);
+        if (parts.length >= 2 && "dumpsys".equals(parts[0])) {
+            return parts[0] + " " + parts[1];
+        }
+        return parts[0];
+    }
+
+    /**
+     * 单个常驻sh进程
+     */
+    private class ShellSession {
+        final int id;
+        final Process process;
+        final OutputStream stdin;
+        final BufferedReader stdout;
+        final int shellPid;
+        int sequence = 0;
+        // 超时后由看门狗在杀进程之前置位，之后该会话不再复用
+        volatile boolean broken = false;
+
+        ShellSession(int id) throws IOException {
+            this.id = id;
+            this.process = new ProcessBuilder("sh").start();
+            this.stdin = process.getOutputStream();
+            this.stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+            // 丢弃stderr，避免缓冲区写满阻塞，然后取得sh自身的pid用于清理子进程
+            // sh 卡住时由看门狗销毁进程，readLine 随即返回
+            ScheduledFuture<?> handshake = watchdog.schedule(process::destroy, HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            String pidLine;
+            try {
+                write("exec 2>/dev/null\necho $$\n");
+                pidLine = stdout.readLine();
+            } catch (IOException e) {
+                process.destroy();
+                throw e;
+            } finally {
+                handshake.cancel(false);
+            }
+            if (pidLine == null) {
+                process.destroy();
+                throw new IOException("No handshake from shell within " + HANDSHAKE_TIMEOUT_MS + "ms");
+            }
+            process.getErrorStream().close();
+            int pid = -1;
+            try {
+                pid = pidLine != null ? Integer.parseInt(pidLine.trim()) : -1;
+            } catch (NumberFormatException e) {
+                Logger.w(TAG, "Unexpected shell pid line: " + pidLine);
+            }
+            this.shellPid = pid;
+            Logger.d(TAG, "Shell session " + id + " started, pid " + shellPid);
+        }
+
+        /**
+         * @return 会话是否仍可复用
+         */
+        boolean run(String command, long timeoutMs, int maxOutput, CommandResult result) throws IOException {
+            String sentinel = "__ATS_END_" + id + "_" + (++sequence) + "__";
+            AtomicBoolean timedOut = new AtomicBoolean(false);
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                broken = true;
+                timedOut.set(true);
+                Logger.w(TAG, "Command timed out after " + timeoutMs + "ms: " + command);
+                kill();
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+
+            try {
+                // 命令标准输入重定向到/dev/null，防止读取会话的命令流
+                // 哨兵前补一个换行，保证没有以换行结尾的输出也不会和哨兵粘在同一行
+                write(command + " </dev/null\nprintf '\\n" + sentinel + " %d\\n' $?\n");
+
+                StringBuilder output = new StringBuilder();
+                String line;
+                while ((line = stdout.readLine()) != null) {
+                    if (line.startsWith(sentinel)) {
+                        result.exitCode = parseExitCode(line.substring(sentinel.length()).trim());
+                        break;
+                    }
+                    if (output.length() + line.length() + 1 > maxOutput) {
+                        // 超出限制后继续读取直到哨兵，保持分帧同步
+                        result.truncated = true;
+                        continue;
+                    }
+                    output.append(line).append('\n');
+                }
+                result.output = output.toString().trim();
+
+                if (line == null) {
+                    // sh已退出（被超时杀死或命令调用了exit）
+                    return false;
+                }
+            } finally {
+                // 取消失败说明看门狗已开始执行，杀进程可能仍在进行，会话不能放回池中
+                if (!timeout.cancel(false)) {
+                    broken = true;
+                    timedOut.set(true);
+                }
+                result.timedOut = timedOut.get();
+            }
+
+            if (broken) {
+                return false;
+            }
+            killOrphans(command);
+            return true;
+        }
+
+        void write(String text) throws IOException {
+            stdin.write(text.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+        }
+
+        /**
+         * 杀死命令残留的子进程（例如以&启动的后台任务）
+         * 需要全量扫描 /proc 时，只对含 '&' 的命令每次扫描，其他命令按 ORPHAN_SCAN_INTERVAL_MS 限频兜底
+         */
+        void killOrphans(String command) {
+            if (shellPid <= 0) return;
+            if (!hasProcChildren()) {
+                long now = System.currentTimeMillis();
+                if (command.indexOf('&') < 0 && now - lastOrphanScan < ORPHAN_SCAN_INTERVAL_MS) {
+                    return;
+                }
+                lastOrphanScan = now;
+            }
+            int killed = killChildren(shellPid);
+            if (killed > 0) {
+                recordOrphans(killed);
+                Logger.w(TAG, "Killed " + killed + " leftover child process(es) of shell " + shellPid);
+            }
+        }
+
+        void kill() {
+            broken = true;
+            if (shellPid > 0) {
+                killChildren(shellPid);
+            }
+            process.destroy();
+            try {
+                stdin.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    private static int parseExitCode(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 杀死 pid 的所有子进程及其后代
+     * @return 直接子进程数
+     */
+    private static int killChildren(int pid) {
+        // 没有 children 文件时一次扫描建立整棵进程树，递归时复用
+        Map<Integer, List<Integer>> tree = hasProcChildren() ? null : scanProcessTree();
+        List<Integer> children = findChildren(pid, tree);
+        for (int child : children) {
+            killTree(child, tree);
+        }
+        return children.size();
+    }
+
+    private static void killTree(int pid, Map<Integer, List<Integer>> tree) {
+        for (int child : findChildren(pid, tree)) {
+            killTree(child, tree);
+        }
+        android.os.Process.killProcess(pid);
+    }
+
+    /**
+     * 直接子进程: 读取 /proc/<pid>/task/<pid>/children，或从 scanProcessTree 的结果中查找
+     */
+    private static List<Integer> findChildren(int pid, Map<Integer, List<Integer>> tree) {
+        List<Integer> children = new ArrayList<>();
+        if (tree != null) {
+            List<Integer> scanned = tree.get(pid);
+            if (scanned != null) {
+                children.addAll(scanned);
+            }
+            return children;
+        }
+        String content = FileUtils.readFile("/proc/" + pid + "/task/" + pid + "/children");
+        if (content == null || content.isEmpty()) {
+            return children;
+        }
+        for (String part : content.trim().split("\\s+")) {
+            try {
+                children.add(Integer.parseInt(part));
+            } catch (NumberFormatException e) {
+                // 忽略
+            }
+        }
+        return children;
+    }
+
+    private static boolean hasProcChildren() {
+        Boolean supported = procChildren;
+        if (supported == null) {
+            int self = android.os.Process.myPid();
+            supported = new File("/proc/" + self + "/task/" + self + "/children").exists();
+            procChildren = supported;
+            if (!supported) {
+                Logger.i(TAG, "No /proc children files, scanning /proc/*/stat for child processes");
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * 扫描 /proc 下各进程的 stat，按 ppid 分组
+     * stat 格式为 "pid (comm) state ppid ..."，comm 可能含空格和括号，从最后一个 ')' 之后解析
+     */
+    private static Map<Integer, List<Integer>> scanProcessTree() {
+        Map<Integer, List<Integer>> tree = new HashMap<>();
+        String[] entries = new File("/proc").list();
+        if (entries == null) {
+            return tree;
+        }
+        for (String entry : entries) {
+            if (entry.isEmpty() || !Character.isDigit(entry.charAt(0))) continue;
+            String stat = FileUtils.readFile("/proc/" + entry + "/stat");
+            if (stat == null) continue;
+            int end = stat.lastIndexOf(')');
+            if (end < 0) continue;
+            String[] fields = stat.substring(end + 1).trim().split(" ", 3);
+            if (fields.length < 2) continue;
+            try {
+                int pid = Integer.parseInt(entry);
+                int ppid = Integer.parseInt(fields[1]);
+                List<Integer> children = tree.get(ppid);
+                if (children == null) {
+                    children = new ArrayList<>();
+                    tree.put(ppid, children);
+                }
+                children.add(pid);
+            } catch (NumberFormatException e) {
+                // 忽略
+            }
+        }
+        return tree;
+    }
+}
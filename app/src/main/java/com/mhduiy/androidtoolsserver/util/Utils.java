@@ -2,8 +2,11 @@ package com.mhduiy.androidtoolsserver.util;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.util.Base64;
 
 import java.io.ByteArrayOutputStream;
@@ -37,6 +40,23 @@ public class Utils {
      * 将Drawable转换为Base64字符串，支持多种类型的Drawable
      */
     public static String drawableToBase64(Drawable drawable) {
+        byte[] bytes = drawableToPng(drawable);
+        return bytes != null ? Base64.encodeToString(bytes, Base64.NO_WRAP) : null;
+    }
+
+    /**
+     * 将Drawable渲染并压缩为PNG字节，支持多种类型的Drawable
+     */
+    public static byte[] drawableToPng(Drawable drawable) {
+        return drawableToBytes(drawable, 0, "png");
+    }
+
+    /**
+     * 将Drawable渲染为指定边长的图片并压缩
+     * @param size 目标边长(像素)，按长边等比缩放后居中，其余部分透明；小于等于0时使用原始尺寸
+     * @param format "png" 或 "webp"（无损）
+     */
+    public static byte[] drawableToBytes(Drawable drawable, int size, String format) {
         if (drawable == null) {
             return null;
         }
@@ -76,17 +96,50 @@ public class Utils {
                 return null;
             }
 
-            // 转换为Base64
+            if (size > 0 && (bitmap.getWidth() != size || bitmap.getHeight() != size)) {
+                bitmap = fitToSquare(bitmap, size);
+            }
+
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, baos);
+            bitmap.compress(toCompressFormat(format), 100, baos);
             byte[] bytes = baos.toByteArray();
 
-            Logger.d(TAG, "Bitmap compressed to " + bytes.length + " bytes");
-            return Base64.encodeToString(bytes, Base64.NO_WRAP);
+            Logger.d(TAG, "Bitmap compressed to " + bytes.length + " bytes (" + format + ", size " + size + ")");
+            return bytes;
 
         } catch (Exception e) {
-            Logger.e(TAG, "Error converting drawable to base64: " + e.getMessage(), e);
+            Logger.e(TAG, "Error converting drawable to " + format + ": " + e.getMessage(), e);
             return null;
         }
     }
+
+    /**
+     * 按长边缩放到 size，居中绘制到 size x size 的透明画布上，非正方形图标不会被拉伸
+     */
+    private static Bitmap fitToSquare(Bitmap source, int size) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int longest = Math.max(width, height);
+        int scaledWidth = Math.max(1, Math.round((float) width * size / longest));
+        int scaledHeight = Math.max(1, Math.round((float) height * size / longest));
+        int left = (size - scaledWidth) / 2;
+        int top = (size - scaledHeight) / 2;
+
+        Bitmap square = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(square);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
+        canvas.drawBitmap(source, null, new Rect(left, top, left + scaledWidth, top + scaledHeight), paint);
+        return square;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat toCompressFormat(String format) {
+        if ("webp".equals(format)) {
+            // WEBP_LOSSLESS 从 API 30 开始提供，旧版本的 WEBP 在质量100时接近无损
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSLESS
+                : Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.PNG;
+    }
 }
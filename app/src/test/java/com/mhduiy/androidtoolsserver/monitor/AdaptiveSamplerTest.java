@@ -0,0 +1,119 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 自适应间隔：变化或告警时减半到下限，平稳时每次增加 1/4 到上限；固定模式不调整
+ */
+public class AdaptiveSamplerTest {
+
+    private static AdaptiveSampler adaptive() {
+        AdaptiveSampler sampler = new AdaptiveSampler("cpu", "cpu.usage", 1000, 100, 60_000, 0);
+        sampler.configure(true, 250, 4000, 5);
+        return sampler;
+    }
+
+    @Test
+    public void fixedMode_keepsBaseInterval() {
+        AdaptiveSampler sampler = new AdaptiveSampler("cpu", "cpu.usage", 1000, 250, 4000, 5);
+        sampler.update(10, false);
+        sampler.update(90, true);
+        sampler.update(90, false);
+
+        assertEquals(1000, sampler.getIntervalMs());
+        AdaptiveSampler.Stats stats = sampler.getStats();
+        assertFalse(stats.adaptive);
+        assertEquals(3, stats.samples);
+        assertEquals(0, stats.shrinks);
+        assertEquals(0, stats.grows);
+    }
+
+    @Test
+    public void change_halvesIntervalDownToFloor() {
+        AdaptiveSampler sampler = adaptive();
+        sampler.update(10, false);
+        assertEquals(1250, sampler.getIntervalMs());
+
+        sampler.update(30, false);
+        assertEquals(625, sampler.getIntervalMs());
+        sampler.update(50, false);
+        assertEquals(312, sampler.getIntervalMs());
+        sampler.update(70, false);
+        assertEquals(250, sampler.getIntervalMs());
+        sampler.update(90, false);
+        assertEquals(250, sampler.getIntervalMs());
+        // 已在下限时不再计入减半次数
+        assertEquals(3, sampler.getStats().shrinks);
+    }
+
+    @Test
+    public void steadyValues_growByQuarterUpToCeiling() {
+        AdaptiveSampler sampler = adaptive();
+        long previous = sampler.getIntervalMs();
+        for (int i = 0; i < 20; i++) {
+            // 变化不超过阈值视为平稳
+            sampler.update(50 + (i % 2) * 5, false);
+            long interval = sampler.getIntervalMs();
+            assertEquals(Math.min(4000, previous + previous / 4), interval);
+            previous = interval;
+        }
+        assertEquals(4000, sampler.getIntervalMs());
+    }
+
+    @Test
+    public void alerting_shrinksEvenWhenSteady() {
+        AdaptiveSampler sampler = adaptive();
+        sampler.update(50, false);
+        sampler.update(50, true);
+        assertEquals(625, sampler.getIntervalMs());
+        sampler.update(50, true);
+        assertEquals(312, sampler.getIntervalMs());
+    }
+
+    @Test
+    public void configure_clampsBoundsAndResets() {
+        AdaptiveSampler sampler = adaptive();
+        sampler.update(10, false);
+        sampler.update(90, false);
+
+        sampler.configure(true, 1, 1_000_000, -1);
+        AdaptiveSampler.Stats stats = sampler.getStats();
+        assertEquals(AdaptiveSampler.MIN_INTERVAL_MS, stats.floorMs);
+        assertEquals(AdaptiveSampler.MAX_INTERVAL_MS, stats.ceilingMs);
+        assertEquals(0.0, stats.changeThreshold, 0);
+        assertEquals(1000, stats.intervalMs);
+        assertEquals(0, stats.samples);
+        assertEquals(0, stats.shrinks);
+
+        // 下限大于上限时上限取下限
+        sampler.configure(true, 2000, 500, 0);
+        assertEquals(2000, sampler.getStats().ceilingMs);
+        assertEquals(2000, sampler.getIntervalMs());
+    }
+
+    @Test
+    public void scheduling_followsCurrentInterval() {
+        AdaptiveSampler sampler = adaptive();
+        assertTrue(sampler.isDue(0));
+
+        sampler.scheduleNext(10_000);
+        assertEquals(11_000, sampler.getNextDue());
+        assertFalse(sampler.isDue(10_999));
+        assertTrue(sampler.isDue(11_000));
+
+        sampler.update(10, false);
+        sampler.update(90, false);
+        sampler.scheduleNext(11_000);
+        assertEquals(11_625, sampler.getNextDue());
+    }
+
+    @Test
+    public void cost_isAveragedOverCostedSamples() {
+        AdaptiveSampler sampler = adaptive();
+        sampler.addCost(2_000_000);
+        sampler.addCost(4_000_000);
+        assertEquals(3.0, sampler.getStats().sampleCostMs, 1e-9);
+    }
+}
@@ -0,0 +1,185 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 规则状态机：持续时间、回差区间和事件序号
+ */
+public class AlertEngineTest {
+    private TimeSeriesStore.Series cpu;
+    private TimeSeriesStore.Series temperature;
+    private AlertEngine engine;
+
+    @Before
+    public void setUp() {
+        TimeSeriesStore store = new TimeSeriesStore(16);
+        cpu = store.define("cpu.usage", "%");
+        temperature = store.define("battery.temperature", "°C");
+        store.freeze();
+        engine = new AlertEngine(store);
+    }
+
+    @Test
+    public void zeroDuration_firesOnFirstBreach() {
+        AlertEngine.Rule rule = engine.addRule(null, "cpu.usage", true, 80, 80, 0);
+        assertEquals("cpu.usage > 80.0", rule.name);
+
+        engine.evaluate(cpu.id, 1000, 80);
+        assertEquals(AlertEngine.STATE_OK, state(rule.id));
+        engine.evaluate(cpu.id, 2000, 81);
+
+        assertEquals(AlertEngine.STATE_FIRING, state(rule.id));
+        List<AlertEngine.Event> events = engine.getEvents(0);
+        assertEquals(1, events.size());
+        assertEquals(1, events.get(0).seq);
+        assertEquals(AlertEngine.STATE_FIRING, events.get(0).state);
+        assertEquals(81.0, events.get(0).value, 0);
+        assertEquals(2000, events.get(0).timestamp);
+    }
+
+    @Test
+    public void duration_requiresSustainedBreach() {
+        AlertEngine.Rule rule = engine.addRule("hot", "cpu.usage", true, 80, 80, 1000);
+
+        engine.evaluate(cpu.id, 0, 90);
+        assertEquals(AlertEngine.STATE_PENDING, state(rule.id));
+        engine.evaluate(cpu.id, 500, 95);
+        assertEquals(AlertEngine.STATE_PENDING, state(rule.id));
+        // 持续时间未满就恢复，回到 ok 且不产生事件
+        engine.evaluate(cpu.id, 800, 50);
+        assertEquals(AlertEngine.STATE_OK, state(rule.id));
+        assertEquals(0, engine.getLastSeq());
+
+        engine.evaluate(cpu.id, 1000, 90);
+        engine.evaluate(cpu.id, 1999, 90);
+        assertEquals(AlertEngine.STATE_PENDING, state(rule.id));
+        engine.evaluate(cpu.id, 2000, 90);
+        assertEquals(AlertEngine.STATE_FIRING, state(rule.id));
+        assertEquals(1, engine.getLastSeq());
+    }
+
+    @Test
+    public void hysteresis_preventsFlapping() {
+        AlertEngine.Rule rule = engine.addRule("hot", "cpu.usage", true, 80, 70, 0);
+
+        engine.evaluate(cpu.id, 0, 85);
+        // 回差区间内抖动保持 firing
+        engine.evaluate(cpu.id, 1000, 75);
+        engine.evaluate(cpu.id, 2000, 79);
+        engine.evaluate(cpu.id, 3000, 71);
+        assertEquals(AlertEngine.STATE_FIRING, state(rule.id));
+        assertEquals(1, engine.getLastSeq());
+
+        // 等于恢复阈值即恢复
+        engine.evaluate(cpu.id, 4000, 70);
+        assertEquals(AlertEngine.STATE_OK, state(rule.id));
+        engine.evaluate(cpu.id, 5000, 78);
+        assertEquals(AlertEngine.STATE_OK, state(rule.id));
+        engine.evaluate(cpu.id, 6000, 90);
+
+        List<AlertEngine.Event> events = engine.getEvents(0);
+        assertEquals(3, events.size());
+        assertEquals(AlertEngine.STATE_RESOLVED, events.get(1).state);
+        assertEquals(70.0, events.get(1).threshold, 0);
+        assertEquals(AlertEngine.STATE_FIRING, events.get(2).state);
+        assertEquals(2, engine.getRules().get(0).fireCount);
+    }
+
+    @Test
+    public void belowRule_firesUnderThreshold() {
+        AlertEngine.Rule rule = engine.addRule("cold", "battery.temperature", false, 10, 15, 0);
+
+        engine.evaluate(temperature.id, 0, 9);
+        assertEquals(AlertEngine.STATE_FIRING, state(rule.id));
+        engine.evaluate(temperature.id, 1000, 14);
+        assertEquals(AlertEngine.STATE_FIRING, state(rule.id));
+        engine.evaluate(temperature.id, 2000, 15);
+        assertEquals(AlertEngine.STATE_OK, state(rule.id));
+    }
+
+    @Test
+    public void clear_isClampedToRecoverySide() {
+        AlertEngine.Rule above = engine.addRule("a", "cpu.usage", true, 80, 90, 0);
+        AlertEngine.Rule below = engine.addRule("b", "battery.temperature", false, 10, 5, 0);
+        assertEquals(80.0, above.clear, 0);
+        assertEquals(10.0, below.clear, 0);
+    }
+
+    @Test
+    public void rules_onlySeeTheirSeries() {
+        AlertEngine.Rule rule = engine.addRule("hot", "cpu.usage", true, 80, 80, 0);
+
+        engine.evaluate(temperature.id, 0, 99);
+        assertEquals(AlertEngine.STATE_OK, state(rule.id));
+        assertFalse(engine.isActive(temperature.id));
+
+        engine.evaluate(cpu.id, 0, 99);
+        assertTrue(engine.isActive(cpu.id));
+        assertFalse(engine.isActive(temperature.id));
+    }
+
+    @Test
+    public void addRule_rejectsUnknownMetric() {
+        assertNull(engine.addRule(null, "no.such.metric", true, 1, 1, 0));
+        assertTrue(engine.getRules().isEmpty());
+    }
+
+    @Test
+    public void removeRule_stopsEvaluation() {
+        AlertEngine.Rule rule = engine.addRule("hot", "cpu.usage", true, 80, 80, 0);
+        assertTrue(engine.removeRule(rule.id));
+        assertFalse(engine.removeRule(rule.id));
+
+        engine.evaluate(cpu.id, 0, 99);
+        assertEquals(0, engine.getLastSeq());
+    }
+
+    @Test
+    public void events_areReadIncrementallyAndNotifyListener() {
+        List<Long> notified = new ArrayList<>();
+        engine.setListener(event -> notified.add(event.seq));
+        engine.addRule("hot", "cpu.usage", true, 80, 80, 0);
+
+        for (int i = 0; i < 3; i++) {
+            engine.evaluate(cpu.id, i * 2000L, 90);
+            engine.evaluate(cpu.id, i * 2000L + 1000, 50);
+        }
+
+        assertEquals(6, engine.getLastSeq());
+        assertEquals(6, notified.size());
+        List<AlertEngine.Event> after = engine.getEvents(4);
+        assertEquals(2, after.size());
+        assertEquals(5, after.get(0).seq);
+        assertEquals(6, after.get(1).seq);
+        assertTrue(engine.getEvents(6).isEmpty());
+    }
+
+    @Test
+    public void events_overwrittenInRingAreSkipped() {
+        engine.addRule("hot", "cpu.usage", true, 80, 80, 0);
+        int transitions = AlertEngine.EVENT_CAPACITY + 10;
+        for (int i = 0; i < transitions; i++) {
+            engine.evaluate(cpu.id, i * 1000L, i % 2 == 0 ? 90 : 50);
+        }
+
+        List<AlertEngine.Event> events = engine.getEvents(0);
+        assertEquals(AlertEngine.EVENT_CAPACITY, events.size());
+        assertEquals(11, events.get(0).seq);
+        assertEquals(transitions, events.get(events.size() - 1).seq);
+    }
+
+    private String state(int ruleId) {
+        for (AlertEngine.Rule rule : engine.getRules()) {
+            if (rule.id == ruleId) {
+                return rule.state;
+            }
+        }
+        throw new AssertionError("no rule #" + ruleId);
+    }
+}
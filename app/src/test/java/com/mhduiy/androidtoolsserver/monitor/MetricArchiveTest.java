@@ -0,0 +1,160 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 重启恢复：封存的分段完整读回；崩溃时未封存的分段截断到最后一个有效块；损坏的块和分段被丢弃
+ */
+public class MetricArchiveTest {
+    private static final String[] NAMES = {"cpu.usage", "memory.used"};
+    // 映射区按 4MB 预分配，崩溃时文件保持这个大小，结尾是零
+    private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final int HEADER_BYTES = 4096;
+    private static final int BLOCK_MAGIC = 0x41544231;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("metric-archive").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void sealedSegment_isReadBackAfterRestart() {
+        write(1_000_000, 3);
+
+        MetricArchive restarted = new MetricArchive(directory, NAMES);
+        assertTrue(restarted.open());
+        List<String> records = readAll(restarted);
+
+        assertEquals(Arrays.asList(
+            "cpu.usage@1000000=0.0", "memory.used@1000000=100.0",
+            "cpu.usage@1001000=1.0", "memory.used@1001000=101.0",
+            "cpu.usage@1002000=2.0", "memory.used@1002000=102.0"), records);
+        MetricArchive.Stats stats = restarted.getStats();
+        assertEquals(1, stats.segments);
+        assertEquals(1, stats.recoveredBlocks);
+        assertEquals(0, stats.corruptSegments);
+    }
+
+    @Test
+    public void unsealedSegment_isTruncatedAfterLastValidBlock() throws IOException {
+        File segment = write(1_000_000, 3);
+        long validEnd = segment.length();
+        // 模拟进程被杀：文件保持映射大小，最后一个块只写了头部的一部分
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(SEGMENT_BYTES);
+            raf.seek(validEnd);
+            raf.writeInt(BLOCK_MAGIC);
+            raf.writeInt(14 * 5);
+        }
+
+        MetricArchive restarted = new MetricArchive(directory, NAMES);
+        assertTrue(restarted.open());
+
+        assertEquals(validEnd, segment.length());
+        assertEquals(6, readAll(restarted).size());
+        assertEquals(1, restarted.getStats().recoveredBlocks);
+    }
+
+    @Test
+    public void blockWithBadChecksum_isDropped() throws IOException {
+        File first = write(1_000_000, 2);
+        File second = write(2_000_000, 2);
+        // 翻转第二个分段中第一个块负载的一个字节
+        try (RandomAccessFile raf = new RandomAccessFile(second, "rw")) {
+            raf.seek(HEADER_BYTES + 40);
+            int b = raf.read();
+            raf.seek(HEADER_BYTES + 40);
+            raf.write(b ^ 0xFF);
+        }
+
+        MetricArchive restarted = new MetricArchive(directory, NAMES);
+        assertTrue(restarted.open());
+
+        List<String> records = readAll(restarted);
+        assertEquals(4, records.size());
+        assertTrue(records.get(0).startsWith("cpu.usage@1000000="));
+        assertTrue(first.exists());
+        assertEquals(HEADER_BYTES, second.length());
+        assertEquals(1, restarted.getStats().recoveredBlocks);
+    }
+
+    @Test
+    public void segmentWithBadHeader_isDeleted() throws IOException {
+        write(1_000_000, 1);
+        File garbage = new File(directory, "metrics-5.seg");
+        try (RandomAccessFile raf = new RandomAccessFile(garbage, "rw")) {
+            raf.setLength(SEGMENT_BYTES);
+        }
+
+        MetricArchive restarted = new MetricArchive(directory, NAMES);
+        assertTrue(restarted.open());
+
+        assertFalse(garbage.exists());
+        assertEquals(1, restarted.getStats().corruptSegments);
+        assertEquals(2, readAll(restarted).size());
+    }
+
+    @Test
+    public void replay_skipsSeriesMissingFromStore() {
+        write(1_000_000, 3);
+        TimeSeriesStore store = new TimeSeriesStore(16);
+        TimeSeriesStore.Series cpu = store.define("cpu.usage", "%");
+        store.freeze();
+
+        MetricArchive restarted = new MetricArchive(directory, NAMES);
+        assertTrue(restarted.open());
+        // 只重放 since 之后的记录
+        assertEquals(4, restarted.replay(store, 1_001_000));
+
+        assertArrayEquals(new long[]{1_001_000, 1_002_000}, cpu.query(0, Long.MAX_VALUE).timestamps);
+        assertEquals(4, restarted.getStats().replayed);
+    }
+
+    /**
+     * 写入 count 个时间点 (每秒一个，两个序列)，停止时封存为一个分段
+     */
+    private File write(long start, int count) {
+        MetricArchive archive = new MetricArchive(directory, NAMES);
+        assertTrue(archive.open());
+        archive.start();
+        for (int i = 0; i < count; i++) {
+            archive.append(0, start + i * 1000L, i);
+            archive.append(1, start + i * 1000L, 100 + i);
+        }
+        archive.stop();
+        File segment = new File(directory, "metrics-" + start + ".seg");
+        assertTrue(segment.exists());
+        return segment;
+    }
+
+    private static List<String> readAll(MetricArchive archive) {
+        List<String> records = new ArrayList<>();
+        archive.read(0, Long.MAX_VALUE, (series, timestamp, value) -> records.add(series + "@" + timestamp + "=" + value));
+        return records;
+    }
+}
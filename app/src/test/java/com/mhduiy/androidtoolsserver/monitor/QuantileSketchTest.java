@@ -0,0 +1,135 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分位数估算的相对误差、合并和平铺桶计数
+ */
+public class QuantileSketchTest {
+    // 无符号刻度每 2 倍区间 8 个桶，桶中点的相对误差不超过 2^(1/16) - 1 ≈ 4.4%
+    private static final double UNSIGNED_ERROR = 0.045;
+    // 有符号刻度每 2 倍区间 4 个桶，约 9.1%
+    private static final double SIGNED_ERROR = 0.092;
+
+    @Test
+    public void quantiles_areWithinRelativeError() {
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.unsigned(0.1));
+        for (int i = 1; i <= 1000; i++) {
+            sketch.add(i);
+        }
+
+        assertEquals(1000, sketch.getCount());
+        assertEquals(1.0, sketch.getMin(), 0);
+        assertEquals(1000.0, sketch.getMax(), 0);
+        assertEquals(500.5, sketch.getMean(), 1e-9);
+        assertRelative(500, sketch.getQuantile(0.5), UNSIGNED_ERROR);
+        assertRelative(900, sketch.getQuantile(0.9), UNSIGNED_ERROR);
+        assertRelative(990, sketch.getQuantile(0.99), UNSIGNED_ERROR);
+    }
+
+    @Test
+    public void quantiles_areClampedToExactRange() {
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.unsigned(0.1));
+        sketch.add(16.7);
+        sketch.add(16.7);
+
+        assertEquals(16.7, sketch.getQuantile(0), 0);
+        assertEquals(16.7, sketch.getQuantile(0.5), 0);
+        assertEquals(16.7, sketch.getQuantile(1), 0);
+    }
+
+    @Test
+    public void valuesBelowFloor_fallIntoZeroBin() {
+        QuantileSketch.Scale scale = QuantileSketch.unsigned(0.1);
+        assertEquals(0, scale.index(0));
+        assertEquals(0, scale.index(0.05));
+        assertEquals(0, scale.index(Double.NaN));
+        assertTrue(scale.index(0.1) > 0);
+        // 超出量程的值落入最后一个桶
+        assertEquals(QuantileSketch.BIN_COUNT - 1, scale.index(1e12));
+    }
+
+    @Test
+    public void emptySketch_reportsZero() {
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.unsigned(0.1));
+        assertEquals(0, sketch.getCount());
+        assertEquals(0.0, sketch.getMin(), 0);
+        assertEquals(0.0, sketch.getMax(), 0);
+        assertEquals(0.0, sketch.getMean(), 0);
+        assertEquals(0.0, sketch.getQuantile(0.5), 0);
+    }
+
+    @Test
+    public void merge_matchesSingleSketch() {
+        QuantileSketch.Scale scale = QuantileSketch.unsigned(0.1);
+        QuantileSketch all = new QuantileSketch(scale);
+        QuantileSketch left = new QuantileSketch(scale);
+        QuantileSketch right = new QuantileSketch(scale);
+        for (int i = 1; i <= 500; i++) {
+            all.add(i);
+            left.add(i);
+        }
+        for (int i = 501; i <= 1000; i++) {
+            all.add(i);
+            right.add(i);
+        }
+        left.merge(right);
+
+        assertEquals(all.getCount(), left.getCount());
+        assertEquals(all.getMin(), left.getMin(), 0);
+        assertEquals(all.getMax(), left.getMax(), 0);
+        assertEquals(all.getMean(), left.getMean(), 1e-9);
+        for (double q : new double[]{0.01, 0.25, 0.5, 0.75, 0.95, 0.99}) {
+            assertEquals("p" + q, all.getQuantile(q), left.getQuantile(q), 0);
+        }
+    }
+
+    @Test
+    public void signedScale_keepsNegativeValuesOrdered() {
+        QuantileSketch.Scale scale = QuantileSketch.signed(1);
+        assertTrue(scale.index(-1000) < scale.index(-10));
+        assertTrue(scale.index(-10) < scale.index(0));
+        assertTrue(scale.index(0) < scale.index(10));
+        assertTrue(scale.index(10) < scale.index(1000));
+
+        QuantileSketch sketch = new QuantileSketch(scale);
+        for (int i = 0; i < 100; i++) {
+            sketch.add(-800);
+            sketch.add(300);
+        }
+        assertRelative(-800, sketch.getQuantile(0.25), SIGNED_ERROR);
+        assertRelative(300, sketch.getQuantile(0.75), SIGNED_ERROR);
+        assertEquals(-250.0, sketch.getMean(), 1e-9);
+    }
+
+    @Test
+    public void flatBins_mergeAndSaturate() {
+        QuantileSketch.Scale scale = QuantileSketch.unsigned(0.1);
+        char[] bins = new char[QuantileSketch.BIN_COUNT * 2];
+        int offset = QuantileSketch.BIN_COUNT;
+        for (int i = 0; i < 70000; i++) {
+            QuantileSketch.add(bins, offset, scale, 60);
+        }
+        QuantileSketch.add(bins, offset, scale, 5);
+
+        assertEquals(Character.MAX_VALUE, bins[offset + scale.index(60)]);
+        assertEquals(1, bins[offset + scale.index(5)]);
+        for (int i = 0; i < offset; i++) {
+            assertEquals(0, bins[i]);
+        }
+
+        QuantileSketch sketch = new QuantileSketch(scale);
+        sketch.merge(bins, offset, 5, 60, 5 + 60.0 * 70000);
+        assertEquals(Character.MAX_VALUE + 1, sketch.getCount());
+        assertEquals(5.0, sketch.getMin(), 0);
+        assertEquals(60.0, sketch.getMax(), 0);
+        assertRelative(60, sketch.getQuantile(0.5), UNSIGNED_ERROR);
+    }
+
+    private static void assertRelative(double expected, double actual, double error) {
+        assertTrue("expected " + expected + " but was " + actual,
+            Math.abs(actual - expected) <= Math.abs(expected) * error);
+    }
+}
@@ -0,0 +1,101 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按部分采样：新鲜样本缺少部分时，有 TopUp 则只补采缺少的部分，已有部分原样沿用
+ */
+public class SampleCacheTest {
+    private static final int PART_A = 1;
+    private static final int PART_B = 2;
+
+    /**
+     * 样本值记录由哪一次采样产生，便于判断是沿用还是重新采集
+     */
+    private static class Value {
+        final String a;
+        final String b;
+
+        Value(String a, String b) {
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private final List<Integer> sampled = new ArrayList<>();
+    private final List<Integer> toppedUp = new ArrayList<>();
+
+    private SampleCache<Value> newCache(boolean withTopUp) {
+        SampleCache.Sampler<Value> sampler = parts -> {
+            sampled.add(parts);
+            int n = sampled.size();
+            return new Value((parts & PART_A) != 0 ? "a" + n : null, (parts & PART_B) != 0 ? "b" + n : null);
+        };
+        if (!withTopUp) {
+            return new SampleCache<>("test", 60_000, sampler);
+        }
+        return new SampleCache<>("test", 60_000, sampler, (previous, missing) -> {
+            toppedUp.add(missing);
+            return new Value(previous.a != null ? previous.a : "a-top", previous.b != null ? previous.b : "b-top");
+        });
+    }
+
+    @Test
+    public void freshCoveringSample_isReused() {
+        SampleCache<Value> cache = newCache(true);
+        SampleCache.Sample<Value> first = cache.get(PART_A | PART_B);
+        SampleCache.Sample<Value> second = cache.get(PART_A);
+
+        assertSame(first, second);
+        assertEquals(1, sampled.size());
+        assertTrue(toppedUp.isEmpty());
+    }
+
+    @Test
+    public void missingPart_isToppedUpWithoutResampling() {
+        SampleCache<Value> cache = newCache(true);
+        SampleCache.Sample<Value> first = cache.get(PART_A);
+        SampleCache.Sample<Value> second = cache.get(PART_B);
+
+        assertEquals(1, sampled.size());
+        assertEquals(1, toppedUp.size());
+        assertEquals(PART_B, (int) toppedUp.get(0));
+        // 已有部分沿用原值，采样时间不变，代数照常递增
+        assertEquals("a1", second.value.a);
+        assertEquals("b-top", second.value.b);
+        assertEquals(first.timestamp, second.timestamp);
+        assertEquals(first.generation + 1, second.generation);
+        assertTrue(second.covers(PART_A | PART_B));
+        assertNull(first.value.b);
+    }
+
+    @Test
+    public void missingPart_withoutTopUp_resamplesUnion() {
+        SampleCache<Value> cache = newCache(false);
+        cache.get(PART_A);
+        SampleCache.Sample<Value> second = cache.get(PART_B);
+
+        assertEquals(2, sampled.size());
+        assertEquals(PART_A | PART_B, (int) sampled.get(1));
+        assertEquals("a2", second.value.a);
+        assertEquals("b2", second.value.b);
+    }
+
+    @Test
+    public void staleSample_isResampledInFull() {
+        SampleCache<Value> cache = newCache(true);
+        cache.get(PART_A | PART_B);
+        // maxAgeMs 为 0 时任何样本都已过期
+        SampleCache.Sample<Value> second = cache.get(PART_A, 0);
+
+        assertEquals(2, sampled.size());
+        assertEquals(PART_A, (int) sampled.get(1));
+        assertTrue(toppedUp.isEmpty());
+        assertEquals("a2", second.value.a);
+    }
+}
@@ -0,0 +1,159 @@
+package com.mhduiy.androidtoolsserver.monitor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 环形缓冲区的覆盖、时间范围查询、存储下游和降采样层级
+ */
+public class TimeSeriesStoreTest {
+
+    @Test
+    public void ring_overwritesOldestPoints() {
+        TimeSeriesStore store = new TimeSeriesStore(4);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        for (int i = 1; i <= 6; i++) {
+            series.add(i * 100, i);
+        }
+
+        assertEquals(4, series.size());
+        assertEquals(300, series.getOldest());
+        assertEquals(600, series.getNewest());
+        TimeSeriesStore.Points points = series.query(0, Long.MAX_VALUE);
+        assertEquals(0, points.resolution);
+        assertNull(points.mins);
+        assertArrayEquals(new long[]{300, 400, 500, 600}, points.timestamps);
+        assertArrayEquals(new double[]{3, 4, 5, 6}, points.values, 0);
+    }
+
+    @Test
+    public void query_boundsAreInclusive() {
+        TimeSeriesStore store = new TimeSeriesStore(16);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        for (int i = 1; i <= 10; i++) {
+            series.add(i * 100, i);
+        }
+
+        assertArrayEquals(new long[]{300, 400, 500}, series.query(300, 500).timestamps);
+        assertArrayEquals(new long[]{300, 400, 500}, series.query(250, 550).timestamps);
+        assertEquals(0, series.query(1100, 2000).size());
+        assertEquals(0, series.query(500, 400).size());
+    }
+
+    @Test
+    public void add_keepsTimestampsMonotonicWhenClockGoesBack() {
+        TimeSeriesStore store = new TimeSeriesStore(8);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        series.add(1000, 1);
+        series.add(900, 2);
+        series.add(1100, 3);
+
+        assertArrayEquals(new long[]{1000, 1000, 1100}, series.query(0, Long.MAX_VALUE).timestamps);
+    }
+
+    @Test
+    public void sink_receivesEveryPoint() {
+        TimeSeriesStore store = new TimeSeriesStore(8);
+        store.define("cpu.usage", "%");
+        TimeSeriesStore.Series memory = store.define("memory.used", "MB");
+        store.freeze();
+        List<String> appended = new ArrayList<>();
+        store.setSink((seriesId, timestamp, value) -> appended.add(seriesId + "@" + timestamp + "=" + value));
+
+        memory.add(100, 512);
+        memory.add(50, 513);
+
+        assertEquals(2, appended.size());
+        assertEquals("1@100=512.0", appended.get(0));
+        // 下游看到的是修正后的时间戳
+        assertEquals("1@100=513.0", appended.get(1));
+    }
+
+    @Test
+    public void rollup_aggregatesAlignedBuckets() {
+        TimeSeriesStore store = new TimeSeriesStore(64);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        // 1000..3900 每 100ms 一个点，值等于秒内序号
+        for (long t = 1000; t < 4000; t += 100) {
+            series.add(t, (t % 1000) / 100);
+        }
+
+        TimeSeriesStore.Points points = series.query(1000, Long.MAX_VALUE, 1000);
+        assertEquals(1000, points.resolution);
+        assertArrayEquals(new long[]{1000, 2000, 3000}, points.timestamps);
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(10, points.counts[i]);
+            assertEquals(0.0, points.mins[i], 0);
+            assertEquals(9.0, points.maxs[i], 0);
+            assertEquals(4.5, points.values[i], 1e-9);
+        }
+
+        TimeSeriesStore.Points coarse = series.query(1000, Long.MAX_VALUE, 10_000);
+        assertEquals(10_000, coarse.resolution);
+        assertArrayEquals(new long[]{0}, coarse.timestamps);
+        assertEquals(30, coarse.counts[0]);
+    }
+
+    @Test
+    public void rollup_includesBucketsOverlappingTheRange() {
+        TimeSeriesStore store = new TimeSeriesStore(64);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        for (long t = 0; t < 5000; t += 500) {
+            series.add(t, 1);
+        }
+
+        // [1500, 3200] 与起始于 1000、2000、3000 的桶重叠
+        assertArrayEquals(new long[]{1000, 2000, 3000}, series.query(1500, 3200, 1000).timestamps);
+    }
+
+    @Test
+    public void resolution_picksCoarsestTierNotAboveIt() {
+        TimeSeriesStore store = new TimeSeriesStore(64);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        series.add(1000, 1);
+
+        assertEquals(0, series.query(1000, Long.MAX_VALUE, 0).resolution);
+        assertEquals(0, series.query(1000, Long.MAX_VALUE, 999).resolution);
+        assertEquals(1000, series.query(1000, Long.MAX_VALUE, 5000).resolution);
+        assertEquals(10_000, series.query(1000, Long.MAX_VALUE, 59_999).resolution);
+        assertEquals(60_000, series.query(1000, Long.MAX_VALUE, 3_600_000).resolution);
+    }
+
+    @Test
+    public void query_fallsBackToTierThatStillCoversSince() {
+        TimeSeriesStore store = new TimeSeriesStore(4);
+        TimeSeriesStore.Series series = store.define("cpu.usage", "%");
+        // 每秒一个点，共 1000 秒: 原始点只剩 4 个，1s 层级保留 900 个桶
+        for (int i = 0; i < 1000; i++) {
+            series.add(i * 1000L, i);
+        }
+
+        assertEquals(996_000, series.getOldest());
+        assertEquals(0, series.getOldestRetained());
+
+        TimeSeriesStore.Points recent = series.query(996_000, Long.MAX_VALUE, 0);
+        assertEquals(0, recent.resolution);
+        assertEquals(4, recent.size());
+
+        // 原始点不覆盖 since，改用 1s 层级；1s 层级也不覆盖时改用 10s 层级
+        TimeSeriesStore.Points older = series.query(500_000, Long.MAX_VALUE, 0);
+        assertEquals(1000, older.resolution);
+        assertEquals(500_000, older.timestamps[0]);
+        TimeSeriesStore.Points oldest = series.query(0, Long.MAX_VALUE, 0);
+        assertEquals(10_000, oldest.resolution);
+        assertEquals(0, oldest.timestamps[0]);
+        assertEquals(100, oldest.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void define_afterFreeze_isRejected() {
+        TimeSeriesStore store = new TimeSeriesStore(8);
+        store.define("cpu.usage", "%");
+        store.freeze();
+        store.define("gpu.usage", "%");
+    }
+}
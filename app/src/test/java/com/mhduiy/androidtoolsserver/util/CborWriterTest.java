@@ -0,0 +1,255 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import com.mhduiy.androidtoolsserver.http.JsonPlans;
+import com.mhduiy.androidtoolsserver.monitor.AppMonitor;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * CBOR 输出与 JSON 输出是同一逻辑文档：CBOR 解码后再写成 JSON，应与直接写出的 JSON 完全一致
+ */
+public class CborWriterTest {
+
+    private interface Document {
+        void write(DocumentWriter writer) throws IOException;
+    }
+
+    @Test
+    public void summary_roundTripsThroughCbor() throws IOException {
+        Map<String, Object> summary = summary();
+        assertRoundTrip(writer -> writer.value((Object) summary));
+    }
+
+    @Test
+    public void apps_roundTripThroughCbor() throws IOException {
+        List<AppMonitor.AppBaseInfo> apps = apps(300);
+        assertRoundTrip(writer -> JsonPlans.APP.writeArray(writer, apps));
+    }
+
+    @Test
+    public void compactAndFilteredDocuments_roundTrip() throws IOException {
+        List<AppMonitor.AppBaseInfo> apps = apps(20);
+        assertRoundTrip(writer -> {
+            writer.setCompact(true).setFieldFilter(new HashSet<>(Arrays.asList("packageName", "versionCode")));
+            JsonPlans.APP.writeArray(writer, apps);
+        });
+    }
+
+    @Test
+    public void scalars_useShortestEncoding() throws IOException {
+        assertArrayEquals(bytes(0x17), encode(writer -> writer.value(23)));
+        assertArrayEquals(bytes(0x18, 0x18), encode(writer -> writer.value(24)));
+        assertArrayEquals(bytes(0x20), encode(writer -> writer.value(-1)));
+        assertArrayEquals(bytes(0x39, 0x01, 0x00), encode(writer -> writer.value(-257)));
+        assertArrayEquals(bytes(0x1B, 0x7F, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF),
+            encode(writer -> writer.value(Long.MAX_VALUE)));
+        assertArrayEquals(bytes(0x3B, 0x7F, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF),
+            encode(writer -> writer.value(Long.MIN_VALUE)));
+        // 1.5 可以无损表示为 float32
+        assertArrayEquals(bytes(0xFA, 0x3F, 0xC0, 0x00, 0x00), encode(writer -> writer.value(1.5)));
+        assertEquals(9, encode(writer -> writer.value(0.1)).length);
+        assertArrayEquals(bytes(0xF6), encode(writer -> writer.value(Double.NaN)));
+        // 字符串长度按UTF-8字节计算
+        assertArrayEquals(bytes(0x63, 0xE4, 0xB8, 0xAD), encode(writer -> writer.value("中")));
+        assertArrayEquals(bytes(0x64, 0xF0, 0x9F, 0x98, 0x80), encode(writer -> writer.value("😀")));
+    }
+
+    /**
+     * CBOR 解码后重写的 JSON 与直接写出的一致，且 CBOR 体积更小
+     */
+    private static void assertRoundTrip(Document document) throws IOException {
+        byte[] jsonBytes = encode(JsonWriter.obtain(), document);
+        byte[] cbor = encode(CborWriter.obtain(), document);
+        Object decoded = new CborReader(cbor).read();
+        String rewritten = new String(encode(JsonWriter.obtain(), writer -> writer.value(decoded)), StandardCharsets.UTF_8);
+        assertEquals(new String(jsonBytes, StandardCharsets.UTF_8), rewritten);
+        assertTrue("CBOR should be smaller than JSON", cbor.length < jsonBytes.length);
+    }
+
+    private static byte[] encode(Document document) throws IOException {
+        return encode(CborWriter.obtain(), document);
+    }
+
+    private static byte[] encode(DocumentWriter writer, Document document) throws IOException {
+        try {
+            document.write(writer);
+            return writer.toByteArray();
+        } finally {
+            writer.release();
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    private static Map<String, Object> summary() {
+        Map<String, Object> cpu = new LinkedHashMap<>();
+        cpu.put("model", "Qualcomm Technologies, Inc SM8550");
+        cpu.put("architecture", "8");
+        cpu.put("coreCount", 8);
+        cpu.put("usage", 23.57);
+        cpu.put("coreUsages", Arrays.asList(12.5, 40.0, 3.25, 0.0, 18.75, 66.67, 9.1, 100.0));
+        cpu.put("frequencies", Arrays.asList(1785, 1785, 1785, 2496, 2496, 2496, 2803, 3187));
+        cpu.put("temperature", 41);
+        cpu.put("maxFrequency", 3187);
+        cpu.put("minFrequency", 307);
+
+        Map<String, Object> gpu = new LinkedHashMap<>();
+        gpu.put("name", "Adreno (TM) 740");
+        gpu.put("vendor", "Qualcomm");
+        gpu.put("renderer", "Adreno (TM) 740");
+        gpu.put("version", "OpenGL ES 3.2 V@0676.32");
+        gpu.put("currentFrequency", 680);
+        gpu.put("maxFrequency", 719);
+        gpu.put("minFrequency", 124);
+        gpu.put("usage", 35.0);
+        gpu.put("temperature", 39);
+
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put("total", 11811160064L);
+        memory.put("available", 4521783296L);
+        memory.put("swapFree", 3221225472L);
+        memory.put("swapCached", 104857600L);
+        memory.put("freeRatio", 38.28);
+        memory.put("absFreeRatio", 12.04);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("cpu", cpu);
+        summary.put("gpu", gpu);
+        summary.put("memory", memory);
+        summary.put("empty", Collections.emptyList());
+        summary.put("missing", null);
+        summary.put("escaped", "line\n\"quoted\" ");
+        summary.put("timestamp", 1760870400123L);
+        return summary;
+    }
+
+    private static List<AppMonitor.AppBaseInfo> apps(int count) {
+        List<AppMonitor.AppBaseInfo> apps = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AppMonitor.AppBaseInfo app = new AppMonitor.AppBaseInfo();
+            app.packageName = "com.example.app" + i;
+            app.appName = i % 3 == 0 ? "应用 " + i : "Example App " + i;
+            app.versionName = "1." + (i % 10) + "." + i;
+            app.versionCode = 1000 + i;
+            app.isSystemApp = i % 4 == 0;
+            app.isEnabled = i % 7 != 0;
+            app.firstInstallTime = 1700000000000L + i * 3600_000L;
+            app.lastUpdateTime = 1750000000000L + i * 60_000L;
+            app.generation = i;
+            apps.add(app);
+        }
+        return apps;
+    }
+
+    /**
+     * 测试用的最小CBOR解码器：整数解码为 Long，浮点数为 Double，对象保持键顺序
+     */
+    private static final class CborReader {
+        private final byte[] data;
+        private int position = 0;
+
+        CborReader(byte[] data) {
+            this.data = data;
+        }
+
+        Object read() {
+            Object value = readValue();
+            assertEquals("trailing bytes", data.length, position);
+            return value;
+        }
+
+        private Object readValue() {
+            int initial = data[position++] & 0xFF;
+            int major = initial >> 5;
+            int info = initial & 0x1F;
+            switch (major) {
+                case 0:
+                    return readArgument(info);
+                case 1:
+                    return -1 - readArgument(info);
+                case 3: {
+                    int length = (int) readArgument(info);
+                    String text = new String(data, position, length, StandardCharsets.UTF_8);
+                    position += length;
+                    return text;
+                }
+                case 4: {
+                    List<Object> list = new ArrayList<>();
+                    if (info == 31) {
+                        while ((data[position] & 0xFF) != 0xFF) {
+                            list.add(readValue());
+                        }
+                        position++;
+                    } else {
+                        long length = readArgument(info);
+                        for (long i = 0; i < length; i++) {
+                            list.add(readValue());
+                        }
+                    }
+                    return list;
+                }
+                case 5: {
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    if (info == 31) {
+                        while ((data[position] & 0xFF) != 0xFF) {
+                            map.put((String) readValue(), readValue());
+                        }
+                        position++;
+                    } else {
+                        long length = readArgument(info);
+                        for (long i = 0; i < length; i++) {
+                            map.put((String) readValue(), readValue());
+                        }
+                    }
+                    return map;
+                }
+                case 7:
+                    switch (info) {
+                        case 20: return Boolean.FALSE;
+                        case 21: return Boolean.TRUE;
+                        case 22: return null;
+                        case 26: return (double) Float.intBitsToFloat((int) readFixed(4));
+                        case 27: return Double.longBitsToDouble(readFixed(8));
+                        default: throw new AssertionError("unsupported simple value " + info);
+                    }
+                default:
+                    throw new AssertionError("unsupported major type " + major);
+            }
+        }
+
+        private long readArgument(int info) {
+            if (info < 24) return info;
+            if (info == 24) return readFixed(1);
+            if (info == 25) return readFixed(2);
+            if (info == 26) return readFixed(4);
+            if (info == 27) return readFixed(8);
+            throw new AssertionError("unsupported argument " + info);
+        }
+
+        private long readFixed(int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
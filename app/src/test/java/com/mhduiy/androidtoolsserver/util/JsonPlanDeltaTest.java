@@ -0,0 +1,67 @@
+package com.mhduiy.androidtoolsserver.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * 增量比较只读取掩码内的字段
+ */
+public class JsonPlanDeltaTest {
+
+    private static class Sample {
+        int usage;
+        int[] cores;
+    }
+
+    private int encoded = 0;
+
+    private JsonPlan<Sample> plan() {
+        return JsonPlan.builder(Sample.class)
+            .addInt("usage", sample -> sample.usage)
+            .addCustom("cores", (writer, sample) -> {
+                encoded++;
+                writer.beginArray();
+                for (int core : sample.cores) {
+                    writer.value(core);
+                }
+                writer.endArray();
+            })
+            .build();
+    }
+
+    @Test
+    public void update_reportsChangedFields() throws IOException {
+        JsonPlan<Sample> plan = plan();
+        JsonPlan<Sample>.Delta delta = plan.newDelta();
+        Sample sample = sample(10, 1, 2);
+
+        assertEquals(0b11, delta.update(sample));
+        assertEquals(0, delta.update(sample(10, 1, 2)));
+        assertEquals(0b10, delta.update(sample(10, 1, 3)));
+        assertEquals(0b01, delta.update(sample(11, 1, 3)));
+    }
+
+    @Test
+    public void update_skipsFieldsOutsideMask() throws IOException {
+        JsonPlan<Sample> plan = plan();
+        JsonPlan<Sample>.Delta delta = plan.newDelta();
+        long mask = plan.maskOf(Collections.singleton("usage"));
+
+        assertEquals(mask, delta.update(sample(10, 1, 2), mask));
+        assertEquals(0, delta.update(sample(10, 5, 6), mask));
+        assertEquals(mask, delta.update(sample(20, 5, 6), mask));
+        // 被排除的自定义字段从未编码
+        assertEquals(0, encoded);
+    }
+
+    private static Sample sample(int usage, int... cores) {
+        Sample sample = new Sample();
+        sample.usage = usage;
+        sample.cores = cores;
+        return sample;
+    }
+}